@@ -0,0 +1,196 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.aci.ACIItemParser;
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.authz.support.ACDFEngine;
+import org.apache.directory.server.core.authz.support.AciContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the ACDFEngine permission check done by the ACI interceptor
+ * when an entry is read. The tuples are built from a set of ACI items granting the read
+ * access to a single user each, only the first one being related to the requesting user.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcdfEngineBenchmark
+{
+    /** The number of ACI items the tuples are built from */
+    @Param({ "1", "20" })
+    public int aciCount;
+
+    private DirectoryService directoryService;
+
+    private SchemaManager schemaManager;
+
+    private ACDFEngine engine;
+
+    /** The operation context the engine uses to fetch the user entry */
+    private LookupOperationContext operationContext;
+
+    private Collection<ACITuple> tuples;
+
+    private Dn userDn;
+
+    private Dn entryDn;
+
+    private Entry entry;
+
+    private Collection<MicroOperation> microOperations;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        directoryService = BenchmarkDirectoryService.startup( "acdf-engine-benchmark", BenchmarkDirectoryService.AVL,
+            Math.max( aciCount, 2 ) );
+        schemaManager = directoryService.getSchemaManager();
+        engine = new ACDFEngine( schemaManager );
+
+        userDn = new Dn( schemaManager, BenchmarkDirectoryService.userDn( 0 ) );
+        entryDn = new Dn( schemaManager, BenchmarkDirectoryService.userDn( 1 ) );
+        entry = directoryService.getAdminSession().lookup( entryDn );
+
+        Partition partition = BenchmarkDirectoryService.getPartition( directoryService );
+        operationContext = new LookupOperationContext( directoryService.getAdminSession(), entryDn );
+        operationContext.setPartition( partition );
+        operationContext.setTransaction( partition.beginReadTransaction() );
+
+        ACIItemParser parser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ),
+            schemaManager );
+        List<ACITuple> aciTuples = new ArrayList<>();
+
+        for ( int i = 0; i < aciCount; i++ )
+        {
+            aciTuples.addAll( parser.parse(
+                "{ " +
+                "  identificationTag \"readAci" + i + "\", " +
+                "  precedence 14, " +
+                "  authenticationLevel none, " +
+                "  itemOrUserFirst userFirst: " +
+                "  { " +
+                "    userClasses " +
+                "    { " +
+                "      name { \"" + BenchmarkDirectoryService.userDn( i ) + "\" } " +
+                "    }, " +
+                "    userPermissions " +
+                "    { " +
+                "      { " +
+                "        protectedItems {entry, allUserAttributeTypesAndValues}, " +
+                "        grantsAndDenials { grantRead, grantReturnDN, grantBrowse } " +
+                "      } " +
+                "    }" +
+                "  } " +
+                "}" ).toTuples() );
+        }
+
+        tuples = Collections.unmodifiableList( aciTuples );
+        microOperations = EnumSet.of( MicroOperation.READ, MicroOperation.BROWSE );
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        operationContext.getTransaction().close();
+        BenchmarkDirectoryService.shutdown( directoryService );
+    }
+
+
+    /**
+     * Checks that the user can read the entry, as the ACI interceptor does on a lookup.
+     * 
+     * @throws Exception If the permission is not granted
+     */
+    @Benchmark
+    public void checkPermission() throws Exception
+    {
+        AciContext aciContext = new AciContext( schemaManager, operationContext );
+        aciContext.setUserGroupNames( Collections.<String>emptySet() );
+        aciContext.setUserDn( userDn );
+        aciContext.setAuthenticationLevel( AuthenticationLevel.SIMPLE );
+        aciContext.setEntryDn( entryDn );
+        aciContext.setMicroOperations( microOperations );
+        aciContext.setAciTuples( tuples );
+        aciContext.setEntry( entry );
+
+        engine.checkPermission( aciContext );
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( AcdfEngineBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/acdf-engine-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
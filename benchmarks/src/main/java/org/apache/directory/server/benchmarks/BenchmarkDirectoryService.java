@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+
+
+/**
+ * Starts the DirectoryService used by the benchmarks, with a dc=example,dc=com partition
+ * containing a ou=people branch populated with inetOrgPerson entries named
+ * uid=user.&lt;n&gt;,ou=people,dc=example,dc=com.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BenchmarkDirectoryService
+{
+    /** The suffix of the partition used by the benchmarks */
+    public static final String SUFFIX = "dc=example,dc=com";
+
+    /** The branch the benchmark entries are added under */
+    public static final String PEOPLE = "ou=people," + SUFFIX;
+
+    /** The number of distinct departmentNumber values given to the entries */
+    public static final int DEPARTMENTS = 10;
+
+    /** The partition types the benchmarks can run on */
+    public static final String AVL = "avl";
+    public static final String JDBM = "jdbm";
+
+
+    private BenchmarkDirectoryService()
+    {
+    }
+
+
+    /**
+     * Starts a DirectoryService and populates its dc=example,dc=com partition.
+     *
+     * @param name The instance name, used for the working directory
+     * @param partitionType The partition type, {@link #AVL} or {@link #JDBM}
+     * @param entryCount The number of entries to create under ou=people
+     * @return The started DirectoryService
+     * @throws Exception If the service can't be started or populated
+     */
+    public static DirectoryService startup( String name, String partitionType, int entryCount ) throws Exception
+    {
+        DirectoryService directoryService = startup( name, partitionType, false, SchemaConstants.OBJECT_CLASS_AT,
+            SchemaConstants.UID_AT, "departmentNumber" );
+
+        populate( directoryService, entryCount );
+
+        return directoryService;
+    }
+
+
+    /**
+     * Starts a DirectoryService with an empty dc=example,dc=com partition.
+     *
+     * @param name The instance name, used for the working directory
+     * @param partitionType The partition type, {@link #AVL} or {@link #JDBM}
+     * @param accessControlEnabled If the ACI interceptor checks the operations
+     * @param indexedAttributes The attributes to index in the dc=example,dc=com partition
+     * @return The started DirectoryService
+     * @throws Exception If the service can't be started
+     */
+    public static DirectoryService startup( String name, String partitionType, boolean accessControlEnabled,
+        String... indexedAttributes ) throws Exception
+    {
+        PartitionFactory partitionFactory;
+
+        if ( AVL.equals( partitionType ) )
+        {
+            partitionFactory = new AvlPartitionFactory();
+        }
+        else if ( JDBM.equals( partitionType ) )
+        {
+            partitionFactory = new JdbmPartitionFactory();
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown partition type : " + partitionType );
+        }
+
+        DirectoryService directoryService = new DefaultDirectoryService();
+        directoryService.setShutdownHookEnabled( false );
+        directoryService.setAccessControlEnabled( accessControlEnabled );
+        DefaultDirectoryServiceFactory factory = new DefaultDirectoryServiceFactory( directoryService,
+            partitionFactory );
+        factory.init( name + "-" + partitionType );
+
+        Partition partition = partitionFactory.createPartition( directoryService.getSchemaManager(),
+            directoryService.getDnFactory(), "example", SUFFIX, 1000,
+            new File( directoryService.getInstanceLayout().getPartitionsDirectory(), "example" ) );
+
+        for ( String indexedAttribute : indexedAttributes )
+        {
+            partitionFactory.addIndex( partition, indexedAttribute, 1000 );
+        }
+
+        directoryService.addPartition( partition );
+
+        return directoryService;
+    }
+
+
+    /**
+     * Shuts down a DirectoryService started by {@link #startup(String, String, int)}.
+     *
+     * @param directoryService The DirectoryService to shut down
+     * @throws LdapException If the shutdown failed
+     */
+    public static void shutdown( DirectoryService directoryService ) throws LdapException
+    {
+        if ( ( directoryService != null ) && directoryService.isStarted() )
+        {
+            directoryService.shutdown();
+        }
+    }
+
+
+    /**
+     * @param index The entry index
+     * @return The Dn of the index-th benchmark entry
+     */
+    public static String userDn( long index )
+    {
+        return "uid=user." + index + "," + PEOPLE;
+    }
+
+
+    /**
+     * Creates an inetOrgPerson entry for the given index.
+     *
+     * @param directoryService The DirectoryService
+     * @param index The entry index
+     * @return The entry
+     * @throws LdapException If the entry can't be created
+     */
+    public static Entry createUser( DirectoryService directoryService, long index ) throws LdapException
+    {
+        return new DefaultEntry( directoryService.getSchemaManager(),
+            userDn( index ),
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user." + index,
+            "cn: User " + index,
+            "sn: " + index,
+            "givenName: User",
+            "mail: user." + index + "@example.com",
+            "departmentNumber: " + ( index % DEPARTMENTS ),
+            "description: Benchmark entry number " + index );
+    }
+
+
+    /**
+     * @param directoryService The DirectoryService
+     * @return The partition holding the benchmark entries
+     * @throws LdapException If the partition can't be found
+     */
+    public static Partition getPartition( DirectoryService directoryService ) throws LdapException
+    {
+        return directoryService.getPartitionNexus().getPartition( new Dn( directoryService.getSchemaManager(),
+            SUFFIX ) );
+    }
+
+
+    private static void populate( DirectoryService directoryService, int entryCount ) throws LdapException
+    {
+        CoreSession session = directoryService.getAdminSession();
+
+        session.add( new DefaultEntry( directoryService.getSchemaManager(),
+            SUFFIX,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example" ) );
+
+        session.add( new DefaultEntry( directoryService.getSchemaManager(),
+            PEOPLE,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        for ( int i = 0; i < entryCount; i++ )
+        {
+            session.add( createUser( directoryService, i ) );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs all the benchmarks of this package, storing the results in a single JSON file.
+ * Running it on two commits and comparing the files shows the regressions.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+    {
+    }
+
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args The optional result file name, followed by an optional benchmark name regexp
+     * @throws RunnerException If a benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark" )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/benchmarks.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the creation of schema aware Dns through the DnFactory,
+ * compared to a plain Dn creation, for a set of distinct Dns which may or may not fit
+ * in the factory cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DnFactoryBenchmark
+{
+    /** The DnFactory cache size */
+    @Param({ "0", "10000" })
+    public int cacheSize;
+
+    /** The number of distinct Dns created */
+    @Param({ "1000" })
+    public int dnCount;
+
+    private SchemaManager schemaManager;
+
+    private DnFactory dnFactory;
+
+    private String[] dns;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        dnFactory = new DefaultDnFactory( schemaManager, cacheSize );
+        dns = new String[dnCount];
+
+        for ( int i = 0; i < dnCount; i++ )
+        {
+            dns[i] = "uid=User." + i + ", ou=People, dc=Example, dc=com";
+        }
+    }
+
+
+    @Benchmark
+    public Dn createWithFactory() throws Exception
+    {
+        return dnFactory.create( dns[ThreadLocalRandom.current().nextInt( dnCount )] );
+    }
+
+
+    @Benchmark
+    public Dn createWithoutFactory() throws Exception
+    {
+        return new Dn( schemaManager, dns[ThreadLocalRandom.current().nextInt( dnCount )] );
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( DnFactoryBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/dn-factory-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
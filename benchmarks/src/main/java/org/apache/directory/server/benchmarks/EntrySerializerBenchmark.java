@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.EntrySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the cost of the EntrySerializer used by the JDBM master table,
+ * for an inetOrgPerson entry carrying a variable number of description values. As the
+ * attributes are decoded lazily, the deserialization is measured with and without reading
+ * all the values back.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntrySerializerBenchmark
+{
+    /** The number of description values in the serialized entry */
+    @Param({ "1", "100" })
+    public int valueCount;
+
+    private EntrySerializer serializer;
+
+    private Entry entry;
+
+    private byte[] serialized;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        serializer = new EntrySerializer( schemaManager );
+
+        entry = new DefaultEntry( schemaManager,
+            "uid=user.1,ou=people,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user.1",
+            "cn: User 1",
+            "sn: 1",
+            "givenName: User",
+            "mail: user.1@example.com",
+            "entryUUID: f290425c-8272-4e62-8a67-92b06f38dbf5",
+            "entryCSN: 20191019120000.000000Z#000000#000#000000",
+            "createTimestamp: 20191019120000Z",
+            "creatorsName: uid=admin,ou=system" );
+
+        for ( int i = 0; i < valueCount; i++ )
+        {
+            entry.add( "description", "Description value number " + i );
+        }
+
+        serialized = serializer.serialize( entry );
+    }
+
+
+    @Benchmark
+    public byte[] serialize() throws Exception
+    {
+        return serializer.serialize( entry );
+    }
+
+
+    @Benchmark
+    public Object deserialize() throws Exception
+    {
+        return serializer.deserialize( serialized );
+    }
+
+
+    /**
+     * Deserializes the entry and reads all its values, forcing the lazy attributes to be decoded.
+     * 
+     * @param blackhole The JMH blackhole consuming the values
+     * @throws Exception If the deserialization failed
+     */
+    @Benchmark
+    public void deserializeAndRead( Blackhole blackhole ) throws Exception
+    {
+        Entry deserialized = ( Entry ) serializer.deserialize( serialized );
+
+        for ( Attribute attribute : deserialized )
+        {
+            for ( Value value : attribute )
+            {
+                blackhole.consume( value.getNormalized() );
+            }
+        }
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( EntrySerializerBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/entry-serializer-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.SingletonIndexCursor;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.cursor.AndCursor;
+import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the iteration over the index cursors used by a subtree search :
+ * a DescendantCursor walking the whole ou=people branch, and an AndCursor filtering this
+ * DescendantCursor with the evaluators of a (&amp;(objectClass=inetOrgPerson)(departmentNumber=3))
+ * filter. Each invocation iterates over the complete cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexCursorBenchmark
+{
+    @Param({ BenchmarkDirectoryService.AVL, BenchmarkDirectoryService.JDBM })
+    public String partitionType;
+
+    /** The number of entries under ou=people */
+    @Param({ "10000" })
+    public int entryCount;
+
+    private DirectoryService directoryService;
+
+    private Store store;
+
+    private PartitionTxn transaction;
+
+    /** The ou=people entry ID */
+    private String baseId;
+
+    /** The ou=people entry position in the Rdn index */
+    private ParentIdAndRdn baseParentIdAndRdn;
+
+    private List<Evaluator<? extends ExprNode>> evaluators;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        directoryService = BenchmarkDirectoryService.startup( "index-cursor-benchmark", partitionType, entryCount );
+        Partition partition = BenchmarkDirectoryService.getPartition( directoryService );
+        store = ( Store ) partition;
+        transaction = partition.beginReadTransaction();
+
+        baseId = store.getEntryId( transaction, new Dn( directoryService.getSchemaManager(),
+            BenchmarkDirectoryService.PEOPLE ) );
+        baseParentIdAndRdn = store.getRdnIndex().reverseLookup( transaction, baseId );
+
+        EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( store, directoryService.getSchemaManager() );
+        evaluators = new ArrayList<>();
+        evaluators.add( evaluatorBuilder.build( transaction,
+            FilterParser.parse( directoryService.getSchemaManager(), "(objectClass=inetOrgPerson)" ) ) );
+        evaluators.add( evaluatorBuilder.build( transaction,
+            FilterParser.parse( directoryService.getSchemaManager(), "(departmentNumber=3)" ) ) );
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        transaction.close();
+        BenchmarkDirectoryService.shutdown( directoryService );
+    }
+
+
+    private DescendantCursor descendantCursor()
+    {
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+        startingPos.setKey( baseParentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<>( transaction,
+            startingPos );
+
+        return new DescendantCursor( transaction, store, baseId, baseParentIdAndRdn.getParentId(), rdnCursor );
+    }
+
+
+    /**
+     * Iterates over all the entries below ou=people.
+     * 
+     * @return The number of found entries
+     * @throws Exception If the iteration failed
+     */
+    @Benchmark
+    public int descendantCursor() throws Exception
+    {
+        int count = 0;
+
+        try ( DescendantCursor cursor = descendantCursor() )
+        {
+            while ( cursor.next() )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Iterates over the entries below ou=people matching the And filter.
+     * 
+     * @return The number of found entries
+     * @throws Exception If the iteration failed
+     */
+    @Benchmark
+    public int andCursor() throws Exception
+    {
+        int count = 0;
+
+        try ( AndCursor<String> cursor = new AndCursor<>( transaction, descendantCursor(), evaluators ) )
+        {
+            while ( cursor.next( transaction ) )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( IndexCursorBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/index-cursor-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the lookup, search, add and modify operations as done by the
+ * DefaultOperationManager, going through the full interceptor chain down to an AvlPartition
+ * or a JdbmPartition. The operations are done using the admin session.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationManagerBenchmark
+{
+    @Param({ BenchmarkDirectoryService.AVL, BenchmarkDirectoryService.JDBM })
+    public String partitionType;
+
+    /** The number of entries loaded before the benchmark starts */
+    @Param({ "10000" })
+    public int entryCount;
+
+    private DirectoryService directoryService;
+
+    private CoreSession session;
+
+    /** The Dn of the loaded entries, parsed once */
+    private Dn[] userDns;
+
+    private Dn peopleDn;
+
+    /** The next index used by the add benchmark, above the loaded entries */
+    private AtomicLong nextAdded;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        directoryService = BenchmarkDirectoryService.startup( "operation-manager-benchmark", partitionType,
+            entryCount );
+        session = directoryService.getAdminSession();
+        peopleDn = new Dn( directoryService.getSchemaManager(), BenchmarkDirectoryService.PEOPLE );
+        userDns = new Dn[entryCount];
+
+        for ( int i = 0; i < entryCount; i++ )
+        {
+            userDns[i] = new Dn( directoryService.getSchemaManager(), BenchmarkDirectoryService.userDn( i ) );
+        }
+
+        nextAdded = new AtomicLong( entryCount );
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        BenchmarkDirectoryService.shutdown( directoryService );
+    }
+
+
+    private Dn randomDn()
+    {
+        return userDns[ThreadLocalRandom.current().nextInt( entryCount )];
+    }
+
+
+    /**
+     * Looks up a random entry, fetching all its user attributes.
+     * 
+     * @return The found entry
+     * @throws Exception If the lookup failed
+     */
+    @Benchmark
+    public Entry lookup() throws Exception
+    {
+        return session.lookup( randomDn() );
+    }
+
+
+    /**
+     * Searches a random entry by its uid under ou=people.
+     * 
+     * @param blackhole The JMH blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void searchEquality( Blackhole blackhole ) throws Exception
+    {
+        ExprNode filter = FilterParser.parse( directoryService.getSchemaManager(),
+            "(uid=user." + ThreadLocalRandom.current().nextInt( entryCount ) + ")" );
+
+        try ( Cursor<Entry> cursor = session.search( peopleDn, SearchScope.SUBTREE, filter,
+            AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.ALL_USER_ATTRIBUTES ) )
+        {
+            while ( cursor.next() )
+            {
+                blackhole.consume( cursor.get() );
+            }
+        }
+    }
+
+
+    /**
+     * Adds a new entry under ou=people. The entries are never removed, so the partition
+     * grows during the run.
+     * 
+     * @throws Exception If the add failed
+     */
+    @Benchmark
+    public void add() throws Exception
+    {
+        session.add( BenchmarkDirectoryService.createUser( directoryService, nextAdded.getAndIncrement() ) );
+    }
+
+
+    /**
+     * Replaces the description of a random entry.
+     * 
+     * @throws Exception If the modify failed
+     */
+    @Benchmark
+    public void modify() throws Exception
+    {
+        session.modify( randomDn(), new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "description", "Modified " + System.nanoTime() ) );
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( OperationManagerBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/operation-manager-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
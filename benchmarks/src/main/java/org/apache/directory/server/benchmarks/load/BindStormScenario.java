@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+
+
+/**
+ * Simple binds of random users, as done by the applications checking their users
+ * credentials against the server. Each worker uses a dedicated connection, so its own
+ * connection keeps its identity for the other scenarios.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindStormScenario implements Scenario
+{
+    /** The scenario name */
+    public static final String NAME = "bind";
+
+    /** The dedicated connection of each worker */
+    private final ThreadLocal<LdapConnection> connections = new ThreadLocal<>();
+
+    /** All the opened connections, to close them */
+    private final List<LdapConnection> opened = new CopyOnWriteArrayList<>();
+
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    @Override
+    public void setUp( LoadContext context )
+    {
+        // Nothing to do, the connections are opened by the workers
+    }
+
+
+    @Override
+    public void execute( LdapConnection connection, LoadContext context ) throws Exception
+    {
+        LdapConnection bindConnection = connections.get();
+
+        if ( bindConnection == null )
+        {
+            bindConnection = new LdapNetworkConnection( context.getHost(), context.getPort() );
+            bindConnection.connect();
+            connections.set( bindConnection );
+            opened.add( bindConnection );
+        }
+
+        Dataset dataset = context.getDataset();
+        String userDn = dataset.getUserDn( dataset.randomUser() );
+
+        long start = System.nanoTime();
+        bindConnection.bind( userDn, Dataset.PASSWORD );
+        context.getReport().record( NAME, System.nanoTime() - start );
+    }
+
+
+    @Override
+    public void tearDown() throws IOException
+    {
+        for ( LdapConnection connection : opened )
+        {
+            connection.close();
+        }
+
+        opened.clear();
+    }
+}
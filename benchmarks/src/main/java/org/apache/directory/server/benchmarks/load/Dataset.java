@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.benchmarks.BenchmarkDirectoryService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+
+
+/**
+ * The generated data set the load is run against. The DIT looks like :
+ * <pre>
+ * dc=example,dc=com
+ *   ou=people
+ *     ou=unit.&lt;b&gt;                   (branches)
+ *       uid=user.&lt;n&gt;                (users, spread over the branches)
+ *   ou=groups
+ *     cn=group.&lt;g&gt;                  (groups, groupOfNames with groupSize members)
+ *   cn=benchmarkAci                  (only when the ACIs are enabled)
+ * </pre>
+ * All the users have the same password, {@link #PASSWORD}. Their cn is made of a
+ * given name picked in a small list and of their number, for the type-ahead searches.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class Dataset
+{
+    /** The users password */
+    public static final String PASSWORD = "secret";
+
+    /** The given names the users cn start with */
+    static final String[] GIVEN_NAMES =
+        {
+            "Alice", "Albert", "Alexandra", "Bob", "Bernard", "Carol", "Charles", "Christine", "David", "Diane",
+            "Emmanuel", "Emily", "Frank", "Fiona", "George", "Grace", "Henry", "Helen", "Isaac", "Irene",
+            "Jack", "Julia", "Kevin", "Karen", "Louis", "Laura", "Martin", "Maria", "Nicolas", "Nora",
+            "Oscar", "Olivia", "Paul", "Patricia", "Quentin", "Rachel", "Stefan", "Sarah", "Thomas", "Tina"
+        };
+
+    /** The ACI granting all the authenticated users read and write access on the whole suffix */
+    private static final String ACI =
+        "{ " +
+        "  identificationTag \"benchmarkAci\", " +
+        "  precedence 14, " +
+        "  authenticationLevel simple, " +
+        "  itemOrUserFirst userFirst: " +
+        "  { " +
+        "    userClasses { allUsers }, " +
+        "    userPermissions " +
+        "    { " +
+        "      { " +
+        "        protectedItems { entry, allUserAttributeTypesAndValues }, " +
+        "        grantsAndDenials { grantRead, grantReturnDN, grantBrowse, grantCompare, grantFilterMatch, " +
+        "          grantDiscloseOnError, grantModify, grantAdd, grantRemove } " +
+        "      } " +
+        "    } " +
+        "  } " +
+        "}";
+
+    /** The number of ou=unit.&lt;b&gt; branches under ou=people */
+    private int branches = 10;
+
+    /** The number of users */
+    private int users = 10000;
+
+    /** The number of groups */
+    private int groups = 100;
+
+    /** The number of members per group */
+    private int groupSize = 100;
+
+    /** Tells if the ACIs are enabled */
+    private boolean acis = false;
+
+
+    /**
+     * Adds the data set entries in the dc=example,dc=com partition.
+     *
+     * @param directoryService The DirectoryService
+     * @throws LdapException If an entry can't be added
+     */
+    public void populate( DirectoryService directoryService ) throws LdapException
+    {
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        CoreSession session = directoryService.getAdminSession();
+
+        Entry suffix = new DefaultEntry( schemaManager,
+            BenchmarkDirectoryService.SUFFIX,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example" );
+
+        if ( acis )
+        {
+            suffix.add( SchemaConstants.ADMINISTRATIVE_ROLE_AT, "accessControlSpecificArea" );
+        }
+
+        session.add( suffix );
+
+        if ( acis )
+        {
+            session.add( new DefaultEntry( schemaManager,
+                "cn=benchmarkAci," + BenchmarkDirectoryService.SUFFIX,
+                "objectClass: top",
+                "objectClass: subentry",
+                "objectClass: accessControlSubentry",
+                "cn: benchmarkAci",
+                "subtreeSpecification: {}",
+                "prescriptiveACI: " + ACI ) );
+        }
+
+        session.add( new DefaultEntry( schemaManager,
+            BenchmarkDirectoryService.PEOPLE,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        for ( int b = 0; b < branches; b++ )
+        {
+            session.add( new DefaultEntry( schemaManager,
+                getBranchDn( b ),
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: unit." + b ) );
+        }
+
+        for ( int i = 0; i < users; i++ )
+        {
+            session.add( new DefaultEntry( schemaManager,
+                getUserDn( i ),
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "uid: user." + i,
+                "cn: " + GIVEN_NAMES[i % GIVEN_NAMES.length] + " " + i,
+                "givenName: " + GIVEN_NAMES[i % GIVEN_NAMES.length],
+                "sn: " + i,
+                "mail: user." + i + "@example.com",
+                "userPassword: " + PASSWORD,
+                "description: Load entry number " + i ) );
+        }
+
+        session.add( new DefaultEntry( schemaManager,
+            getGroupsDn(),
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: groups" ) );
+
+        for ( int g = 0; g < groups; g++ )
+        {
+            Entry group = new DefaultEntry( schemaManager,
+                getGroupDn( g ),
+                "objectClass: top",
+                "objectClass: groupOfNames",
+                "cn: group." + g );
+
+            for ( int m = 0; m < Math.max( groupSize, 1 ); m++ )
+            {
+                group.add( "member", getUserDn( ( ( long ) g * groupSize + m ) % users ) );
+            }
+
+            session.add( group );
+        }
+    }
+
+
+    /**
+     * @return The Dn of the ou=groups branch
+     */
+    public String getGroupsDn()
+    {
+        return "ou=groups," + BenchmarkDirectoryService.SUFFIX;
+    }
+
+
+    /**
+     * @param branch The branch number
+     * @return The Dn of the branch
+     */
+    public String getBranchDn( int branch )
+    {
+        return "ou=unit." + branch + "," + BenchmarkDirectoryService.PEOPLE;
+    }
+
+
+    /**
+     * @param user The user number
+     * @return The Dn of the user, in the branch it has been spread to
+     */
+    public String getUserDn( long user )
+    {
+        return "uid=user." + user + ",ou=unit." + ( user % branches ) + "," + BenchmarkDirectoryService.PEOPLE;
+    }
+
+
+    /**
+     * @param group The group number
+     * @return The Dn of the group
+     */
+    public String getGroupDn( int group )
+    {
+        return "cn=group." + group + "," + getGroupsDn();
+    }
+
+
+    /**
+     * @return A random user number
+     */
+    public int randomUser()
+    {
+        return ThreadLocalRandom.current().nextInt( users );
+    }
+
+
+    /**
+     * @return A random branch number
+     */
+    public int randomBranch()
+    {
+        return ThreadLocalRandom.current().nextInt( branches );
+    }
+
+
+    /**
+     * @return A random group number
+     */
+    public int randomGroup()
+    {
+        return ThreadLocalRandom.current().nextInt( groups );
+    }
+
+
+    /**
+     * @return A random given name
+     */
+    public String randomGivenName()
+    {
+        return GIVEN_NAMES[ThreadLocalRandom.current().nextInt( GIVEN_NAMES.length )];
+    }
+
+
+    public int getBranches()
+    {
+        return branches;
+    }
+
+
+    public void setBranches( int branches )
+    {
+        this.branches = Math.max( branches, 1 );
+    }
+
+
+    public int getUsers()
+    {
+        return users;
+    }
+
+
+    public void setUsers( int users )
+    {
+        this.users = Math.max( users, 1 );
+    }
+
+
+    public int getGroups()
+    {
+        return groups;
+    }
+
+
+    public void setGroups( int groups )
+    {
+        this.groups = Math.max( groups, 1 );
+    }
+
+
+    public int getGroupSize()
+    {
+        return groupSize;
+    }
+
+
+    public void setGroupSize( int groupSize )
+    {
+        this.groupSize = groupSize;
+    }
+
+
+    public boolean isAcis()
+    {
+        return acis;
+    }
+
+
+    public void setAcis( boolean acis )
+    {
+        this.acis = acis;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+
+/**
+ * Adds a random user to a random group, then removes it, recorded as "group.add" and
+ * "group.remove". The cost of these modifications grows with the group size, as the
+ * whole member attribute is read and rewritten.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupMembershipScenario implements Scenario
+{
+    /** The scenario name */
+    public static final String NAME = "groups";
+
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    @Override
+    public void setUp( LoadContext context )
+    {
+        // Nothing to do
+    }
+
+
+    @Override
+    public void execute( LdapConnection connection, LoadContext context ) throws Exception
+    {
+        Dataset dataset = context.getDataset();
+        Dn groupDn = new Dn( dataset.getGroupDn( dataset.randomGroup() ) );
+
+        // Pick a user out of the initial members, so that the add does not collide with them
+        String memberDn = dataset.getUserDn( dataset.getUsers() + dataset.randomUser() );
+
+        long start = System.nanoTime();
+        connection.modify( groupDn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, "member",
+            memberDn ) );
+        context.getReport().record( "group.add", System.nanoTime() - start );
+
+        start = System.nanoTime();
+        connection.modify( groupDn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, "member",
+            memberDn ) );
+        context.getReport().record( "group.remove", System.nanoTime() - start );
+    }
+
+
+    @Override
+    public void tearDown()
+    {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+
+
+/**
+ * What the scenarios share during a load run : the data set, the server address and the
+ * report the latencies are recorded in.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadContext
+{
+    /** The data set loaded in the server */
+    private final Dataset dataset;
+
+    /** The report the scenarios record their latencies in */
+    private final LoadReport report;
+
+    /** The server host */
+    private final String host;
+
+    /** The server port */
+    private final int port;
+
+
+    /**
+     * Creates a new instance of LoadContext.
+     *
+     * @param dataset The data set loaded in the server
+     * @param report The report to record the latencies in
+     * @param host The server host
+     * @param port The server port
+     */
+    public LoadContext( Dataset dataset, LoadReport report, String host, int port )
+    {
+        this.dataset = dataset;
+        this.report = report;
+        this.host = host;
+        this.port = port;
+    }
+
+
+    /**
+     * Opens a connection to the server, bound as one of the data set users.
+     *
+     * @param user The user number
+     * @return The bound connection
+     * @throws LdapException If the connection or the bind failed
+     */
+    public LdapConnection connect( long user ) throws LdapException
+    {
+        LdapNetworkConnection connection = new LdapNetworkConnection( host, port );
+        connection.bind( dataset.getUserDn( user ), Dataset.PASSWORD );
+
+        return connection;
+    }
+
+
+    public Dataset getDataset()
+    {
+        return dataset;
+    }
+
+
+    public LoadReport getReport()
+    {
+        return report;
+    }
+
+
+    public String getHost()
+    {
+        return host;
+    }
+
+
+    public int getPort()
+    {
+        return port;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.benchmarks.BenchmarkDirectoryService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A load generator replaying a mixed workload against an embedded LdapServer, started on a
+ * generated data set. It runs on a single machine, without any external service, and reports
+ * the throughput and the p50/p99/p999 latencies of each operation, on the console and in a
+ * JSON file.
+ * <br>
+ * The options are given as name=value arguments :
+ * <ul>
+ *   <li>partition : the partition type, avl or jdbm (default jdbm)</li>
+ *   <li>port : the LDAP port (default 10389)</li>
+ *   <li>branches, users, groups, groupSize, acis : the data set shape (see {@link Dataset})</li>
+ *   <li>mix : the scenarios and their weights (default bind:20,typeahead:50,paged:10,groups:10,psearch:10).
+ *   The scenarios are bind, typeahead, paged, groups and psearch</li>
+ *   <li>threads : the number of workers (default 16)</li>
+ *   <li>warmup, duration : the warmup and measurement durations, in seconds (default 10 and 60)</li>
+ *   <li>pageSize : the paged searches page size (default 100)</li>
+ *   <li>listeners : the number of persistent searches (default 10)</li>
+ *   <li>result : the JSON report file (default target/load-report.json)</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadHarness
+{
+    private static final Logger LOG = LoggerFactory.getLogger( LoadHarness.class );
+
+    /** The default options */
+    private static final String[][] DEFAULTS =
+        {
+            { "partition", BenchmarkDirectoryService.JDBM },
+            { "port", "10389" },
+            { "branches", "10" },
+            { "users", "10000" },
+            { "groups", "100" },
+            { "groupSize", "100" },
+            { "acis", "false" },
+            { "mix", "bind:20,typeahead:50,paged:10,groups:10,psearch:10" },
+            { "threads", "16" },
+            { "warmup", "10" },
+            { "duration", "60" },
+            { "pageSize", "100" },
+            { "listeners", "10" },
+            { "result", "target/load-report.json" }
+        };
+
+    /** The run options */
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    /** The scenarios to run */
+    private final List<Scenario> scenarios = new ArrayList<>();
+
+    /** The cumulated scenarios weights, in the scenarios order */
+    private int[] cumulatedWeights;
+
+    /** Set when the workers must stop */
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates a new instance of LoadHarness.
+     *
+     * @param args The name=value options
+     */
+    public LoadHarness( String... args )
+    {
+        for ( String[] option : DEFAULTS )
+        {
+            options.put( option[0], option[1] );
+        }
+
+        for ( String arg : args )
+        {
+            int pos = arg.indexOf( '=' );
+
+            if ( ( pos <= 0 ) || !options.containsKey( arg.substring( 0, pos ) ) )
+            {
+                throw new IllegalArgumentException( "Invalid option : " + arg );
+            }
+
+            options.put( arg.substring( 0, pos ), arg.substring( pos + 1 ) );
+        }
+
+        String[] mix = options.get( "mix" ).split( "," );
+        cumulatedWeights = new int[mix.length];
+        int total = 0;
+
+        for ( String element : mix )
+        {
+            String[] nameAndWeight = element.trim().split( ":" );
+            int weight = nameAndWeight.length > 1 ? Integer.parseInt( nameAndWeight[1] ) : 1;
+
+            if ( weight <= 0 )
+            {
+                continue;
+            }
+
+            total += weight;
+            cumulatedWeights[scenarios.size()] = total;
+            scenarios.add( createScenario( nameAndWeight[0] ) );
+        }
+
+        if ( scenarios.isEmpty() )
+        {
+            throw new IllegalArgumentException( "The mix does not contain any scenario : " + options.get( "mix" ) );
+        }
+    }
+
+
+    private Scenario createScenario( String name )
+    {
+        switch ( name )
+        {
+            case BindStormScenario.NAME:
+                return new BindStormScenario();
+
+            case TypeAheadScenario.NAME:
+                return new TypeAheadScenario();
+
+            case PagedSearchScenario.NAME:
+                return new PagedSearchScenario( getInt( "pageSize" ) );
+
+            case GroupMembershipScenario.NAME:
+                return new GroupMembershipScenario();
+
+            case PersistentSearchScenario.NAME:
+                return new PersistentSearchScenario( getInt( "listeners" ) );
+
+            default:
+                throw new IllegalArgumentException( "Unknown scenario : " + name );
+        }
+    }
+
+
+    private int getInt( String option )
+    {
+        return Integer.parseInt( options.get( option ) );
+    }
+
+
+    /**
+     * Picks a scenario according to the weights
+     */
+    private Scenario pickScenario()
+    {
+        int value = ThreadLocalRandom.current().nextInt( cumulatedWeights[scenarios.size() - 1] );
+
+        for ( int i = 0; i < scenarios.size(); i++ )
+        {
+            if ( value < cumulatedWeights[i] )
+            {
+                return scenarios.get( i );
+            }
+        }
+
+        return scenarios.get( scenarios.size() - 1 );
+    }
+
+
+    /**
+     * Starts the server, runs the workload and stops the server.
+     *
+     * @return The report
+     * @throws Exception If the server can't be started, or the workload can't be run
+     */
+    public LoadReport run() throws Exception
+    {
+        Dataset dataset = new Dataset();
+        dataset.setBranches( getInt( "branches" ) );
+        dataset.setUsers( getInt( "users" ) );
+        dataset.setGroups( getInt( "groups" ) );
+        dataset.setGroupSize( getInt( "groupSize" ) );
+        dataset.setAcis( Boolean.parseBoolean( options.get( "acis" ) ) );
+
+        LOG.info( "Loading the data set : {}", options );
+        DirectoryService directoryService = BenchmarkDirectoryService.startup( "load-harness",
+            options.get( "partition" ), dataset.isAcis(), SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.OU_AT,
+            SchemaConstants.UID_AT, SchemaConstants.CN_AT, "member" );
+        dataset.populate( directoryService );
+
+        LdapServer ldapServer = new LdapServer();
+        ldapServer.setDirectoryService( directoryService );
+        ldapServer.setTransports( new TcpTransport( Network.LOOPBACK_HOSTNAME, getInt( "port" ) ) );
+        ldapServer.setMaxSizeLimit( LdapServer.NO_SIZE_LIMIT );
+        ldapServer.start();
+
+        LoadReport report = new LoadReport();
+        LoadContext context = new LoadContext( dataset, report, Network.LOOPBACK_HOSTNAME, getInt( "port" ) );
+
+        try
+        {
+            for ( Scenario scenario : scenarios )
+            {
+                scenario.setUp( context );
+            }
+
+            runWorkers( context );
+        }
+        finally
+        {
+            for ( Scenario scenario : scenarios )
+            {
+                scenario.tearDown();
+            }
+
+            ldapServer.stop();
+            BenchmarkDirectoryService.shutdown( directoryService );
+        }
+
+        return report;
+    }
+
+
+    /**
+     * Runs the workers for the warmup duration, resets the report, and runs them for the
+     * measurement duration.
+     */
+    private void runWorkers( LoadContext context ) throws Exception
+    {
+        int threads = getInt( "threads" );
+        List<Thread> workers = new ArrayList<>( threads );
+
+        // The workers are bound as the users following the persistent search listeners ones
+        int firstUser = getInt( "listeners" );
+
+        for ( int i = 0; i < threads; i++ )
+        {
+            long user = ( firstUser + i ) % context.getDataset().getUsers();
+            Thread worker = new Thread( () -> work( context, user ), "load-worker-" + i );
+            worker.start();
+            workers.add( worker );
+        }
+
+        LOG.info( "Warming up for {}s", options.get( "warmup" ) );
+        TimeUnit.SECONDS.sleep( getInt( "warmup" ) );
+        context.getReport().reset();
+        long start = System.nanoTime();
+
+        LOG.info( "Measuring for {}s", options.get( "duration" ) );
+        TimeUnit.SECONDS.sleep( getInt( "duration" ) );
+        stopped = true;
+        long duration = System.nanoTime() - start;
+
+        for ( Thread worker : workers )
+        {
+            worker.join();
+        }
+
+        context.getReport().print( System.out, duration );
+        context.getReport().writeJson( new File( options.get( "result" ) ), options, duration );
+    }
+
+
+    private void work( LoadContext context, long user )
+    {
+        try ( LdapConnection connection = context.connect( user ) )
+        {
+            while ( !stopped )
+            {
+                Scenario scenario = pickScenario();
+
+                try
+                {
+                    scenario.execute( connection, context );
+                }
+                catch ( Exception e )
+                {
+                    LOG.debug( "The {} scenario has failed", scenario.getName(), e );
+                    context.getReport().error( scenario.getName() );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "The worker has failed", e );
+        }
+    }
+
+
+    /**
+     * Runs the load harness.
+     *
+     * @param args The name=value options
+     * @throws Exception If the run failed
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        new LoadHarness( args ).run();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+
+
+/**
+ * The latencies and errors recorded per operation during a load run. The operations are
+ * named by the scenarios, like "bind" or "paged.page".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoadReport
+{
+    /** The latencies per operation */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /** The number of failed operations per scenario */
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+
+    /**
+     * Records the latency of a successful operation.
+     *
+     * @param operation The operation name
+     * @param nanos The operation latency, in nanoseconds
+     */
+    public void record( String operation, long nanos )
+    {
+        histograms.computeIfAbsent( operation, k -> new LatencyHistogram() ).record( nanos );
+    }
+
+
+    /**
+     * Counts a failed operation.
+     *
+     * @param operation The operation or scenario name
+     */
+    public void error( String operation )
+    {
+        errors.computeIfAbsent( operation, k -> new LongAdder() ).increment();
+    }
+
+
+    /**
+     * Forgets everything recorded so far, used at the end of the warmup.
+     */
+    public void reset()
+    {
+        for ( LatencyHistogram histogram : histograms.values() )
+        {
+            histogram.reset();
+        }
+
+        errors.clear();
+    }
+
+
+    /**
+     * @param operation The operation name
+     * @return The latencies recorded for this operation, or null
+     */
+    public LatencyHistogram getHistogram( String operation )
+    {
+        return histograms.get( operation );
+    }
+
+
+    /**
+     * @param operation The operation or scenario name
+     * @return The number of errors recorded for this operation
+     */
+    public long getErrors( String operation )
+    {
+        LongAdder count = errors.get( operation );
+
+        return count == null ? 0L : count.sum();
+    }
+
+
+    /**
+     * Prints a table of the throughput and latencies per operation.
+     *
+     * @param out The stream to print to
+     * @param durationNanos The measurement duration
+     */
+    public void print( PrintStream out, long durationNanos )
+    {
+        double seconds = durationNanos / ( double ) TimeUnit.SECONDS.toNanos( 1L );
+
+        out.println( String.format( "%-24s %10s %10s %10s %10s %10s %10s %8s", "operation", "count", "ops/s",
+            "p50 (us)", "p99 (us)", "p999 (us)", "max (us)", "errors" ) );
+
+        for ( Map.Entry<String, LatencyHistogram> entry : new TreeMap<>( histograms ).entrySet() )
+        {
+            LatencyHistogram histogram = entry.getValue();
+
+            out.println( String.format( "%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %8d", entry.getKey(),
+                histogram.getCount(), histogram.getCount() / seconds, histogram.getPercentile50(),
+                histogram.getPercentile99(), histogram.getPercentile999(), histogram.getMax(),
+                getErrors( entry.getKey() ) ) );
+        }
+
+        for ( String operation : new TreeMap<>( errors ).keySet() )
+        {
+            if ( !histograms.containsKey( operation ) )
+            {
+                out.println( String.format( "%-24s %10d %10s %10s %10s %10s %10s %8d", operation, 0, "-", "-", "-",
+                    "-", "-", getErrors( operation ) ) );
+            }
+        }
+    }
+
+
+    /**
+     * Writes the report as a JSON document, with the run settings, so that two runs can be compared.
+     *
+     * @param file The file to write
+     * @param settings The run settings
+     * @param durationNanos The measurement duration
+     * @throws IOException If the file can't be written
+     */
+    public void writeJson( File file, Map<String, String> settings, long durationNanos ) throws IOException
+    {
+        double seconds = durationNanos / ( double ) TimeUnit.SECONDS.toNanos( 1L );
+
+        if ( file.getParentFile() != null )
+        {
+            file.getParentFile().mkdirs();
+        }
+
+        try ( Writer writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) )
+        {
+            writer.write( "{\n  \"settings\" : {" );
+            boolean first = true;
+
+            for ( Map.Entry<String, String> setting : new TreeMap<>( settings ).entrySet() )
+            {
+                writer.write( first ? "\n" : ",\n" );
+                writer.write( "    \"" + setting.getKey() + "\" : \"" + setting.getValue() + "\"" );
+                first = false;
+            }
+
+            writer.write( "\n  },\n  \"durationSeconds\" : " + seconds + ",\n  \"operations\" : {" );
+            first = true;
+
+            for ( Map.Entry<String, LatencyHistogram> entry : new TreeMap<>( histograms ).entrySet() )
+            {
+                LatencyHistogram histogram = entry.getValue();
+
+                writer.write( first ? "\n" : ",\n" );
+                writer.write( "    \"" + entry.getKey() + "\" : { " );
+                writer.write( "\"count\" : " + histogram.getCount() );
+                writer.write( ", \"opsPerSecond\" : " + histogram.getCount() / seconds );
+                writer.write( ", \"meanMicros\" : " + histogram.getMean() );
+                writer.write( ", \"p50Micros\" : " + histogram.getPercentile50() );
+                writer.write( ", \"p99Micros\" : " + histogram.getPercentile99() );
+                writer.write( ", \"p999Micros\" : " + histogram.getPercentile999() );
+                writer.write( ", \"maxMicros\" : " + histogram.getMax() );
+                writer.write( ", \"errors\" : " + getErrors( entry.getKey() ) + " }" );
+                first = false;
+            }
+
+            writer.write( "\n  },\n  \"errors\" : {" );
+            first = true;
+
+            for ( String operation : new TreeMap<>( errors ).keySet() )
+            {
+                writer.write( first ? "\n" : ",\n" );
+                writer.write( "    \"" + operation + "\" : " + getErrors( operation ) );
+                first = false;
+            }
+
+            writer.write( "\n  }\n}\n" );
+        }
+    }
+}
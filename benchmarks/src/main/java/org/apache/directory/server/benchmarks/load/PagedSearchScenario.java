@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+
+/**
+ * Reads all the users of a random branch, using the paged results control. The latency
+ * of each page is recorded as "paged.page", and the latency of the whole search as
+ * "paged.search".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchScenario implements Scenario
+{
+    /** The scenario name */
+    public static final String NAME = "paged";
+
+    /** The number of entries per page */
+    private final int pageSize;
+
+
+    /**
+     * Creates a new instance of PagedSearchScenario.
+     *
+     * @param pageSize The number of entries per page
+     */
+    public PagedSearchScenario( int pageSize )
+    {
+        this.pageSize = pageSize;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    @Override
+    public void setUp( LoadContext context )
+    {
+        // Nothing to do
+    }
+
+
+    @Override
+    public void execute( LdapConnection connection, LoadContext context ) throws Exception
+    {
+        Dataset dataset = context.getDataset();
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( dataset.getBranchDn( dataset.randomBranch() ) ) );
+        searchRequest.setFilter( "(objectClass=inetOrgPerson)" );
+        searchRequest.setScope( SearchScope.ONELEVEL );
+        searchRequest.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+        searchRequest.addAttributes( "cn", "mail" );
+
+        PagedResults pagedControl = new PagedResultsImpl();
+        pagedControl.setSize( pageSize );
+
+        long searchStart = System.nanoTime();
+
+        while ( true )
+        {
+            searchRequest.addControl( pagedControl );
+            long pageStart = System.nanoTime();
+            byte[] cookie;
+
+            try ( SearchCursor cursor = connection.search( searchRequest ) )
+            {
+                while ( cursor.next() )
+                {
+                    cursor.getEntry();
+                }
+
+                PagedResults responseControl = ( PagedResults ) cursor.getSearchResultDone().getControls()
+                    .get( PagedResults.OID );
+                cookie = responseControl == null ? null : responseControl.getCookie();
+            }
+
+            context.getReport().record( "paged.page", System.nanoTime() - pageStart );
+
+            if ( Strings.isEmpty( cookie ) )
+            {
+                break;
+            }
+
+            pagedControl.setCookie( cookie );
+        }
+
+        context.getReport().record( "paged.search", System.nanoTime() - searchStart );
+    }
+
+
+    @Override
+    public void tearDown()
+    {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.message.controls.PersistentSearch;
+import org.apache.directory.api.ldap.model.message.controls.PersistentSearchImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.benchmarks.BenchmarkDirectoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Persistent search fan-out : a set of listeners register a persistent search on the
+ * modifications of ou=people, and each iteration modifies the description of a random
+ * user. The modification is recorded as "psearch.modify", and the delay between the
+ * modification and its notification to each listener as "psearch.notify".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PersistentSearchScenario implements Scenario
+{
+    /** The scenario name */
+    public static final String NAME = "psearch";
+
+    private static final Logger LOG = LoggerFactory.getLogger( PersistentSearchScenario.class );
+
+    /** The prefix of the description values set by the scenario, followed by the modification time */
+    private static final String PREFIX = "psearch ";
+
+    /** The number of persistent searches */
+    private final int listenerCount;
+
+    /** The listeners connections */
+    private final List<LdapConnection> connections = new CopyOnWriteArrayList<>();
+
+    /** The listeners threads */
+    private final List<Thread> listeners = new CopyOnWriteArrayList<>();
+
+    /** Set when the scenario is torn down, so that the listeners errors are ignored */
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates a new instance of PersistentSearchScenario.
+     *
+     * @param listenerCount The number of persistent searches
+     */
+    public PersistentSearchScenario( int listenerCount )
+    {
+        this.listenerCount = listenerCount;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    @Override
+    public void setUp( LoadContext context ) throws Exception
+    {
+        for ( int i = 0; i < listenerCount; i++ )
+        {
+            LdapNetworkConnection connection = ( LdapNetworkConnection ) context.connect(
+                i % context.getDataset().getUsers() );
+
+            // The notifications may not come for a while
+            connection.setTimeOut( 0L );
+            connections.add( connection );
+
+            SearchRequest searchRequest = new SearchRequestImpl();
+            searchRequest.setBase( new Dn( BenchmarkDirectoryService.PEOPLE ) );
+            searchRequest.setFilter( "(objectClass=inetOrgPerson)" );
+            searchRequest.setScope( SearchScope.SUBTREE );
+            searchRequest.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+            searchRequest.addAttributes( "description" );
+
+            PersistentSearch persistentSearch = new PersistentSearchImpl();
+            persistentSearch.setChangesOnly( true );
+            persistentSearch.setReturnECs( false );
+            persistentSearch.setChangeTypes( ChangeType.MODIFY.getValue() );
+            persistentSearch.setCritical( true );
+            searchRequest.addControl( persistentSearch );
+
+            SearchCursor cursor = connection.search( searchRequest );
+            Thread listener = new Thread( () -> listen( cursor, context.getReport() ), "psearch-listener-" + i );
+            listener.setDaemon( true );
+            listener.start();
+            listeners.add( listener );
+        }
+    }
+
+
+    private void listen( SearchCursor cursor, LoadReport report )
+    {
+        try
+        {
+            while ( cursor.next() )
+            {
+                if ( !cursor.isEntry() )
+                {
+                    continue;
+                }
+
+                Entry entry = cursor.getEntry();
+                long received = System.nanoTime();
+                Attribute description = entry.get( "description" );
+
+                if ( ( description != null ) && description.getString().startsWith( PREFIX ) )
+                {
+                    long sent = Long.parseLong( description.getString().substring( PREFIX.length() ) );
+                    report.record( "psearch.notify", received - sent );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            if ( !stopped )
+            {
+                LOG.warn( "The persistent search listener has failed", e );
+                report.error( "psearch.notify" );
+            }
+        }
+    }
+
+
+    @Override
+    public void execute( LdapConnection connection, LoadContext context ) throws Exception
+    {
+        Dataset dataset = context.getDataset();
+        Dn userDn = new Dn( dataset.getUserDn( dataset.randomUser() ) );
+
+        long start = System.nanoTime();
+        connection.modify( userDn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "description", PREFIX + start ) );
+        context.getReport().record( "psearch.modify", System.nanoTime() - start );
+    }
+
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        stopped = true;
+
+        for ( LdapConnection connection : connections )
+        {
+            connection.close();
+        }
+
+        for ( Thread listener : listeners )
+        {
+            listener.join( 1000L );
+        }
+
+        connections.clear();
+        listeners.clear();
+    }
+}
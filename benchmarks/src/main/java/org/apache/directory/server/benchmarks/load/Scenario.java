@@ -0,0 +1,67 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+
+/**
+ * A load scenario. The workers of a run pick the scenario to execute at each iteration
+ * according to the scenario weights, and give it their own connection, bound as a user
+ * of the data set. A scenario records the latency of each of its operations in the
+ * report; the failures are counted by the worker.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface Scenario
+{
+    /**
+     * @return The scenario name, as used in the workload mix
+     */
+    String getName();
+
+
+    /**
+     * Prepares the scenario, before the workers start.
+     *
+     * @param context The load context
+     * @throws Exception If the scenario can't be prepared
+     */
+    void setUp( LoadContext context ) throws Exception;
+
+
+    /**
+     * Executes one iteration of the scenario.
+     *
+     * @param connection The worker connection
+     * @param context The load context
+     * @throws Exception If an operation failed
+     */
+    void execute( LdapConnection connection, LoadContext context ) throws Exception;
+
+
+    /**
+     * Releases what the scenario has allocated, after the workers have stopped.
+     *
+     * @throws Exception If the scenario can't be cleaned up
+     */
+    void tearDown() throws Exception;
+}
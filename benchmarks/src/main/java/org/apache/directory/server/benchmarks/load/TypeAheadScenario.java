@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.benchmarks.load;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.benchmarks.BenchmarkDirectoryService;
+
+
+/**
+ * The searches done by a type-ahead field : a user types the first letters of a name,
+ * and the application searches the people whose cn starts with them, returning only
+ * the first few results. Each iteration is a sequence of searches with a growing
+ * prefix, from 1 to 4 letters, recorded as "typeahead".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TypeAheadScenario implements Scenario
+{
+    /** The scenario name */
+    public static final String NAME = "typeahead";
+
+    /** The maximum number of entries returned by a search */
+    private static final int SIZE_LIMIT = 10;
+
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+
+    @Override
+    public void setUp( LoadContext context )
+    {
+        // Nothing to do
+    }
+
+
+    @Override
+    public void execute( LdapConnection connection, LoadContext context ) throws Exception
+    {
+        String name = context.getDataset().randomGivenName();
+        int maxLength = Math.min( name.length(), 1 + ThreadLocalRandom.current().nextInt( 4 ) );
+
+        for ( int length = 1; length <= maxLength; length++ )
+        {
+            SearchRequest searchRequest = new SearchRequestImpl();
+            searchRequest.setBase( new Dn( BenchmarkDirectoryService.PEOPLE ) );
+            searchRequest.setFilter( "(cn=" + name.substring( 0, length ) + "*)" );
+            searchRequest.setScope( SearchScope.SUBTREE );
+            searchRequest.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+            searchRequest.setSizeLimit( SIZE_LIMIT );
+            searchRequest.addAttributes( "cn", "mail" );
+
+            long start = System.nanoTime();
+
+            try ( SearchCursor cursor = connection.search( searchRequest ) )
+            {
+                while ( cursor.next() )
+                {
+                    cursor.getEntry();
+                }
+            }
+
+            context.getReport().record( NAME, System.nanoTime() - start );
+        }
+    }
+
+
+    @Override
+    public void tearDown()
+    {
+        // Nothing to do
+    }
+}
@@ -31,7 +31,6 @@ import org.apache.directory.api.ldap.model.schema.registries.ComparatorRegistry;
 import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.api.util.exception.Exceptions;
@@ -41,6 +40,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InstanceLayout;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SnapshotSchemaLoader;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -175,7 +175,8 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
             // The schema has already been extracted, bypass
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        SchemaLoader loader = new SnapshotSchemaLoader( schemaRepository,
+            new File( workingDirectory, SnapshotSchemaLoader.SNAPSHOT_FILE_NAME ) );
         SchemaManager schemaManager = new DefaultSchemaManager( loader );
 
         // We have to load the schema now, otherwise we won't be able
@@ -38,6 +38,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.DeleteRequest;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
@@ -46,6 +47,7 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.changelog.LogChange;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -490,6 +492,35 @@ public interface CoreSession
     void modify( ModifyRequest modifyRequest, LogChange log ) throws LdapException;
 
 
+    /**
+     * Applies a batch of add and modify requests, in order. The entries and modifications
+     * are normalized in parallel, then the requests are applied holding the write lock once,
+     * and sharing one transaction per partition which is committed after the last request.
+     * If a request fails, these transactions are aborted. If a session transaction has been
+     * started, the requests are part of it instead, and are committed when it ends.
+     * <br>
+     * A failed batch is atomic only for the partitions content : the requests applied before
+     * the failing one have already been notified to the changelog, the journal and the event
+     * listeners (persistent searches, replication consumers), which are not told that these
+     * changes have been rolled back.
+     *
+     * @param requests The AddRequest and ModifyRequest to apply
+     * @throws LdapException If one of the requests failed, or is neither an add nor a modify
+     */
+    void batch( List<? extends Request> requests ) throws LdapException;
+
+
+    /**
+     * Applies a batch of add and modify requests, in order.
+     *
+     * @see #batch(List)
+     * @param requests The AddRequest and ModifyRequest to apply
+     * @param log a flag set if the changes should be stored in the changeLog
+     * @throws LdapException If one of the requests failed, or is neither an add nor a modify
+     */
+    void batch( List<? extends Request> requests, LogChange log ) throws LdapException;
+
+
     /**
      * Moves an entry or a branch of entries at a specified distinguished name
      * to a position under a new parent.
@@ -792,6 +823,21 @@ public interface CoreSession
     Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException;
 
 
+    /**
+     * Searches the directory, returning the entries ordered by ID after the given one, so that
+     * an interrupted search can be resumed. The entries are only ordered if the partition
+     * supports it, which is told by the {@link SearchOperationContext#isOrderedById()} flag of
+     * the returned cursor operation context. Searches based on the RootDSE are never ordered.
+     *
+     * @param searchRequest The SearchRequest to process
+     * @param afterId The ID of the last entry already returned, or an empty String to
+     * get all the entries
+     * @return A cursor to brows the search results
+     * @throws LdapException If the search failed
+     */
+    Cursor<Entry> search( SearchRequest searchRequest, String afterId ) throws LdapException;
+
+
     /**
      * Unbind from the current LdapSession.
      * 
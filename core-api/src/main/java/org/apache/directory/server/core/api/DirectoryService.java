@@ -42,6 +42,7 @@ import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -516,6 +517,14 @@ public interface DirectoryService extends ServerEntryFactory
     OperationManager getOperationManager();
 
 
+    /**
+     * Gets the registry of the operations latency histograms.
+     *
+     * @return the MetricsRegistry instance
+     */
+    MetricsRegistry getMetricsRegistry();
+
+
     /**
      * @return The maximum allowed size for an incoming PDU
      */
@@ -20,6 +20,7 @@
 package org.apache.directory.server.core.api;
 
 
+import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -35,6 +36,7 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
@@ -95,6 +97,24 @@ public interface OperationManager
     void modify( ModifyOperationContext modifyContext ) throws LdapException;
 
 
+    /**
+     * Applies a batch of add and modify operations, in order. The write lock is acquired once
+     * for the whole batch, and the operations share one transaction per partition, committed
+     * when the last operation has been applied. If an operation fails, the transactions are
+     * aborted and the exception is thrown.
+     * <br>
+     * If the session has already started a transaction, the operations are applied in this
+     * transaction, which will be committed or aborted when the session ends it.
+     * <br>
+     * The aborted operations are not removed from the changelog and the journal, and the
+     * event listeners have already been notified of them.
+     *
+     * @param contexts The Add and Modify operation contexts, all associated with the same session
+     * @throws LdapException If one of the operations failed
+     */
+    void batch( List<? extends OperationContext> contexts ) throws LdapException;
+
+
     /**
      * TODO document after determining if this method should be here.
      * 
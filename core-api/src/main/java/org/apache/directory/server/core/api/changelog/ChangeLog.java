@@ -100,6 +100,20 @@ public interface ChangeLog
     ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses ) throws LdapException;
 
 
+    /**
+     * Records a change as a forward LDIF, and the authorized principal triggering the
+     * revertable change event. The reverse changes are built when first needed.
+     *
+     * @param principal the authorized LDAP principal triggering the change
+     * @param forward LDIF of the change going to the next state
+     * @param reverseBuilder the builder of the changes required to revert this change
+     * @return the new revision reached after having applied the forward LDIF
+     * @throws LdapException if there are problems logging the change
+     */
+    ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, ReverseLdifBuilder reverseBuilder )
+        throws LdapException;
+
+
     /**
      * Returns whether or not this ChangeLogService supports searching for changes.
      *
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.server.core.api.LdapPrincipal;
 
@@ -48,7 +49,10 @@ public class ChangeLogEvent
     private LdifEntry forwardLdif;
 
     /** The revert changes. Can contain more than one single change */
-    private List<LdifEntry> reverseLdifs;
+    private volatile List<LdifEntry> reverseLdifs;
+
+    /** The builder of the revert changes, until they are built */
+    private ReverseLdifBuilder reverseBuilder;
 
 
     /**
@@ -92,6 +96,27 @@ public class ChangeLogEvent
     }
 
 
+    /**
+     * Creates a new instance of ChangeLogEvent, which revert changes will be built
+     * when first requested.
+     *
+     * @param revision the revision number for the change
+     * @param zuluTime the timestamp for when the change occurred in generalizedTime format
+     * @param committer the user who did the modification
+     * @param forwardLdif the original operation
+     * @param reverseBuilder the builder of the reverted operations
+     */
+    public ChangeLogEvent( long revision, String zuluTime, LdapPrincipal committer, LdifEntry forwardLdif,
+        ReverseLdifBuilder reverseBuilder )
+    {
+        this.zuluTime = zuluTime;
+        this.revision = revision;
+        this.forwardLdif = forwardLdif;
+        this.reverseBuilder = reverseBuilder;
+        this.committer = committer;
+    }
+
+
     /**
      * @return the forwardLdif
      */
@@ -106,7 +131,32 @@ public class ChangeLogEvent
      */
     public List<LdifEntry> getReverseLdifs()
     {
-        return reverseLdifs;
+        List<LdifEntry> reverses = reverseLdifs;
+
+        if ( reverses == null )
+        {
+            synchronized ( this )
+            {
+                reverses = reverseLdifs;
+
+                if ( ( reverses == null ) && ( reverseBuilder != null ) )
+                {
+                    try
+                    {
+                        reverses = reverseBuilder.build();
+                    }
+                    catch ( LdapException le )
+                    {
+                        throw new IllegalStateException( le.getMessage(), le );
+                    }
+
+                    reverseLdifs = reverses;
+                    reverseBuilder = null;
+                }
+            }
+        }
+
+        return reverses;
     }
 
 
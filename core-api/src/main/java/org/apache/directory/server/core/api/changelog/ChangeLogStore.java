@@ -94,6 +94,18 @@ public interface ChangeLogStore
     ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses );
 
 
+    /**
+     * Records a change as a forward LDIF, and the authorized principal triggering the
+     * revertable change event. The reverse changes are built when first needed.
+     *
+     * @param principal the authorized LDAP principal triggering the change
+     * @param forward LDIF of the change going to the next state
+     * @param reverseBuilder the builder of the changes required to revert this change
+     * @return the new revision reached after having applied the forward LDIF
+     */
+    ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, ReverseLdifBuilder reverseBuilder );
+
+
     /**
      * Looks up the ChangeLogEvent for a revision.
      *
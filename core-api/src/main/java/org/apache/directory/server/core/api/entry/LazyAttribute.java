@@ -0,0 +1,661 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Iterator;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * An {@link Attribute} which values are deserialized the first time they are accessed.
+ * The partitions use it when reading an entry from their master table, so that the
+ * attributes which are not used - typically, the attributes the client did not ask for,
+ * which are removed from the entry before it is returned - are never decoded.
+ * <br>
+ * The attribute is serialized with its own <code>writeExternal()</code> method, directly on
+ * a byte array, without the overhead of an <code>ObjectOutputStream</code>. As long as it has
+ * not been modified, cloning it only copies a reference to the serialized form, which is
+ * decoded once for all the clones, and writing it just copies the bytes. Reading its values,
+ * including iterating over them, does not modify it.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyAttribute extends DefaultAttribute
+{
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** The serialized attribute, shared with the clones */
+    private transient Serialized serialized;
+
+    /** Tells if the values have been decoded */
+    private transient volatile boolean decoded;
+
+    /** Tells if the values are being decoded, to avoid a reentrant decoding */
+    private transient boolean decoding;
+
+    /** Tells if the attribute has been modified since it has been decoded */
+    private transient boolean modified;
+
+
+    /**
+     * Creates a new LazyAttribute.
+     *
+     * @param attributeType The attribute's AttributeType
+     * @param bytes The serialized attribute
+     */
+    public LazyAttribute( AttributeType attributeType, byte[] bytes )
+    {
+        this( attributeType, new Serialized( bytes ) );
+    }
+
+
+    /**
+     * Creates a new LazyAttribute sharing the serialized form of another one.
+     */
+    private LazyAttribute( AttributeType attributeType, Serialized serialized )
+    {
+        super( attributeType );
+        this.serialized = serialized;
+    }
+
+
+    /**
+     * Serializes an attribute, in a form that can be used to create a LazyAttribute.
+     *
+     * @param attribute The attribute to serialize
+     * @return The serialized attribute
+     * @throws IOException If the attribute can't be serialized
+     */
+    public static byte[] serialize( Attribute attribute ) throws IOException
+    {
+        if ( attribute instanceof LazyAttribute )
+        {
+            byte[] bytes = ( ( LazyAttribute ) attribute ).getSerialized();
+
+            if ( bytes != null )
+            {
+                return bytes;
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataObjectOutput out = new DataObjectOutput( baos ) )
+        {
+            attribute.writeExternal( out );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * @return The serialized attribute, or null if it has been modified since it was read
+     */
+    public byte[] getSerialized()
+    {
+        synchronized ( this )
+        {
+            return modified ? null : serialized.bytes;
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the values have already been decoded
+     */
+    public boolean isDecoded()
+    {
+        return decoded;
+    }
+
+
+    /**
+     * Decodes the values, if not already done.
+     */
+    private void decode()
+    {
+        if ( !decoded )
+        {
+            synchronized ( this )
+            {
+                if ( !decoded && !decoding )
+                {
+                    decoding = true;
+
+                    try
+                    {
+                        Attribute values = serialized.decode( getAttributeType() );
+
+                        super.setUpId( values.getUpId(), getAttributeType() );
+
+                        for ( Value value : values )
+                        {
+                            super.add( value );
+                        }
+                    }
+                    catch ( IOException | ClassNotFoundException e )
+                    {
+                        throw new IllegalStateException( "Cannot decode the " + getId() + " attribute", e );
+                    }
+                    finally
+                    {
+                        decoding = false;
+                    }
+
+                    decoded = true;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Decodes the values, and mark the serialized form as obsolete.
+     */
+    private void decodeForUpdate()
+    {
+        decode();
+        markModified();
+    }
+
+
+    /**
+     * Marks the serialized form as obsolete, unless the values are being decoded.
+     */
+    private void markModified()
+    {
+        synchronized ( this )
+        {
+            if ( !decoding )
+            {
+                modified = true;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getBytes() throws LdapInvalidAttributeValueException
+    {
+        decode();
+
+        return super.getBytes();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getString() throws LdapInvalidAttributeValueException
+    {
+        decode();
+
+        return super.getString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUpId()
+    {
+        decode();
+
+        return super.getUpId();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUpId( String upId )
+    {
+        decodeForUpdate();
+
+        super.setUpId( upId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUpId( String upId, AttributeType attributeType )
+    {
+        decodeForUpdate();
+
+        super.setUpId( upId, attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isHumanReadable()
+    {
+        decode();
+
+        return super.isHumanReadable();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isValid( AttributeType attributeType ) throws LdapInvalidAttributeValueException
+    {
+        decode();
+
+        return super.isValid( attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void apply( AttributeType attributeType ) throws LdapInvalidAttributeValueException
+    {
+        decodeForUpdate();
+
+        super.apply( attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( Value... vals )
+    {
+        decodeForUpdate();
+
+        return super.add( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( String... vals )
+    {
+        decodeForUpdate();
+
+        return super.add( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( byte[]... vals )
+    {
+        decodeForUpdate();
+
+        return super.add( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        decodeForUpdate();
+
+        super.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Value... vals )
+    {
+        decode();
+
+        return super.contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( String... vals )
+    {
+        decode();
+
+        return super.contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( byte[]... vals )
+    {
+        decode();
+
+        return super.contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Value get()
+    {
+        decode();
+
+        return super.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        decode();
+
+        return super.size();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( Value... vals )
+    {
+        decodeForUpdate();
+
+        return super.remove( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( byte[]... vals )
+    {
+        decodeForUpdate();
+
+        return super.remove( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( String... vals )
+    {
+        decodeForUpdate();
+
+        return super.remove( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The values are immutable, so the attribute is only considered as modified
+     * when a value is removed through the iterator.
+     */
+    @Override
+    public Iterator<Value> iterator()
+    {
+        decode();
+
+        Iterator<Value> iterator = super.iterator();
+
+        return new Iterator<Value>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+
+            @Override
+            public Value next()
+            {
+                return iterator.next();
+            }
+
+
+            @Override
+            public void remove()
+            {
+                markModified();
+                iterator.remove();
+            }
+        };
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * If the attribute has not been modified, the clone shares the serialized form,
+     * and the values decoded from it.
+     */
+    @Override
+    public LazyAttribute clone()
+    {
+        synchronized ( this )
+        {
+            if ( !modified )
+            {
+                return new LazyAttribute( getAttributeType(), serialized );
+            }
+        }
+
+        return ( LazyAttribute ) super.clone();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        decode();
+
+        super.writeExternal( out );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        decode();
+
+        return super.hashCode();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        decode();
+
+        return super.equals( obj );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        decode();
+
+        return super.toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        decode();
+
+        return super.toString( tabs );
+    }
+
+
+    /**
+     * The serialized form of an attribute, and the values decoded from it. It is shared
+     * by a LazyAttribute and its clones, so that it is decoded only once. The decoded
+     * attribute is never modified : the LazyAttributes copy its values, which are immutable.
+     */
+    private static final class Serialized
+    {
+        /** The serialized attribute. Never modified */
+        private final byte[] bytes;
+
+        /** The attribute decoded from the bytes */
+        private volatile Attribute decoded;
+
+
+        private Serialized( byte[] bytes )
+        {
+            this.bytes = bytes;
+        }
+
+
+        /**
+         * Decodes the attribute, if not already done.
+         */
+        private Attribute decode( AttributeType attributeType ) throws IOException, ClassNotFoundException
+        {
+            Attribute attribute = decoded;
+
+            if ( attribute == null )
+            {
+                synchronized ( this )
+                {
+                    attribute = decoded;
+
+                    if ( attribute == null )
+                    {
+                        attribute = new DefaultAttribute( attributeType );
+
+                        try ( DataObjectInput in = new DataObjectInput( new ByteArrayInputStream( bytes ) ) )
+                        {
+                            attribute.readExternal( in );
+                        }
+
+                        decoded = attribute;
+                    }
+                }
+            }
+
+            return attribute;
+        }
+    }
+
+
+    /**
+     * An ObjectOutput writing the primitive types on a stream, without the headers of an
+     * ObjectOutputStream. The attributes and their values only write primitive types.
+     */
+    private static final class DataObjectOutput extends DataOutputStream implements ObjectOutput
+    {
+        private DataObjectOutput( ByteArrayOutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object obj ) throws IOException
+        {
+            throw new NotSerializableException( obj == null ? "null" : obj.getClass().getName() );
+        }
+    }
+
+
+    /**
+     * An ObjectInput reading the primitive types written by a {@link DataObjectOutput}.
+     */
+    private static final class DataObjectInput extends DataInputStream implements ObjectInput
+    {
+        private DataObjectInput( ByteArrayInputStream in )
+        {
+            super( in );
+        }
+
+
+        @Override
+        public Object readObject() throws IOException
+        {
+            throw new NotSerializableException( "Only primitive types can be read" );
+        }
+    }
+}
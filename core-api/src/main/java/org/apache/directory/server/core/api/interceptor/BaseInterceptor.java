@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -46,6 +47,8 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 
 
@@ -70,6 +73,9 @@ public abstract class BaseInterceptor implements Interceptor
     /** The DN factory */
     protected DnFactory dnFactory;
 
+    /** The registry used to record the time spent in the next interceptors */
+    private MetricsRegistry metricsRegistry;
+
     /** set of operational attribute types used for representing the password policy state of a user entry */
     protected static final Set<AttributeType> PWD_POLICY_STATE_ATTRIBUTE_TYPES = new HashSet<>();
 
@@ -283,6 +289,7 @@ public abstract class BaseInterceptor implements Interceptor
         this.directoryService = directoryService;
         schemaManager = directoryService.getSchemaManager();
         dnFactory = directoryService.getDnFactory();
+        metricsRegistry = directoryService.getMetricsRegistry();
 
         finalInterceptor.init( directoryService );
     }
@@ -316,6 +323,28 @@ public abstract class BaseInterceptor implements Interceptor
     }
 
 
+    /**
+     * Starts a timer measuring the time spent in the next interceptor, if the metrics are enabled.
+     */
+    private long startTimer()
+    {
+        return metricsRegistry == null ? 0L : metricsRegistry.startTimer();
+    }
+
+
+    /**
+     * Records the time spent in an interceptor, including the interceptors following it. For
+     * a search, it's the time needed to create the cursor.
+     */
+    private void stopTimer( Interceptor interceptor, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            metricsRegistry.record( Category.INTERCEPTOR, interceptor.getName(), operation, start );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // Interceptor's Invoke Method
     // ------------------------------------------------------------------------
@@ -337,8 +366,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( AddOperationContext addContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( addContext );
+        long start = startTimer();
 
-        interceptor.add( addContext );
+        try
+        {
+            interceptor.add( addContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.ADD, start );
+        }
     }
 
 
@@ -360,8 +397,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( BindOperationContext bindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( bindContext );
+        long start = startTimer();
 
-        interceptor.bind( bindContext );
+        try
+        {
+            interceptor.bind( bindContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.BIND, start );
+        }
     }
 
 
@@ -382,8 +427,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( CompareOperationContext compareContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( compareContext );
+        long start = startTimer();
 
-        return interceptor.compare( compareContext );
+        try
+        {
+            return interceptor.compare( compareContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.COMPARE, start );
+        }
     }
 
 
@@ -405,8 +458,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( DeleteOperationContext deleteContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( deleteContext );
+        long start = startTimer();
 
-        interceptor.delete( deleteContext );
+        try
+        {
+            interceptor.delete( deleteContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -430,8 +491,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( getRootDseContext );
+        long start = startTimer();
 
-        return interceptor.getRootDse( getRootDseContext );
+        try
+        {
+            return interceptor.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.GET_ROOT_DSE, start );
+        }
     }
 
 
@@ -455,8 +524,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( hasEntryContext );
+        long start = startTimer();
 
-        return interceptor.hasEntry( hasEntryContext );
+        try
+        {
+            return interceptor.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -479,8 +556,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( LookupOperationContext lookupContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( lookupContext );
+        long start = startTimer();
 
-        return interceptor.lookup( lookupContext );
+        try
+        {
+            return interceptor.lookup( lookupContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.LOOKUP, start );
+        }
     }
 
 
@@ -502,8 +587,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( ModifyOperationContext modifyContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( modifyContext );
+        long start = startTimer();
 
-        interceptor.modify( modifyContext );
+        try
+        {
+            interceptor.modify( modifyContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.MODIFY, start );
+        }
     }
 
 
@@ -525,8 +618,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveOperationContext moveContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveContext );
+        long start = startTimer();
 
-        interceptor.move( moveContext );
+        try
+        {
+            interceptor.move( moveContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -545,8 +646,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveAndRenameContext );
+        long start = startTimer();
 
-        interceptor.moveAndRename( moveAndRenameContext );
+        try
+        {
+            interceptor.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -568,8 +677,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( RenameOperationContext renameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( renameContext );
+        long start = startTimer();
 
-        interceptor.rename( renameContext );
+        try
+        {
+            interceptor.rename( renameContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.RENAME, start );
+        }
     }
 
 
@@ -592,8 +709,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final EntryFilteringCursor next( SearchOperationContext searchContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( searchContext );
+        long start = startTimer();
 
-        return interceptor.search( searchContext );
+        try
+        {
+            return interceptor.search( searchContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -615,7 +740,15 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( UnbindOperationContext unbindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( unbindContext );
+        long start = startTimer();
 
-        interceptor.unbind( unbindContext );
+        try
+        {
+            interceptor.unbind( unbindContext );
+        }
+        finally
+        {
+            stopTimer( interceptor, OperationEnum.UNBIND, start );
+        }
     }
 }
@@ -65,6 +65,12 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** The ID after which the entries are returned, ordered by ID, or null for an unordered search */
+    private String afterId;
+
+    /** Set by the partition when the entries are returned ordered by ID, after the afterId one */
+    private boolean orderedById;
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -221,6 +227,50 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return The ID after which the entries are returned, or null if the entries may be
+     * returned in any order
+     */
+    public String getAfterId()
+    {
+        return afterId;
+    }
+
+
+    /**
+     * Requests the entries to be returned ordered by ID, starting after the given one. This
+     * is used to resume a search where a previous one has stopped : an empty ID returns all
+     * the entries.
+     *
+     * @param afterId The ID of the last entry already returned, or null for an unordered search
+     */
+    public void setAfterId( String afterId )
+    {
+        this.afterId = afterId;
+    }
+
+
+    /**
+     * @return true if the partition has returned the entries ordered by ID, after the afterId one
+     */
+    public boolean isOrderedById()
+    {
+        return orderedById;
+    }
+
+
+    /**
+     * Tells that the entries are returned ordered by ID, after the afterId one. Only the
+     * partitions honoring the afterId set this flag.
+     *
+     * @param orderedById The flag to set
+     */
+    public void setOrderedById( boolean orderedById )
+    {
+        this.orderedById = orderedById;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
@@ -0,0 +1,273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds. The values are counted in log-linear
+ * buckets, in the way HdrHistogram does : each power of 2 is split in 16 sub-buckets, so a
+ * value is known with a relative error below 6.25%, whatever its magnitude. Recording a value
+ * is a few atomic increments, without any allocation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    /** The number of bits used for the sub-buckets */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** The number of sub-buckets per power of 2 */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The number of buckets, enough for any positive long value */
+    private static final int NB_BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    /** The counts per bucket */
+    private final AtomicLongArray counts = new AtomicLongArray( NB_BUCKETS );
+
+    /** The number of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    /** The maximum recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency, in nanoseconds. A negative value is recorded as 0.
+     */
+    public void record( long nanos )
+    {
+        long value = Math.max( nanos, 0L );
+
+        counts.incrementAndGet( getBucket( value ) );
+        count.increment();
+        sum.add( value );
+
+        long currentMax = max.get();
+
+        while ( ( value > currentMax ) && !max.compareAndSet( currentMax, value ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * Computes the bucket of a value
+     */
+    static int getBucket( long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return ( int ) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros( value );
+        int subBucket = ( int ) ( value >>> ( magnitude - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+
+        return ( magnitude - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * Computes the lowest value of a bucket
+     */
+    static long getLowestValue( int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+
+        return ( SUB_BUCKETS + subBucket ) << ( magnitude - SUB_BUCKET_BITS );
+    }
+
+
+    /**
+     * Gets the value at a given percentile.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at this percentile, in nanoseconds : the middle of the bucket containing it
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long total = 0L;
+        long[] snapshot = new long[NB_BUCKETS];
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            snapshot[i] = counts.get( i );
+            total += snapshot[i];
+        }
+
+        if ( total == 0L )
+        {
+            return 0L;
+        }
+
+        long rank = ( long ) Math.ceil( Math.min( Math.max( percentile, 0d ), 100d ) / 100d * total );
+        long seen = 0L;
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            seen += snapshot[i];
+
+            if ( ( seen >= rank ) && ( snapshot[i] != 0L ) )
+            {
+                long lowest = getLowestValue( i );
+                long highest = ( i + 1 < NB_BUCKETS ) ? getLowestValue( i + 1 ) - 1 : Long.MAX_VALUE;
+
+                return Math.min( lowest + ( highest - lowest ) / 2, max.get() );
+            }
+        }
+
+        return max.get();
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    @Override
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+
+    /**
+     * @return The sum of the recorded values, in nanoseconds
+     */
+    public long getTotal()
+    {
+        return sum.sum();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMean()
+    {
+        long nb = count.sum();
+
+        return nb == 0L ? 0d : toMicros( ( double ) sum.sum() / nb );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMax()
+    {
+        return toMicros( max.get() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPercentile50()
+    {
+        return toMicros( getValueAtPercentile( 50d ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPercentile90()
+    {
+        return toMicros( getValueAtPercentile( 90d ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPercentile99()
+    {
+        return toMicros( getValueAtPercentile( 99d ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPercentile999()
+    {
+        return toMicros( getValueAtPercentile( 99.9d ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            counts.set( i, 0L );
+        }
+
+        count.reset();
+        sum.reset();
+        max.set( 0L );
+    }
+
+
+    private static double toMicros( double nanos )
+    {
+        return nanos / TimeUnit.MICROSECONDS.toNanos( 1L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format( "count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus",
+            getCount(), getMean(), getPercentile50(), getPercentile90(), getPercentile99(), getPercentile999(),
+            getMax() );
+    }
+}
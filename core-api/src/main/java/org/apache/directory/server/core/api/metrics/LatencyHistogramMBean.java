@@ -0,0 +1,76 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+/**
+ * The JMX interface of a {@link LatencyHistogram}. The latencies are expressed in microseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface LatencyHistogramMBean
+{
+    /**
+     * @return The number of recorded latencies
+     */
+    long getCount();
+
+
+    /**
+     * @return The mean latency
+     */
+    double getMean();
+
+
+    /**
+     * @return The maximum latency
+     */
+    double getMax();
+
+
+    /**
+     * @return The median latency
+     */
+    double getPercentile50();
+
+
+    /**
+     * @return The 90th percentile latency
+     */
+    double getPercentile90();
+
+
+    /**
+     * @return The 99th percentile latency
+     */
+    double getPercentile99();
+
+
+    /**
+     * @return The 99.9th percentile latency
+     */
+    double getPercentile999();
+
+
+    /**
+     * Resets the histogram
+     */
+    void reset();
+}
@@ -0,0 +1,349 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The registry of the latency histograms of a DirectoryService. The histograms are
+ * identified by a {@link Category}, a name (an interceptor name, a partition ID, a result
+ * code...) and an optional {@link OperationEnum}. They are created the first time they are
+ * requested.
+ * <br>
+ * Nothing is recorded unless the registry is enabled : {@link #startTimer()} then returns 0,
+ * and {@link #record(Category, String, OperationEnum, long)} does nothing. Once registered
+ * in a MBeanServer, each histogram is exposed as a MBean named
+ * <code>org.apache.directory.server:type=Metrics,instance=&lt;id&gt;,category=&lt;category&gt;,
+ * name=&lt;name&gt;[,operation=&lt;operation&gt;]</code>.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( MetricsRegistry.class );
+
+    /** The JMX domain */
+    public static final String JMX_DOMAIN = "org.apache.directory.server";
+
+    /** The index used for the histograms which are not associated with an operation */
+    private static final int NO_OPERATION = OperationEnum.values().length;
+
+    /** The histograms categories */
+    public enum Category
+    {
+        /** The operations, as processed by the OperationManager */
+        OPERATION( "operation" ),
+
+        /** The operations, as processed by each interceptor and the ones following it */
+        INTERCEPTOR( "interceptor" ),
+
+        /** The operations, as processed by each partition */
+        PARTITION( "partition" ),
+
+        /** The LDAP requests, by result code */
+        RESULT_CODE( "resultCode" ),
+
+        /** The time spent by the LDAP requests waiting for a thread */
+        QUEUE_WAIT( "queueWait" ),
+
+        /** The time needed to verify the bind credentials, by password hashing scheme */
+        CREDENTIALS( "credentials" );
+
+        /** The category name */
+        private final String name;
+
+
+        Category( String name )
+        {
+            this.name = name;
+        }
+
+
+        /**
+         * @return The category name
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /** Tells if the latencies are recorded */
+    private volatile boolean enabled;
+
+    /** The histograms, by category and name, indexed by operation */
+    private final Map<Category, ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>>> histograms =
+        new ConcurrentHashMap<>();
+
+    /** The MBeanServer the histograms are registered in */
+    private MBeanServer mBeanServer;
+
+    /** The instance ID used in the MBeans names */
+    private String instanceId;
+
+
+    /**
+     * Creates a new, disabled, MetricsRegistry instance.
+     */
+    public MetricsRegistry()
+    {
+        for ( Category category : Category.values() )
+        {
+            histograms.put( category, new ConcurrentHashMap<>() );
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the latencies are recorded
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * Enables or disables the latencies recording.
+     *
+     * @param enabled <code>true</code> to record the latencies
+     */
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * Gets a histogram, creating it if needed.
+     *
+     * @param category The histogram category
+     * @param name The histogram name
+     * @param operation The operation, or <code>null</code>
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( Category category, String name, OperationEnum operation )
+    {
+        AtomicReferenceArray<LatencyHistogram> byOperation = histograms.get( category ).computeIfAbsent( name,
+            k -> new AtomicReferenceArray<>( NO_OPERATION + 1 ) );
+        int index = operation == null ? NO_OPERATION : operation.ordinal();
+        LatencyHistogram histogram = byOperation.get( index );
+
+        if ( histogram == null )
+        {
+            LatencyHistogram created = new LatencyHistogram();
+
+            if ( byOperation.compareAndSet( index, null, created ) )
+            {
+                histogram = created;
+                register( category, name, operation, histogram );
+            }
+            else
+            {
+                histogram = byOperation.get( index );
+            }
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * @return The current time in nanoseconds if the registry is enabled, 0 otherwise
+     */
+    public long startTimer()
+    {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Records the time elapsed since a timer was started.
+     *
+     * @param category The histogram category
+     * @param name The histogram name
+     * @param operation The operation, or <code>null</code>
+     * @param start The value returned by {@link #startTimer()}. Nothing is recorded if it's 0
+     */
+    public void record( Category category, String name, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( category, name, operation ).record( System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * @return All the histograms, sorted by key : the category, name and operation separated by '/'
+     */
+    public Map<String, LatencyHistogram> getHistograms()
+    {
+        Map<String, LatencyHistogram> result = new TreeMap<>();
+        OperationEnum[] operations = OperationEnum.values();
+
+        for ( Category category : Category.values() )
+        {
+            for ( Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : histograms.get( category )
+                .entrySet() )
+            {
+                AtomicReferenceArray<LatencyHistogram> byOperation = entry.getValue();
+
+                for ( int i = 0; i <= NO_OPERATION; i++ )
+                {
+                    LatencyHistogram histogram = byOperation.get( i );
+
+                    if ( histogram != null )
+                    {
+                        String key = category.getName() + '/' + entry.getKey();
+
+                        if ( i != NO_OPERATION )
+                        {
+                            key += '/' + operations[i].getMethodName();
+                        }
+
+                        result.put( key, histogram );
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Resets all the histograms
+     */
+    public void reset()
+    {
+        for ( LatencyHistogram histogram : getHistograms().values() )
+        {
+            histogram.reset();
+        }
+    }
+
+
+    /**
+     * Registers the existing and future histograms as MBeans.
+     *
+     * @param mBeanServer The MBeanServer
+     * @param instanceId The DirectoryService instance ID
+     */
+    public synchronized void registerMBeans( MBeanServer mBeanServer, String instanceId )
+    {
+        this.mBeanServer = mBeanServer;
+        this.instanceId = instanceId;
+        OperationEnum[] operations = OperationEnum.values();
+
+        for ( Category category : Category.values() )
+        {
+            for ( Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : histograms.get( category )
+                .entrySet() )
+            {
+                for ( int i = 0; i <= NO_OPERATION; i++ )
+                {
+                    LatencyHistogram histogram = entry.getValue().get( i );
+
+                    if ( histogram != null )
+                    {
+                        register( category, entry.getKey(), i == NO_OPERATION ? null : operations[i], histogram );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Unregisters all the MBeans registered by this registry.
+     */
+    public synchronized void unregisterMBeans()
+    {
+        if ( mBeanServer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            for ( ObjectName name : mBeanServer.queryNames( new ObjectName( JMX_DOMAIN + ":type=Metrics,instance="
+                + ObjectName.quote( instanceId ) + ",*" ), null ) )
+            {
+                mBeanServer.unregisterMBean( name );
+            }
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Cannot unregister the metrics MBeans : {}", jme.getMessage() );
+        }
+
+        mBeanServer = null;
+    }
+
+
+    private synchronized void register( Category category, String name, OperationEnum operation,
+        LatencyHistogram histogram )
+    {
+        if ( mBeanServer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            StringBuilder sb = new StringBuilder( JMX_DOMAIN );
+            sb.append( ":type=Metrics,instance=" ).append( ObjectName.quote( instanceId ) );
+            sb.append( ",category=" ).append( category.getName() );
+            sb.append( ",name=" ).append( ObjectName.quote( name ) );
+
+            if ( operation != null )
+            {
+                sb.append( ",operation=" ).append( operation.getMethodName() );
+            }
+
+            ObjectName objectName = new ObjectName( sb.toString() );
+
+            if ( !mBeanServer.isRegistered( objectName ) )
+            {
+                mBeanServer.registerMBean( histogram, objectName );
+            }
+        }
+        catch ( JMException jme )
+        {
+            LOG.warn( "Cannot register the {} {} metrics MBean : {}", category.getName(), name, jme.getMessage() );
+        }
+    }
+}
@@ -20,20 +20,188 @@
 package org.apache.directory.server.core.api.partition;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * The Write Transaction interface
+ * The Write Transaction interface.
+ * <br>
+ * A partition can attach some actions to a write transaction : the commit actions are run
+ * within the transaction, before its changes are committed, the after commit actions once
+ * they have been committed, and the abort actions when the transaction is aborted, in the
+ * reverse order. Each action is registered with a key, and registering a second action with
+ * the same key does nothing : a partition can register its actions on each operation.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /**
+     * An action run when a transaction is committed or aborted
+     */
+    @FunctionalInterface
+    public interface Action
+    {
+        /**
+         * Runs the action
+         * 
+         * @throws IOException If the action failed
+         */
+        void run() throws IOException;
+    }
+
+    /** The actions to run before the changes are committed */
+    private final Map<Object, Action> commitActions = new LinkedHashMap<>();
+
+    /** The actions to run after the changes have been committed */
+    private final Map<Object, Action> afterCommitActions = new LinkedHashMap<>();
+
+    /** The actions to run when the transaction is aborted */
+    private final Map<Object, Action> abortActions = new LinkedHashMap<>();
+
+
+    /**
+     * Registers an action to run within this transaction, before its changes are committed.
+     * 
+     * @param key The action key
+     * @param action The action to run
+     */
+    public synchronized void onCommit( Object key, Action action )
+    {
+        commitActions.putIfAbsent( key, action );
+    }
+
+
+    /**
+     * Registers an action to run once the changes of this transaction have been committed.
+     * 
+     * @param key The action key
+     * @param action The action to run
+     */
+    public synchronized void afterCommit( Object key, Action action )
+    {
+        afterCommitActions.putIfAbsent( key, action );
+    }
+
+
+    /**
+     * Registers an action to run if this transaction is aborted.
+     * 
+     * @param key The action key
+     * @param action The action to run
+     */
+    public synchronized void onAbort( Object key, Action action )
+    {
+        abortActions.putIfAbsent( key, action );
+    }
+
+
+    /**
+     * Runs the commit actions. The implementations must call this method before committing
+     * their changes.
+     * 
+     * @throws IOException If one of the actions failed
+     */
+    protected void runCommitActions() throws IOException
+    {
+        List<Action> actions;
+
+        synchronized ( this )
+        {
+            actions = new ArrayList<>( commitActions.values() );
+            commitActions.clear();
+        }
+
+        for ( Action action : actions )
+        {
+            action.run();
+        }
+    }
+
+
+    /**
+     * Runs the after commit actions, and drops the abort actions. The implementations must call
+     * this method once their changes have been committed.
+     * 
+     * @throws IOException If one of the actions failed
+     */
+    protected void runAfterCommitActions() throws IOException
+    {
+        List<Action> actions;
+
+        synchronized ( this )
+        {
+            actions = new ArrayList<>( afterCommitActions.values() );
+            afterCommitActions.clear();
+            abortActions.clear();
+        }
+
+        for ( Action action : actions )
+        {
+            action.run();
+        }
+    }
+
+
+    /**
+     * Runs the abort actions, in the reverse order of their registration, and drops the commit
+     * actions. The implementations must call this method once their changes have been rolled back.
+     * All the actions are run, even if one of them fails.
+     * 
+     * @throws IOException If one of the actions failed
+     */
+    protected void runAbortActions() throws IOException
+    {
+        List<Action> actions;
+
+        synchronized ( this )
+        {
+            actions = new ArrayList<>( abortActions.values() );
+            commitActions.clear();
+            afterCommitActions.clear();
+            abortActions.clear();
+        }
+
+        Collections.reverse( actions );
+        IOException error = null;
+
+        for ( Action action : actions )
+        {
+            try
+            {
+                action.run();
+            }
+            catch ( IOException ioe )
+            {
+                if ( error == null )
+                {
+                    error = ioe;
+                }
+                else
+                {
+                    error.addSuppressed( ioe );
+                }
+            }
+        }
+
+        if ( error != null )
+        {
+            throw error;
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void commit() throws IOException
     {
+        runCommitActions();
+        runAfterCommitActions();
     }
 
 
@@ -43,6 +211,7 @@ public class PartitionWriteTxn implements PartitionTxn
     @Override
     public void abort() throws IOException
     {
+        runAbortActions();
     }
 
 
@@ -0,0 +1,81 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * The SearchPlan control. When a search request contains this control, the partition
+ * answering the search describes the plan it has used in a response control with the
+ * same OID, attached to the SearchResultDone. The plan is a UTF-8 text describing the
+ * filter tree, with the estimated number of candidates and cost of each node, and the
+ * child used to enumerate the candidates of each conjunction.
+ * <br>
+ * The request control has no value. The plan exposes the index statistics, so it is only
+ * returned to the administrators.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SearchPlanControl
+{
+    /** The SearchPlan control OID */
+    public static final String OID = "1.3.6.1.4.1.18060.0.0.1.100";
+
+
+    private SearchPlanControl()
+    {
+    }
+
+
+    /**
+     * Creates the response control containing a search plan.
+     *
+     * @param plan The plan description
+     * @return The response control
+     */
+    public static Control newResponse( String plan )
+    {
+        OpaqueControl control = new OpaqueControl( OID );
+        control.setEncodedValue( Strings.getBytesUtf8( plan ) );
+
+        return control;
+    }
+
+
+    /**
+     * Gets the plan contained in a SearchPlan response control.
+     *
+     * @param control The response control
+     * @return The plan description, or null if the control does not contain a plan
+     */
+    public static String getPlan( Control control )
+    {
+        if ( !( control instanceof OpaqueControl ) || !( ( OpaqueControl ) control ).hasEncodedValue() )
+        {
+            return null;
+        }
+
+        return Strings.utf8ToString( ( ( OpaqueControl ) control ).getEncodedValue() );
+    }
+}
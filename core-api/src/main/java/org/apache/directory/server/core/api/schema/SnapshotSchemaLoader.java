@@ -0,0 +1,651 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A SchemaLoader reading the schema elements from a binary snapshot of an extracted LDIF
+ * schema repository, instead of parsing one LDIF file per schema element like the
+ * LdifSchemaLoader does.
+ * <br>
+ * The snapshot contains a fingerprint of the LDIF repository, computed from the path, the
+ * size and the modification date of all the LDIF files. When the snapshot is missing, is
+ * corrupted, or does not match the repository anymore (because the schema has been
+ * modified), the LDIF files are parsed and a new snapshot is written.
+ * <br>
+ * The snapshot file is structured as :
+ * <pre>
+ * [magic][version][fingerprint length][fingerprint][payload length][payload CRC32]
+ * [payload] : [nb entries] ([category][schema name][entry length][externalized entry])*
+ * </pre>
+ * It's memory mapped when loaded, and the entries are only deserialized when the
+ * SchemaManager requests them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotSchemaLoader extends AbstractSchemaLoader
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SnapshotSchemaLoader.class );
+
+    /** The magic number at the beginning of the snapshot : "ADSS" */
+    private static final int MAGIC = 0x41445353;
+
+    /** The snapshot format version */
+    private static final int VERSION = 1;
+
+    /** The default name of the snapshot file, stored next to the schema partition directory */
+    public static final String SNAPSHOT_FILE_NAME = "schema.snapshot";
+
+    /** The LDIF files extension */
+    private static final String LDIF_EXT = ".ldif";
+
+    /** The schema entries categories, and the directories they are stored into */
+    private enum Category
+    {
+        SCHEMA( null ),
+        ATTRIBUTE_TYPES( SchemaConstants.ATTRIBUTE_TYPES_PATH ),
+        COMPARATORS( SchemaConstants.COMPARATORS_PATH ),
+        DIT_CONTENT_RULES( SchemaConstants.DIT_CONTENT_RULES_PATH ),
+        DIT_STRUCTURE_RULES( SchemaConstants.DIT_STRUCTURE_RULES_PATH ),
+        MATCHING_RULES( SchemaConstants.MATCHING_RULES_PATH ),
+        MATCHING_RULE_USE( SchemaConstants.MATCHING_RULE_USE_PATH ),
+        NAME_FORMS( SchemaConstants.NAME_FORMS_PATH ),
+        NORMALIZERS( SchemaConstants.NORMALIZERS_PATH ),
+        OBJECT_CLASSES( SchemaConstants.OBJECT_CLASSES_PATH ),
+        SYNTAXES( SchemaConstants.SYNTAXES_PATH ),
+        SYNTAX_CHECKERS( SchemaConstants.SYNTAX_CHECKERS_PATH );
+
+        /** The directory name */
+        private final String directory;
+
+
+        Category( String directory )
+        {
+            this.directory = directory;
+        }
+
+
+        private static Category fromDirectory( String directory )
+        {
+            for ( Category category : values() )
+            {
+                if ( ( category.directory != null ) && category.directory.equalsIgnoreCase( directory ) )
+                {
+                    return category;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /** The extracted LDIF schema repository */
+    private final File baseDirectory;
+
+    /** The snapshot file */
+    private final File snapshotFile;
+
+    /** The serialized entries, by schema name and category */
+    private final Map<String, Map<Category, List<ByteBuffer>>> entries = new HashMap<>();
+
+
+    /**
+     * Creates a new SnapshotSchemaLoader instance. The snapshot is read, or created if it does
+     * not match the LDIF repository, and the schemas are initialized.
+     *
+     * @param baseDirectory The directory containing the extracted LDIF schema (the one
+     * containing the ou=schema directory)
+     * @param snapshotFile The snapshot file
+     * @throws LdapException If the LDIF repository can't be parsed
+     * @throws IOException If the LDIF repository can't be read
+     */
+    public SnapshotSchemaLoader( File baseDirectory, File snapshotFile ) throws LdapException, IOException
+    {
+        this.baseDirectory = baseDirectory;
+        this.snapshotFile = snapshotFile;
+
+        File schemaDirectory = new File( baseDirectory, SchemaConstants.OU_SCHEMA );
+
+        if ( !schemaDirectory.exists() )
+        {
+            throw new IOException( "The schema directory " + schemaDirectory + " does not exist" );
+        }
+
+        long start = System.currentTimeMillis();
+        List<Path> ldifFiles = listLdifFiles( schemaDirectory.toPath() );
+        byte[] fingerprint = computeFingerprint( schemaDirectory.toPath(), ldifFiles );
+
+        if ( !readSnapshot( fingerprint ) )
+        {
+            LOG.info( "The schema snapshot {} is missing or outdated, it will be rebuilt", snapshotFile );
+            ByteBuffer payload = parseLdif( schemaDirectory.toPath(), ldifFiles );
+            writeSnapshot( fingerprint, payload );
+            indexPayload( payload );
+        }
+
+        initializeSchemas();
+
+        LOG.debug( "Schema snapshot loaded in {} ms", System.currentTimeMillis() - start );
+    }
+
+
+    /**
+     * Lists the LDIF files of the schema repository, sorted by path
+     */
+    private static List<Path> listLdifFiles( Path schemaDirectory ) throws IOException
+    {
+        try ( Stream<Path> paths = Files.walk( schemaDirectory ) )
+        {
+            return paths
+                .filter( path -> path.getFileName().toString().toLowerCase().endsWith( LDIF_EXT ) )
+                .sorted()
+                .collect( Collectors.toList() );
+        }
+    }
+
+
+    /**
+     * Computes a SHA-1 digest of the relative path, size and modification date of the LDIF files
+     */
+    private static byte[] computeFingerprint( Path schemaDirectory, List<Path> ldifFiles ) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            ByteBuffer buffer = ByteBuffer.allocate( 16 );
+
+            for ( Path path : ldifFiles )
+            {
+                digest.update( Strings.getBytesUtf8( schemaDirectory.relativize( path ).toString() ) );
+                buffer.clear();
+                buffer.putLong( Files.size( path ) );
+                buffer.putLong( Files.getLastModifiedTime( path ).toMillis() );
+                digest.update( buffer.array() );
+            }
+
+            return digest.digest();
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IOException( nsae.getMessage(), nsae );
+        }
+    }
+
+
+    /**
+     * Reads and checks the snapshot.
+     *
+     * @return <code>true</code> if the snapshot is valid and matches the repository fingerprint
+     */
+    private boolean readSnapshot( byte[] fingerprint )
+    {
+        if ( !snapshotFile.exists() )
+        {
+            return false;
+        }
+
+        try ( FileChannel channel = FileChannel.open( snapshotFile.toPath(), StandardOpenOption.READ ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+            if ( ( buffer.getInt() != MAGIC ) || ( buffer.getInt() != VERSION ) )
+            {
+                return false;
+            }
+
+            byte[] snapshotFingerprint = new byte[buffer.getInt()];
+            buffer.get( snapshotFingerprint );
+
+            if ( !Arrays.equals( fingerprint, snapshotFingerprint ) )
+            {
+                return false;
+            }
+
+            int payloadLength = buffer.getInt();
+            long payloadCrc = buffer.getLong();
+
+            if ( buffer.remaining() != payloadLength )
+            {
+                return false;
+            }
+
+            ByteBuffer payload = buffer.slice();
+            CRC32 crc = new CRC32();
+            crc.update( payload.duplicate() );
+
+            if ( crc.getValue() != payloadCrc )
+            {
+                LOG.warn( "The schema snapshot {} is corrupted", snapshotFile );
+
+                return false;
+            }
+
+            indexPayload( payload );
+
+            return true;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            LOG.warn( "Cannot read the schema snapshot {} : {}", snapshotFile, e.getMessage() );
+            entries.clear();
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Parses all the LDIF files, and serializes them into a payload
+     */
+    private ByteBuffer parseLdif( Path schemaDirectory, List<Path> ldifFiles ) throws LdapException, IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream( 1024 * 1024 );
+        DataOutputStream out = new DataOutputStream( payload );
+        List<byte[]> records = new ArrayList<>( ldifFiles.size() );
+
+        for ( Path path : ldifFiles )
+        {
+            Path relative = schemaDirectory.relativize( path );
+            Category category;
+            String schemaName;
+
+            if ( relative.getNameCount() == 1 )
+            {
+                // ou=schema/cn=<schema>.ldif
+                String fileName = relative.getFileName().toString();
+                category = Category.SCHEMA;
+                schemaName = fileName.substring( fileName.indexOf( '=' ) + 1, fileName.length() - LDIF_EXT.length() );
+            }
+            else if ( relative.getNameCount() == 3 )
+            {
+                // ou=schema/cn=<schema>/ou=<category>/<element>.ldif
+                String schemaDir = relative.getName( 0 ).toString();
+                category = Category.fromDirectory( relative.getName( 1 ).toString() );
+                schemaName = schemaDir.substring( schemaDir.indexOf( '=' ) + 1 );
+            }
+            else
+            {
+                continue;
+            }
+
+            if ( category == null )
+            {
+                continue;
+            }
+
+            Entry entry;
+
+            try ( LdifReader reader = new LdifReader( path.toFile() ) )
+            {
+                LdifEntry ldifEntry = reader.next();
+
+                if ( ldifEntry == null )
+                {
+                    LOG.warn( "The schema file {} does not contain any entry", path );
+                    continue;
+                }
+
+                entry = ldifEntry.getEntry();
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( DataOutputStream header = new DataOutputStream( baos ) )
+            {
+                header.writeByte( category.ordinal() );
+                header.writeUTF( Strings.toLowerCaseAscii( schemaName ) );
+                byte[] serialized = serialize( entry );
+                header.writeInt( serialized.length );
+                header.write( serialized );
+            }
+
+            records.add( baos.toByteArray() );
+        }
+
+        out.writeInt( records.size() );
+
+        for ( byte[] record : records )
+        {
+            out.write( record );
+        }
+
+        out.flush();
+
+        return ByteBuffer.wrap( payload.toByteArray() );
+    }
+
+
+    private static byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            entry.writeExternal( out );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Writes the snapshot in a temporary file, then renames it. A failure is only logged.
+     */
+    private void writeSnapshot( byte[] fingerprint, ByteBuffer payload )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( payload.duplicate() );
+
+        ByteBuffer header = ByteBuffer.allocate( 4 + 4 + 4 + fingerprint.length + 4 + 8 );
+        header.putInt( MAGIC );
+        header.putInt( VERSION );
+        header.putInt( fingerprint.length );
+        header.put( fingerprint );
+        header.putInt( payload.remaining() );
+        header.putLong( crc.getValue() );
+        header.flip();
+
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+
+        try
+        {
+            try ( FileChannel channel = FileChannel.open( tmpFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+            {
+                ByteBuffer content = payload.duplicate();
+
+                while ( header.hasRemaining() || content.hasRemaining() )
+                {
+                    channel.write( new ByteBuffer[]
+                        { header, content } );
+                }
+
+                channel.force( true );
+            }
+
+            Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot write the schema snapshot {} : {}", snapshotFile, ioe.getMessage() );
+        }
+    }
+
+
+    /**
+     * Reads the entries headers from the payload, keeping a slice for each entry
+     */
+    private void indexPayload( ByteBuffer payload )
+    {
+        ByteBuffer buffer = payload.duplicate();
+        int nbEntries = buffer.getInt();
+        Category[] categories = Category.values();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            Category category = categories[buffer.get()];
+            int nameLength = buffer.getShort() & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            buffer.get( name );
+            String schemaName = new String( name, StandardCharsets.UTF_8 );
+            int length = buffer.getInt();
+
+            ByteBuffer entry = buffer.slice();
+            entry.limit( length );
+            buffer.position( buffer.position() + length );
+
+            entries.computeIfAbsent( schemaName, k -> new EnumMap<>( Category.class ) )
+                .computeIfAbsent( category, k -> new ArrayList<>() ).add( entry );
+        }
+    }
+
+
+    /**
+     * Creates the Schema instances from the schema entries
+     */
+    private void initializeSchemas() throws LdapException, IOException
+    {
+        for ( Map<Category, List<ByteBuffer>> schemaEntries : entries.values() )
+        {
+            List<ByteBuffer> schemaEntry = schemaEntries.get( Category.SCHEMA );
+
+            if ( schemaEntry != null )
+            {
+                Schema schema = getSchema( deserialize( schemaEntry.get( 0 ) ) );
+                schemaMap.put( schema.getSchemaName(), schema );
+            }
+        }
+    }
+
+
+    private static Entry deserialize( ByteBuffer buffer ) throws IOException
+    {
+        ByteBuffer source = buffer.duplicate();
+        byte[] data = new byte[source.remaining()];
+        source.get( data );
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            Entry entry = new DefaultEntry();
+            entry.readExternal( in );
+
+            return entry;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+
+
+    /**
+     * Deserializes the entries of a category for a set of schemas
+     */
+    private List<Entry> load( Category category, Schema... schemas ) throws IOException
+    {
+        List<Entry> result = new ArrayList<>();
+
+        if ( schemas == null )
+        {
+            return result;
+        }
+
+        for ( Schema schema : schemas )
+        {
+            Map<Category, List<ByteBuffer>> schemaEntries = entries.get(
+                Strings.toLowerCaseAscii( schema.getSchemaName() ) );
+
+            if ( schemaEntries == null )
+            {
+                continue;
+            }
+
+            for ( ByteBuffer buffer : schemaEntries.getOrDefault( category, Collections.emptyList() ) )
+            {
+                result.add( deserialize( buffer ) );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadComparators( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.COMPARATORS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxCheckers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.SYNTAX_CHECKERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNormalizers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.NORMALIZERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.MATCHING_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.SYNTAXES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadAttributeTypes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.ATTRIBUTE_TYPES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRuleUses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.MATCHING_RULE_USE, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNameForms( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.NAME_FORMS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitContentRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.DIT_CONTENT_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitStructureRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.DIT_STRUCTURE_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadObjectClasses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( Category.OBJECT_CLASSES, schemas );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "SnapshotSchemaLoader[" + baseDirectory + ", " + snapshotFile + ", " + entries.size() + " schemas]";
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.subtree;
+
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+
+
+/**
+ * A Subentry stored in the {@link SubentryCache}, with the parts of its subtree
+ * specification which only depend on its position in the DIT computed once, when
+ * it's added into the cache :
+ * <ul>
+ *   <li>the administrative point Dn</li>
+ *   <li>the subtree base Dn, ie the AP Dn concatenated with the specification base</li>
+ *   <li>whether the specification has some chop exclusions</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexedSubentry
+{
+    /** The subentry Dn */
+    private final Dn dn;
+
+    /** The administrative point Dn */
+    private final Dn apDn;
+
+    /** The subtree base Dn */
+    private final Dn baseDn;
+
+    /** The subentry */
+    private final Subentry subentry;
+
+    /** Tells if the subtree specification has some chop exclusions */
+    private final boolean hasChopExclusions;
+
+
+    /**
+     * Creates a new instance of IndexedSubentry.
+     *
+     * @param dn The subentry Dn
+     * @param subentry The Subentry
+     * @throws IllegalArgumentException If the subtree base can't be added to the AP Dn
+     */
+    public IndexedSubentry( Dn dn, Subentry subentry )
+    {
+        this.dn = dn;
+        this.subentry = subentry;
+        apDn = dn.getParent();
+
+        SubtreeSpecification subtree = subentry.getSubtreeSpecification();
+
+        if ( subtree != null )
+        {
+            try
+            {
+                baseDn = apDn.add( subtree.getBase() );
+            }
+            catch ( LdapInvalidDnException lide )
+            {
+                throw new IllegalArgumentException( lide.getMessage(), lide );
+            }
+
+            hasChopExclusions = !subtree.getChopBeforeExclusions().isEmpty()
+                || !subtree.getChopAfterExclusions().isEmpty();
+        }
+        else
+        {
+            baseDn = apDn;
+            hasChopExclusions = false;
+        }
+    }
+
+
+    /**
+     * @return The subentry Dn
+     */
+    public Dn getDn()
+    {
+        return dn;
+    }
+
+
+    /**
+     * @return The administrative point Dn
+     */
+    public Dn getApDn()
+    {
+        return apDn;
+    }
+
+
+    /**
+     * @return The subtree base Dn
+     */
+    public Dn getBaseDn()
+    {
+        return baseDn;
+    }
+
+
+    /**
+     * @return The Subentry
+     */
+    public Subentry getSubentry()
+    {
+        return subentry;
+    }
+
+
+    /**
+     * @return The Subentry subtree specification
+     */
+    public SubtreeSpecification getSubtreeSpecification()
+    {
+        return subentry.getSubtreeSpecification();
+    }
+
+
+    /**
+     * @return <code>true</code> if the subtree specification has some chop exclusions
+     */
+    public boolean hasChopExclusions()
+    {
+        return hasChopExclusions;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "IndexedSubentry[" + dn + ", base " + baseDn + "]";
+    }
+}
@@ -20,12 +20,17 @@
 package org.apache.directory.server.core.api.subtree;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
 
 
@@ -34,6 +39,10 @@ import org.apache.directory.api.ldap.model.subtree.Subentry;
  * representing its position in the DIT.<br>
  * This cache has a size limit set to 1000 at the moment. We should add a configuration
  * parameter to manage its size.
+ * <br>
+ * The subentries are also indexed by administrative point, in a tree of Rdns, so that
+ * the subentries which may select an entry (those whose AP is the entry or one of its
+ * ancestors) can be found without iterating over all the subentries.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -49,7 +58,24 @@ public class SubentryCache implements Iterable<Dn>
     private AtomicInteger cacheSize;
 
     /** The Subentry cache */
-    private final Map<Dn, Subentry> cache;
+    private final Map<Dn, IndexedSubentry> cache;
+
+    /** The root of the administrative points tree */
+    private final ApNode root = new ApNode();
+
+
+    /**
+     * A node in the administrative points tree. It holds the subentries stored
+     * directly below the AP it represents.
+     */
+    private static final class ApNode
+    {
+        /** The children, by Rdn */
+        private final Map<Rdn, ApNode> children = new ConcurrentHashMap<>();
+
+        /** The subentries of this AP */
+        private final List<IndexedSubentry> subentries = new CopyOnWriteArrayList<>();
+    }
 
 
     /**
@@ -83,7 +109,119 @@ public class SubentryCache implements Iterable<Dn>
      */
     public final Subentry getSubentry( Dn dn )
     {
-        return cache.get( dn );
+        IndexedSubentry indexedSubentry = cache.get( dn );
+
+        return indexedSubentry == null ? null : indexedSubentry.getSubentry();
+    }
+
+
+    /**
+     * Gets the subentries which may select an entry, ie the subentries whose administrative
+     * point is the entry itself or one of its ancestors. They are ordered from the
+     * closest to the root to the closest to the entry.
+     *
+     * @param dn The entry Dn
+     * @return The list of subentries, which may be empty
+     */
+    public List<IndexedSubentry> getSubentries( Dn dn )
+    {
+        List<Rdn> rdns = dn.getRdns();
+        List<IndexedSubentry> subentries = null;
+        ApNode node = root;
+
+        // The Rdns are ordered from the entry to the root
+        for ( int i = rdns.size() - 1; i >= 0; i-- )
+        {
+            node = node.children.get( rdns.get( i ) );
+
+            if ( node == null )
+            {
+                break;
+            }
+
+            if ( !node.subentries.isEmpty() )
+            {
+                if ( subentries == null )
+                {
+                    subentries = new ArrayList<>();
+                }
+
+                subentries.addAll( node.subentries );
+            }
+        }
+
+        if ( subentries == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return subentries;
+    }
+
+
+    /**
+     * Gets the subentries which may select an entry, before or after it has been renamed
+     * or moved.
+     *
+     * @param oldDn The entry Dn before the operation
+     * @param newDn The entry Dn after the operation
+     * @return The list of subentries, without duplicates
+     */
+    public List<IndexedSubentry> getSubentries( Dn oldDn, Dn newDn )
+    {
+        List<IndexedSubentry> subentries = getSubentries( oldDn );
+        List<IndexedSubentry> newSubentries = getSubentries( newDn );
+
+        if ( subentries.isEmpty() )
+        {
+            return newSubentries;
+        }
+
+        List<IndexedSubentry> result = new ArrayList<>( subentries );
+
+        for ( IndexedSubentry subentry : newSubentries )
+        {
+            if ( !subentries.contains( subentry ) )
+            {
+                result.add( subentry );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Gets the node of an administrative point.
+     *
+     * @param apDn The AP Dn
+     * @param create If the missing nodes must be created
+     * @return The node, or null if it does not exist and create is false
+     */
+    private ApNode getNode( Dn apDn, boolean create )
+    {
+        List<Rdn> rdns = apDn.getRdns();
+        ApNode node = root;
+
+        for ( int i = rdns.size() - 1; i >= 0; i-- )
+        {
+            ApNode child = node.children.get( rdns.get( i ) );
+
+            if ( child == null )
+            {
+                if ( !create )
+                {
+                    return null;
+                }
+
+                child = new ApNode();
+                node.children.put( rdns.get( i ), child );
+            }
+
+            node = child;
+        }
+
+        return node;
     }
 
 
@@ -94,16 +232,24 @@ public class SubentryCache implements Iterable<Dn>
      * associated Subentry
      * @return The removed Subentry, if any
      */
-    public final Subentry removeSubentry( Dn dn )
+    public final synchronized Subentry removeSubentry( Dn dn )
     {
-        Subentry oldSubentry = cache.remove( dn );
+        IndexedSubentry oldSubentry = cache.remove( dn );
 
         if ( oldSubentry != null )
         {
             cacheSize.decrementAndGet();
+            ApNode node = getNode( oldSubentry.getApDn(), false );
+
+            if ( node != null )
+            {
+                node.subentries.remove( oldSubentry );
+            }
+
+            return oldSubentry.getSubentry();
         }
 
-        return oldSubentry;
+        return null;
     }
 
 
@@ -114,21 +260,29 @@ public class SubentryCache implements Iterable<Dn>
      * @param subentry The SubtreeSpecification
      * @return The old Subentry, if any
      */
-    public Subentry addSubentry( Dn dn, Subentry subentry )
+    public synchronized Subentry addSubentry( Dn dn, Subentry subentry )
     {
         if ( cacheSize.get() > cacheMaxSize )
         {
             throw new IllegalStateException( "Cache is full: size=" + cacheSize.get() + ", max=" + cacheMaxSize );
         }
 
-        Subentry oldSubentry = cache.put( dn, subentry );
+        IndexedSubentry indexedSubentry = new IndexedSubentry( dn, subentry );
+        IndexedSubentry oldSubentry = cache.put( dn, indexedSubentry );
+        ApNode node = getNode( indexedSubentry.getApDn(), true );
 
         if ( oldSubentry == null )
         {
             cacheSize.getAndIncrement();
         }
+        else
+        {
+            node.subentries.remove( oldSubentry );
+        }
+
+        node.subentries.add( indexedSubentry );
 
-        return oldSubentry;
+        return oldSubentry == null ? null : oldSubentry.getSubentry();
     }
 
 
@@ -28,7 +28,6 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
-import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,13 +72,13 @@ public class SubentryUtils
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        // Only the subentries whose AP is an ancestor of the entry can select it
+        for ( IndexedSubentry indexedSubentry : subentryCache.getSubentries( dn ) )
         {
-            Dn apDn = subentryDn.getParent();
-            Subentry subentry = subentryCache.getSubentry( subentryDn );
-            SubtreeSpecification ss = subentry.getSubtreeSpecification();
+            Dn subentryDn = indexedSubentry.getDn();
+            Subentry subentry = indexedSubentry.getSubentry();
 
-            if ( evaluator.evaluate( ss, apDn, dn, entryAttrs ) )
+            if ( evaluator.evaluate( indexedSubentry, dn, entryAttrs ) )
             {
                 Attribute operational;
 
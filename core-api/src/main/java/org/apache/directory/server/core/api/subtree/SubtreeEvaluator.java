@@ -20,9 +20,21 @@
 package org.apache.directory.server.core.api.subtree;
 
 
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
 import org.apache.directory.server.core.api.event.Evaluator;
@@ -37,9 +49,67 @@ import org.apache.directory.server.core.api.event.ExpressionEvaluator;
  */
 public class SubtreeEvaluator
 {
+    /** The maximum number of objectClass sets memoized for a refinement */
+    private static final int MAX_MEMOIZED_SETS = 1024;
+
     /** A refinement filter evaluator */
     private final Evaluator evaluator;
 
+    /** The memoized refinement evaluations */
+    private final Map<ExprNode, RefinementMemo> refinementMemos = new ConcurrentHashMap<>();
+
+
+    /**
+     * The results of the evaluations of a refinement, by entry objectClass set. A
+     * refinement only using the objectClass attribute gives the same result for all
+     * the entries having the same objectClasses.
+     */
+    private static final class RefinementMemo
+    {
+        /** Tells if the refinement only uses the objectClass attribute */
+        private final boolean objectClassOnly;
+
+        /** The evaluation results */
+        private final Map<Set<String>, Boolean> results = new ConcurrentHashMap<>();
+
+
+        private RefinementMemo( ExprNode refinement )
+        {
+            objectClassOnly = isObjectClassOnly( refinement );
+        }
+
+
+        private static boolean isObjectClassOnly( ExprNode node )
+        {
+            if ( node instanceof BranchNode )
+            {
+                for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+                {
+                    if ( !isObjectClassOnly( child ) )
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            if ( node instanceof LeafNode )
+            {
+                AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+                if ( attributeType != null )
+                {
+                    return SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() );
+                }
+
+                return SchemaConstants.OBJECT_CLASS_AT.equalsIgnoreCase( ( ( LeafNode ) node ).getAttribute() );
+            }
+
+            return false;
+        }
+    }
+
 
     /**
      * Creates a subtreeSpecification evaluatior which can be used to determine
@@ -65,6 +135,39 @@ public class SubtreeEvaluator
      */
     public boolean evaluate( SubtreeSpecification subtree, Dn apDn, Dn entryDn, Entry entry )
         throws LdapException
+    {
+        // First construct the subtree base, which is the concatenation of the
+        // AP Dn and the subentry base
+        Dn subentryBaseDn = apDn;
+        subentryBaseDn = subentryBaseDn.add( subtree.getBase() );
+
+        boolean hasChopExclusions = !subtree.getChopBeforeExclusions().isEmpty()
+            || !subtree.getChopAfterExclusions().isEmpty();
+
+        return evaluate( subtree, apDn, subentryBaseDn, hasChopExclusions, entryDn, entry );
+    }
+
+
+    /**
+     * Determines if an entry is selected by the subtree specification of an indexed subentry,
+     * whose subtree base has already been computed. The refinement evaluations are memoized
+     * by entry objectClass set.
+     *
+     * @param subentry the indexed subentry
+     * @param entryDn the distinguished name of the candidate entry
+     * @param entry The entry to evaluate
+     * @return true if the entry is selected by the specification, false if it is not
+     * @throws LdapException if errors are encountered while evaluating selection
+     */
+    public boolean evaluate( IndexedSubentry subentry, Dn entryDn, Entry entry ) throws LdapException
+    {
+        return evaluate( subentry.getSubtreeSpecification(), subentry.getApDn(), subentry.getBaseDn(),
+            subentry.hasChopExclusions(), entryDn, entry );
+    }
+
+
+    private boolean evaluate( SubtreeSpecification subtree, Dn apDn, Dn subentryBaseDn, boolean hasChopExclusions,
+        Dn entryDn, Entry entry ) throws LdapException
     {
         /* =====================================================================
          * NOTE: Regarding the overall approach, we try to narrow down the
@@ -76,11 +179,6 @@ public class SubtreeEvaluator
          * specification.
          * =====================================================================
          */
-        // First construct the subtree base, which is the concatenation of the
-        // AP Dn and the subentry base
-        Dn subentryBaseDn = apDn;
-        subentryBaseDn = subentryBaseDn.add( subtree.getBase() );
-
         if ( !entryDn.isDescendantOf( subentryBaseDn ) )
         {
             // The entry Dn is not part of the subtree specification, get out
@@ -117,7 +215,7 @@ public class SubtreeEvaluator
          */
         // Now, get the entry's relative part
 
-        if ( !subtree.getChopBeforeExclusions().isEmpty() || !subtree.getChopAfterExclusions().isEmpty() )
+        if ( hasChopExclusions )
         {
             Dn entryRelativeDn = entryDn.getDescendantOf( apDn ).getDescendantOf( subtree.getBase() );
 
@@ -145,7 +243,7 @@ public class SubtreeEvaluator
          */
         if ( subtree.getRefinement() != null )
         {
-            return evaluator.evaluate( subtree.getRefinement(), entryDn, entry );
+            return evaluateRefinement( subtree.getRefinement(), entryDn, entry );
         }
 
         /*
@@ -155,4 +253,43 @@ public class SubtreeEvaluator
          */
         return true;
     }
+
+
+    /**
+     * Evaluates a refinement, reusing the result computed for another entry having the same
+     * objectClasses when the refinement only depends on them.
+     */
+    private boolean evaluateRefinement( ExprNode refinement, Dn entryDn, Entry entry ) throws LdapException
+    {
+        RefinementMemo memo = refinementMemos.computeIfAbsent( refinement, RefinementMemo::new );
+        Attribute objectClasses = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( !memo.objectClassOnly || ( objectClasses == null ) )
+        {
+            return evaluator.evaluate( refinement, entryDn, entry );
+        }
+
+        Set<String> key = new HashSet<>();
+
+        for ( Value value : objectClasses )
+        {
+            key.add( value.getNormalized() );
+        }
+
+        Boolean result = memo.results.get( key );
+
+        if ( result == null )
+        {
+            result = evaluator.evaluate( refinement, entryDn, entry );
+
+            if ( memo.results.size() >= MAX_MEMOIZED_SETS )
+            {
+                memo.results.clear();
+            }
+
+            memo.results.put( key, result );
+        }
+
+        return result;
+    }
 }
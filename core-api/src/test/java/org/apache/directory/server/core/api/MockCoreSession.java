@@ -46,6 +46,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.DeleteRequest;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
@@ -60,6 +61,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.changelog.LogChange;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AbstractChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AbstractOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
@@ -863,6 +865,44 @@ public class MockCoreSession implements CoreSession
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public void batch( List<? extends Request> requests ) throws LdapException
+    {
+        batch( requests, LogChange.TRUE );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void batch( List<? extends Request> requests, LogChange log ) throws LdapException
+    {
+        List<AbstractChangeOperationContext> contexts = new ArrayList<>( requests.size() );
+
+        for ( Request request : requests )
+        {
+            AbstractChangeOperationContext context;
+
+            if ( request instanceof AddRequest )
+            {
+                context = new AddOperationContext( this, ( AddRequest ) request );
+            }
+            else
+            {
+                context = new ModifyOperationContext( this, ( ModifyRequest ) request );
+            }
+
+            context.setLogChange( log );
+            contexts.add( context );
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.batch( contexts );
+    }
+
+
     /**
      * {@inheritDoc} 
      */
@@ -936,8 +976,15 @@ public class MockCoreSession implements CoreSession
 
 
     public Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException
+    {
+        return search( searchRequest, null );
+    }
+
+
+    public Cursor<Entry> search( SearchRequest searchRequest, String afterId ) throws LdapException
     {
         SearchOperationContext searchContext = new SearchOperationContext( this, searchRequest );
+        searchContext.setAfterId( afterId );
         OperationManager operationManager = directoryService.getOperationManager();
         EntryFilteringCursor cursor = operationManager.search( searchContext );
         searchRequest.getResultResponse().addAllControls( searchContext.getResponseControls() );
@@ -45,6 +45,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -66,6 +67,9 @@ public class MockDirectoryService implements DirectoryService
     /** The schemaManager */
     SchemaManager schemaManager;
 
+    /** The metrics, never enabled */
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+
 
     public MockDirectoryService()
     {
@@ -373,6 +377,12 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
     public CoreSession getSession() throws LdapException
     {
         return null;
@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for the LatencyHistogram.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        long previousLowest = -1L;
+
+        for ( int bucket = 0; bucket < 800; bucket++ )
+        {
+            long lowest = LatencyHistogram.getLowestValue( bucket );
+
+            assertTrue( lowest > previousLowest );
+            assertEquals( bucket, LatencyHistogram.getBucket( lowest ) );
+            assertEquals( bucket, LatencyHistogram.getBucket( LatencyHistogram.getLowestValue( bucket + 1 ) - 1 ) );
+            previousLowest = lowest;
+        }
+
+        assertEquals( LatencyHistogram.getBucket( Long.MAX_VALUE ), LatencyHistogram.getBucket( Long.MAX_VALUE - 1 ) );
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0d, histogram.getMean(), 0d );
+        assertEquals( 0L, histogram.getValueAtPercentile( 99d ) );
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1 to 1000 microseconds
+        for ( long i = 1; i <= 1000; i++ )
+        {
+            histogram.record( i * 1000L );
+        }
+
+        assertEquals( 1000L, histogram.getCount() );
+        assertEquals( 500500000L, histogram.getTotal() );
+        assertEquals( 500.5d, histogram.getMean(), 0.001d );
+        assertEquals( 1000d, histogram.getMax(), 0.001d );
+
+        assertWithin( 500_000L, histogram.getValueAtPercentile( 50d ) );
+        assertWithin( 900_000L, histogram.getValueAtPercentile( 90d ) );
+        assertWithin( 990_000L, histogram.getValueAtPercentile( 99d ) );
+        assertWithin( 1_000_000L, histogram.getValueAtPercentile( 100d ) );
+        assertEquals( histogram.getValueAtPercentile( 99d ) / 1000d, histogram.getPercentile99(), 0.001d );
+    }
+
+
+    @Test
+    public void testNegativeAndReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record( -5L );
+        assertEquals( 1L, histogram.getCount() );
+        assertEquals( 0L, histogram.getTotal() );
+
+        histogram.reset();
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0d, histogram.getMax(), 0d );
+    }
+
+
+    @Test
+    public void testConcurrentRecords() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread( () ->
+            {
+                for ( int j = 0; j < 10000; j++ )
+                {
+                    histogram.record( j );
+                }
+            } );
+            threads[i].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 40000L, histogram.getCount() );
+        assertEquals( 4L * 9999L * 10000L / 2L, histogram.getTotal() );
+        assertEquals( 9.999d, histogram.getMax(), 0.0001d );
+    }
+
+
+    private static void assertWithin( long expected, long actual )
+    {
+        assertTrue( "expected " + expected + " but got " + actual,
+            Math.abs( actual - expected ) <= expected * 0.0625d );
+    }
+}
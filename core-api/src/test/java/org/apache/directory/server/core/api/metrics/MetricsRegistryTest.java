@@ -0,0 +1,119 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
+import org.junit.Test;
+
+
+/**
+ * Tests for the MetricsRegistry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistryTest
+{
+    @Test
+    public void testDisabled()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        assertFalse( registry.isEnabled() );
+        assertEquals( 0L, registry.startTimer() );
+
+        registry.record( Category.OPERATION, "all", OperationEnum.ADD, 0L );
+
+        assertTrue( registry.getHistograms().isEmpty() );
+    }
+
+
+    @Test
+    public void testRecord()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setEnabled( true );
+
+        long start = registry.startTimer();
+        assertNotEquals( 0L, start );
+
+        registry.record( Category.OPERATION, "all", OperationEnum.ADD, start );
+        registry.record( Category.OPERATION, "all", OperationEnum.ADD, registry.startTimer() );
+        registry.record( Category.PARTITION, "example", OperationEnum.SEARCH, registry.startTimer() );
+        registry.record( Category.RESULT_CODE, "SUCCESS", null, registry.startTimer() );
+
+        LatencyHistogram add = registry.getHistogram( Category.OPERATION, "all", OperationEnum.ADD );
+        assertEquals( 2L, add.getCount() );
+        assertSame( add, registry.getHistogram( Category.OPERATION, "all", OperationEnum.ADD ) );
+
+        Map<String, LatencyHistogram> histograms = registry.getHistograms();
+
+        assertEquals( Arrays.asList( "operation/all/add", "partition/example/search", "resultCode/SUCCESS" ),
+            Arrays.asList( histograms.keySet().toArray() ) );
+
+        registry.reset();
+
+        assertEquals( 0L, add.getCount() );
+        assertEquals( 3, registry.getHistograms().size() );
+    }
+
+
+    @Test
+    public void testMBeans() throws Exception
+    {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setEnabled( true );
+        registry.getHistogram( Category.INTERCEPTOR, "normalizationInterceptor", OperationEnum.LOOKUP );
+
+        registry.registerMBeans( mBeanServer, "test" );
+
+        // Histograms created after the registration are registered too
+        registry.record( Category.QUEUE_WAIT, "ldap", null, registry.startTimer() );
+
+        ObjectName lookup = new ObjectName( MetricsRegistry.JMX_DOMAIN
+            + ":type=Metrics,instance=\"test\",category=interceptor,name=\"normalizationInterceptor\",operation=lookup" );
+        ObjectName queueWait = new ObjectName( MetricsRegistry.JMX_DOMAIN
+            + ":type=Metrics,instance=\"test\",category=queueWait,name=\"ldap\"" );
+
+        assertTrue( mBeanServer.isRegistered( lookup ) );
+        assertTrue( mBeanServer.isRegistered( queueWait ) );
+        assertEquals( 1L, mBeanServer.getAttribute( queueWait, "Count" ) );
+
+        registry.unregisterMBeans();
+
+        assertFalse( mBeanServer.isRegistered( lookup ) );
+        assertFalse( mBeanServer.isRegistered( queueWait ) );
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the SnapshotSchemaLoader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotSchemaLoaderTest
+{
+    private static File workingDirectory;
+    private static File schemaRepository;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String path = System.getProperty( "workingDirectory" );
+
+        if ( path == null )
+        {
+            path = SnapshotSchemaLoaderTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            path = path.substring( 0, targetPos + 6 );
+        }
+
+        workingDirectory = new File( path, "snapshot-schema" );
+        schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+        extractor.extractOrCopy( true );
+    }
+
+
+    private static SchemaManager load( SnapshotSchemaLoader loader ) throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager( loader );
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( !errors.isEmpty() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+
+        return schemaManager;
+    }
+
+
+    @Test
+    public void testSnapshotMatchesLdif() throws Exception
+    {
+        File snapshot = new File( workingDirectory, "match.snapshot" );
+        snapshot.delete();
+
+        LdifSchemaLoader ldifLoader = new LdifSchemaLoader( schemaRepository );
+        SnapshotSchemaLoader snapshotLoader = new SnapshotSchemaLoader( schemaRepository, snapshot );
+
+        assertTrue( snapshot.exists() );
+        assertEquals( ldifLoader.getAllSchemas().size(), snapshotLoader.getAllSchemas().size() );
+
+        for ( Schema schema : ldifLoader.getAllSchemas() )
+        {
+            Schema snapshotSchema = snapshotLoader.getSchema( schema.getSchemaName() );
+
+            assertEquals( schema.isEnabled(), snapshotSchema.isEnabled() );
+            assertEquals( ldifLoader.loadAttributeTypes( schema ).size(),
+                snapshotLoader.loadAttributeTypes( snapshotSchema ).size() );
+            assertEquals( ldifLoader.loadObjectClasses( schema ).size(),
+                snapshotLoader.loadObjectClasses( snapshotSchema ).size() );
+            assertEquals( ldifLoader.loadComparators( schema ).size(),
+                snapshotLoader.loadComparators( snapshotSchema ).size() );
+        }
+
+        SchemaManager ldifManager = new DefaultSchemaManager( ldifLoader );
+        ldifManager.loadAllEnabled();
+        SchemaManager snapshotManager = load( snapshotLoader );
+
+        assertEquals( ldifManager.getAttributeTypeRegistry().size(), snapshotManager.getAttributeTypeRegistry().size() );
+        assertEquals( ldifManager.getObjectClassRegistry().size(), snapshotManager.getObjectClassRegistry().size() );
+    }
+
+
+    @Test
+    public void testSnapshotReused() throws Exception
+    {
+        File snapshot = new File( workingDirectory, "reused.snapshot" );
+        snapshot.delete();
+
+        new SnapshotSchemaLoader( schemaRepository, snapshot );
+        long length = snapshot.length();
+
+        // Make the file look old, a rebuild would update the date
+        assertTrue( snapshot.setLastModified( 1000L ) );
+
+        load( new SnapshotSchemaLoader( schemaRepository, snapshot ) );
+
+        assertEquals( 1000L, snapshot.lastModified() );
+        assertEquals( length, snapshot.length() );
+    }
+
+
+    @Test
+    public void testCorruptedSnapshotRebuilt() throws Exception
+    {
+        File snapshot = new File( workingDirectory, "corrupted.snapshot" );
+        snapshot.delete();
+
+        new SnapshotSchemaLoader( schemaRepository, snapshot );
+        long length = snapshot.length();
+
+        try ( RandomAccessFile file = new RandomAccessFile( snapshot, "rw" ) )
+        {
+            file.seek( length - 10 );
+            int b = file.read();
+            file.seek( length - 10 );
+            file.write( ~b );
+        }
+
+        assertTrue( snapshot.setLastModified( 1000L ) );
+
+        load( new SnapshotSchemaLoader( schemaRepository, snapshot ) );
+
+        assertTrue( snapshot.lastModified() != 1000L );
+        assertEquals( length, snapshot.length() );
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the ChangeLogSegment : the records written in a segment must be read back,
+ * and the index must be rebuilt when the segment is opened again.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ChangeLogSegmentTest
+{
+    /** The time of the first record */
+    private static final long T0 = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static byte[] data( long revision )
+    {
+        return Strings.getBytesUtf8( "event " + revision );
+    }
+
+
+    /**
+     * Appends the revisions [first, last], one second apart
+     */
+    private static void append( ChangeLogSegment segment, long first, long last ) throws Exception
+    {
+        for ( long revision = first; revision <= last; revision++ )
+        {
+            segment.append( revision, T0 + revision * 1000L, data( revision ) );
+        }
+    }
+
+
+    @Test
+    public void testAppendAndRead() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 10L, 4, true );
+
+        assertTrue( segment.isEmpty() );
+        assertEquals( 9L, segment.getLastRevision() );
+
+        append( segment, 10L, 29L );
+
+        assertEquals( 29L, segment.getLastRevision() );
+        assertEquals( T0 + 29000L, segment.getLastTime() );
+        assertEquals( file.length(), segment.getSize() );
+
+        for ( long revision = 10L; revision <= 29L; revision++ )
+        {
+            assertArrayEquals( data( revision ), segment.read( revision ) );
+        }
+
+        // Out of the segment
+        assertNull( segment.read( 9L ) );
+        assertNull( segment.read( 30L ) );
+
+        segment.close();
+    }
+
+
+    @Test
+    public void testIndexRebuiltOnOpen() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 1L, 3, true );
+        append( segment, 1L, 20L );
+        long size = segment.getSize();
+        segment.close();
+
+        // Reopened as the active segment, and as a sealed one
+        for ( boolean active : new boolean[]
+            { true, false } )
+        {
+            segment = ChangeLogSegment.open( file, 1L, 3, active );
+
+            assertEquals( 20L, segment.getLastRevision() );
+            assertEquals( T0 + 20000L, segment.getLastTime() );
+            assertEquals( size, segment.getSize() );
+
+            for ( long revision = 1L; revision <= 20L; revision++ )
+            {
+                assertArrayEquals( data( revision ), segment.read( revision ) );
+            }
+
+            segment.close();
+        }
+    }
+
+
+    @Test
+    public void testFindRevision() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 1L, 4, true );
+        append( segment, 1L, 10L );
+
+        assertEquals( 0L, segment.findRevision( T0 ) );
+        assertEquals( 1L, segment.findRevision( T0 + 1000L ) );
+        assertEquals( 5L, segment.findRevision( T0 + 5500L ) );
+        assertEquals( 10L, segment.findRevision( T0 + 60000L ) );
+
+        segment.close();
+    }
+
+
+    @Test
+    public void testTornRecordTruncated() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 1L, 2, true );
+        append( segment, 1L, 5L );
+        long size = segment.getSize();
+        segment.close();
+
+        // Simulate a crash in the middle of the next record : a complete header, and
+        // a part of the event
+        ByteBuffer torn = ByteBuffer.allocate( ChangeLogSegment.HEADER_SIZE + 3 );
+        torn.putInt( 100 );
+        torn.putLong( 6L );
+        torn.putLong( T0 + 6000L );
+        Files.write( file.toPath(), torn.array(), StandardOpenOption.APPEND );
+
+        segment = ChangeLogSegment.open( file, 1L, 2, true );
+
+        assertEquals( 5L, segment.getLastRevision() );
+        assertEquals( size, segment.getSize() );
+        assertEquals( size, file.length() );
+        assertNull( segment.read( 6L ) );
+
+        // The next record is appended after the last complete one
+        append( segment, 6L, 6L );
+        segment.close();
+
+        segment = ChangeLogSegment.open( file, 1L, 2, true );
+
+        assertEquals( 6L, segment.getLastRevision() );
+        assertArrayEquals( data( 5L ), segment.read( 5L ) );
+        assertArrayEquals( data( 6L ), segment.read( 6L ) );
+
+        segment.close();
+    }
+
+
+    @Test
+    public void testTornHeaderTruncated() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 1L, 2, true );
+        append( segment, 1L, 3L );
+        long size = segment.getSize();
+        segment.close();
+
+        // Only a part of the next header
+        Files.write( file.toPath(), new byte[]
+            { 0, 0, 0 }, StandardOpenOption.APPEND );
+
+        segment = ChangeLogSegment.open( file, 1L, 2, true );
+
+        assertEquals( 3L, segment.getLastRevision() );
+        assertEquals( size, file.length() );
+
+        segment.close();
+    }
+
+
+    @Test
+    public void testSeal() throws Exception
+    {
+        File file = new File( folder.getRoot(), "segment.log" );
+        ChangeLogSegment segment = ChangeLogSegment.open( file, 1L, 4, true );
+        append( segment, 1L, 10L );
+
+        segment.seal();
+
+        // The sealed segment is read from the mapped buffer
+        for ( long revision = 1L; revision <= 10L; revision++ )
+        {
+            assertArrayEquals( data( revision ), segment.read( revision ) );
+        }
+
+        segment.delete();
+
+        assertFalse( file.exists() );
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.changelog.ChangeLog;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the ChangeLogInterceptor with a SegmentedChangeLogStore : the reverse LDIFs
+ * built by the background writer must revert the changes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(factory = SegmentedChangeLogIT.SegmentedChangeLogDirectoryServiceFactory.class,
+    name = "SegmentedChangeLogIT-class")
+public class SegmentedChangeLogIT extends AbstractLdapTestUnit
+{
+    /**
+     * A factory creating a DirectoryService which stores its changelog in segments
+     */
+    public static class SegmentedChangeLogDirectoryServiceFactory extends DefaultDirectoryServiceFactory
+    {
+        @Override
+        public void init( String name ) throws Exception
+        {
+            getDirectoryService().getChangeLog().setChangeLogStore( new SegmentedChangeLogStore() );
+
+            super.init( name );
+        }
+    }
+
+    private CoreSession session;
+
+
+    @Before
+    public void init()
+    {
+        session = getService().getAdminSession();
+    }
+
+
+    private Dn getDn( String ou ) throws Exception
+    {
+        return new Dn( getService().getSchemaManager(), "ou=" + ou + ",ou=system" );
+    }
+
+
+    private void addEntry( String ou ) throws Exception
+    {
+        session.add( new DefaultEntry( getService().getSchemaManager(), getDn( ou ),
+            "objectClass: organizationalUnit",
+            "ou", ou,
+            "description: v1" ) );
+    }
+
+
+    @Test
+    public void testChangeLogStore()
+    {
+        assertTrue( getService().getChangeLog().getChangeLogStore() instanceof SegmentedChangeLogStore );
+    }
+
+
+    @Test
+    public void testRevertModify() throws Exception
+    {
+        addEntry( "modified" );
+        Tag tag = getService().getChangeLog().tag();
+
+        // Each modification is reverted using the entry as it was before this change
+        session.modify( getDn( "modified" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "v2" ),
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, "seeAlso", "ou=system" ) );
+        session.modify( getDn( "modified" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "v3" ) );
+
+        assertEquals( "v3", session.lookup( getDn( "modified" ) ).get( "description" ).getString() );
+
+        getService().revert( tag.getRevision() );
+
+        Entry entry = session.lookup( getDn( "modified" ) );
+
+        assertNotNull( entry );
+        assertEquals( 1, entry.get( "description" ).size() );
+        assertEquals( "v1", entry.get( "description" ).getString() );
+        assertFalse( entry.containsAttribute( "seeAlso" ) );
+    }
+
+
+    @Test
+    public void testRevertDelete() throws Exception
+    {
+        addEntry( "deleted" );
+        Tag tag = getService().getChangeLog().tag();
+
+        session.delete( getDn( "deleted" ) );
+
+        assertFalse( session.exists( getDn( "deleted" ) ) );
+
+        getService().revert( tag.getRevision() );
+
+        // The entry is restored with all its attributes
+        Entry entry = session.lookup( getDn( "deleted" ) );
+
+        assertNotNull( entry );
+        assertTrue( entry.contains( "objectClass", "organizationalUnit" ) );
+        assertTrue( entry.contains( "ou", "deleted" ) );
+        assertTrue( entry.contains( "description", "v1" ) );
+    }
+
+
+    @Test
+    public void testRevertAfterRestart() throws Exception
+    {
+        addEntry( "restarted" );
+        Tag tag = getService().getChangeLog().tag();
+
+        session.modify( getDn( "restarted" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "v2" ) );
+        session.delete( getDn( "restarted" ) );
+
+        // The events are read back from the segments
+        getService().shutdown();
+        getService().startup();
+        session = getService().getAdminSession();
+
+        getService().revert( tag.getRevision() );
+
+        assertEquals( "v1", session.lookup( getDn( "restarted" ) ).get( "description" ).getString() );
+    }
+
+
+    @Test
+    public void testLoggedLdifsNotModifiedByLaterChanges() throws Exception
+    {
+        ChangeLog changeLog = getService().getChangeLog();
+
+        addEntry( "snapshot" );
+        long addRevision = changeLog.getCurrentRevision();
+
+        session.modify( getDn( "snapshot" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "v2" ) );
+        long modifyRevision = changeLog.getCurrentRevision();
+
+        // The stored entry is modified again before the previous events are written
+        session.modify( getDn( "snapshot" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "v3" ),
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, "description", "v4" ) );
+
+        changeLog.sync();
+
+        SegmentedChangeLogStore store = ( SegmentedChangeLogStore ) changeLog.getChangeLogStore();
+
+        // The added entry is logged as it was added
+        LdifEntry added = store.lookup( addRevision ).getForwardLdif();
+
+        assertEquals( 1, added.getEntry().get( "description" ).size() );
+        assertEquals( "v1", added.getEntry().get( "description" ).getString() );
+
+        // The modification is logged as it was done, and reverted to the entry as it was before
+        ChangeLogEvent modified = store.lookup( modifyRevision );
+        Modification forward = modified.getForwardLdif().getModifications().get( 0 );
+
+        assertEquals( 1, modified.getForwardLdif().getModifications().size() );
+        assertEquals( 1, forward.getAttribute().size() );
+        assertEquals( "v2", forward.getAttribute().getString() );
+
+        LdifEntry reverse = modified.getReverseLdifs().get( 0 );
+
+        assertEquals( 1, reverse.getModifications().size() );
+        assertEquals( 1, reverse.getModifications().get( 0 ).getAttribute().size() );
+        assertEquals( "v1", reverse.getModifications().get( 0 ).getAttribute().getString() );
+    }
+
+
+    @Test
+    public void testSyncWaitsForPendingEvents() throws Exception
+    {
+        ChangeLog changeLog = getService().getChangeLog();
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            addEntry( "pending" + i );
+        }
+
+        long revision = changeLog.getCurrentRevision();
+
+        changeLog.sync();
+
+        // All the events are in the active segment when sync() returns
+        File[] files = new File( getService().getInstanceLayout().getLogDirectory(), "changelog" )
+            .listFiles( ( dir, name ) -> name.startsWith( "segment-" ) );
+
+        assertNotNull( files );
+        assertTrue( files.length > 0 );
+        Arrays.sort( files );
+
+        File last = files[files.length - 1];
+        long firstRevision = Long.parseLong( last.getName().substring( "segment-".length(),
+            last.getName().indexOf( '.' ) ) );
+        ChangeLogSegment segment = ChangeLogSegment.open( last, firstRevision, 32, false );
+
+        try
+        {
+            assertEquals( revision, segment.getLastRevision() );
+            assertNotNull( segment.read( revision ) );
+        }
+        finally
+        {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,641 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.TimeProvider;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the SegmentedChangeLogStore : segments rollover and retention, reopening
+ * of an existing changelog, the cursors, and the background writer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SegmentedChangeLogStoreTest
+{
+    /** The time of the first event */
+    private static final long T0 = 1_500_000_000_000L;
+
+    private static SchemaManager schemaManager;
+
+    private static LdapPrincipal principal;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DirectoryService directoryService;
+
+    private SegmentedChangeLogStore store;
+
+    /** The current time, as seen by the store */
+    private long now = T0;
+
+
+    @BeforeClass
+    public static void setUpSchema() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        principal = new LdapPrincipal( schemaManager, new Dn( schemaManager, "uid=admin,ou=system" ),
+            AuthenticationLevel.SIMPLE, Strings.getBytesUtf8( "secret" ) );
+    }
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directoryService = new DefaultDirectoryService();
+        directoryService.setInstanceLayout( new InstanceLayout( folder.getRoot() ) );
+        directoryService.setSchemaManager( schemaManager );
+        directoryService.setTimeProvider( new TimeProvider()
+        {
+            @Override
+            public long currentIimeMillis()
+            {
+                return now;
+            }
+        } );
+
+        store = new SegmentedChangeLogStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if ( store != null )
+        {
+            store.destroy();
+        }
+    }
+
+
+    /**
+     * Closes the store, and opens a new one on the same directory
+     */
+    private void reopen() throws Exception
+    {
+        long maxSegmentSize = store.getMaxSegmentSize();
+        int indexInterval = store.getIndexInterval();
+        store.destroy();
+
+        store = new SegmentedChangeLogStore();
+        store.setMaxSegmentSize( maxSegmentSize );
+        store.setIndexInterval( indexInterval );
+        store.init( directoryService );
+    }
+
+
+    private static Dn getDn( long i ) throws Exception
+    {
+        return new Dn( schemaManager, "cn=test" + i + ",ou=system" );
+    }
+
+
+    /**
+     * Logs the addition of an entry, and returns the event's revision
+     */
+    private long log( long i ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( getDn( i ) );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "top", "person" );
+        forward.putAttribute( "cn", "test" + i );
+        forward.putAttribute( "sn", "test" );
+
+        return store.log( principal, forward, LdifRevertor.reverseAdd( forward.getDn() ) ).getRevision();
+    }
+
+
+    /**
+     * Logs the addition of the entries [first, last], one second apart. The entry i
+     * is logged at T0 + i seconds, with the revision i.
+     */
+    private void log( long first, long last ) throws Exception
+    {
+        for ( long i = first; i <= last; i++ )
+        {
+            now = T0 + i * 1000L;
+
+            assertEquals( i, log( i ) );
+        }
+    }
+
+
+    private File[] getSegmentFiles()
+    {
+        return new File( directoryService.getInstanceLayout().getLogDirectory(), "changelog" )
+            .listFiles( ( dir, name ) -> name.startsWith( "segment-" ) );
+    }
+
+
+    private static List<Long> getRevisions( Cursor<ChangeLogEvent> cursor ) throws Exception
+    {
+        List<Long> revisions = new ArrayList<>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                revisions.add( cursor.get().getRevision() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return revisions;
+    }
+
+
+    private static List<Long> range( long first, long last )
+    {
+        List<Long> revisions = new ArrayList<>();
+
+        if ( first <= last )
+        {
+            for ( long revision = first; revision <= last; revision++ )
+            {
+                revisions.add( revision );
+            }
+        }
+        else
+        {
+            for ( long revision = first; revision >= last; revision-- )
+            {
+                revisions.add( revision );
+            }
+        }
+
+        return revisions;
+    }
+
+
+    @Test
+    public void testLogAndLookup() throws Exception
+    {
+        store.init( directoryService );
+        assertEquals( 0L, store.getCurrentRevision() );
+
+        log( 1L, 10L );
+
+        // The events may not be written yet
+        assertEquals( 10L, store.getCurrentRevision() );
+        assertEquals( getDn( 5L ), store.lookup( 5L ).getForwardLdif().getDn() );
+
+        store.sync();
+
+        for ( long i = 1L; i <= 10L; i++ )
+        {
+            ChangeLogEvent event = store.lookup( i );
+
+            assertEquals( i, event.getRevision() );
+            assertEquals( getDn( i ), event.getForwardLdif().getDn() );
+            assertEquals( principal.getDn(), event.getCommitterPrincipal().getDn() );
+            assertEquals( ChangeType.Delete, event.getReverseLdifs().get( 0 ).getChangeType() );
+        }
+    }
+
+
+    @Test
+    public void testRollover() throws Exception
+    {
+        // One event per segment
+        store.setMaxSegmentSize( 1L );
+        store.init( directoryService );
+
+        log( 1L, 3L );
+        store.sync();
+
+        assertEquals( 3, getSegmentFiles().length );
+        assertEquals( 1L, store.getFirstRevision() );
+        assertEquals( range( 1L, 3L ), getRevisions( store.find() ) );
+
+        // The sealed segments are read once the store is reopened
+        reopen();
+
+        assertEquals( 3L, store.getCurrentRevision() );
+        assertEquals( range( 1L, 3L ), getRevisions( store.find() ) );
+
+        // A new segment is created for the next events
+        log( 4L, 4L );
+        store.sync();
+
+        assertEquals( 4, getSegmentFiles().length );
+        assertEquals( getDn( 4L ), store.lookup( 4L ).getForwardLdif().getDn() );
+    }
+
+
+    @Test
+    public void testRevisionIndexRebuilt() throws Exception
+    {
+        store.setIndexInterval( 3 );
+        store.init( directoryService );
+
+        log( 1L, 20L );
+        reopen();
+
+        assertEquals( 1, getSegmentFiles().length );
+        assertEquals( 20L, store.getCurrentRevision() );
+
+        for ( long i = 20L; i >= 1L; i-- )
+        {
+            assertEquals( getDn( i ), store.lookup( i ).getForwardLdif().getDn() );
+        }
+
+        // The times are read back too
+        assertEquals( 0L, store.findRevision( T0 ) );
+        assertEquals( 7L, store.findRevision( T0 + 7500L ) );
+        assertEquals( 20L, store.findRevision( T0 + 60000L ) );
+
+        // The revisions continue after the last stored one
+        log( 21L, 21L );
+        store.sync();
+
+        assertEquals( getDn( 21L ), store.lookup( 21L ).getForwardLdif().getDn() );
+    }
+
+
+    @Test
+    public void testTornRecordTruncated() throws Exception
+    {
+        store.init( directoryService );
+
+        log( 1L, 5L );
+        store.destroy();
+
+        File segmentFile = getSegmentFiles()[0];
+        long size = segmentFile.length();
+
+        // A crash while the next record was being written
+        byte[] torn = new byte[ChangeLogSegment.HEADER_SIZE + 10];
+        torn[0] = 0x01;
+        Files.write( segmentFile.toPath(), torn, StandardOpenOption.APPEND );
+
+        store = new SegmentedChangeLogStore();
+        store.init( directoryService );
+
+        assertEquals( 5L, store.getCurrentRevision() );
+        assertEquals( size, segmentFile.length() );
+        assertEquals( range( 1L, 5L ), getRevisions( store.find() ) );
+
+        log( 6L, 6L );
+        store.sync();
+
+        assertEquals( getDn( 6L ), store.lookup( 6L ).getForwardLdif().getDn() );
+    }
+
+
+    @Test
+    public void testRetentionSize() throws Exception
+    {
+        store.setMaxSegmentSize( 1L );
+        store.setRetentionSize( 1L );
+        store.init( directoryService );
+
+        log( 1L, 5L );
+        store.sync();
+
+        // Only the active segment is kept
+        assertEquals( 1, getSegmentFiles().length );
+        assertEquals( 5L, store.getFirstRevision() );
+        assertEquals( 5L, store.getCurrentRevision() );
+
+        // The purged revisions are not found anymore
+        assertNull( store.lookup( 1L ) );
+        assertEquals( range( 5L, 5L ), getRevisions( store.find() ) );
+        assertEquals( range( 5L, 5L ), getRevisions( store.find( 1L, 5L ) ) );
+    }
+
+
+    @Test
+    public void testRetentionAge() throws Exception
+    {
+        store.setMaxSegmentSize( 1L );
+        store.setRetentionAge( 60000L );
+        store.init( directoryService );
+
+        // Logged at T0 + 1s, 2s and 3s
+        log( 1L, 3L );
+        store.sync();
+
+        assertEquals( 3, getSegmentFiles().length );
+        assertEquals( 1L, store.getFirstRevision() );
+
+        // Two minutes later, the sealed segments are too old
+        now = T0 + 120000L;
+        assertEquals( 4L, log( 4L ) );
+        store.sync();
+
+        assertEquals( 1, getSegmentFiles().length );
+        assertEquals( 4L, store.getFirstRevision() );
+        assertEquals( range( 4L, 4L ), getRevisions( store.find() ) );
+    }
+
+
+    @Test
+    public void testCursorOrder() throws Exception
+    {
+        store.setMaxSegmentSize( 1024L );
+        store.init( directoryService );
+
+        log( 1L, 10L );
+
+        // The unwritten events are read from memory
+        assertEquals( range( 1L, 10L ), getRevisions( store.find() ) );
+
+        store.sync();
+
+        assertEquals( range( 1L, 10L ), getRevisions( store.find() ) );
+        assertEquals( range( 1L, 4L ), getRevisions( store.findBefore( 4L ) ) );
+        assertEquals( range( 5L, 10L ), getRevisions( store.findAfter( 4L ) ) );
+        assertEquals( range( 3L, 6L ), getRevisions( store.find( 3L, 6L ) ) );
+
+        ChangeLogSearchEngine engine = store.getChangeLogSearchEngine();
+
+        assertEquals( range( 10L, 1L ), getRevisions( engine.find( RevisionOrder.DescendingOrder ) ) );
+        assertEquals( range( 6L, 3L ), getRevisions( engine.find( 3L, 6L, RevisionOrder.DescendingOrder ) ) );
+
+        // Moving back and forth
+        Cursor<ChangeLogEvent> cursor = store.find();
+
+        assertTrue( cursor.last() );
+        assertEquals( 10L, cursor.get().getRevision() );
+        assertTrue( cursor.previous() );
+        assertEquals( 9L, cursor.get().getRevision() );
+        assertTrue( cursor.first() );
+        assertEquals( 1L, cursor.get().getRevision() );
+        assertFalse( cursor.previous() );
+        assertTrue( cursor.next() );
+        assertEquals( 1L, cursor.get().getRevision() );
+
+        try
+        {
+            cursor.before( cursor.get() );
+            fail();
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            // Expected
+        }
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testSearchEngine() throws Exception
+    {
+        store.init( directoryService );
+
+        log( 1L, 5L );
+
+        ChangeLogSearchEngine engine = store.getChangeLogSearchEngine();
+
+        assertEquals( range( 3L, 3L ), getRevisions( engine.find( getDn( 3L ), RevisionOrder.AscendingOrder ) ) );
+        assertEquals( range( 5L, 1L ), getRevisions( engine.find( principal, RevisionOrder.DescendingOrder ) ) );
+        assertEquals( range( 1L, 5L ), getRevisions( engine.find( ChangeType.Add, RevisionOrder.AscendingOrder ) ) );
+        assertTrue( getRevisions( engine.find( ChangeType.Delete, RevisionOrder.AscendingOrder ) ).isEmpty() );
+        assertEquals( range( 1L, 5L ), getRevisions( engine.find( schemaManager.getAttributeType( "sn" ),
+            RevisionOrder.AscendingOrder ) ) );
+
+        // The indexes are updated once built
+        log( 6L, 6L );
+
+        assertEquals( range( 1L, 6L ), getRevisions( engine.find( new Dn( schemaManager, "ou=system" ),
+            SearchScope.ONELEVEL, RevisionOrder.AscendingOrder ) ) );
+
+        try
+        {
+            engine.find( new PresenceNode( "cn" ), RevisionOrder.AscendingOrder );
+            fail();
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testReverseLdifsBuiltByTheWriter() throws Exception
+    {
+        store.init( directoryService );
+
+        final AtomicInteger builds = new AtomicInteger();
+        final AtomicReference<Thread> builder = new AtomicReference<>();
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( getDn( 1L ) );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "top", "person" );
+        forward.putAttribute( "cn", "test1" );
+        forward.putAttribute( "sn", "test" );
+
+        final LdifEntry reverse = LdifRevertor.reverseAdd( forward.getDn() );
+
+        ChangeLogEvent event = store.log( principal, forward, () ->
+        {
+            builds.incrementAndGet();
+            builder.set( Thread.currentThread() );
+
+            try
+            {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            List<LdifEntry> reverses = new ArrayList<>( 1 );
+            reverses.add( reverse );
+
+            return reverses;
+        } );
+
+        // log() returned while the reverse LDIFs are still being built
+        assertEquals( 1L, event.getRevision() );
+
+        // sync() waits for the pending event
+        Thread syncer = new Thread( () ->
+        {
+            try
+            {
+                store.sync();
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        } );
+
+        syncer.start();
+        syncer.join( 200L );
+
+        assertTrue( syncer.isAlive() );
+
+        release.countDown();
+        syncer.join( 10000L );
+
+        assertFalse( syncer.isAlive() );
+
+        // The reverse LDIFs have been built once, by the writer thread
+        assertEquals( 1, builds.get() );
+        assertNotSame( Thread.currentThread(), builder.get() );
+
+        // The event is now read from its segment, and is not built again
+        ChangeLogEvent stored = store.lookup( 1L );
+
+        assertNotSame( event, stored );
+        assertEquals( forward, stored.getForwardLdif() );
+        assertEquals( reverse, stored.getReverseLdifs().get( 0 ) );
+        assertEquals( reverse, event.getReverseLdifs().get( 0 ) );
+        assertEquals( 1, builds.get() );
+    }
+
+
+    @Test
+    public void testMoreEventsThanTheWriterQueue() throws Exception
+    {
+        store.init( directoryService );
+
+        // The logging thread waits for the writer once the queue is full
+        int nbEvents = SegmentedChangeLogStore.MAX_UNWRITTEN_EVENTS + 1000;
+
+        for ( long i = 1L; i <= nbEvents; i++ )
+        {
+            assertEquals( i, log( i ) );
+        }
+
+        assertEquals( nbEvents, store.getCurrentRevision() );
+
+        store.sync();
+
+        // No written event is left in memory
+        assertEquals( 0, store.getUnwrittenCount() );
+        assertEquals( range( 1L, nbEvents ), getRevisions( store.find() ) );
+
+        // All the events have been written
+        reopen();
+
+        assertEquals( nbEvents, store.getCurrentRevision() );
+        assertEquals( getDn( nbEvents ), store.lookup( nbEvents ).getForwardLdif().getDn() );
+    }
+
+
+    @Test
+    public void testWriteFailure() throws Exception
+    {
+        store.init( directoryService );
+
+        log( 1L, 2L );
+
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( getDn( 3L ) );
+        forward.setChangeType( ChangeType.Delete );
+
+        // The event can't be serialized
+        store.log( principal, forward, () ->
+        {
+            throw new IllegalStateException( "Cannot build the reverse LDIF" );
+        } );
+
+        try
+        {
+            store.sync();
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected, the event has not been written
+        }
+
+        // The following events are refused, they would leave a hole in the changelog
+        try
+        {
+            log( 4L );
+            fail();
+        }
+        catch ( IllegalStateException ise )
+        {
+            // Expected
+        }
+
+        try
+        {
+            store.sync();
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected
+        }
+
+        // The events written before the failure are still available
+        assertEquals( 0, store.getUnwrittenCount() );
+        assertEquals( getDn( 2L ), store.lookup( 2L ).getForwardLdif().getDn() );
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.collective;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the cache of the collective attributes used by the CollectiveAttributeInterceptor :
+ * the subentries are read once, and removed from the cache when they are modified, renamed,
+ * moved or deleted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "CollectiveAttributeCacheIT")
+public class CollectiveAttributeCacheIT extends AbstractLdapTestUnit
+{
+    private static final String SUBENTRY_DN = "cn=testsubentry,ou=system";
+
+    private static final String ENTRY_DN = "ou=configuration,ou=system";
+
+    private CoreSession session;
+
+    private CollectiveAttributeCache cache;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        session = getService().getAdminSession();
+        cache = ( ( CollectiveAttributeInterceptor ) getService().getInterceptor(
+            InterceptorEnum.COLLECTIVE_ATTRIBUTE_INTERCEPTOR.getName() ) ).getCollectiveAttributeCache();
+        cache.clear();
+
+        session.modify( getDn( "ou=system" ), new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            "administrativeRole", "collectiveAttributeSpecificArea" ) );
+
+        session.add( new DefaultEntry( getService().getSchemaManager(), SUBENTRY_DN,
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "c-ou: configuration",
+            "subtreeSpecification: { base \"ou=configuration\" }",
+            "cn: testsubentry" ) );
+    }
+
+
+    private Dn getDn( String dn ) throws Exception
+    {
+        return new Dn( getService().getSchemaManager(), dn );
+    }
+
+
+    /**
+     * @return The c-ou value of the entry, or null if it has none
+     */
+    private String getCollectiveOu() throws Exception
+    {
+        Entry entry = session.lookup( getDn( ENTRY_DN ) );
+        Attribute cou = entry.get( "c-ou" );
+
+        if ( cou == null )
+        {
+            return null;
+        }
+
+        assertEquals( 1, cou.size() );
+
+        return cou.getString();
+    }
+
+
+    private void modifyCollectiveOu( String value ) throws Exception
+    {
+        session.modify( getDn( SUBENTRY_DN ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "c-ou", value ) );
+    }
+
+
+    @Test
+    public void testCacheHit() throws Exception
+    {
+        assertNull( cache.get( getDn( SUBENTRY_DN ) ) );
+
+        assertEquals( "configuration", getCollectiveOu() );
+
+        List<Attribute> bundle = cache.get( getDn( SUBENTRY_DN ) );
+
+        assertNotNull( bundle );
+        assertEquals( 1, bundle.size() );
+        assertEquals( "c-ou", bundle.get( 0 ).getUpId() );
+
+        // The subentry is not read again
+        assertEquals( "configuration", getCollectiveOu() );
+        assertSame( bundle, cache.get( getDn( SUBENTRY_DN ) ) );
+
+        // Filtering the returned attributes does not modify the cached ones
+        Entry entry = session.lookup( getDn( ENTRY_DN ), "ou" );
+
+        assertFalse( entry.containsAttribute( "c-ou" ) );
+        assertEquals( "configuration", bundle.get( 0 ).getString() );
+
+        // Modifying a regular entry does not invalidate the cache
+        session.modify( getDn( ENTRY_DN ),
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, "description", "test" ) );
+
+        assertSame( bundle, cache.get( getDn( SUBENTRY_DN ) ) );
+    }
+
+
+    @Test
+    public void testInvalidateOnModify() throws Exception
+    {
+        assertEquals( "configuration", getCollectiveOu() );
+
+        modifyCollectiveOu( "modified" );
+
+        assertNull( cache.get( getDn( SUBENTRY_DN ) ) );
+        assertEquals( "modified", getCollectiveOu() );
+        assertEquals( "modified", cache.get( getDn( SUBENTRY_DN ) ).get( 0 ).getString() );
+    }
+
+
+    @Test
+    public void testInvalidateOnRename() throws Exception
+    {
+        assertEquals( "configuration", getCollectiveOu() );
+
+        session.rename( getDn( SUBENTRY_DN ), new Rdn( getService().getSchemaManager(), "cn=renamed" ), true );
+
+        assertNull( cache.get( getDn( SUBENTRY_DN ) ) );
+
+        // The entry now refers to the new subentry Dn
+        assertEquals( "configuration", getCollectiveOu() );
+        assertNotNull( cache.get( getDn( "cn=renamed,ou=system" ) ) );
+    }
+
+
+    @Test
+    public void testInvalidateOnMove() throws Exception
+    {
+        session.add( new DefaultEntry( getService().getSchemaManager(), "ou=apps,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: apps",
+            "administrativeRole: collectiveAttributeInnerArea" ) );
+
+        assertEquals( "configuration", getCollectiveOu() );
+
+        session.move( getDn( SUBENTRY_DN ), getDn( "ou=apps,ou=system" ) );
+
+        assertNull( cache.get( getDn( SUBENTRY_DN ) ) );
+    }
+
+
+    @Test
+    public void testInvalidateOnDelete() throws Exception
+    {
+        assertEquals( "configuration", getCollectiveOu() );
+
+        session.delete( getDn( SUBENTRY_DN ) );
+
+        assertNull( cache.get( getDn( SUBENTRY_DN ) ) );
+        assertNull( getCollectiveOu() );
+    }
+
+
+    @Test
+    public void testGeneration() throws Exception
+    {
+        Dn dn = getDn( SUBENTRY_DN );
+        Entry subentry = session.lookup( dn );
+
+        // The subentry is modified while it's read : it's not stored
+        long generation = cache.getGeneration();
+        cache.invalidate( dn );
+
+        List<Attribute> bundle = cache.put( dn, subentry, generation );
+
+        assertEquals( 1, bundle.size() );
+        assertNull( cache.get( dn ) );
+
+        // Stored when nothing has been invalidated meanwhile
+        bundle = cache.put( dn, subentry, cache.getGeneration() );
+
+        assertSame( bundle, cache.get( dn ) );
+
+        try
+        {
+            bundle.clear();
+            fail();
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            // Expected, the bundle is shared
+        }
+    }
+
+
+    @Test
+    public void testConcurrentModifications() throws Exception
+    {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        // Read the entry while the subentry is modified
+        Thread reader = new Thread( () ->
+        {
+            try
+            {
+                while ( !done.get() )
+                {
+                    getCollectiveOu();
+                }
+            }
+            catch ( Exception e )
+            {
+                failure.set( e );
+            }
+        } );
+
+        reader.start();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            modifyCollectiveOu( "value" + i );
+        }
+
+        done.set( true );
+        reader.join( 10000L );
+
+        assertFalse( reader.isAlive() );
+        assertNull( failure.get() );
+
+        // A stale subentry must not have been stored in the cache
+        List<Attribute> bundle = cache.get( getDn( SUBENTRY_DN ) );
+
+        assertTrue( ( bundle == null ) || "value49".equals( bundle.get( 0 ).getString() ) );
+        assertEquals( "value49", getCollectiveOu() );
+    }
+}
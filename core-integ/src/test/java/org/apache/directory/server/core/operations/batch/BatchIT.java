@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.operations.batch;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the batches of add and modify operations
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "BatchIT")
+public class BatchIT extends AbstractLdapTestUnit
+{
+    private AddRequest newAddRequest( String dn, String cn ) throws Exception
+    {
+        Entry entry = new DefaultEntry( dn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + cn,
+            "sn: " + cn );
+
+        AddRequest addRequest = new AddRequestImpl();
+        addRequest.setEntry( entry );
+
+        return addRequest;
+    }
+
+
+    @Test
+    public void testBatch() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        List<Request> requests = new ArrayList<>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            requests.add( newAddRequest( "cn=batch" + i + ",ou=system", "batch" + i ) );
+        }
+
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        modifyRequest.setName( new Dn( "cn=batch0,ou=system" ) );
+        modifyRequest.replace( "description", "modified in the batch" );
+        requests.add( modifyRequest );
+
+        session.batch( requests );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( session.exists( "cn=batch" + i + ",ou=system" ) );
+        }
+
+        Entry entry = session.lookup( new Dn( "cn=batch0,ou=system" ) );
+        assertEquals( "modified in the batch", entry.get( "description" ).getString() );
+
+        // The session can still be used for single operations
+        session.add( newAddRequest( "cn=single,ou=system", "single" ) );
+        assertTrue( session.exists( "cn=single,ou=system" ) );
+    }
+
+
+    @Test
+    public void testBatchRejectsOtherRequests() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        List<Request> requests = new ArrayList<>();
+
+        requests.add( newAddRequest( "cn=rejected,ou=system", "rejected" ) );
+        requests.add( new DeleteRequestImpl().setName( new Dn( "cn=rejected,ou=system" ) ) );
+
+        try
+        {
+            session.batch( requests );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException lutpe )
+        {
+            // Expected
+        }
+
+        // Nothing has been applied
+        assertFalse( session.exists( "cn=rejected,ou=system" ) );
+    }
+
+
+    @Test
+    public void testBatchFailureRollsBackThePreviousOperations() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        session.add( newAddRequest( "cn=existing,ou=system", "existing" ) );
+
+        // Read the entry, so that it's in the partition cache
+        assertNull( session.lookup( new Dn( "cn=existing,ou=system" ) ).get( "description" ) );
+
+        List<Request> requests = new ArrayList<>();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            requests.add( newAddRequest( "cn=aborted" + i + ",ou=system", "aborted" + i ) );
+        }
+
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        modifyRequest.setName( new Dn( "cn=existing,ou=system" ) );
+        modifyRequest.replace( "description", "modified in the aborted batch" );
+        requests.add( modifyRequest );
+
+        // The last operation fails : the entry already exists
+        requests.add( newAddRequest( "cn=aborted0,ou=system", "aborted0" ) );
+
+        try
+        {
+            session.batch( requests );
+            fail();
+        }
+        catch ( LdapEntryAlreadyExistsException leaee )
+        {
+            // Expected
+        }
+
+        // None of the previous operations is visible
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertFalse( session.exists( "cn=aborted" + i + ",ou=system" ) );
+        }
+
+        assertNull( session.lookup( new Dn( "cn=existing,ou=system" ) ).get( "description" ) );
+
+        // And a one level search does not see them either
+        try ( Cursor<Entry> cursor = session.search( new Dn( "ou=system" ), SearchScope.ONELEVEL,
+            FilterParser.parse( "(cn=aborted*)" ), AliasDerefMode.NEVER_DEREF_ALIASES ) )
+        {
+            assertFalse( cursor.next() );
+        }
+
+        // The partition can still be written
+        requests.clear();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            requests.add( newAddRequest( "cn=aborted" + i + ",ou=system", "aborted" + i ) );
+        }
+
+        session.batch( requests );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertTrue( session.exists( "cn=aborted" + i + ",ou=system" ) );
+        }
+    }
+}
@@ -27,10 +27,17 @@ import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import jdbm.recman.BaseRecordManager;
@@ -47,6 +54,8 @@ import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidSearchFilterException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
@@ -58,8 +67,10 @@ import org.apache.directory.api.ldap.model.message.DeleteRequest;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
@@ -80,6 +91,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.changelog.LogChange;
+import org.apache.directory.server.core.api.interceptor.context.AbstractChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AbstractOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
@@ -114,6 +126,15 @@ public class DefaultCoreSession implements CoreSession
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( DefaultCoreSession.class );
 
+    /** The number of threads creating the contexts of the batched requests */
+    private static final int BATCH_POOL_SIZE = Math.max( 1, Runtime.getRuntime().availableProcessors() );
+
+    /** The minimum number of batched requests per thread */
+    private static final int BATCH_SLICE_MIN_SIZE = 64;
+
+    /** The pool creating the contexts of large batches. Its threads stop when they are idle */
+    private static final ExecutorService BATCH_POOL = createBatchPool();
+
     /** The DirectoryService we are connected to */
     private final DirectoryService directoryService;
 
@@ -136,14 +157,37 @@ public class DefaultCoreSession implements CoreSession
     private boolean pwdMustChange;
 
     /** A flag set when the startTransaction extended operation has been received */
-    private boolean hasSessionTransaction;
+    private volatile boolean hasSessionTransaction;
     
     /** The Map containing the transactions associated with each partition */
-    private Map<String, PartitionTxn> transactionMap = new HashMap<>();
+    private Map<String, PartitionTxn> transactionMap = new ConcurrentHashMap<>();
     
     /** The transaction ID */
     private AtomicLong transactionId = new AtomicLong( 0 );
 
+
+    /**
+     * @return A pool of daemon threads creating the contexts of the batched requests
+     */
+    private static ExecutorService createBatchPool()
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( BATCH_POOL_SIZE, BATCH_POOL_SIZE, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), runnable ->
+            {
+                Thread thread = new Thread( runnable, "batch-contexts-" + threadNumber.incrementAndGet() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+
+        pool.allowCoreThreadTimeOut( true );
+
+        return pool;
+    }
+
+
     /**
      * Creates a new instance of a DefaultCoreSession
      * @param principal The principal to use to process operation for this session
@@ -1071,6 +1115,147 @@ public class DefaultCoreSession implements CoreSession
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void batch( List<? extends Request> requests ) throws LdapException
+    {
+        batch( requests, LogChange.TRUE );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void batch( List<? extends Request> requests, LogChange log ) throws LdapException
+    {
+        List<Request> batchedRequests = new ArrayList<>( requests );
+        AbstractChangeOperationContext[] contexts = createBatchContexts( batchedRequests, log );
+
+        OperationManager operationManager = directoryService.getOperationManager();
+
+        try
+        {
+            operationManager.batch( Arrays.asList( contexts ) );
+        }
+        finally
+        {
+            for ( int i = 0; i < contexts.length; i++ )
+            {
+                ( ( ResultResponseRequest ) batchedRequests.get( i ) ).getResultResponse().addAllControls(
+                    contexts[i].getResponseControls() );
+            }
+        }
+    }
+
+
+    /**
+     * Creates the contexts of the batched requests. The creation normalizes the entries and the
+     * modifications : large batches are split in slices, created in parallel in a dedicated pool.
+     */
+    private AbstractChangeOperationContext[] createBatchContexts( List<Request> requests, LogChange log )
+        throws LdapException
+    {
+        AbstractChangeOperationContext[] contexts = new AbstractChangeOperationContext[requests.size()];
+        int nbSlices = Math.min( BATCH_POOL_SIZE, contexts.length / BATCH_SLICE_MIN_SIZE );
+
+        if ( nbSlices <= 1 )
+        {
+            for ( int i = 0; i < contexts.length; i++ )
+            {
+                contexts[i] = createBatchContext( requests.get( i ), log );
+            }
+
+            return contexts;
+        }
+
+        List<Future<?>> slices = new ArrayList<>( nbSlices );
+
+        for ( int slice = 0; slice < nbSlices; slice++ )
+        {
+            int start = ( int ) ( ( long ) contexts.length * slice / nbSlices );
+            int end = ( int ) ( ( long ) contexts.length * ( slice + 1 ) / nbSlices );
+
+            slices.add( BATCH_POOL.submit( () ->
+            {
+                for ( int i = start; i < end; i++ )
+                {
+                    contexts[i] = createBatchContext( requests.get( i ), log );
+                }
+
+                return null;
+            } ) );
+        }
+
+        LdapException failure = null;
+
+        for ( Future<?> slice : slices )
+        {
+            try
+            {
+                slice.get();
+            }
+            catch ( ExecutionException ee )
+            {
+                if ( ( failure == null ) && ( ee.getCause() instanceof LdapException ) )
+                {
+                    failure = ( LdapException ) ee.getCause();
+                }
+                else if ( failure == null )
+                {
+                    failure = new LdapOtherException( ee.getCause().getMessage(), ee.getCause() );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new LdapOtherException( ie.getMessage(), ie );
+            }
+        }
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+
+        return contexts;
+    }
+
+
+    private AbstractChangeOperationContext createBatchContext( Request request, LogChange log ) throws LdapException
+    {
+        AbstractChangeOperationContext context;
+
+        if ( request instanceof AddRequest )
+        {
+            context = new AddOperationContext( this, ( AddRequest ) request );
+        }
+        else if ( request instanceof ModifyRequest )
+        {
+            context = new ModifyOperationContext( this, ( ModifyRequest ) request );
+        }
+        else
+        {
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                "Only the Add and Modify requests can be batched, not " + request.getType() );
+        }
+
+        context.setLogChange( log );
+
+        Dn dn = context.getDn();
+
+        if ( !dn.isSchemaAware() )
+        {
+            context.setDn( new Dn( directoryService.getSchemaManager(), dn ) );
+        }
+
+        return context;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1184,10 +1369,26 @@ public class DefaultCoreSession implements CoreSession
      */
     @Override
     public Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException
+    {
+        return search( searchRequest, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Entry> search( SearchRequest searchRequest, String afterId ) throws LdapException
     {
         SearchOperationContext searchContext = new SearchOperationContext( this, searchRequest );
         searchContext.setSyncreplSearch( searchRequest.getControls().containsKey( SyncRequestValue.OID ) );
 
+        // The entries of a search based on the RootDSE come from many partitions : they can't be ordered
+        if ( !searchRequest.getBase().isRootDse() )
+        {
+            searchContext.setAfterId( afterId );
+        }
+
         OperationManager operationManager = directoryService.getOperationManager();
 
         // Check if we received serverside sort Control
@@ -1514,22 +1715,29 @@ public class DefaultCoreSession implements CoreSession
     @Override
     public void endSessionTransaction( boolean commit ) throws IOException
     {
-        if ( commit )
+        try
         {
-            for ( Map.Entry<String, PartitionTxn> partitionTxn : transactionMap.entrySet() )
+            if ( commit )
             {
-                partitionTxn.getValue().commit();
+                for ( Map.Entry<String, PartitionTxn> partitionTxn : transactionMap.entrySet() )
+                {
+                    partitionTxn.getValue().commit();
+                }
             }
-        }
-        else
-        {
-            for ( Map.Entry<String, PartitionTxn> partitionTxn : transactionMap.entrySet() )
+            else
             {
-                partitionTxn.getValue().abort();
+                for ( Map.Entry<String, PartitionTxn> partitionTxn : transactionMap.entrySet() )
+                {
+                    partitionTxn.getValue().abort();
+                }
             }
         }
-        
-        hasSessionTransaction = false;
+        finally
+        {
+            // The next session transaction will start new partition transactions
+            transactionMap.clear();
+            hasSessionTransaction = false;
+        }
     }
 
 
@@ -1549,9 +1757,6 @@ public class DefaultCoreSession implements CoreSession
     @Override
     public void addTransaction( Partition partition, PartitionTxn transaction )
     {
-        if ( !transactionMap.containsKey( partition.getId() ) )
-        {
-            transactionMap.put( partition.getId(), transaction );
-        }
+        transactionMap.putIfAbsent( partition.getId(), transaction );
     }
 }
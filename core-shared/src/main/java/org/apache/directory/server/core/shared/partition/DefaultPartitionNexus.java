@@ -62,6 +62,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -78,6 +79,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -373,7 +375,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = addContext.getPartition();
-        partition.add( addContext );
+        long start = startTimer();
+
+        try
+        {
+            partition.add( addContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.ADD, start );
+        }
     }
 
 
@@ -425,7 +436,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        return partition.delete( deleteContext );
+        long start = startTimer();
+
+        try
+        {
+            return partition.delete( deleteContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -448,8 +468,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = startTimer();
 
-        return partition.hasEntry( hasEntryContext );
+        try
+        {
+            return partition.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -473,7 +501,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
-        Entry entry = partition.lookup( lookupContext );
+        long start = startTimer();
+        Entry entry;
+
+        try
+        {
+            entry = partition.lookup( lookupContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.LOOKUP, start );
+        }
 
         if ( entry == null )
         {
@@ -498,8 +536,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
+        long start = startTimer();
 
-        partition.modify( modifyContext );
+        try
+        {
+            partition.modify( modifyContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.MODIFY, start );
+        }
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -516,8 +562,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
+        long start = startTimer();
 
-        partition.move( moveContext );
+        try
+        {
+            partition.move( moveContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -528,7 +582,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
-        partition.moveAndRename( moveAndRenameContext );
+        long start = startTimer();
+
+        try
+        {
+            partition.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -539,7 +602,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
-        partition.rename( renameContext );
+        long start = startTimer();
+
+        try
+        {
+            partition.rename( renameContext );
+        }
+        finally
+        {
+            stopTimer( partition, OperationEnum.RENAME, start );
+        }
     }
 
 
@@ -643,8 +715,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // Normal case : do a search on the specific partition
         Partition backend = searchContext.getPartition();
+        long start = startTimer();
 
-        return backend.search( searchContext );
+        try
+        {
+            return backend.search( searchContext );
+        }
+        finally
+        {
+            stopTimer( backend, OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -1076,6 +1156,27 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Starts a timer measuring the time spent in a partition, if the metrics are enabled.
+     */
+    private long startTimer()
+    {
+        return directoryService == null ? 0L : directoryService.getMetricsRegistry().startTimer();
+    }
+
+
+    /**
+     * Records the time spent in a partition. For a search, it's the time needed to create the cursor.
+     */
+    private void stopTimer( Partition partition, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            directoryService.getMetricsRegistry().record( Category.PARTITION, partition.getId(), operation, start );
+        }
+    }
+
+
     private void createContextCsnModList() throws LdapException
     {
         Modification contextCsnMod = new DefaultModification();
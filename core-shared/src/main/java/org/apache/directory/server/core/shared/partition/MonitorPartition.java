@@ -0,0 +1,388 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.naming.InvalidNameException;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.api.partition.Subordinates;
+
+
+/**
+ * A read-only partition exposing the latencies recorded in a {@link MetricsRegistry}
+ * under the cn=monitor suffix. The entries are computed when they are read :
+ * <pre>
+ * cn=monitor
+ *   cn=&lt;category&gt;,cn=monitor
+ *     cn=&lt;name&gt;,cn=&lt;category&gt;,cn=monitor
+ *       cn=&lt;operation&gt;,cn=&lt;name&gt;,cn=&lt;category&gt;,cn=monitor
+ * </pre>
+ * The statistics (count, mean, percentiles and max, in microseconds) are stored in
+ * the description attribute of the entry associated with a histogram, one value per
+ * statistic, like "p99=1520.0us".
+ * <br>
+ * This partition is not added by default, it has to be added to the DirectoryService.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The default partition ID and suffix */
+    public static final String ID = "monitor";
+    public static final String SUFFIX = "cn=monitor";
+
+    /** The registry containing the histograms */
+    private final MetricsRegistry metricsRegistry;
+
+    /** The evaluator used to filter the entries */
+    private ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param schemaManager The SchemaManager
+     * @param metricsRegistry The registry containing the histograms
+     * @throws LdapException If the suffix is invalid
+     */
+    public MonitorPartition( SchemaManager schemaManager, MetricsRegistry metricsRegistry ) throws LdapException
+    {
+        this.schemaManager = schemaManager;
+        this.metricsRegistry = metricsRegistry;
+        id = ID;
+        suffixDn = new Dn( schemaManager, SUFFIX );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new PartitionReadTxn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new PartitionWriteTxn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws InvalidNameException, LdapException
+    {
+        evaluator = new ExpressionEvaluator( schemaManager );
+        contextEntry = createEntry( suffixDn, ID, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+    }
+
+
+    /**
+     * Builds the entries from the histograms, sorted by Dn
+     */
+    private Map<String, Entry> getEntries() throws LdapException
+    {
+        Map<String, Entry> entries = new TreeMap<>();
+        entries.put( suffixDn.getNormName(), createEntry( suffixDn, ID, null ) );
+
+        for ( Map.Entry<String, LatencyHistogram> histogram : metricsRegistry.getHistograms().entrySet() )
+        {
+            String[] names = histogram.getKey().split( "/", 3 );
+            Dn dn = suffixDn;
+
+            for ( int i = 0; i < names.length; i++ )
+            {
+                dn = dn.add( new Rdn( schemaManager, SchemaConstants.CN_AT, names[i] ) );
+                LatencyHistogram stats = i == names.length - 1 ? histogram.getValue() : null;
+                Entry entry = entries.get( dn.getNormName() );
+
+                if ( entry == null )
+                {
+                    entries.put( dn.getNormName(), createEntry( dn, names[i], stats ) );
+                }
+                else if ( stats != null )
+                {
+                    addStatistics( entry, stats );
+                }
+            }
+        }
+
+        return entries;
+    }
+
+
+    private Entry createEntry( Dn dn, String name, LatencyHistogram histogram ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.APPLICATION_PROCESS_OC,
+            SchemaConstants.CN_AT, name );
+
+        if ( histogram != null )
+        {
+            addStatistics( entry, histogram );
+        }
+
+        return entry;
+    }
+
+
+    private void addStatistics( Entry entry, LatencyHistogram histogram ) throws LdapException
+    {
+        entry.add( SchemaConstants.DESCRIPTION_AT, histogram.toString().split( ", " ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        return getEntries().get( lookupContext.getDn().getNormName() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return getEntries().containsKey( hasEntryContext.getDn().getNormName() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn baseDn = searchContext.getDn();
+        List<Entry> found = new ArrayList<>();
+
+        for ( Entry entry : getEntries().values() )
+        {
+            Dn dn = entry.getDn();
+            boolean inScope;
+
+            switch ( searchContext.getScope() )
+            {
+                case OBJECT:
+                    inScope = dn.equals( baseDn );
+                    break;
+
+                case ONELEVEL:
+                    inScope = !dn.isEmpty() && dn.getParent().equals( baseDn );
+                    break;
+
+                default:
+                    inScope = dn.equals( baseDn ) || dn.isDescendantOf( baseDn );
+                    break;
+            }
+
+            if ( inScope && evaluator.evaluate( searchContext.getFilter(), dn, entry ) )
+            {
+                found.add( entry );
+            }
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( found ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Subordinates getSubordinates( PartitionTxn partitionTxn, Entry entry ) throws LdapException
+    {
+        Subordinates subordinates = new Subordinates();
+        Dn baseDn = entry.getDn();
+        long nbChildren = 0L;
+        long nbSubordinates = 0L;
+
+        for ( Entry child : getEntries().values() )
+        {
+            Dn dn = child.getDn();
+
+            if ( !dn.equals( baseDn ) && dn.isDescendantOf( baseDn ) )
+            {
+                nbSubordinates++;
+
+                if ( dn.getParent().equals( baseDn ) )
+                {
+                    nbChildren++;
+                }
+            }
+        }
+
+        subordinates.setNbChildren( nbChildren );
+        subordinates.setNbSubordinates( nbSubordinates );
+
+        return subordinates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    private LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+            "The " + SUFFIX + " partition is read-only" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveContextCsn( PartitionTxn partitionTxn ) throws LdapException
+    {
+    }
+}
@@ -26,6 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -100,6 +101,7 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
@@ -164,11 +166,15 @@ public class DefaultDirectoryService implements DirectoryService
     /** the journal service */
     private Journal journal;
 
+    /** The latency histograms, disabled by default */
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
     /**
      * the interface used to perform various operations on this
      * DirectoryService
      */
-    private OperationManager operationManager = new DefaultOperationManager( this );
+    private OperationManager operationManager = new MetricsOperationManager( new DefaultOperationManager( this ),
+        metricsRegistry );
 
     /** the distinguished name of the administrative user */
     private Dn adminDn;
@@ -1203,6 +1209,16 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
     /**
      * @throws LdapException if the LDAP server cannot be started
      */
@@ -1244,6 +1260,11 @@ public class DefaultDirectoryService implements DirectoryService
         initialize();
         showSecurityWarnings();
 
+        if ( metricsRegistry.isEnabled() )
+        {
+            metricsRegistry.registerMBeans( ManagementFactory.getPlatformMBeanServer(), instanceId );
+        }
+
         started = true;
 
         if ( !testEntries.isEmpty() )
@@ -1283,6 +1304,8 @@ public class DefaultDirectoryService implements DirectoryService
         partitionNexus.sync();
         operationManager.unlockWrite();
 
+        metricsRegistry.unregisterMBeans();
+
         // --------------------------------------------------------------------
         // Shutdown the changelog
         // --------------------------------------------------------------------
@@ -22,7 +22,9 @@ package org.apache.directory.server.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -39,6 +41,7 @@ import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapPartialResultException;
 import org.apache.directory.api.ldap.model.exception.LdapReferralException;
 import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchScope;
@@ -99,6 +102,28 @@ public class DefaultOperationManager implements OperationManager
     /** A lock used to protect against concurrent operations */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The batch processed by the current thread, if any */
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<>();
+
+    /**
+     * The state of a batch : the partition transactions it has started. It's kept per call, and
+     * not in the session, which may be shared by several threads.
+     */
+    private static final class Batch
+    {
+        /** The session the batched operations are associated with */
+        private final CoreSession session;
+
+        /** The transactions started by the batch, per partition ID */
+        private final Map<String, PartitionTxn> transactions = new HashMap<>();
+
+
+        private Batch( CoreSession session )
+        {
+            this.session = session;
+        }
+    }
+
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
@@ -401,7 +426,7 @@ public class DefaultOperationManager implements OperationManager
         lockWrite();
 
         // Start a Write transaction right away
-        PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
+        PartitionTxn transaction = getTransaction( addContext, partition );
         
         try
         {
@@ -419,7 +444,7 @@ public class DefaultOperationManager implements OperationManager
 
             head.add( addContext );
             
-            if ( !addContext.getSession().hasSessionTransaction() )
+            if ( !hasTransaction( addContext ) )
             {
                 transaction.commit();
             }
@@ -428,7 +453,8 @@ public class DefaultOperationManager implements OperationManager
         {
             try
             {
-                if ( transaction != null )
+                // The transaction of a batch is aborted once, by the batch
+                if ( ( transaction != null ) && ( getBatch( addContext.getSession() ) == null ) )
                 {
                     transaction.abort();
                 }
@@ -444,7 +470,10 @@ public class DefaultOperationManager implements OperationManager
         {
             try
             {
-                transaction.abort();
+                if ( getBatch( addContext.getSession() ) == null )
+                {
+                    transaction.abort();
+                }
                 
                 throw new LdapOtherException( ioe.getMessage(), ioe );
             }
@@ -1092,7 +1121,7 @@ public class DefaultOperationManager implements OperationManager
         lockWrite();
         
         // Start a Write transaction right away
-        PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
+        PartitionTxn transaction = getTransaction( modifyContext, partition );
 
         try
         {
@@ -1116,7 +1145,7 @@ public class DefaultOperationManager implements OperationManager
 
             head.modify( modifyContext );
             
-            if ( !modifyContext.getSession().hasSessionTransaction() )
+            if ( !hasTransaction( modifyContext ) )
             {
                 transaction.commit();
             }
@@ -1125,7 +1154,8 @@ public class DefaultOperationManager implements OperationManager
         {
             try 
             {
-                if ( transaction != null )
+                // The transaction of a batch is aborted once, by the batch
+                if ( ( transaction != null ) && ( getBatch( modifyContext.getSession() ) == null ) )
                 {
                     transaction.abort();
                 }
@@ -1141,7 +1171,10 @@ public class DefaultOperationManager implements OperationManager
         {
             try 
             {
-                transaction.abort();
+                if ( getBatch( modifyContext.getSession() ) == null )
+                {
+                    transaction.abort();
+                }
                 
                 throw new LdapOtherException( ioe.getMessage(), ioe );
             }
@@ -1167,6 +1200,215 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void batch( List<? extends OperationContext> contexts ) throws LdapException
+    {
+        if ( contexts.isEmpty() )
+        {
+            return;
+        }
+
+        if ( IS_DEBUG )
+        {
+            OPERATION_LOG.debug( ">> BatchOperation : {} operations", contexts.size() );
+        }
+
+        long batchStart = 0L;
+
+        if ( IS_TIME )
+        {
+            batchStart = System.nanoTime();
+        }
+
+        ensureStarted();
+
+        CoreSession session = contexts.get( 0 ).getSession();
+
+        for ( OperationContext context : contexts )
+        {
+            if ( !( context instanceof AddOperationContext ) && !( context instanceof ModifyOperationContext ) )
+            {
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                    "Only the Add and Modify operations can be batched, not " + context.getName() );
+            }
+
+            if ( context.getSession() != session )
+            {
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                    "The batched operations must all be associated with the same session" );
+            }
+        }
+
+        // The operations are dispatched through the DirectoryService OperationManager, so that
+        // they are processed exactly as if they were not batched
+        OperationManager operationManager = directoryService.getOperationManager();
+
+        // The lock is reentrant : each operation will acquire it again without waiting
+        lockWrite();
+
+        try
+        {
+            // Without a session transaction, the batch starts its own partitions transactions,
+            // which are committed once, after the last operation
+            Batch batch = null;
+
+            if ( !session.hasSessionTransaction() && ( getBatch( session ) == null ) )
+            {
+                batch = new Batch( session );
+                currentBatch.set( batch );
+            }
+
+            try
+            {
+                for ( OperationContext context : contexts )
+                {
+                    if ( context instanceof AddOperationContext )
+                    {
+                        operationManager.add( ( AddOperationContext ) context );
+                    }
+                    else
+                    {
+                        operationManager.modify( ( ModifyOperationContext ) context );
+                    }
+                }
+            }
+            catch ( LdapException | RuntimeException e )
+            {
+                if ( batch != null )
+                {
+                    endBatch( batch, false );
+                }
+
+                throw e;
+            }
+            finally
+            {
+                if ( batch != null )
+                {
+                    currentBatch.remove();
+                }
+            }
+
+            if ( batch != null )
+            {
+                endBatch( batch, true );
+            }
+        }
+        finally
+        {
+            unlockWrite();
+        }
+
+        if ( IS_DEBUG )
+        {
+            OPERATION_LOG.debug( "<< BatchOperation successful" );
+        }
+
+        if ( IS_TIME )
+        {
+            OPERATION_TIME.debug( "Batch of {} operations took {} ns", contexts.size(),
+                ( System.nanoTime() - batchStart ) );
+        }
+    }
+
+
+    /**
+     * Commits or aborts the transactions started by a batch. When a commit fails, the
+     * transactions which have not been committed yet are aborted.
+     */
+    private void endBatch( Batch batch, boolean commit ) throws LdapException
+    {
+        IOException error = null;
+
+        for ( PartitionTxn transaction : batch.transactions.values() )
+        {
+            try
+            {
+                if ( commit && ( error == null ) )
+                {
+                    transaction.commit();
+                }
+                else
+                {
+                    transaction.abort();
+                }
+            }
+            catch ( IOException ioe )
+            {
+                if ( error == null )
+                {
+                    error = ioe;
+                }
+                else
+                {
+                    error.addSuppressed( ioe );
+                }
+            }
+        }
+
+        batch.transactions.clear();
+
+        if ( error != null )
+        {
+            throw new LdapOtherException( error.getMessage(), error );
+        }
+    }
+
+
+    /**
+     * @return The batch processed by the current thread for a session, or null
+     */
+    private Batch getBatch( CoreSession session )
+    {
+        Batch batch = currentBatch.get();
+
+        if ( ( batch != null ) && ( batch.session == session ) )
+        {
+            return batch;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the transaction an operation must use on a partition : the transaction of the batch
+     * the operation belongs to, or the session transaction.
+     * 
+     * @param context The operation context
+     * @param partition The partition
+     * @return The transaction to use, or null if the operation has to start its own transaction
+     */
+    private PartitionTxn getTransaction( OperationContext context, Partition partition )
+    {
+        Batch batch = getBatch( context.getSession() );
+
+        if ( batch != null )
+        {
+            return batch.transactions.computeIfAbsent( partition.getId(),
+                id -> partition.beginWriteTransaction() );
+        }
+
+        return context.getSession().getTransaction( partition );
+    }
+
+
+    /**
+     * Tells if an operation belongs to a batch or to a session transaction, in which case its
+     * transaction is not committed when it is done.
+     * 
+     * @param context The operation context
+     * @return true if the operation must not commit its transaction
+     */
+    private boolean hasTransaction( OperationContext context )
+    {
+        return ( getBatch( context.getSession() ) != null ) || context.getSession().hasSessionTransaction();
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,400 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core;
+
+
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.GetRootDseOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
+
+
+/**
+ * An OperationManager recording the time spent processing each operation into the
+ * {@link MetricsRegistry}, then delegating to the wrapped OperationManager. The time
+ * includes the wait for the operations lock. For a search, it's the time needed to
+ * create the cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsOperationManager implements OperationManager
+{
+    /** The name of the histograms associated with the operations */
+    private static final String HISTOGRAM_NAME = "all";
+
+    /** The wrapped OperationManager */
+    private final OperationManager wrapped;
+
+    /** The metrics registry */
+    private final MetricsRegistry metricsRegistry;
+
+
+    /**
+     * Creates a new instance of MetricsOperationManager.
+     *
+     * @param wrapped The wrapped OperationManager
+     * @param metricsRegistry The metrics registry
+     */
+    public MetricsOperationManager( OperationManager wrapped, MetricsRegistry metricsRegistry )
+    {
+        this.wrapped = wrapped;
+        this.metricsRegistry = metricsRegistry;
+    }
+
+
+    /**
+     * @return The wrapped OperationManager
+     */
+    public OperationManager getWrapped()
+    {
+        return wrapped;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.add( addContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.ADD, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry getRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            return wrapped.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.GET_ROOT_DSE, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean compare( CompareOperationContext compareContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            return wrapped.compare( compareContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.COMPARE, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.delete( deleteContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.DELETE, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.modify( modifyContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.MODIFY, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The batches have no dedicated operation : the wrapped OperationManager dispatches the
+     * batched operations through the DirectoryService OperationManager, so that each of them
+     * is recorded as an Add or a Modify.
+     */
+    @Override
+    public void batch( List<? extends OperationContext> contexts ) throws LdapException
+    {
+        wrapped.batch( contexts );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            return wrapped.search( searchContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.SEARCH, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            return wrapped.lookup( lookupContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.LOOKUP, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            return wrapped.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.HAS_ENTRY, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.rename( renameContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.RENAME, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.move( moveContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.MOVE, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.MOVE_AND_RENAME, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bind( BindOperationContext bindContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.bind( bindContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.BIND, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+        long start = metricsRegistry.startTimer();
+
+        try
+        {
+            wrapped.unbind( unbindContext );
+        }
+        finally
+        {
+            metricsRegistry.record( Category.OPERATION, HISTOGRAM_NAME, OperationEnum.UNBIND, start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lockWrite()
+    {
+        wrapped.lockWrite();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unlockWrite()
+    {
+        wrapped.unlockWrite();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lockRead()
+    {
+        wrapped.lockRead();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unlockRead()
+    {
+        wrapped.unlockRead();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReadWriteLock getRWLock()
+    {
+        return wrapped.getRWLock();
+    }
+}
@@ -784,7 +784,10 @@ public enum I18n
     ERR_747("ERR_747"),
     ERR_748("ERR_748"),
     ERR_749("ERR_749"),
-    ERR_750("ERR_750");
+    ERR_750("ERR_750"),
+    ERR_751_CHANGELOG_CURSOR_POSITIONING("ERR_751_CHANGELOG_CURSOR_POSITIONING"),
+    ERR_752_CHANGELOG_FILTER_SEARCH("ERR_752_CHANGELOG_FILTER_SEARCH"),
+    ERR_753_CHANGELOG_WRITE_FAILED("ERR_753_CHANGELOG_WRITE_FAILED");
 
     private static final ResourceBundle ERR_BUNDLE = ResourceBundle
         .getBundle( "org.apache.directory.server.i18n.errors", Locale.ROOT );
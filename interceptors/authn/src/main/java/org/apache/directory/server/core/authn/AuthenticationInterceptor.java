@@ -595,6 +595,19 @@ public class AuthenticationInterceptor extends BaseInterceptor
             // authentication failed, try the next authenticator
             LOG.info( "Authenticator {} failed to authenticate: {}", authenticator, bindContext.getDn() );
         }
+        catch ( LdapOperationException e )
+        {
+            if ( e.getResultCode() == ResultCodeEnum.BUSY )
+            {
+                // The credentials have not been verified, because the server is overloaded :
+                // this is not an authentication failure, the password policy must not count it
+                LOG.info( "Authenticator {} is too busy to authenticate: {}", authenticator, bindContext.getDn() );
+
+                throw e;
+            }
+
+            LOG.info( "Unexpected failure for Authenticator {} : {}", authenticator, bindContext.getDn() );
+        }
         catch ( Exception e )
         {
             // Log other exceptions than LdapAuthenticationException
@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Verifies the bind credentials against the stored passwords in a dedicated, bounded, pool
+ * of threads. Comparing a password hashed with PBKDF2 or crypt is expensive, and a flood of
+ * such binds would otherwise use all the threads processing the LDAP requests.
+ * <ul>
+ *   <li>At most <em>nbThreads</em> verifications are executed concurrently, and at most
+ *   <em>queueSize</em> are waiting. Any other verification is immediately rejected with a
+ *   BUSY result code.</li>
+ *   <li>Identical verifications (same Dn, credentials and stored passwords) submitted while
+ *   one of them is pending are collapsed : they all wait for the same result.</li>
+ *   <li>The time needed to compare the credentials is recorded in the CREDENTIALS category
+ *   of the MetricsRegistry, by hashing scheme.</li>
+ * </ul>
+ * When the number of threads is 0, the credentials are verified by the calling thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialsVerifier
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CredentialsVerifier.class );
+
+    /** The default number of threads : one per processor */
+    public static final int DEFAULT_NB_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** The default number of verifications waiting for a thread */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** The default maximum time a bind waits for its verification, in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 30000L;
+
+    /** The name used in the metrics for the passwords stored in clear text */
+    public static final String PLAIN_SCHEME = "plain";
+
+    /** A counter used to name the threads */
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /** The executor, null if the credentials are verified by the calling thread */
+    private final ThreadPoolExecutor executor;
+
+    /** The verifications being executed, or waiting for a thread */
+    private final ConcurrentMap<Verification, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+
+    /** The maximum time a bind waits for its verification, in milliseconds */
+    private final long timeout;
+
+    /** The registry the verification times are recorded in */
+    private final MetricsRegistry metricsRegistry;
+
+
+    /**
+     * Creates a new instance of CredentialsVerifier.
+     *
+     * @param nbThreads The number of threads verifying the credentials. If 0, the calling
+     * thread verifies them
+     * @param queueSize The maximum number of verifications waiting for a thread
+     * @param timeout The maximum time a bind waits for its verification, in milliseconds
+     * @param metricsRegistry The registry the verification times are recorded in, or <code>null</code>
+     */
+    public CredentialsVerifier( int nbThreads, int queueSize, long timeout, MetricsRegistry metricsRegistry )
+    {
+        this.timeout = timeout;
+        this.metricsRegistry = metricsRegistry;
+
+        if ( nbThreads > 0 )
+        {
+            final String prefix = "credentials-verifier-" + POOL_NUMBER.incrementAndGet() + "-";
+            final AtomicInteger threadNumber = new AtomicInteger();
+
+            executor = new ThreadPoolExecutor( nbThreads, nbThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( Math.max( queueSize, 1 ) ), runnable ->
+                {
+                    Thread thread = new Thread( runnable, prefix + threadNumber.incrementAndGet() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } );
+            executor.allowCoreThreadTimeOut( true );
+        }
+        else
+        {
+            executor = null;
+        }
+    }
+
+
+    /**
+     * Verifies some credentials.
+     *
+     * @param normName The normalized bind Dn
+     * @param credentials The credentials sent by the user
+     * @param storedPasswords The passwords stored in the user entry
+     * @return <code>true</code> if the credentials match one of the stored passwords
+     * @throws LdapException If the verification has been rejected because too many are pending,
+     * or has not completed in time
+     */
+    public boolean verify( String normName, byte[] credentials, byte[][] storedPasswords ) throws LdapException
+    {
+        if ( executor == null )
+        {
+            return compare( credentials, storedPasswords );
+        }
+
+        final Verification verification = new Verification( normName, credentials, storedPasswords );
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = pending.putIfAbsent( verification, future );
+
+        if ( existing != null )
+        {
+            LOG.debug( "Joining the pending verification of {} credentials", normName );
+
+            return waitFor( normName, existing );
+        }
+
+        try
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    future.complete( compare( credentials, storedPasswords ) );
+                }
+                catch ( RuntimeException re )
+                {
+                    future.completeExceptionally( re );
+                }
+                finally
+                {
+                    pending.remove( verification, future );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            pending.remove( verification, future );
+            future.completeExceptionally( ree );
+
+            String message = "Too many pending bind verifications, rejecting the bind of " + normName;
+            LOG.warn( message );
+
+            throw new LdapOperationException( ResultCodeEnum.BUSY, message );
+        }
+
+        return waitFor( normName, future );
+    }
+
+
+    private boolean waitFor( String normName, CompletableFuture<Boolean> future ) throws LdapException
+    {
+        try
+        {
+            return future.get( timeout, TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException te )
+        {
+            String message = "The verification of the " + normName + " credentials has timed out";
+            LOG.warn( message );
+
+            throw new LdapOperationException( ResultCodeEnum.BUSY, message );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            if ( ee.getCause() instanceof RejectedExecutionException )
+            {
+                throw new LdapOperationException( ResultCodeEnum.BUSY, ee.getCause().getMessage() );
+            }
+
+            throw new LdapOtherException( ee.getCause().getMessage(), ee.getCause() );
+        }
+    }
+
+
+    /**
+     * Compares the credentials with each stored password, recording the time spent by scheme
+     */
+    private boolean compare( byte[] credentials, byte[][] storedPasswords )
+    {
+        for ( byte[] storedPassword : storedPasswords )
+        {
+            long start = metricsRegistry == null ? 0L : metricsRegistry.startTimer();
+            boolean matches = PasswordUtil.compareCredentials( credentials, storedPassword );
+
+            if ( start != 0L )
+            {
+                LdapSecurityConstants scheme = PasswordUtil.findAlgorithm( storedPassword );
+                metricsRegistry.record( Category.CREDENTIALS, scheme == null ? PLAIN_SCHEME : scheme.getName(),
+                    null, start );
+            }
+
+            if ( matches )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return The number of verifications being executed or waiting for a thread
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+
+    /**
+     * Stops the threads. The verifications waiting for a thread are abandoned.
+     */
+    public void shutdown()
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+        }
+
+        for ( CompletableFuture<Boolean> future : pending.values() )
+        {
+            future.completeExceptionally( new RejectedExecutionException( "The credentials verifier is stopped" ) );
+        }
+
+        pending.clear();
+    }
+
+
+    /**
+     * The key used to collapse the identical verifications
+     */
+    private static final class Verification
+    {
+        private final String normName;
+        private final byte[] credentials;
+        private final byte[][] storedPasswords;
+        private final int hashCode;
+
+
+        private Verification( String normName, byte[] credentials, byte[][] storedPasswords )
+        {
+            this.normName = normName;
+            this.credentials = credentials;
+            this.storedPasswords = storedPasswords;
+            this.hashCode = normName.hashCode() * 31 + Arrays.hashCode( credentials );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            if ( !( o instanceof Verification ) )
+            {
+                return false;
+            }
+
+            Verification that = ( Verification ) o;
+
+            return normName.equals( that.normName ) && Arrays.equals( credentials, that.credentials )
+                && Arrays.deepEquals( storedPasswords, that.storedPasswords );
+        }
+    }
+}
@@ -54,6 +54,9 @@ import org.apache.mina.core.session.IoSession;
  *
  * We use a cache to speedup authentication, where the Dn/password are stored.
  *
+ * The passwords are compared by a {@link CredentialsVerifier}, in a bounded pool of
+ * threads, so that expensive hashes can't exhaust the threads processing the requests.
+ *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SimpleAuthenticator extends AbstractAuthenticator
@@ -82,6 +85,18 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** The number of threads verifying the credentials, 0 to verify them in the caller thread */
+    private int verifierThreads = CredentialsVerifier.DEFAULT_NB_THREADS;
+
+    /** The maximum number of verifications waiting for a thread */
+    private int verifierQueueSize = CredentialsVerifier.DEFAULT_QUEUE_SIZE;
+
+    /** The maximum time a bind waits for its verification, in milliseconds */
+    private long verifierTimeout = CredentialsVerifier.DEFAULT_TIMEOUT;
+
+    /** The pool verifying the credentials */
+    private CredentialsVerifier credentialsVerifier;
+
 
     /**
      * Creates a new instance.
@@ -132,6 +147,93 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit()
+    {
+        credentialsVerifier = new CredentialsVerifier( verifierThreads, verifierQueueSize, verifierTimeout,
+            getDirectoryService().getMetricsRegistry() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy()
+    {
+        if ( credentialsVerifier != null )
+        {
+            credentialsVerifier.shutdown();
+            credentialsVerifier = null;
+        }
+    }
+
+
+    /**
+     * @return The number of threads verifying the credentials
+     */
+    public int getVerifierThreads()
+    {
+        return verifierThreads;
+    }
+
+
+    /**
+     * Sets the number of threads verifying the credentials. If 0, the credentials are
+     * verified by the thread processing the bind. Must be set before the initialization.
+     *
+     * @param verifierThreads The number of threads
+     */
+    public void setVerifierThreads( int verifierThreads )
+    {
+        this.verifierThreads = verifierThreads;
+    }
+
+
+    /**
+     * @return The maximum number of verifications waiting for a thread
+     */
+    public int getVerifierQueueSize()
+    {
+        return verifierQueueSize;
+    }
+
+
+    /**
+     * Sets the maximum number of verifications waiting for a thread. The binds exceeding
+     * this limit are rejected with a BUSY result code. Must be set before the initialization.
+     *
+     * @param verifierQueueSize The queue size
+     */
+    public void setVerifierQueueSize( int verifierQueueSize )
+    {
+        this.verifierQueueSize = verifierQueueSize;
+    }
+
+
+    /**
+     * @return The maximum time a bind waits for its verification, in milliseconds
+     */
+    public long getVerifierTimeout()
+    {
+        return verifierTimeout;
+    }
+
+
+    /**
+     * Sets the maximum time a bind waits for its verification. Must be set before the initialization.
+     *
+     * @param verifierTimeout The timeout, in milliseconds
+     */
+    public void setVerifierTimeout( long verifierTimeout )
+    {
+        this.verifierTimeout = verifierTimeout;
+    }
+
+
     /**
      * Get the password either from cache or from backend.
      * @param principalDN The Dn from which we want the password
@@ -231,24 +333,41 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             ppe = e;
         }
 
-        // Now, compare the passwords.
-        for ( byte[] storedPassword : storedPasswords )
+        // Now, compare the passwords, in the verifier pool.
+        boolean matches;
+
+        if ( credentialsVerifier != null )
         {
-            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            matches = credentialsVerifier.verify( bindContext.getDn().getNormName(), credentials, storedPasswords );
+        }
+        else
+        {
+            matches = false;
+
+            for ( byte[] storedPassword : storedPasswords )
             {
-                if ( ppe != null )
+                if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
                 {
-                    LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
-                    throw ppe;
+                    matches = true;
+                    break;
                 }
+            }
+        }
 
-                if ( IS_DEBUG )
-                {
-                    LOG.debug( "{} Authenticated", bindContext.getDn() );
-                }
+        if ( matches )
+        {
+            if ( ppe != null )
+            {
+                LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
+                throw ppe;
+            }
 
-                return principal;
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "{} Authenticated", bindContext.getDn() );
             }
+
+            return principal;
         }
 
         // Bad password ...
@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
+import org.junit.Test;
+
+
+/**
+ * Test the CredentialsVerifier class
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialsVerifierTest
+{
+    private static final byte[] SECRET = Strings.getBytesUtf8( "secret" );
+    private static final byte[] WRONG = Strings.getBytesUtf8( "wrong" );
+
+
+    @Test
+    public void testVerifyInline() throws Exception
+    {
+        CredentialsVerifier verifier = new CredentialsVerifier( 0, 0, 1000L, null );
+        byte[][] stored = new byte[][]
+            { SECRET };
+
+        assertTrue( verifier.verify( "uid=test", SECRET, stored ) );
+        assertFalse( verifier.verify( "uid=test", WRONG, stored ) );
+        assertFalse( verifier.verify( "uid=test", SECRET, new byte[][]
+            {} ) );
+    }
+
+
+    @Test
+    public void testVerifyInPool() throws Exception
+    {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.setEnabled( true );
+        CredentialsVerifier verifier = new CredentialsVerifier( 2, 16, 10000L, metricsRegistry );
+
+        try
+        {
+            byte[][] stored = new byte[][]
+                {
+                    PasswordUtil.createStoredPassword( WRONG, LdapSecurityConstants.HASH_METHOD_SSHA512 ),
+                    PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_SSHA512 )
+                };
+
+            assertTrue( verifier.verify( "uid=test", SECRET, stored ) );
+            assertFalse( verifier.verify( "uid=test", Strings.getBytesUtf8( "other" ), stored ) );
+            assertEquals( 0, verifier.getPendingCount() );
+
+            // Two comparisons for the first verification, two for the second one
+            assertEquals( 4L, metricsRegistry.getHistogram( Category.CREDENTIALS,
+                LdapSecurityConstants.HASH_METHOD_SSHA512.getName(), null ).getCount() );
+        }
+        finally
+        {
+            verifier.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testConcurrentVerifications() throws Exception
+    {
+        final CredentialsVerifier verifier = new CredentialsVerifier( 2, 64, 10000L, null );
+        final byte[][] stored = new byte[][]
+            { PasswordUtil.createStoredPassword( SECRET, LdapSecurityConstants.HASH_METHOD_PKCS5S2 ) };
+        ExecutorService binders = Executors.newFixedThreadPool( 8 );
+
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for ( int i = 0; i < 32; i++ )
+            {
+                final byte[] credentials = ( i % 2 == 0 ) ? SECRET : WRONG;
+                results.add( binders.submit( () -> verifier.verify( "uid=test", credentials, stored ) ) );
+            }
+
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                assertEquals( i % 2 == 0, results.get( i ).get() );
+            }
+
+            assertEquals( 0, verifier.getPendingCount() );
+        }
+        finally
+        {
+            binders.shutdown();
+            verifier.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRejectWhenStopped() throws Exception
+    {
+        CredentialsVerifier verifier = new CredentialsVerifier( 1, 1, 1000L, null );
+        verifier.shutdown();
+
+        try
+        {
+            verifier.verify( "uid=test", SECRET, new byte[][]
+                { SECRET } );
+            fail();
+        }
+        catch ( LdapOperationException loe )
+        {
+            assertEquals( ResultCodeEnum.BUSY, loe.getResultCode() );
+        }
+    }
+}
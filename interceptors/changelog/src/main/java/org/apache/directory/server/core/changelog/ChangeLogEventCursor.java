@@ -0,0 +1,334 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over a set of revisions stored in a {@link SegmentedChangeLogStore}. The events
+ * are read from the store when the cursor reaches them, so that a cursor over a large range
+ * of revisions does not hold all of them in memory. The revisions are either a contiguous
+ * range, or a sorted array of revisions, as returned by the search engine indexes.
+ * <br>
+ * Revisions which have been purged from the store while the cursor is in use are skipped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ChangeLogEventCursor extends AbstractCursor<ChangeLogEvent>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The store the events are read from */
+    private final SegmentedChangeLogStore store;
+
+    /** The first revision of the range, when there is no revisions array */
+    private final long startRevision;
+
+    /** The revisions to return, in ascending order, or null for a range */
+    private final long[] revisions;
+
+    /** The number of revisions */
+    private final int size;
+
+    /** Tells if the revisions are returned in ascending order */
+    private final boolean ascending;
+
+    /** The current position, from -1 (before first) to size (after last) */
+    private int pos = -1;
+
+    /** The current event, if any */
+    private ChangeLogEvent current;
+
+
+    /**
+     * Creates a cursor over a contiguous range of revisions
+     *
+     * @param store The store to read the events from
+     * @param startRevision The first revision
+     * @param endRevision The last revision
+     * @param ascending If the events must be returned in ascending order
+     */
+    ChangeLogEventCursor( SegmentedChangeLogStore store, long startRevision, long endRevision, boolean ascending )
+    {
+        this.store = store;
+        this.startRevision = startRevision;
+        this.revisions = null;
+        this.size = endRevision < startRevision ? 0 : ( int ) ( endRevision - startRevision + 1 );
+        this.ascending = ascending;
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ChangeLogEventCursor {}", this );
+        }
+    }
+
+
+    /**
+     * Creates a cursor over a set of revisions
+     *
+     * @param store The store to read the events from
+     * @param revisions The revisions, sorted in ascending order
+     * @param size The number of revisions to use in the array
+     * @param ascending If the events must be returned in ascending order
+     */
+    ChangeLogEventCursor( SegmentedChangeLogStore store, long[] revisions, int size, boolean ascending )
+    {
+        this.store = store;
+        this.startRevision = 0L;
+        this.revisions = revisions;
+        this.size = size;
+        this.ascending = ascending;
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ChangeLogEventCursor {}", this );
+        }
+    }
+
+
+    private long revisionAt( int index )
+    {
+        int i = ascending ? index : size - 1 - index;
+
+        if ( revisions == null )
+        {
+            return startRevision + i;
+        }
+        else
+        {
+            return revisions[i];
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_751_CHANGELOG_CURSOR_POSITIONING ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_751_CHANGELOG_CURSOR_POSITIONING ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos = -1;
+        current = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos = size;
+        current = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( pos < size )
+        {
+            pos++;
+
+            if ( pos == size )
+            {
+                break;
+            }
+
+            current = store.read( revisionAt( pos ) );
+
+            if ( current != null )
+            {
+                return true;
+            }
+        }
+
+        current = null;
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( pos >= 0 )
+        {
+            pos--;
+
+            if ( pos < 0 )
+            {
+                break;
+            }
+
+            current = store.read( revisionAt( pos ) );
+
+            if ( current != null )
+            {
+                return true;
+            }
+        }
+
+        current = null;
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ChangeLogEventCursor {}", this );
+        }
+
+        current = null;
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ChangeLogEventCursor {}", this );
+        }
+
+        current = null;
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "ChangeLogEventCursor[" + size + " revisions, " + ( ascending ? "ascending" : "descending" ) + "]";
+    }
+}
@@ -59,6 +59,8 @@ import org.slf4j.LoggerFactory;
 /**
  * An interceptor which intercepts write operations to the directory and
  * logs them with the server's ChangeLog service.
+ * The forward LDIFs reference the data of the operation, and the reverse LDIFs
+ * are only built when they are needed, by the ChangeLogStore or when reverting.
  * Note: Adding/deleting a tag is not recorded as a change
  */
 public class ChangeLogInterceptor extends BaseInterceptor
@@ -127,18 +129,20 @@ public class ChangeLogInterceptor extends BaseInterceptor
             return;
         }
 
+        // The partition may keep the added attributes, and modify them in place when the
+        // entry is modified later : the event, written in the background, needs a copy
         LdifEntry forward = new LdifEntry();
         forward.setChangeType( ChangeType.Add );
         forward.setDn( addContext.getDn() );
 
         for ( Attribute attribute : addEntry.getAttributes() )
         {
-            AttributeType attributeType = attribute.getAttributeType();
-            forward.addAttribute( addEntry.get( attributeType ).clone() );
+            forward.addAttribute( attribute.clone() );
         }
 
-        LdifEntry reverse = LdifRevertor.reverseAdd( addContext.getDn() );
-        addContext.setChangeLogEvent( changeLog.log( getPrincipal( addContext ), forward, reverse ) );
+        final Dn dn = addContext.getDn();
+        addContext.setChangeLogEvent( changeLog.log( getPrincipal( addContext ), forward,
+            () -> asList( LdifRevertor.reverseAdd( dn ) ) ) );
     }
 
 
@@ -158,7 +162,7 @@ public class ChangeLogInterceptor extends BaseInterceptor
 
         if ( changeLog.isEnabled() )
         {
-            serverEntry = getAttributes( deleteContext );
+            serverEntry = getOriginalEntry( deleteContext );
         }
 
         next( deleteContext );
@@ -178,23 +182,29 @@ public class ChangeLogInterceptor extends BaseInterceptor
         forward.setChangeType( ChangeType.Delete );
         forward.setDn( deleteContext.getDn() );
 
-        Entry reverseEntry = new DefaultEntry( serverEntry.getDn() );
+        final Dn dn = deleteContext.getDn();
+        final Entry deletedEntry = serverEntry;
 
-        boolean isCollectiveSubentry = serverEntry.hasObjectClass( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC );
-
-        for ( Attribute attribute : serverEntry )
+        deleteContext.setChangeLogEvent( changeLog.log( getPrincipal( deleteContext ), forward, () ->
         {
-            // filter collective attributes, they can't be added by the revert operation
-            AttributeType at = schemaManager.lookupAttributeTypeRegistry( attribute.getId() );
+            Entry reverseEntry = new DefaultEntry( deletedEntry.getDn() );
+
+            boolean isCollectiveSubentry = deletedEntry.hasObjectClass(
+                SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC );
 
-            if ( !at.isCollective() || isCollectiveSubentry )
+            for ( Attribute attribute : deletedEntry )
             {
-                reverseEntry.add( attribute.clone() );
+                // filter collective attributes, they can't be added by the revert operation
+                AttributeType at = schemaManager.lookupAttributeTypeRegistry( attribute.getId() );
+
+                if ( !at.isCollective() || isCollectiveSubentry )
+                {
+                    reverseEntry.add( attribute.clone() );
+                }
             }
-        }
 
-        LdifEntry reverse = LdifRevertor.reverseDel( deleteContext.getDn(), reverseEntry );
-        deleteContext.setChangeLogEvent( changeLog.log( getPrincipal( deleteContext ), forward, reverse ) );
+            return asList( LdifRevertor.reverseDel( dn, reverseEntry ) );
+        } ) );
     }
 
 
@@ -211,17 +221,21 @@ public class ChangeLogInterceptor extends BaseInterceptor
         if ( !isDelete && ( changeLog.isEnabled() ) )
         {
             // @todo make sure we're not putting in operational attributes that cannot be user modified
-            serverEntry = getAttributes( modifyContext );
+            serverEntry = getOriginalEntry( modifyContext );
         }
 
-        // Duplicate modifications so that the reverse does not contain the operational attributes
-        List<Modification> clonedMods = new ArrayList<>();
+        // Duplicate the user modifications, so that the changes do not contain the operational
+        // attributes added by the next interceptors, nor the values they may modify
+        List<Modification> userMods = new ArrayList<>( modifyContext.getModItems().size() );
 
         for ( Modification mod : modifyContext.getModItems() )
         {
-            clonedMods.add( mod.clone() );
+            userMods.add( mod.clone() );
         }
 
+        // The reverse LDIF is built in the background, from a copy of the entry as it is now
+        final Entry originalEntry = snapshot( serverEntry );
+
         // Call the next interceptor
         next( modifyContext );
 
@@ -248,29 +262,16 @@ public class ChangeLogInterceptor extends BaseInterceptor
         forward.setChangeType( ChangeType.Modify );
         forward.setDn( modifyContext.getDn() );
 
-        List<Modification> mods = new ArrayList<>( clonedMods.size() );
-
-        for ( Modification modItem : clonedMods )
+        for ( Modification modItem : userMods )
         {
             // TODO: handle correctly http://issues.apache.org/jira/browse/DIRSERVER-1198
-            mods.add( modItem );
-
             forward.addModification( modItem );
         }
 
-        Entry clientEntry = new DefaultEntry( serverEntry.getDn() );
-
-        for ( Attribute attribute : serverEntry )
-        {
-            clientEntry.add( attribute.clone() );
-        }
-
-        LdifEntry reverse = LdifRevertor.reverseModify(
-            modifyContext.getDn(),
-            mods,
-            clientEntry );
+        final Dn dn = modifyContext.getDn();
 
-        modifyContext.setChangeLogEvent( changeLog.log( getPrincipal( modifyContext ), forward, reverse ) );
+        modifyContext.setChangeLogEvent( changeLog.log( getPrincipal( modifyContext ), forward,
+            () -> asList( LdifRevertor.reverseModify( dn, userMods, originalEntry ) ) ) );
     }
 
 
@@ -292,8 +293,10 @@ public class ChangeLogInterceptor extends BaseInterceptor
         forward.setDn( moveContext.getDn() );
         forward.setNewSuperior( moveContext.getNewSuperior().getName() );
 
-        LdifEntry reverse = LdifRevertor.reverseMove( moveContext.getNewSuperior(), moveContext.getDn() );
-        moveContext.setChangeLogEvent( changeLog.log( getPrincipal( moveContext ), forward, reverse ) );
+        final Dn newSuperior = moveContext.getNewSuperior();
+        final Dn dn = moveContext.getDn();
+        moveContext.setChangeLogEvent( changeLog.log( getPrincipal( moveContext ), forward,
+            () -> asList( LdifRevertor.reverseMove( newSuperior, dn ) ) ) );
     }
 
 
@@ -376,6 +379,57 @@ public class ChangeLogInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Gets the entry as it was before the operation : the one fetched by the OperationManager
+     * when available, otherwise a copy read from the backend.
+     */
+    private Entry getOriginalEntry( OperationContext opContext ) throws LdapException
+    {
+        Entry entry = opContext.getEntry();
+
+        if ( ( entry == null ) || opContext.getDn().equals( ServerDNConstants.CN_SCHEMA_DN ) )
+        {
+            return getAttributes( opContext );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Copies an entry, cloning its attributes, so that it is not affected by the later
+     * operations on the stored entry.
+     *
+     * @param entry The entry to copy, may be null
+     * @return The copy, or null if the entry is null
+     */
+    private static Entry snapshot( Entry entry ) throws LdapException
+    {
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        Entry copy = new DefaultEntry( entry.getDn() );
+
+        for ( Attribute attribute : entry )
+        {
+            copy.add( attribute.clone() );
+        }
+
+        return copy;
+    }
+
+
+    private static List<LdifEntry> asList( LdifEntry reverse )
+    {
+        List<LdifEntry> reverses = new ArrayList<>( 1 );
+        reverses.add( reverse );
+
+        return reverses;
+    }
+
+
     /**
      * Gets attributes required for modifications.
      *
@@ -0,0 +1,493 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A segment of the {@link SegmentedChangeLogStore}. It's an append-only file containing
+ * a contiguous range of revisions. Each record is stored as :
+ * <ul>
+ *   <li><b>[length]</b> : the serialized event's length, an int</li>
+ *   <li><b>[revision]</b> : the event's revision, a long</li>
+ *   <li><b>[time]</b> : the event's creation time, in milliseconds, a long</li>
+ *   <li><b>[event]</b> : the serialized event</li>
+ * </ul>
+ * A sparse index, kept in memory, gives the offset of one record every
+ * <code>indexInterval</code> records. It's rebuilt when the segment is opened,
+ * by reading the records' headers only.
+ * <br>
+ * Once sealed, a segment is not modified anymore, and is read through a memory
+ * mapped buffer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ChangeLogSegment
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ChangeLogSegment.class );
+
+    /** The record header size : length, revision and time */
+    static final int HEADER_SIZE = 4 + 8 + 8;
+
+    /** The segment's file */
+    private final File file;
+
+    /** The first revision stored in this segment */
+    private final long firstRevision;
+
+    /** The last revision stored in this segment, firstRevision - 1 if it's empty */
+    private long lastRevision;
+
+    /** The creation time of the last event stored in this segment */
+    private long lastTime;
+
+    /** The segment's size */
+    private long size;
+
+    /** The number of records stored in this segment */
+    private int count;
+
+    /** Every how many records an index entry is added */
+    private final int indexInterval;
+
+    /** The indexed revisions */
+    private long[] indexRevisions = new long[16];
+
+    /** The indexed records' creation times */
+    private long[] indexTimes = new long[16];
+
+    /** The indexed records' offsets */
+    private long[] indexOffsets = new long[16];
+
+    /** The number of index entries */
+    private int indexSize;
+
+    /** The channel, for the active segment, or before the segment is mapped */
+    private FileChannel channel;
+
+    /** The content of a sealed segment */
+    private MappedByteBuffer mapped;
+
+
+    private ChangeLogSegment( File file, long firstRevision, int indexInterval )
+    {
+        this.file = file;
+        this.firstRevision = firstRevision;
+        this.lastRevision = firstRevision - 1;
+        this.indexInterval = indexInterval;
+    }
+
+
+    /**
+     * Opens a segment, creating its file if it does not exist. The existing records headers are
+     * read to rebuild the index. An incomplete record at the end of the active segment, left by a
+     * crash, is removed.
+     *
+     * @param file The segment's file
+     * @param firstRevision The first revision stored in this segment
+     * @param indexInterval Every how many records an index entry is added
+     * @param active If the segment is the one we append to
+     * @return The opened segment
+     * @throws IOException If the segment can't be read
+     */
+    static ChangeLogSegment open( File file, long firstRevision, int indexInterval, boolean active )
+        throws IOException
+    {
+        ChangeLogSegment segment = new ChangeLogSegment( file, firstRevision, indexInterval );
+
+        if ( active )
+        {
+            segment.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE );
+        }
+        else
+        {
+            segment.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        }
+
+        segment.scan( active );
+
+        if ( !active )
+        {
+            segment.map();
+        }
+
+        return segment;
+    }
+
+
+    /**
+     * Reads the records' headers to rebuild the index
+     */
+    private void scan( boolean active ) throws IOException
+    {
+        long fileSize = channel.size();
+        long position = 0L;
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+
+        while ( position + HEADER_SIZE <= fileSize )
+        {
+            header.clear();
+            readFully( header, position );
+            header.flip();
+
+            int length = header.getInt();
+            long revision = header.getLong();
+            long time = header.getLong();
+
+            if ( ( length < 0 ) || ( position + HEADER_SIZE + length > fileSize )
+                || ( revision != lastRevision + 1 ) )
+            {
+                break;
+            }
+
+            addRecord( revision, time, position );
+            position += HEADER_SIZE + length;
+        }
+
+        size = position;
+
+        if ( position != fileSize )
+        {
+            if ( active )
+            {
+                LOG.warn( "Truncating the changelog segment {} at {}, its last record is incomplete", file, position );
+                channel.truncate( position );
+            }
+            else
+            {
+                LOG.warn( "The changelog segment {} is corrupted after {}", file, position );
+            }
+        }
+
+        channel.position( position );
+    }
+
+
+    private void addRecord( long revision, long time, long offset )
+    {
+        if ( count % indexInterval == 0 )
+        {
+            if ( indexSize == indexRevisions.length )
+            {
+                int newLength = indexSize * 2;
+                indexRevisions = Arrays.copyOf( indexRevisions, newLength );
+                indexTimes = Arrays.copyOf( indexTimes, newLength );
+                indexOffsets = Arrays.copyOf( indexOffsets, newLength );
+            }
+
+            indexRevisions[indexSize] = revision;
+            indexTimes[indexSize] = time;
+            indexOffsets[indexSize] = offset;
+            indexSize++;
+        }
+
+        count++;
+        lastRevision = revision;
+        lastTime = time;
+    }
+
+
+    /**
+     * Appends a record to the segment.
+     *
+     * @param revision The event's revision, which must follow the last stored revision
+     * @param time The event's creation time
+     * @param event The serialized event
+     * @throws IOException If the record can't be written
+     */
+    void append( long revision, long time, byte[] event ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + event.length );
+        buffer.putInt( event.length );
+        buffer.putLong( revision );
+        buffer.putLong( time );
+        buffer.put( event );
+        buffer.flip();
+
+        long offset = size;
+
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer, offset + buffer.position() );
+        }
+
+        size += HEADER_SIZE + event.length;
+        addRecord( revision, time, offset );
+    }
+
+
+    /**
+     * Reads the serialized event with the given revision.
+     *
+     * @param revision The revision to read
+     * @return The serialized event, or null if this segment does not contain the revision
+     * @throws IOException If the segment can't be read
+     */
+    byte[] read( long revision ) throws IOException
+    {
+        if ( ( revision < firstRevision ) || ( revision > lastRevision ) )
+        {
+            return null;
+        }
+
+        // Find the closest index entry before the revision
+        int pos = Arrays.binarySearch( indexRevisions, 0, indexSize, revision );
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 2;
+        }
+
+        long position = indexOffsets[pos];
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+
+        while ( position < size )
+        {
+            header.clear();
+            readFully( header, position );
+            header.flip();
+
+            int length = header.getInt();
+            long recordRevision = header.getLong();
+
+            if ( recordRevision == revision )
+            {
+                ByteBuffer event = ByteBuffer.allocate( length );
+                readFully( event, position + HEADER_SIZE );
+
+                return event.array();
+            }
+
+            position += HEADER_SIZE + length;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Finds the last revision created at or before a given time.
+     *
+     * @param time The time, in milliseconds
+     * @return The revision, or firstRevision - 1 if all the revisions are more recent
+     * @throws IOException If the segment can't be read
+     */
+    long findRevision( long time ) throws IOException
+    {
+        if ( ( indexSize == 0 ) || ( indexTimes[0] > time ) )
+        {
+            return firstRevision - 1;
+        }
+
+        // The times are not strictly ordered, find the last indexed record before the time
+        int pos = 0;
+
+        while ( ( pos + 1 < indexSize ) && ( indexTimes[pos + 1] <= time ) )
+        {
+            pos++;
+        }
+
+        long position = indexOffsets[pos];
+        long result = indexRevisions[pos];
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+
+        while ( position < size )
+        {
+            header.clear();
+            readFully( header, position );
+            header.flip();
+
+            int length = header.getInt();
+            long recordRevision = header.getLong();
+            long recordTime = header.getLong();
+
+            if ( recordTime > time )
+            {
+                break;
+            }
+
+            result = recordRevision;
+            position += HEADER_SIZE + length;
+        }
+
+        return result;
+    }
+
+
+    private void readFully( ByteBuffer buffer, long position ) throws IOException
+    {
+        if ( mapped != null )
+        {
+            ByteBuffer view = mapped.duplicate();
+            view.position( ( int ) position );
+            view.limit( ( int ) position + buffer.remaining() );
+            buffer.put( view );
+
+            return;
+        }
+
+        while ( buffer.hasRemaining() )
+        {
+            int nbRead = channel.read( buffer, position + buffer.position() );
+
+            if ( nbRead < 0 )
+            {
+                throw new IOException( "Unexpected end of the changelog segment " + file );
+            }
+        }
+    }
+
+
+    /**
+     * Maps the segment in memory, and closes the channel
+     */
+    private void map() throws IOException
+    {
+        mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+        channel.close();
+        channel = null;
+    }
+
+
+    /**
+     * Seals the segment : it's flushed on disk, and will not be modified anymore.
+     *
+     * @throws IOException If the segment can't be flushed
+     */
+    void seal() throws IOException
+    {
+        channel.force( true );
+        map();
+    }
+
+
+    /**
+     * Flushes the active segment on disk.
+     *
+     * @throws IOException If the segment can't be flushed
+     */
+    void force() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.force( false );
+        }
+    }
+
+
+    /**
+     * Closes the segment.
+     *
+     * @throws IOException If the segment can't be closed
+     */
+    void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.force( true );
+            channel.close();
+            channel = null;
+        }
+
+        mapped = null;
+    }
+
+
+    /**
+     * Closes and deletes the segment.
+     *
+     * @throws IOException If the segment can't be deleted
+     */
+    void delete() throws IOException
+    {
+        close();
+        Files.deleteIfExists( file.toPath() );
+    }
+
+
+    /**
+     * @return The first revision stored in this segment
+     */
+    long getFirstRevision()
+    {
+        return firstRevision;
+    }
+
+
+    /**
+     * @return The last revision stored in this segment
+     */
+    long getLastRevision()
+    {
+        return lastRevision;
+    }
+
+
+    /**
+     * @return The creation time of the last event stored in this segment
+     */
+    long getLastTime()
+    {
+        return lastTime;
+    }
+
+
+    /**
+     * @return The segment's size
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return <code>true</code> if the segment does not contain any event
+     */
+    boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "ChangeLogSegment[" + file.getName() + ", revisions " + firstRevision + ".." + lastRevision + ", "
+            + size + " bytes]";
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
 import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
 import org.apache.directory.server.core.api.changelog.ChangeLogStore;
+import org.apache.directory.server.core.api.changelog.ReverseLdifBuilder;
 import org.apache.directory.server.core.api.changelog.SearchableChangeLogStore;
 import org.apache.directory.server.core.api.changelog.Tag;
 import org.apache.directory.server.core.api.changelog.TagSearchEngine;
@@ -177,6 +178,29 @@ public long getCurrentRevision() throws LdapException
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, ReverseLdifBuilder reverseBuilder )
+        throws LdapException
+    {
+        if ( !enabled )
+        {
+            throw new IllegalStateException( I18n.err( I18n.ERR_236 ) );
+        }
+
+        try
+        {
+            return store.log( principal, forward, reverseBuilder );
+        }
+        catch ( Exception e )
+        {
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, e.getMessage(), e );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -46,6 +46,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
 import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+import org.apache.directory.server.core.api.changelog.ReverseLdifBuilder;
 import org.apache.directory.server.core.api.changelog.Tag;
 import org.apache.directory.server.core.api.changelog.TaggableChangeLogStore;
 import org.apache.directory.server.i18n.I18n;
@@ -425,6 +426,21 @@ public class MemoryChangeLogStore implements TaggableChangeLogStore
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, ReverseLdifBuilder reverseBuilder )
+    {
+        currentRevision++;
+        ChangeLogEvent event = new ChangeLogEvent( currentRevision, 
+            DateUtils.getGeneralizedTime( timeProvider ), principal, forward, reverseBuilder );
+        events.add( event );
+        
+        return event;
+    }
+
+
     /**
      * {@inheritDoc}
      */
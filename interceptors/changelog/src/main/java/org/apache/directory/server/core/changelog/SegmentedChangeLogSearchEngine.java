@@ -0,0 +1,554 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The {@link ChangeLogSearchEngine} of the {@link SegmentedChangeLogStore}. The revision
+ * based searches are directly served by the store, the other ones use in-memory indexes
+ * associating a key (a Dn, a principal, a change type, an attribute or an objectClass) to
+ * the revisions of the events using it.
+ * <br>
+ * The indexes are built the first time a search needs them, by reading all the events
+ * stored in the changelog, and are then updated each time an event is logged. They are
+ * not stored on disk. Revisions purged from the changelog are ignored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SegmentedChangeLogSearchEngine implements ChangeLogSearchEngine
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SegmentedChangeLogSearchEngine.class );
+
+    /** The store */
+    private final SegmentedChangeLogStore store;
+
+    /** Tells if the indexes have been built */
+    private boolean indexed;
+
+    /** The modified entries, by normalized Dn */
+    private final Map<String, RevisionList> dnIndex = new HashMap<>();
+
+    /** The committers, by normalized Dn */
+    private final Map<String, RevisionList> principalIndex = new HashMap<>();
+
+    /** The change types */
+    private final Map<ChangeType, RevisionList> changeTypeIndex = new EnumMap<>( ChangeType.class );
+
+    /** The modified attributes, by OID or lower cased name */
+    private final Map<String, RevisionList> attributeIndex = new HashMap<>();
+
+    /** The objectClasses of the modified entries, by lower cased name or OID */
+    private final Map<String, RevisionList> objectClassIndex = new HashMap<>();
+
+
+    /**
+     * A growable array of revisions, in ascending order. Each index key has one.
+     */
+    private static final class RevisionList
+    {
+        /** The entry Dn, for the Dn index */
+        private final Dn dn;
+
+        /** The revisions */
+        private long[] revisions = new long[4];
+
+        /** The number of revisions */
+        private int size;
+
+
+        private RevisionList( Dn dn )
+        {
+            this.dn = dn;
+        }
+
+
+        private void add( long revision )
+        {
+            // The same event may add the same key more than once
+            if ( ( size > 0 ) && ( revisions[size - 1] == revision ) )
+            {
+                return;
+            }
+
+            if ( size == revisions.length )
+            {
+                revisions = Arrays.copyOf( revisions, size * 2 );
+            }
+
+            revisions[size++] = revision;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SegmentedChangeLogSearchEngine.
+     *
+     * @param store The store to search into
+     */
+    SegmentedChangeLogSearchEngine( SegmentedChangeLogStore store )
+    {
+        this.store = store;
+    }
+
+
+    /**
+     * Reads all the stored events to build the indexes, if it has not already been done.
+     */
+    private void buildIndexes() throws LdapException
+    {
+        if ( indexed )
+        {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long current = store.getCurrentRevision();
+        int nbEvents = 0;
+
+        for ( long revision = store.getFirstRevision(); revision <= current; revision++ )
+        {
+            ChangeLogEvent event = store.read( revision );
+
+            if ( event != null )
+            {
+                doIndex( event );
+                nbEvents++;
+            }
+        }
+
+        indexed = true;
+
+        LOG.info( "Changelog indexes built from {} events in {} ms", nbEvents, System.currentTimeMillis() - start );
+    }
+
+
+    /**
+     * Updates the indexes with a newly logged event. Nothing is done until the indexes
+     * have been built. It's called by the store while it holds its write lock.
+     *
+     * @param event The logged event
+     */
+    synchronized void index( ChangeLogEvent event )
+    {
+        if ( indexed )
+        {
+            doIndex( event );
+        }
+    }
+
+
+    private void doIndex( ChangeLogEvent event )
+    {
+        long revision = event.getRevision();
+        LdifEntry forward = event.getForwardLdif();
+
+        if ( forward == null )
+        {
+            return;
+        }
+
+        Dn dn = forward.getDn();
+
+        if ( dn != null )
+        {
+            add( dnIndex, dn.getNormName(), dn, revision );
+        }
+
+        LdapPrincipal principal = event.getCommitterPrincipal();
+
+        if ( ( principal != null ) && ( principal.getDn() != null ) )
+        {
+            add( principalIndex, principal.getDn().getNormName(), null, revision );
+        }
+
+        ChangeType changeType = forward.getChangeType();
+
+        if ( changeType != null )
+        {
+            changeTypeIndex.computeIfAbsent( changeType, k -> new RevisionList( null ) ).add( revision );
+        }
+
+        if ( forward.isChangeAdd() && ( forward.getEntry() != null ) )
+        {
+            for ( Attribute attribute : forward.getEntry() )
+            {
+                indexAttribute( attribute, revision );
+            }
+        }
+        else if ( forward.isChangeModify() )
+        {
+            for ( Modification modification : forward.getModifications() )
+            {
+                indexAttribute( modification.getAttribute(), revision );
+            }
+        }
+    }
+
+
+    private void indexAttribute( Attribute attribute, long revision )
+    {
+        String key = getKey( attribute );
+        add( attributeIndex, key, null, revision );
+
+        if ( SchemaConstants.OBJECT_CLASS_AT_OID.equals( key ) || SchemaConstants.OBJECT_CLASS_AT.equalsIgnoreCase( key ) )
+        {
+            for ( Value value : attribute )
+            {
+                add( objectClassIndex, Strings.toLowerCaseAscii( value.getString() ), null, revision );
+            }
+        }
+    }
+
+
+    private String getKey( Attribute attribute )
+    {
+        AttributeType attributeType = attribute.getAttributeType();
+
+        if ( attributeType != null )
+        {
+            return attributeType.getOid();
+        }
+
+        return Strings.toLowerCaseAscii( attribute.getId() );
+    }
+
+
+    private static void add( Map<String, RevisionList> index, String key, Dn dn, long revision )
+    {
+        index.computeIfAbsent( key, k -> new RevisionList( dn ) ).add( revision );
+    }
+
+
+    /**
+     * Creates a cursor over the revisions of a set of index entries, ignoring the purged ones.
+     */
+    private Cursor<ChangeLogEvent> cursor( List<RevisionList> lists, RevisionOrder order )
+    {
+        long firstRevision = store.getFirstRevision();
+        int size = 0;
+
+        for ( RevisionList list : lists )
+        {
+            size += list.size;
+        }
+
+        long[] revisions = new long[size];
+        int pos = 0;
+
+        for ( RevisionList list : lists )
+        {
+            for ( int i = 0; i < list.size; i++ )
+            {
+                if ( list.revisions[i] >= firstRevision )
+                {
+                    revisions[pos++] = list.revisions[i];
+                }
+            }
+        }
+
+        if ( lists.size() > 1 )
+        {
+            // Sort and remove the duplicates
+            Arrays.sort( revisions, 0, pos );
+            int unique = 0;
+
+            for ( int i = 0; i < pos; i++ )
+            {
+                if ( ( unique == 0 ) || ( revisions[unique - 1] != revisions[i] ) )
+                {
+                    revisions[unique++] = revisions[i];
+                }
+            }
+
+            pos = unique;
+        }
+
+        return new ChangeLogEventCursor( store, revisions, pos, order.isAscending() );
+    }
+
+
+    private static List<RevisionList> asList( RevisionList list )
+    {
+        List<RevisionList> lists = new ArrayList<>( 1 );
+
+        if ( list != null )
+        {
+            lists.add( list );
+        }
+
+        return lists;
+    }
+
+
+    /**
+     * Builds the indexes if needed, and returns a cursor over the revisions of the selected
+     * index entries. The store lock is always acquired before the engine lock, like when an
+     * event is logged.
+     */
+    private Cursor<ChangeLogEvent> search( Supplier<List<RevisionList>> selector, RevisionOrder order )
+        throws Exception
+    {
+        // Index the events which are not yet written
+        store.flush();
+
+        Lock readLock = store.getLock().readLock();
+        readLock.lock();
+
+        try
+        {
+            synchronized ( this )
+            {
+                buildIndexes();
+
+                return cursor( selector.get(), order );
+            }
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
+
+    /**
+     * Gathers the index entries for the OID and the names of a schema object
+     */
+    private List<RevisionList> lookup( Map<String, RevisionList> index, String oid, List<String> names )
+    {
+        List<RevisionList> lists = new ArrayList<>();
+        RevisionList list = index.get( oid );
+
+        if ( list != null )
+        {
+            lists.add( list );
+        }
+
+        if ( names != null )
+        {
+            for ( String name : names )
+            {
+                list = index.get( Strings.toLowerCaseAscii( name ) );
+
+                if ( list != null )
+                {
+                    lists.add( list );
+                }
+            }
+        }
+
+        return lists;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lookup( String generalizedTime ) throws Exception
+    {
+        return store.findRevision( DateUtils.getDate( generalizedTime ).getTime() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent lookup( long revision ) throws Exception
+    {
+        return store.lookup( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( RevisionOrder order ) throws Exception
+    {
+        return store.cursor( 1L, store.getCurrentRevision(), order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findBefore( long revision, RevisionOrder order ) throws Exception
+    {
+        return store.cursor( 1L, revision, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findAfter( long revision, RevisionOrder order ) throws Exception
+    {
+        return store.cursor( revision + 1, store.getCurrentRevision(), order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision, RevisionOrder order )
+        throws Exception
+    {
+        return store.cursor( startRevision, endRevision, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( Dn dn, RevisionOrder order ) throws Exception
+    {
+        return search( () -> asList( dnIndex.get( dn.getNormName() ) ), order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( Dn base, SearchScope scope, RevisionOrder order ) throws Exception
+    {
+        if ( scope == SearchScope.OBJECT )
+        {
+            return find( base, order );
+        }
+
+        return search( () ->
+        {
+            List<RevisionList> lists = new ArrayList<>();
+
+            for ( RevisionList list : dnIndex.values() )
+            {
+                Dn dn = list.dn;
+                boolean matches;
+
+                if ( scope == SearchScope.ONELEVEL )
+                {
+                    matches = base.equals( dn.getParent() );
+                }
+                else
+                {
+                    matches = dn.isDescendantOf( base ) || dn.equals( base );
+                }
+
+                if ( matches )
+                {
+                    lists.add( list );
+                }
+            }
+
+            return lists;
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( LdapPrincipal principal, RevisionOrder order ) throws Exception
+    {
+        return search( () -> asList( principalIndex.get( principal.getDn().getNormName() ) ), order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( ChangeType changeType, RevisionOrder order ) throws Exception
+    {
+        return search( () -> asList( changeTypeIndex.get( changeType ) ), order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( AttributeType attributeType, RevisionOrder order ) throws Exception
+    {
+        return search( () -> lookup( attributeIndex, attributeType.getOid(), attributeType.getNames() ), order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( ObjectClass objectClass, RevisionOrder order ) throws Exception
+    {
+        return search( () -> lookup( objectClassIndex, objectClass.getOid(), objectClass.getNames() ), order );
+    }
+
+
+    /**
+     * Filter based searches are not supported by this engine.
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( ExprNode filter, RevisionOrder order ) throws Exception
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_752_CHANGELOG_FILTER_SEARCH,
+            getClass().getSimpleName() ) );
+    }
+}
@@ -0,0 +1,1041 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.api.util.TimeProvider;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.ReverseLdifBuilder;
+import org.apache.directory.server.core.api.changelog.SearchableChangeLogStore;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TaggableChangeLogStore;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A change log store that writes the events on disk as they are logged, instead of
+ * keeping them in memory until the server is stopped like the {@link MemoryChangeLogStore}.
+ * <br>
+ * The events are serialized and written by a background thread, in revision order, so
+ * that the write operations don't wait for the reverse LDIFs to be built and stored. The
+ * logged events which are not yet written are read from memory.
+ * <br>
+ * The events are appended to a set of segment files, stored in the <code>changelog</code>
+ * directory of the instance log directory. When the active segment reaches
+ * <code>maxSegmentSize</code>, it's sealed and a new one is created. Sealed segments are
+ * memory mapped, and can be purged depending on their age (<code>retentionAge</code>) or
+ * on the total size of the changelog (<code>retentionSize</code>). The active segment is
+ * never purged.
+ * <br>
+ * Each segment keeps a sparse index of its revisions in memory, so that an event can be
+ * read directly from its revision. The cursors read the events lazily, when they reach
+ * them. The {@link ChangeLogSearchEngine} keeps additional indexes in memory, which are
+ * built the first time it's used.
+ * <br>
+ * This store is not the default one, it has to be set in the ChangeLog configuration :
+ * <pre>
+ * directoryService.getChangeLog().setChangeLogStore( new SegmentedChangeLogStore() );
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SegmentedChangeLogStore implements TaggableChangeLogStore, SearchableChangeLogStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SegmentedChangeLogStore.class );
+
+    /** The name of the directory containing the segments */
+    private static final String CHANGELOG_DIR = "changelog";
+
+    /** The segment file name prefix */
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /** The segment file name suffix */
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** The tags file */
+    private static final String TAG_FILE = "tags";
+
+    /** The default segment size : 16Mb */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The default number of records between two index entries in a segment */
+    public static final int DEFAULT_INDEX_INTERVAL = 32;
+
+    /** The maximum size of a segment */
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+
+    /** The maximum age of the events, in milliseconds. 0 means no limit */
+    private long retentionAge;
+
+    /** The maximum size of the changelog, in bytes. 0 means no limit */
+    private long retentionSize;
+
+    /** The number of records between two index entries in a segment */
+    private int indexInterval = DEFAULT_INDEX_INTERVAL;
+
+    /** The directory containing the segments */
+    private File changeLogDirectory;
+
+    /** The segments, ordered by revision. The last one is the active segment */
+    private final List<ChangeLogSegment> segments = new ArrayList<>();
+
+    /** A lock protecting the segments */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** An incremental number giving the current revision */
+    private volatile long currentRevision;
+
+    /** The latest tag */
+    private Tag latest;
+
+    /** A Map of tags and revisions */
+    private final Map<Long, Tag> tags = new HashMap<>( 100 );
+
+    /** The search engine */
+    private SegmentedChangeLogSearchEngine searchEngine;
+
+    /** The SchemaManager, used to deserialize the events */
+    private SchemaManager schemaManager;
+
+    /** The time provider */
+    private TimeProvider timeProvider = TimeProvider.DEFAULT;
+
+    /** The maximum number of logged events waiting to be written */
+    public static final int MAX_UNWRITTEN_EVENTS = 4096;
+
+    /** The logged events not yet written in a segment, by revision */
+    private final Map<Long, ChangeLogEvent> unwritten = new ConcurrentHashMap<>();
+
+    /** Limits the number of logged events waiting to be written */
+    private final Semaphore pendingWrites = new Semaphore( MAX_UNWRITTEN_EVENTS );
+
+    /** The thread writing the logged events, in revision order */
+    private ExecutorService writer;
+
+    /** The first error met while writing an event. Once set, no event is logged nor written anymore */
+    private volatile Exception failure;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( DirectoryService service ) throws LdapException
+    {
+        changeLogDirectory = new File( service.getInstanceLayout().getLogDirectory(), CHANGELOG_DIR );
+        schemaManager = service.getSchemaManager();
+        timeProvider = service.getTimeProvider();
+
+        if ( !changeLogDirectory.exists() && !changeLogDirectory.mkdirs() )
+        {
+            throw new LdapException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, changeLogDirectory ) );
+        }
+
+        try
+        {
+            openSegments();
+            loadTags();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+
+        searchEngine = new SegmentedChangeLogSearchEngine( this );
+        writer = Executors.newSingleThreadExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "changelog-writer" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+        LOG.info( "Changelog opened in {}, revisions {} to {}", changeLogDirectory, getFirstRevision(),
+            currentRevision );
+    }
+
+
+    private void openSegments() throws IOException
+    {
+        List<Long> firstRevisions = new ArrayList<>();
+        File[] files = changeLogDirectory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                String name = file.getName();
+
+                if ( name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX ) )
+                {
+                    firstRevisions.add( Long.valueOf( name.substring( SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length() ) ) );
+                }
+            }
+        }
+
+        Collections.sort( firstRevisions );
+
+        if ( firstRevisions.isEmpty() )
+        {
+            firstRevisions.add( 1L );
+        }
+
+        segments.clear();
+
+        for ( int i = 0; i < firstRevisions.size(); i++ )
+        {
+            long firstRevision = firstRevisions.get( i );
+            boolean active = i == firstRevisions.size() - 1;
+            segments.add( ChangeLogSegment.open( getSegmentFile( firstRevision ), firstRevision, indexInterval,
+                active ) );
+        }
+
+        currentRevision = getActiveSegment().getLastRevision();
+    }
+
+
+    private File getSegmentFile( long firstRevision )
+    {
+        return new File( changeLogDirectory, String.format( "%s%020d%s", SEGMENT_PREFIX, firstRevision,
+            SEGMENT_SUFFIX ) );
+    }
+
+
+    private ChangeLogSegment getActiveSegment()
+    {
+        return segments.get( segments.size() - 1 );
+    }
+
+
+    /**
+     * @return The oldest revision still stored in the changelog
+     */
+    public long getFirstRevision()
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return segments.get( 0 ).getFirstRevision();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The lock protecting the segments
+     */
+    ReadWriteLock getLock()
+    {
+        return lock;
+    }
+
+
+    /**
+     * Seals the active segment, creates a new one, and removes the segments which
+     * are out of the retention limits.
+     */
+    private void roll() throws IOException
+    {
+        ChangeLogSegment active = getActiveSegment();
+        active.seal();
+
+        long firstRevision = active.getLastRevision() + 1;
+        segments.add( ChangeLogSegment.open( getSegmentFile( firstRevision ), firstRevision, indexInterval, true ) );
+
+        LOG.debug( "Changelog segment {} sealed", active );
+
+        purge();
+    }
+
+
+    /**
+     * Removes the sealed segments which are older than the retention age, or which
+     * make the changelog bigger than the retention size.
+     */
+    private void purge() throws IOException
+    {
+        long totalSize = 0L;
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            totalSize += segment.getSize();
+        }
+
+        long oldest = timeProvider.currentIimeMillis() - retentionAge;
+
+        while ( segments.size() > 1 )
+        {
+            ChangeLogSegment segment = segments.get( 0 );
+            boolean tooOld = ( retentionAge > 0 ) && ( segment.getLastTime() < oldest );
+            boolean tooBig = ( retentionSize > 0 ) && ( totalSize > retentionSize );
+
+            if ( !tooOld && !tooBig )
+            {
+                break;
+            }
+
+            LOG.info( "Purging the changelog segment {}", segment );
+            segments.remove( 0 );
+            totalSize -= segment.getSize();
+            segment.delete();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, LdifEntry reverse )
+    {
+        List<LdifEntry> reverses = new ArrayList<>( 1 );
+        reverses.add( reverse );
+
+        return log( principal, forward, reverses );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses )
+    {
+        return log( principal, forward, () -> reverses );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The event is written in the active segment by a background thread, which builds
+     * the reverse LDIFs at this time. Until then, it is kept in memory.
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, ReverseLdifBuilder reverseBuilder )
+    {
+        checkFailure();
+        pendingWrites.acquireUninterruptibly();
+
+        synchronized ( unwritten )
+        {
+            long revision = currentRevision + 1;
+            final long time = timeProvider.currentIimeMillis();
+            final ChangeLogEvent event = new ChangeLogEvent( revision, DateUtils.getGeneralizedTime( timeProvider ),
+                principal, forward, reverseBuilder );
+
+            // The event must be visible before the writer removes it
+            unwritten.put( revision, event );
+
+            try
+            {
+                writer.execute( () -> write( event, time ) );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                unwritten.remove( revision );
+                pendingWrites.release();
+                throw new IllegalStateException( ree.getMessage(), ree );
+            }
+
+            currentRevision = revision;
+
+            return event;
+        }
+    }
+
+
+    /**
+     * Throws an exception if an event could not be written : the following events would
+     * leave a hole in the changelog.
+     */
+    private void checkFailure()
+    {
+        Exception error = failure;
+
+        if ( error != null )
+        {
+            throw new IllegalStateException( I18n.err( I18n.ERR_753_CHANGELOG_WRITE_FAILED, error.getMessage() ),
+                error );
+        }
+    }
+
+
+    /**
+     * Serializes an event and appends it to the active segment. Called by the writer thread only.
+     * Once an event could not be written, the following ones are dropped.
+     */
+    private void write( ChangeLogEvent event, long time )
+    {
+        long revision = event.getRevision();
+
+        try
+        {
+            if ( failure != null )
+            {
+                LOG.error( "The changelog is stopped, the revision {} is not written", revision );
+
+                return;
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+            {
+                ChangeLogEventSerializer.serialize( event, out );
+            }
+
+            lock.writeLock().lock();
+
+            try
+            {
+                if ( getActiveSegment().getSize() >= maxSegmentSize )
+                {
+                    roll();
+                }
+
+                getActiveSegment().append( revision, time, baos.toByteArray() );
+                searchEngine.index( event );
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            LOG.error( "Cannot write the revision {} in the changelog", revision, e );
+            failure = e;
+        }
+        finally
+        {
+            unwritten.remove( revision );
+            pendingWrites.release();
+        }
+    }
+
+
+    /**
+     * Waits until all the logged events are written in the segments and indexed.
+     *
+     * @throws LdapException If the wait is interrupted
+     */
+    void flush() throws LdapException
+    {
+        if ( ( writer == null ) || writer.isShutdown() )
+        {
+            return;
+        }
+
+        try
+        {
+            writer.submit( () ->
+            {
+            } ).get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new LdapException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException | RejectedExecutionException e )
+        {
+            throw new LdapException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * @return The number of logged events not yet written in a segment
+     */
+    int getUnwrittenCount()
+    {
+        return unwritten.size();
+    }
+
+
+    /**
+     * Reads an event from the segments.
+     *
+     * @param revision The revision to read
+     * @return The event, or null if the revision is not stored in the changelog
+     * @throws LdapException If the event can't be read
+     */
+    ChangeLogEvent read( long revision ) throws LdapException
+    {
+        // The event may not be written yet. It's removed from this map once written,
+        // so if it's not found here, it's in the segments.
+        ChangeLogEvent unwrittenEvent = unwritten.get( revision );
+
+        if ( unwrittenEvent != null )
+        {
+            return unwrittenEvent;
+        }
+
+        byte[] data = null;
+
+        lock.readLock().lock();
+
+        try
+        {
+            // Find the last segment starting before the revision
+            int low = 0;
+            int high = segments.size() - 1;
+
+            while ( low < high )
+            {
+                int mid = ( low + high + 1 ) >>> 1;
+
+                if ( segments.get( mid ).getFirstRevision() <= revision )
+                {
+                    low = mid;
+                }
+                else
+                {
+                    high = mid - 1;
+                }
+            }
+
+            data = segments.get( low ).read( revision );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        if ( data == null )
+        {
+            return null;
+        }
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            ChangeLogEvent event = ChangeLogEventSerializer.deserialize( schemaManager, in );
+            event.getCommitterPrincipal().setSchemaManager( schemaManager );
+
+            return event;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Finds the last revision created at or before a given time.
+     *
+     * @param time The time, in milliseconds
+     * @return The revision in effect at this time
+     * @throws LdapException If the segments can't be read
+     */
+    long findRevision( long time ) throws LdapException
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            for ( int i = segments.size() - 1; i >= 0; i-- )
+            {
+                ChangeLogSegment segment = segments.get( i );
+                long revision = segment.findRevision( time );
+
+                if ( revision >= segment.getFirstRevision() )
+                {
+                    return revision;
+                }
+            }
+
+            return segments.get( 0 ).getFirstRevision() - 1;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent lookup( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+
+        try
+        {
+            return read( revision );
+        }
+        catch ( LdapException le )
+        {
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Creates a cursor over a range of revisions, limited to the revisions still
+     * stored in the changelog.
+     */
+    Cursor<ChangeLogEvent> cursor( long startRevision, long endRevision, boolean ascending )
+    {
+        long start = Math.max( startRevision, getFirstRevision() );
+        long end = Math.min( endRevision, currentRevision );
+
+        return new ChangeLogEventCursor( this, start, end, ascending );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find()
+    {
+        return cursor( 1L, currentRevision, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findBefore( long revision )
+    {
+        return cursor( 1L, revision, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findAfter( long revision )
+    {
+        return cursor( revision + 1, currentRevision, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision )
+    {
+        if ( ( startRevision < 0 ) || ( endRevision > currentRevision ) || ( startRevision > endRevision ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+
+        return cursor( startRevision, endRevision, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogSearchEngine getChangeLogSearchEngine()
+    {
+        return searchEngine;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag tag( long revision )
+    {
+        return tag( revision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag tag()
+    {
+        return tag( ( String ) null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag tag( String description )
+    {
+        if ( ( latest != null ) && ( latest.getRevision() == currentRevision ) )
+        {
+            return latest;
+        }
+
+        latest = new Tag( currentRevision, description );
+        tags.put( currentRevision, latest );
+
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag tag( long revision, String description )
+    {
+        if ( tags.containsKey( revision ) )
+        {
+            return tags.get( revision );
+        }
+
+        latest = new Tag( revision, description );
+        tags.put( revision, latest );
+
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag getLatest()
+    {
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Tag removeTag( long revision )
+    {
+        return tags.remove( revision );
+    }
+
+
+    private synchronized void saveTags() throws IOException
+    {
+        Properties props = new Properties();
+
+        for ( Tag tag : tags.values() )
+        {
+            String description = tag.getDescription();
+            props.setProperty( String.valueOf( tag.getRevision() ), description == null ? "null" : description );
+        }
+
+        File tagFile = new File( changeLogDirectory, TAG_FILE );
+
+        try ( OutputStream out = Files.newOutputStream( tagFile.toPath() ) )
+        {
+            props.store( out, null );
+        }
+    }
+
+
+    private synchronized void loadTags() throws IOException
+    {
+        File tagFile = new File( changeLogDirectory, TAG_FILE );
+        tags.clear();
+        latest = null;
+
+        if ( !tagFile.exists() )
+        {
+            return;
+        }
+
+        Properties props = new Properties();
+
+        try ( InputStream in = Files.newInputStream( tagFile.toPath() ) )
+        {
+            props.load( in );
+        }
+
+        List<Long> revisions = new ArrayList<>();
+
+        for ( String key : props.stringPropertyNames() )
+        {
+            revisions.add( Long.valueOf( key ) );
+        }
+
+        Collections.sort( revisions );
+
+        for ( Long revision : revisions )
+        {
+            String description = props.getProperty( String.valueOf( revision ) );
+            latest = new Tag( revision, "null".equals( description ) ? null : description );
+            tags.put( revision, latest );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() throws LdapException
+    {
+        flush();
+
+        Exception error = failure;
+
+        if ( error != null )
+        {
+            throw new LdapException( I18n.err( I18n.ERR_753_CHANGELOG_WRITE_FAILED, error.getMessage() ), error );
+        }
+
+        lock.writeLock().lock();
+
+        try
+        {
+            getActiveSegment().force();
+            saveTags();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Saves the tags, and closes the segments
+     */
+    @Override
+    public void destroy() throws LdapException
+    {
+        if ( writer != null )
+        {
+            // Write the pending events before closing the segments
+            writer.shutdown();
+
+            try
+            {
+                if ( !writer.awaitTermination( 1, TimeUnit.MINUTES ) )
+                {
+                    LOG.error( "Timed out while writing the {} pending changelog events", unwritten.size() );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lock.writeLock().lock();
+
+        try
+        {
+            saveTags();
+
+            for ( ChangeLogSegment segment : segments )
+            {
+                segment.close();
+            }
+
+            segments.clear();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The maximum size of a segment, in bytes
+     */
+    public long getMaxSegmentSize()
+    {
+        return maxSegmentSize;
+    }
+
+
+    /**
+     * @param maxSegmentSize The maximum size of a segment, in bytes
+     */
+    public void setMaxSegmentSize( long maxSegmentSize )
+    {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+
+    /**
+     * @return The maximum age of the events, in milliseconds. 0 means no limit
+     */
+    public long getRetentionAge()
+    {
+        return retentionAge;
+    }
+
+
+    /**
+     * @param retentionAge The maximum age of the events, in milliseconds. 0 means no limit
+     */
+    public void setRetentionAge( long retentionAge )
+    {
+        this.retentionAge = retentionAge;
+    }
+
+
+    /**
+     * @return The maximum size of the changelog, in bytes. 0 means no limit
+     */
+    public long getRetentionSize()
+    {
+        return retentionSize;
+    }
+
+
+    /**
+     * @param retentionSize The maximum size of the changelog, in bytes. 0 means no limit
+     */
+    public void setRetentionSize( long retentionSize )
+    {
+        this.retentionSize = retentionSize;
+    }
+
+
+    /**
+     * @return The number of records between two index entries in a segment
+     */
+    public int getIndexInterval()
+    {
+        return indexInterval;
+    }
+
+
+    /**
+     * @param indexInterval The number of records between two index entries in a segment
+     */
+    public void setIndexInterval( int indexInterval )
+    {
+        this.indexInterval = indexInterval;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "SegmentedChangeLog\n" );
+        sb.append( "latest tag : " ).append( latest ).append( '\n' );
+        sb.append( "current revision : " ).append( currentRevision ).append( '\n' );
+
+        lock.readLock().lock();
+
+        try
+        {
+            for ( ChangeLogSegment segment : segments )
+            {
+                sb.append( "  " ).append( segment ).append( '\n' );
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.collective;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * A cache of the collective attributes of the collective attribute subentries. For each
+ * subentry, it holds the list of its collective attributes, which is never modified once
+ * built, so that it can be shared by all the entries the subentry applies to.
+ * <br>
+ * The cache is filled when a subentry is first used, and an entry is removed when its
+ * subentry is modified, renamed, moved or deleted. A generation number is incremented on
+ * each removal, so that a subentry read before a modification is not stored back into
+ * the cache once the modification is done.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CollectiveAttributeCache
+{
+    /** The collective attributes, by subentry Dn */
+    private final Map<Dn, List<Attribute>> bundles = new ConcurrentHashMap<>();
+
+    /** The generation, incremented each time a subentry is invalidated */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * Gets the collective attributes of a subentry.
+     *
+     * @param subentryDn The subentry Dn
+     * @return The subentry collective attributes, or null if they are not in the cache
+     */
+    public List<Attribute> get( Dn subentryDn )
+    {
+        return bundles.get( subentryDn );
+    }
+
+
+    /**
+     * @return The current generation, to be read before fetching a subentry which is
+     * going to be stored into the cache
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Extracts the collective attributes of a subentry, and stores them into the cache if
+     * no subentry has been invalidated since the given generation.
+     *
+     * @param subentryDn The subentry Dn
+     * @param subentry The subentry
+     * @param readGeneration The generation read before the subentry has been fetched
+     * @return The subentry collective attributes
+     */
+    public List<Attribute> put( Dn subentryDn, Entry subentry, long readGeneration )
+    {
+        List<Attribute> attributes = new ArrayList<>();
+
+        for ( Attribute attribute : subentry.getAttributes() )
+        {
+            if ( ( attribute.getAttributeType() != null ) && attribute.getAttributeType().isCollective() )
+            {
+                attributes.add( attribute.clone() );
+            }
+        }
+
+        List<Attribute> bundle = Collections.unmodifiableList( attributes );
+
+        if ( generation.get() == readGeneration )
+        {
+            bundles.put( subentryDn, bundle );
+
+            // An invalidation may have happened meanwhile
+            if ( generation.get() != readGeneration )
+            {
+                bundles.remove( subentryDn, bundle );
+            }
+        }
+
+        return bundle;
+    }
+
+
+    /**
+     * Removes a subentry from the cache.
+     *
+     * @param subentryDn The subentry Dn
+     */
+    public void invalidate( Dn subentryDn )
+    {
+        generation.incrementAndGet();
+        bundles.remove( subentryDn );
+    }
+
+
+    /**
+     * Removes all the subentries from the cache.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        bundles.clear();
+    }
+
+
+    /**
+     * @return The number of subentries in the cache
+     */
+    public int size()
+    {
+        return bundles.size();
+    }
+}
@@ -20,13 +20,13 @@
 package org.apache.directory.server.core.collective;
 
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
@@ -38,7 +38,6 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaUtils;
-import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -46,9 +45,13 @@ import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -69,6 +72,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The LoggerFactory used by this Interceptor */
     private static final Logger LOG = LoggerFactory.getLogger( CollectiveAttributeInterceptor.class );
 
+    /** The collective attributes of the subentries */
+    private final CollectiveAttributeCache collectiveAttributeCache = new CollectiveAttributeCache();
+
 
     /**
      * Creates a new instance of a CollectiveAttributeInterceptor.
@@ -160,6 +166,18 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        next( deleteContext );
+
+        invalidate( deleteContext.getDn(), deleteContext.getEntry() );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -169,6 +187,44 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         checkModify( modifyContext );
 
         next( modifyContext );
+
+        invalidate( modifyContext.getDn(), modifyContext.getEntry() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        next( moveContext );
+
+        invalidate( moveContext.getDn(), moveContext.getEntry() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        next( moveAndRenameContext );
+
+        invalidate( moveAndRenameContext.getDn(), moveAndRenameContext.getEntry() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        next( renameContext );
+
+        invalidate( renameContext.getDn(), renameContext.getEntry() );
     }
 
 
@@ -193,6 +249,52 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     //-------------------------------------------------------------------------------------
     // Helper methods
     //-------------------------------------------------------------------------------------
+    /**
+     * Removes a subentry from the collective attributes cache, if the modified entry is
+     * a collective attribute subentry. If the entry is not known, the cache is updated
+     * anyway.
+     */
+    private void invalidate( Dn dn, Entry entry )
+    {
+        if ( ( entry == null ) || entry.hasObjectClass( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC ) )
+        {
+            LOG.debug( "Removing the subentry {} from the collective attributes cache", dn );
+            collectiveAttributeCache.invalidate( dn );
+        }
+    }
+
+
+    /**
+     * Gets the collective attributes of a subentry, from the cache if possible.
+     */
+    private List<Attribute> getCollectiveAttributes( FilteringOperationContext opContext, Dn subentryDn )
+        throws LdapException
+    {
+        List<Attribute> collectiveAttributes = collectiveAttributeCache.get( subentryDn );
+
+        if ( collectiveAttributes != null )
+        {
+            return collectiveAttributes;
+        }
+
+        long generation = collectiveAttributeCache.getGeneration();
+
+        LookupOperationContext lookupContext = new LookupOperationContext( opContext.getSession(), subentryDn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( opContext.getPartition() );
+        lookupContext.setTransaction( opContext.getTransaction() );
+
+        Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        if ( subentry == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return collectiveAttributeCache.put( subentryDn, subentry, generation );
+    }
+
+
     /**
      * Check if we can add an entry. There are two cases : <br>
      * <ul>
@@ -336,8 +438,6 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     private void addCollectiveAttributes( FilteringOperationContext opContext, Entry entry )
         throws LdapException
     {
-        CoreSession session = opContext.getSession();
-
         Attribute collectiveAttributeSubentries = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
             directoryService.getAtProvider().getCollectiveAttributeSubentries() );
 
@@ -401,32 +501,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
 
             LOG.debug( "Applying subentries {}", subentryDn.getName() );
 
-            /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
-             */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( opContext.getPartition() );
-            lookupContext.setTransaction( opContext.getTransaction() );
-
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
-
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
-
-            for ( Attribute attribute : subentry.getAttributes() )
+            for ( Attribute subentryColAttr : getCollectiveAttributes( opContext, subentryDn ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
+                AttributeType attributeType = subentryColAttr.getAttributeType();
 
                 /*
                  * Skip the addition of this collective attribute if it is excluded
@@ -450,16 +527,19 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                     continue;
                 }
 
-                Attribute subentryColAttr = subentry.get( attributeType );
                 Attribute entryColAttr = entry.get( attributeType );
 
                 /*
-                 * If entry does not have attribute for collective attribute then create it.
+                 * If entry does not have attribute for collective attribute then add a copy
+                 * of the cached one. The cached attribute can't be shared, as the following
+                 * entry filters may remove some values from it.
                  */
                 if ( entryColAttr == null )
                 {
-                    entryColAttr = new DefaultAttribute( attributeType );
-                    entry.put( entryColAttr );
+                    LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
+                    entry.put( subentryColAttr.clone() );
+
+                    continue;
                 }
 
                 /*
@@ -469,9 +549,18 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                 for ( Value subentryColVal : subentryColAttr )
                 {
                     LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
-                    entryColAttr.add( subentryColVal.getString() );
+                    entryColAttr.add( subentryColVal );
                 }
             }
         }
     }
+
+
+    /**
+     * @return The cache of the collective attributes of the subentries
+     */
+    public CollectiveAttributeCache getCollectiveAttributeCache()
+    {
+        return collectiveAttributeCache;
+    }
 }
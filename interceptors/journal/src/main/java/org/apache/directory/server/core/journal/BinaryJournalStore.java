@@ -0,0 +1,525 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.journal.JournalStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Journal Store writing binary records into a file, instead of the LDIF text
+ * written by the {@link DefaultJournalStore}.
+ * <br>
+ * The records are encoded by the logging threads, without holding any lock, and are
+ * then appended into a shared batch. The first thread needing its record to be written
+ * becomes the leader : it writes the whole batch, including the records appended by the
+ * other threads, with a single write (and a single fsync, depending on the
+ * {@link JournalDurability}), while the next batch is being filled. This is a group
+ * commit : the cost of the write and of the fsync is shared by all the concurrent
+ * writers.
+ * <br>
+ * The file starts with a magic number, followed by the records. Each record is stored as :
+ * <ul>
+ *   <li><b>[type]</b> : the record type, {@link #LOG}, {@link #ACK} or {@link #NACK}, a byte</li>
+ *   <li><b>[length]</b> : the payload length, an int</li>
+ *   <li><b>[revision]</b> : the operation revision, a long</li>
+ *   <li><b>[timestamp]</b> : the record creation time, a long</li>
+ *   <li><b>[payload]</b> : for a LOG record, the principal name and the externalized LdifEntry.
+ *   Empty for the ACK and NACK records</li>
+ * </ul>
+ * The {@link JournalReader} reads those records back, and converts them to LDIF.
+ * <br>
+ * If a batch can't be written, the journal is not written anymore : the records logged
+ * after a missing one would be useless, and a partially written batch would hide them
+ * from the reader. The following calls to {@link #log(LdapPrincipal, long, LdifEntry)},
+ * {@link #ack(long)} and {@link #nack(long)} return <code>false</code>, and
+ * {@link #sync()} throws the original error.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BinaryJournalStore implements JournalStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BinaryJournalStore.class );
+
+    /** The magic number at the beginning of the journal file : "ADJ1" */
+    static final int MAGIC = 0x41444A31;
+
+    /** The LOG record type */
+    static final byte LOG = 1;
+
+    /** The ACK record type */
+    static final byte ACK = 2;
+
+    /** The NACK record type */
+    static final byte NACK = 3;
+
+    /** The record header size : type, length, revision and timestamp */
+    static final int HEADER_SIZE = 1 + 4 + 8 + 8;
+
+    /** The default batch size, above which an ASYNC batch is written */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /** The directory where the journal is stored */
+    private File workingDirectory;
+
+    /** The journal file name */
+    private String fileName;
+
+    /** The channel used to write into the journal */
+    private FileChannel channel;
+
+    /** The durability level */
+    private JournalDurability durability = JournalDurability.WRITE;
+
+    /** The size above which an ASYNC batch is written */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The lock protecting the batches */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The condition signaled when a batch has been written */
+    private final Condition written = lock.newCondition();
+
+    /** The batch being filled */
+    private Batch current = new Batch();
+
+    /** Tells if a thread is writing a batch */
+    private boolean writing;
+
+    /** The last logged revision */
+    private volatile long currentRevision;
+
+    /** The error which stopped the journal, if any */
+    private IOException failure;
+
+
+    /**
+     * A set of records written together
+     */
+    private static final class Batch
+    {
+        /** The records */
+        private ByteBuffer buffer = ByteBuffer.allocate( 4096 );
+
+        /** Tells if the batch has been written */
+        private boolean done;
+
+        /** The error met while writing the batch, if any */
+        private IOException error;
+
+
+        private void append( ByteBuffer record )
+        {
+            if ( buffer.remaining() < record.remaining() )
+            {
+                int capacity = Math.max( buffer.capacity() * 2, buffer.position() + record.remaining() );
+                ByteBuffer newBuffer = ByteBuffer.allocate( capacity );
+                buffer.flip();
+                newBuffer.put( buffer );
+                buffer = newBuffer;
+            }
+
+            buffer.put( record );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( DirectoryService service ) throws IOException
+    {
+        if ( workingDirectory == null )
+        {
+            workingDirectory = service.getInstanceLayout().getLogDirectory();
+        }
+
+        if ( fileName == null )
+        {
+            fileName = "journal.bin";
+        }
+
+        File journal = new File( workingDirectory, fileName );
+
+        // Recover the last revision, and remove a record partially written before a crash
+        long end = 0L;
+
+        if ( journal.exists() && ( journal.length() > 0 ) )
+        {
+            try ( JournalReader reader = new JournalReader( journal ) )
+            {
+                while ( reader.next() )
+                {
+                    currentRevision = Math.max( currentRevision, reader.getRevision() );
+                }
+
+                end = reader.getPosition();
+            }
+        }
+
+        channel = FileChannel.open( journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+
+        if ( end == 0L )
+        {
+            ByteBuffer magic = ByteBuffer.allocate( 4 );
+            magic.putInt( MAGIC ).flip();
+            channel.truncate( 0L );
+            channel.write( magic, 0L );
+            end = 4L;
+        }
+        else if ( end < channel.size() )
+        {
+            LOG.warn( "Truncating the journal {} at {}, its last record is incomplete", journal, end );
+            channel.truncate( end );
+        }
+
+        channel.position( end );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+            {
+                out.writeUTF( principal.getName() );
+                forward.writeExternal( out );
+            }
+
+            boolean result = append( LOG, revision, baos.toByteArray() );
+
+            if ( result && ( revision > currentRevision ) )
+            {
+                currentRevision = revision;
+            }
+
+            return result;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot log the revision {} in the journal", revision, ioe );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Records a ack for a change
+     *
+     * @param revision The change revision which is acked
+     * @return <code>true</code> if the ack has been written
+     */
+    @Override
+    public boolean ack( long revision )
+    {
+        return append( ACK, revision, new byte[0] );
+    }
+
+
+    /**
+     * Records a nack for a change
+     *
+     * @param revision The change revision which is nacked
+     * @return <code>true</code> if the nack has been written
+     */
+    @Override
+    public boolean nack( long revision )
+    {
+        return append( NACK, revision, new byte[0] );
+    }
+
+
+    /**
+     * Appends a record to the current batch, and waits until it has been written if the
+     * durability level requires it.
+     */
+    private boolean append( byte type, long revision, byte[] payload )
+    {
+        ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE + payload.length );
+        record.put( type );
+        record.putInt( payload.length );
+        record.putLong( revision );
+        record.putLong( System.currentTimeMillis() );
+        record.put( payload );
+        record.flip();
+
+        lock.lock();
+
+        try
+        {
+            if ( failure != null )
+            {
+                return false;
+            }
+
+            Batch batch = current;
+            batch.append( record );
+
+            if ( durability == JournalDurability.ASYNC )
+            {
+                if ( !writing && ( batch.buffer.position() >= batchSize ) )
+                {
+                    write( false );
+                }
+
+                return true;
+            }
+
+            return await( batch, durability == JournalDurability.FSYNC );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Waits until a batch has been written. If no other thread is writing, the current
+     * thread writes the current batch. Must be called while holding the lock.
+     */
+    private boolean await( Batch batch, boolean force )
+    {
+        while ( !batch.done )
+        {
+            if ( writing )
+            {
+                written.awaitUninterruptibly();
+            }
+            else
+            {
+                write( force );
+            }
+        }
+
+        return batch.error == null;
+    }
+
+
+    /**
+     * Writes the current batch. The lock is released during the write, so that the other
+     * threads can fill the next batch. Must be called while holding the lock.
+     */
+    private void write( boolean force )
+    {
+        Batch batch = current;
+        current = new Batch();
+
+        if ( failure != null )
+        {
+            batch.error = failure;
+            batch.done = true;
+            written.signalAll();
+
+            return;
+        }
+
+        writing = true;
+        lock.unlock();
+
+        try
+        {
+            ByteBuffer buffer = batch.buffer;
+            buffer.flip();
+
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer );
+            }
+
+            if ( force )
+            {
+                channel.force( false );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot write into the journal", ioe );
+            batch.error = ioe;
+        }
+        finally
+        {
+            lock.lock();
+
+            if ( batch.error != null )
+            {
+                failure = batch.error;
+            }
+
+            batch.done = true;
+            writing = false;
+            written.signalAll();
+        }
+    }
+
+
+    /**
+     * Writes the pending records and forces them on disk, whatever the durability level.
+     */
+    @Override
+    public void sync() throws IOException
+    {
+        lock.lock();
+
+        try
+        {
+            Batch batch = current;
+
+            if ( !await( batch, true ) )
+            {
+                throw batch.error;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() throws IOException
+    {
+        if ( channel != null )
+        {
+            try
+            {
+                sync();
+            }
+            finally
+            {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+
+    /**
+     * @return The last logged revision
+     */
+    @Override
+    public long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * @return The channel used to write into the journal. Used by the tests
+     */
+    FileChannel getChannel()
+    {
+        return channel;
+    }
+
+
+    /**
+     * @return the durability level
+     */
+    public JournalDurability getDurability()
+    {
+        return durability;
+    }
+
+
+    /**
+     * @param durability the durability level to set
+     */
+    public void setDurability( JournalDurability durability )
+    {
+        this.durability = durability;
+    }
+
+
+    /**
+     * @return the size above which an ASYNC batch is written
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+
+    /**
+     * @param batchSize the size above which an ASYNC batch is written
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * @return the fileName
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+
+    /**
+     * @param fileName the fileName to set
+     */
+    @Override
+    public void setFileName( String fileName )
+    {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWorkingDirectory( String workingDirectoryName )
+    {
+        this.workingDirectory = new File( workingDirectoryName );
+    }
+}
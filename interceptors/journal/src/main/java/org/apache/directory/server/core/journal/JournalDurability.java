@@ -0,0 +1,49 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.journal;
+
+
+/**
+ * The durability level of the {@link BinaryJournalStore}. It tells when a thread
+ * logging a change gets the control back.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum JournalDurability
+{
+    /**
+     * The record is appended to the shared buffer, which is written when it's full,
+     * or when the journal is synced. A crash may lose the last records.
+     */
+    ASYNC,
+
+    /**
+     * The record is written into the journal file before the thread returns. The
+     * file is not forced on disk, so the records survive a server crash, but not
+     * a system crash.
+     */
+    WRITE,
+
+    /**
+     * The record is written into the journal file, and the file is forced on disk
+     * before the thread returns.
+     */
+    FSYNC
+}
@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+
+
+/**
+ * Reads a journal written by the {@link BinaryJournalStore}, and converts it to the LDIF
+ * format used by the {@link DefaultJournalStore}. It can be used from the command line
+ * to audit a journal :
+ * <pre>
+ * java org.apache.directory.server.core.journal.JournalReader journal.bin [journal.ldif]
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JournalReader implements Closeable
+{
+    /** The journal stream */
+    private final DataInputStream in;
+
+    /** The position after the last complete record read */
+    private long position;
+
+    /** The current record type */
+    private byte type;
+
+    /** The current record revision */
+    private long revision;
+
+    /** The current record timestamp */
+    private long timestamp;
+
+    /** The current record payload */
+    private byte[] payload;
+
+
+    /**
+     * Creates a new JournalReader instance.
+     *
+     * @param journal The journal file
+     * @throws IOException If the file can't be read, or is not a binary journal
+     */
+    public JournalReader( File journal ) throws IOException
+    {
+        in = new DataInputStream( new BufferedInputStream( Files.newInputStream( journal.toPath() ) ) );
+
+        try
+        {
+            if ( in.readInt() != BinaryJournalStore.MAGIC )
+            {
+                throw new IOException( journal + " is not a binary journal" );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            in.close();
+            throw ioe;
+        }
+
+        position = 4L;
+    }
+
+
+    /**
+     * Reads the next record.
+     *
+     * @return <code>true</code> if a record has been read, <code>false</code> at the end of the
+     * journal, or if the last record is incomplete
+     * @throws IOException If the journal can't be read
+     */
+    public boolean next() throws IOException
+    {
+        try
+        {
+            byte recordType = in.readByte();
+            int length = in.readInt();
+
+            if ( ( recordType < BinaryJournalStore.LOG ) || ( recordType > BinaryJournalStore.NACK ) || ( length < 0 ) )
+            {
+                return false;
+            }
+
+            long recordRevision = in.readLong();
+            long recordTimestamp = in.readLong();
+            byte[] recordPayload = new byte[length];
+            in.readFully( recordPayload );
+
+            type = recordType;
+            revision = recordRevision;
+            timestamp = recordTimestamp;
+            payload = recordPayload;
+            position += BinaryJournalStore.HEADER_SIZE + length;
+
+            return true;
+        }
+        catch ( EOFException eofe )
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the current record is a logged change
+     */
+    public boolean isLog()
+    {
+        return type == BinaryJournalStore.LOG;
+    }
+
+
+    /**
+     * @return <code>true</code> if the current record is an ack
+     */
+    public boolean isAck()
+    {
+        return type == BinaryJournalStore.ACK;
+    }
+
+
+    /**
+     * @return <code>true</code> if the current record is a nack
+     */
+    public boolean isNack()
+    {
+        return type == BinaryJournalStore.NACK;
+    }
+
+
+    /**
+     * @return The current record revision
+     */
+    public long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @return The current record creation time
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+
+    /**
+     * @return The position after the last complete record
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+
+    /**
+     * Reads the principal name and the change of the current LOG record
+     */
+    private ObjectInputStream openPayload() throws IOException
+    {
+        if ( !isLog() )
+        {
+            throw new IllegalStateException( "The current record is not a logged change" );
+        }
+
+        return new ObjectInputStream( new ByteArrayInputStream( payload ) );
+    }
+
+
+    /**
+     * @return The name of the principal who made the current change
+     * @throws IOException If the record can't be decoded
+     */
+    public String getPrincipalName() throws IOException
+    {
+        try ( ObjectInputStream ois = openPayload() )
+        {
+            return ois.readUTF();
+        }
+    }
+
+
+    /**
+     * @return The current change
+     * @throws IOException If the record can't be decoded
+     */
+    public LdifEntry getEntry() throws IOException
+    {
+        try ( ObjectInputStream ois = openPayload() )
+        {
+            ois.readUTF();
+            LdifEntry entry = new LdifEntry();
+            entry.readExternal( ois );
+
+            return entry;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+
+
+    /**
+     * Writes the remaining records as LDIF.
+     *
+     * @param writer The writer to use
+     * @throws IOException If the journal can't be read or the LDIF can't be written
+     */
+    public void toLdif( Writer writer ) throws IOException
+    {
+        while ( next() )
+        {
+            if ( isLog() )
+            {
+                writer.write( "# principal: " );
+                writer.write( getPrincipalName() );
+                writer.write( '\n' );
+
+                writer.write( "# timestamp: " );
+                writer.write( Long.toString( timestamp ) );
+                writer.write( '\n' );
+
+                writer.write( "# revision: " );
+                writer.write( Long.toString( revision ) );
+                writer.write( '\n' );
+
+                try
+                {
+                    writer.write( LdifUtils.convertToLdif( getEntry(), 80 ) );
+                }
+                catch ( LdapException le )
+                {
+                    throw new IOException( le.getMessage(), le );
+                }
+            }
+            else
+            {
+                writer.write( isAck() ? "# ack-revision: " : "# nack-revision: " );
+                writer.write( Long.toString( revision ) );
+                writer.write( "\n\n" );
+            }
+        }
+
+        writer.flush();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+
+    /**
+     * Converts a binary journal to LDIF.
+     *
+     * @param args The journal file, and the optional LDIF file to create. The LDIF is
+     * written on the standard output if no LDIF file is given.
+     * @throws IOException If the conversion failed
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length == 0 )
+        {
+            System.err.println( "Usage : JournalReader <journal file> [<ldif file>]" );
+
+            return;
+        }
+
+        try ( JournalReader reader = new JournalReader( new File( args[0] ) ) )
+        {
+            if ( args.length > 1 )
+            {
+                try ( Writer writer = Files.newBufferedWriter( new File( args[1] ).toPath(), StandardCharsets.UTF_8 ) )
+                {
+                    reader.toLdif( writer );
+                }
+            }
+            else
+            {
+                reader.toLdif( new OutputStreamWriter( System.out, StandardCharsets.UTF_8 ) );
+            }
+        }
+    }
+}
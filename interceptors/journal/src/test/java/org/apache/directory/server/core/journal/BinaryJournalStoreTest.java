@@ -0,0 +1,451 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the BinaryJournalStore and the JournalReader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BinaryJournalStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LdapPrincipal principal;
+
+    private BinaryJournalStore store;
+
+    private File journal;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        principal = new LdapPrincipal( null, new Dn( "uid=admin,ou=system" ), AuthenticationLevel.SIMPLE,
+            Strings.getBytesUtf8( "secret" ) );
+        journal = new File( folder.getRoot(), "journal.bin" );
+        store = createStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            store.destroy();
+        }
+        catch ( IOException ioe )
+        {
+            // The failure tests leave a broken store
+        }
+    }
+
+
+    private BinaryJournalStore createStore()
+    {
+        BinaryJournalStore binaryStore = new BinaryJournalStore();
+        binaryStore.setWorkingDirectory( folder.getRoot().getAbsolutePath() );
+        binaryStore.setFileName( journal.getName() );
+
+        return binaryStore;
+    }
+
+
+    private static LdifEntry createChange( long revision ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( "cn=test" + revision + ",ou=system" );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "top", "person" );
+        forward.putAttribute( "cn", "test" + revision );
+        forward.putAttribute( "sn", "test" );
+
+        return forward;
+    }
+
+
+    /**
+     * @return The number of records stored in the journal file
+     */
+    private int countRecords() throws Exception
+    {
+        int count = 0;
+
+        try ( JournalReader reader = new JournalReader( journal ) )
+        {
+            while ( reader.next() )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Logs and acks changes from several threads, then reads them back.
+     */
+    private void checkConcurrentAppenders( JournalDurability durability ) throws Exception
+    {
+        final int nbThreads = 8;
+        final int nbChanges = 250;
+
+        store.setDurability( durability );
+        store.init( null );
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Future<?>[] futures = new Future<?>[nbThreads];
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            final int thread = t;
+
+            futures[t] = executor.submit( () ->
+            {
+                start.await();
+
+                for ( int i = 0; i < nbChanges; i++ )
+                {
+                    long revision = thread * nbChanges + i + 1L;
+
+                    assertTrue( store.log( principal, revision, createChange( revision ) ) );
+                    assertTrue( store.ack( revision ) );
+                }
+
+                return null;
+            } );
+        }
+
+        start.countDown();
+
+        for ( Future<?> future : futures )
+        {
+            future.get();
+        }
+
+        executor.shutdown();
+        assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+
+        int total = nbThreads * nbChanges;
+        assertEquals( total, store.getCurrentRevision() );
+
+        if ( durability == JournalDurability.ASYNC )
+        {
+            store.sync();
+        }
+
+        // Read the journal while the store is still open : the records must have been written
+        BitSet logged = new BitSet();
+        BitSet acked = new BitSet();
+
+        try ( JournalReader reader = new JournalReader( journal ) )
+        {
+            while ( reader.next() )
+            {
+                int revision = ( int ) reader.getRevision();
+
+                if ( reader.isLog() )
+                {
+                    assertFalse( logged.get( revision ) );
+                    assertEquals( principal.getName(), reader.getPrincipalName() );
+                    assertEquals( createChange( revision ), reader.getEntry() );
+                    logged.set( revision );
+                }
+                else
+                {
+                    assertTrue( reader.isAck() );
+
+                    // The ack is written after the change
+                    assertTrue( logged.get( revision ) );
+                    acked.set( revision );
+                }
+            }
+
+            assertEquals( journal.length(), reader.getPosition() );
+        }
+
+        assertEquals( total, logged.cardinality() );
+        assertEquals( total, acked.cardinality() );
+        assertEquals( total, logged.nextClearBit( 1 ) - 1 );
+    }
+
+
+    @Test
+    public void testConcurrentAppendersWrite() throws Exception
+    {
+        checkConcurrentAppenders( JournalDurability.WRITE );
+    }
+
+
+    @Test
+    public void testConcurrentAppendersFsync() throws Exception
+    {
+        checkConcurrentAppenders( JournalDurability.FSYNC );
+    }
+
+
+    @Test
+    public void testConcurrentAppendersAsync() throws Exception
+    {
+        store.setBatchSize( 1024 );
+        checkConcurrentAppenders( JournalDurability.ASYNC );
+    }
+
+
+    @Test
+    public void testDefaultDurability() throws Exception
+    {
+        assertEquals( JournalDurability.WRITE, store.getDurability() );
+    }
+
+
+    @Test
+    public void testWriteDurability() throws Exception
+    {
+        store.setDurability( JournalDurability.WRITE );
+        store.init( null );
+
+        assertEquals( 0, countRecords() );
+
+        // The record is written when log() returns
+        assertTrue( store.log( principal, 1L, createChange( 1L ) ) );
+        assertEquals( 1, countRecords() );
+
+        assertTrue( store.nack( 1L ) );
+        assertEquals( 2, countRecords() );
+    }
+
+
+    @Test
+    public void testFsyncDurability() throws Exception
+    {
+        store.setDurability( JournalDurability.FSYNC );
+        store.init( null );
+
+        assertTrue( store.log( principal, 1L, createChange( 1L ) ) );
+        assertEquals( 1, countRecords() );
+    }
+
+
+    @Test
+    public void testAsyncDurability() throws Exception
+    {
+        store.setDurability( JournalDurability.ASYNC );
+        store.init( null );
+
+        // The batch is not full, nothing is written
+        assertTrue( store.log( principal, 1L, createChange( 1L ) ) );
+        assertTrue( store.ack( 1L ) );
+        assertEquals( 0, countRecords() );
+        assertEquals( 1L, store.getCurrentRevision() );
+
+        store.sync();
+        assertEquals( 2, countRecords() );
+
+        // A full batch is written
+        store.setBatchSize( 1 );
+        assertTrue( store.log( principal, 2L, createChange( 2L ) ) );
+        assertEquals( 3, countRecords() );
+    }
+
+
+    @Test
+    public void testStoppedAfterWriteError() throws Exception
+    {
+        store.init( null );
+
+        assertTrue( store.log( principal, 1L, createChange( 1L ) ) );
+
+        // The next write fails
+        store.getChannel().close();
+
+        assertFalse( store.log( principal, 2L, createChange( 2L ) ) );
+        assertEquals( 1L, store.getCurrentRevision() );
+
+        // The journal is not written anymore
+        assertFalse( store.ack( 1L ) );
+        assertFalse( store.log( principal, 3L, createChange( 3L ) ) );
+
+        try
+        {
+            store.sync();
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        try
+        {
+            store.destroy();
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        // The records written before the error are still readable
+        assertEquals( 1, countRecords() );
+
+        // Once reopened, the journal can be written again
+        store = createStore();
+        store.init( null );
+
+        assertEquals( 1L, store.getCurrentRevision() );
+        assertTrue( store.log( principal, 2L, createChange( 2L ) ) );
+        assertEquals( 2, countRecords() );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        store.init( null );
+
+        for ( long revision = 1L; revision <= 10L; revision++ )
+        {
+            store.log( principal, revision, createChange( revision ) );
+        }
+
+        store.destroy();
+        long size = journal.length();
+
+        // A crash while a record was being written
+        Files.write( journal.toPath(), new byte[]
+            { BinaryJournalStore.LOG, 0, 0, 1, 0, 0, 0 }, StandardOpenOption.APPEND );
+
+        store = createStore();
+        store.init( null );
+
+        // The last revision is recovered, and the torn record removed
+        assertEquals( 10L, store.getCurrentRevision() );
+        assertEquals( size, journal.length() );
+
+        assertTrue( store.log( principal, 11L, createChange( 11L ) ) );
+
+        try ( JournalReader reader = new JournalReader( journal ) )
+        {
+            for ( long revision = 1L; revision <= 11L; revision++ )
+            {
+                assertTrue( reader.next() );
+                assertEquals( revision, reader.getRevision() );
+                assertEquals( createChange( revision ), reader.getEntry() );
+            }
+
+            assertFalse( reader.next() );
+        }
+    }
+
+
+    @Test
+    public void testNotAJournal() throws Exception
+    {
+        Files.write( journal.toPath(), Strings.getBytesUtf8( "version: 1\n" ) );
+
+        try ( JournalReader reader = new JournalReader( journal ) )
+        {
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testToLdif() throws Exception
+    {
+        store.init( null );
+
+        store.log( principal, 1L, createChange( 1L ) );
+        store.ack( 1L );
+        store.log( principal, 2L, createChange( 2L ) );
+        store.nack( 2L );
+        store.sync();
+
+        StringWriter writer = new StringWriter();
+
+        try ( JournalReader reader = new JournalReader( journal ) )
+        {
+            reader.toLdif( writer );
+        }
+
+        String ldif = writer.toString();
+
+        // The same layout as the DefaultJournalStore
+        assertTrue( ldif.contains( "# principal: " + principal.getName() + "\n" ) );
+        assertTrue( ldif.contains( "# revision: 1\n" ) );
+        assertTrue( ldif.contains( "# revision: 2\n" ) );
+        assertTrue( ldif.contains( "# ack-revision: 1\n" ) );
+        assertTrue( ldif.contains( "# nack-revision: 2\n" ) );
+        assertTrue( ldif.indexOf( "# revision: 1" ) < ldif.indexOf( "# ack-revision: 1" ) );
+        assertTrue( ldif.indexOf( "# ack-revision: 1" ) < ldif.indexOf( "# revision: 2" ) );
+
+        // The changes can be read back
+        try ( LdifReader ldifReader = new LdifReader() )
+        {
+            List<LdifEntry> changes = ldifReader.parseLdif( ldif );
+
+            assertEquals( 2, changes.size() );
+            assertEquals( createChange( 1L ), changes.get( 0 ) );
+            assertEquals( createChange( 2L ), changes.get( 1 ) );
+        }
+    }
+}
@@ -20,13 +20,11 @@
 package org.apache.directory.server.core.logger;
 
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -42,6 +40,9 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,12 +50,12 @@ import org.slf4j.LoggerFactory;
 /**
  * An interceptor used to log times to process each operation.
  * 
- * The way it works is that it gathers the time to process an operation
- * into a global counter, which is logged every 1000 operations (when
- * using the OPERATION_STATS logger). It's also possible to get the time for
- * each single operation if activating the OPERATION_TIME logger.
- * 
- * Thos two loggers must be set to DEBUG.
+ * The times are recorded in the DirectoryService {@link MetricsRegistry}, in
+ * the OPERATION category, using this interceptor's name. They are recorded
+ * when the registry is enabled, or when the OPERATION_STATS logger is set to
+ * DEBUG, in which case the recorded latencies are logged every 1000 operations.
+ * It's also possible to get the time for each single operation if activating
+ * the OPERATION_TIME logger.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -70,57 +71,8 @@ public class TimerInterceptor extends BaseInterceptor
     private static final boolean IS_DEBUG_STATS = OPERATION_STATS.isDebugEnabled();
     private static final boolean IS_DEBUG_TIME = OPERATION_TIME.isDebugEnabled();
 
-    /** Stats for the add operation */
-    private static AtomicLong totalAdd = new AtomicLong( 0 );
-    private static AtomicInteger nbAddCalls = new AtomicInteger( 0 );
-
-    /** Stats for the bind operation */
-    private static AtomicLong totalBind = new AtomicLong( 0 );
-    private static AtomicInteger nbBindCalls = new AtomicInteger( 0 );
-
-    /** Stats for the compare operation */
-    private static AtomicLong totalCompare = new AtomicLong( 0 );
-    private static AtomicInteger nbCompareCalls = new AtomicInteger( 0 );
-
-    /** Stats for the delete operation */
-    private static AtomicLong totalDelete = new AtomicLong( 0 );
-    private static AtomicInteger nbDeleteCalls = new AtomicInteger( 0 );
-
-    /** Stats for the GetRootDse operation */
-    private static AtomicLong totalGetRootDse = new AtomicLong( 0 );
-    private static AtomicInteger nbGetRootDseCalls = new AtomicInteger( 0 );
-
-    /** Stats for the HasEntry operation */
-    private static AtomicLong totalHasEntry = new AtomicLong( 0 );
-    private static AtomicInteger nbHasEntryCalls = new AtomicInteger( 0 );
-
-    /** Stats for the lookup operation */
-    private static AtomicLong totalLookup = new AtomicLong( 0 );
-    private static AtomicInteger nbLookupCalls = new AtomicInteger( 0 );
-
-    /** Stats for the modify operation */
-    private static AtomicLong totalModify = new AtomicLong( 0 );
-    private static AtomicInteger nbModifyCalls = new AtomicInteger( 0 );
-
-    /** Stats for the move operation */
-    private static AtomicLong totalMove = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveCalls = new AtomicInteger( 0 );
-
-    /** Stats for the moveAndRename operation */
-    private static AtomicLong totalMoveAndRename = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveAndRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the rename operation */
-    private static AtomicLong totalRename = new AtomicLong( 0 );
-    private static AtomicInteger nbRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the search operation */
-    private static AtomicLong totalSearch = new AtomicLong( 0 );
-    private static AtomicInteger nbSearchCalls = new AtomicInteger( 0 );
-
-    /** Stats for the unbind operation */
-    private static AtomicLong totalUnbind = new AtomicLong( 0 );
-    private static AtomicInteger nbUnbindCalls = new AtomicInteger( 0 );
+    /** The registry the times are recorded in */
+    private MetricsRegistry metricsRegistry;
 
 
     /**
@@ -141,35 +93,51 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void init( DirectoryService directoryService ) throws LdapException
     {
+        super.init( directoryService );
+        metricsRegistry = directoryService.getMetricsRegistry();
     }
 
 
     /**
-     * {@inheritDoc}
+     * Starts a timer, if the times are either logged or recorded.
      */
-    @Override
-    public void add( AddOperationContext addContext ) throws LdapException
+    private long startTimer()
     {
-        long t0 = System.nanoTime();
-        next( addContext );
-        long delta = System.nanoTime() - t0;
+        if ( IS_DEBUG_STATS || IS_DEBUG_TIME || ( ( metricsRegistry != null ) && metricsRegistry.isEnabled() ) )
+        {
+            return System.nanoTime();
+        }
+
+        return 0L;
+    }
+
+
+    /**
+     * Records the time spent processing an operation, and logs it if needed.
+     */
+    private void stopTimer( OperationEnum operation, String operationName, long start )
+    {
+        if ( start == 0L )
+        {
+            return;
+        }
+
+        long delta = System.nanoTime() - start;
 
-        if ( IS_DEBUG_STATS )
+        if ( ( metricsRegistry != null ) && ( IS_DEBUG_STATS || metricsRegistry.isEnabled() ) )
         {
-            nbAddCalls.incrementAndGet();
-            totalAdd.getAndAdd( delta );
+            LatencyHistogram histogram = metricsRegistry.getHistogram( Category.OPERATION, getName(), operation );
+            histogram.record( delta );
 
-            if ( nbAddCalls.get() % 1000 == 0 )
+            if ( IS_DEBUG_STATS && ( histogram.getCount() % 1000 == 0 ) )
             {
-                long average = totalAdd.get() / ( nbAddCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average add = {} microseconds, nb adds = {}", getName(), average,
-                    nbAddCalls.get() );
+                OPERATION_STATS.debug( "{} : {} = {}", getName(), operationName, histogram );
             }
         }
 
         if ( IS_DEBUG_TIME )
         {
-            OPERATION_TIME.debug( "{} : Delta add = {}", getName(), delta );
+            OPERATION_TIME.debug( "{} : Delta {} = {}", getName(), operationName, delta );
         }
     }
 
@@ -178,28 +146,36 @@ public class TimerInterceptor extends BaseInterceptor
      * {@inheritDoc}
      */
     @Override
-    public void bind( BindOperationContext bindContext ) throws LdapException
+    public void add( AddOperationContext addContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( bindContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbBindCalls.incrementAndGet();
-            totalBind.getAndAdd( delta );
-
-            if ( nbBindCalls.get() % 1000 == 0 )
-            {
-                long average = totalBind.get() / ( nbBindCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average bind = {} microseconds, nb binds = {}", getName(), average,
-                    nbBindCalls.get() );
-            }
+            next( addContext );
         }
+        finally
+        {
+            stopTimer( OperationEnum.ADD, "add", start );
+        }
+    }
 
-        if ( IS_DEBUG_TIME )
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bind( BindOperationContext bindContext ) throws LdapException
+    {
+        long start = startTimer();
+
+        try
+        {
+            next( bindContext );
+        }
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta bind = {}", getName(), delta );
+            stopTimer( OperationEnum.BIND, "bind", start );
         }
     }
 
@@ -210,29 +186,16 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public boolean compare( CompareOperationContext compareContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        boolean compare = next( compareContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbCompareCalls.incrementAndGet();
-            totalCompare.getAndAdd( delta );
-
-            if ( nbCompareCalls.get() % 1000 == 0 )
-            {
-                long average = totalCompare.get() / ( nbCompareCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average compare = {} microseconds, nb compares = {}", getName(), average,
-                    nbCompareCalls.get() );
-            }
+            return next( compareContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta compare = {}", getName(), delta );
+            stopTimer( OperationEnum.COMPARE, "compare", start );
         }
-
-        return compare;
     }
 
 
@@ -242,26 +205,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void delete( DeleteOperationContext deleteContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( deleteContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbDeleteCalls.incrementAndGet();
-            totalDelete.getAndAdd( delta );
-
-            if ( nbDeleteCalls.get() % 1000 == 0 )
-            {
-                long average = totalDelete.get() / ( nbDeleteCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average delete = {} microseconds, nb deletes = {}", getName(), average,
-                    nbDeleteCalls.get() );
-            }
+            next( deleteContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta delete = {}", getName(), delta );
+            stopTimer( OperationEnum.DELETE, "delete", start );
         }
     }
 
@@ -272,29 +224,16 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public Entry getRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        Entry rootDse = next( getRootDseContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbGetRootDseCalls.incrementAndGet();
-            totalGetRootDse.getAndAdd( delta );
-
-            if ( nbGetRootDseCalls.get() % 1000 == 0 )
-            {
-                long average = totalGetRootDse.get() / ( nbGetRootDseCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average getRootDSE = {} microseconds, nb getRootDSEs = {}", getName(),
-                    average, nbGetRootDseCalls.get() );
-            }
+            return next( getRootDseContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta getRootDSE = {}", getName(), delta );
+            stopTimer( OperationEnum.GET_ROOT_DSE, "getRootDse", start );
         }
-
-        return rootDse;
     }
 
 
@@ -304,29 +243,16 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        boolean hasEntry = next( hasEntryContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbHasEntryCalls.incrementAndGet();
-            totalHasEntry.getAndAdd( delta );
-
-            if ( nbHasEntryCalls.get() % 1000 == 0 )
-            {
-                long average = totalHasEntry.get() / ( nbHasEntryCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average hasEntry = {} microseconds, nb hasEntrys = {}", getName(), average,
-                    nbHasEntryCalls.get() );
-            }
+            return next( hasEntryContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta hasEntry = {}", getName(), delta );
+            stopTimer( OperationEnum.HAS_ENTRY, "hasEntry", start );
         }
-
-        return hasEntry;
     }
 
 
@@ -336,29 +262,16 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        Entry entry = next( lookupContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbLookupCalls.incrementAndGet();
-            totalLookup.getAndAdd( delta );
-
-            if ( nbLookupCalls.get() % 1000 == 0 )
-            {
-                long average = totalLookup.get() / ( nbLookupCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average lookup = {} microseconds, nb lookups = {}", getName(), average,
-                    nbLookupCalls.get() );
-            }
+            return next( lookupContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta lookup = {}", getName(), delta );
+            stopTimer( OperationEnum.LOOKUP, "lookup", start );
         }
-
-        return entry;
     }
 
 
@@ -368,26 +281,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void modify( ModifyOperationContext modifyContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( modifyContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbModifyCalls.incrementAndGet();
-            totalModify.getAndAdd( delta );
-
-            if ( nbModifyCalls.get() % 1000 == 0 )
-            {
-                long average = totalModify.get() / ( nbModifyCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average modify = {} microseconds, nb modifys = {}", getName(), average,
-                    nbModifyCalls.get() );
-            }
+            next( modifyContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta modify = {}", getName(), delta );
+            stopTimer( OperationEnum.MODIFY, "modify", start );
         }
     }
 
@@ -398,26 +300,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void move( MoveOperationContext moveContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( moveContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbMoveCalls.incrementAndGet();
-            totalMove.getAndAdd( delta );
-
-            if ( nbMoveCalls.get() % 1000 == 0 )
-            {
-                long average = totalMove.get() / ( nbMoveCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average move = {} microseconds, nb moves = {}", getName(), average,
-                    nbMoveCalls.get() );
-            }
+            next( moveContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta move = {}", getName(), delta );
+            stopTimer( OperationEnum.MOVE, "move", start );
         }
     }
 
@@ -428,27 +319,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( moveAndRenameContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbMoveAndRenameCalls.incrementAndGet();
-            totalMoveAndRename.getAndAdd( delta );
-
-            if ( nbMoveAndRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalMoveAndRename.get() / ( nbMoveAndRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug(
-                    "{} : Average moveAndRename = {} microseconds, nb moveAndRenames = {}", getName(), average,
-                    nbMoveAndRenameCalls.get() );
-            }
+            next( moveAndRenameContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta moveAndRename = {}", getName(), delta );
+            stopTimer( OperationEnum.MOVE_AND_RENAME, "moveAndRename", start );
         }
     }
 
@@ -459,26 +338,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( renameContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbRenameCalls.incrementAndGet();
-            totalRename.getAndAdd( delta );
-
-            if ( nbRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalRename.get() / ( nbRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average rename = {} microseconds, nb renames = {}", getName(), average,
-                    nbRenameCalls.get() );
-            }
+            next( renameContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta rename = {}", getName(), delta );
+            stopTimer( OperationEnum.RENAME, "rename", start );
         }
     }
 
@@ -489,28 +357,16 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        EntryFilteringCursor cursor = next( searchContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbSearchCalls.incrementAndGet();
-            totalSearch.getAndAdd( delta );
-
-            if ( nbSearchCalls.get() % 1000 == 0 )
-            {
-                long average = totalSearch.get() / ( nbSearchCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average search = {} microseconds, nb searches = {}", getName(), average, nbSearchCalls.get() );
-            }
+            return next( searchContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta search = {}", getName(), delta );
+            stopTimer( OperationEnum.SEARCH, "search", start );
         }
-
-        return cursor;
     }
 
 
@@ -520,26 +376,15 @@ public class TimerInterceptor extends BaseInterceptor
     @Override
     public void unbind( UnbindOperationContext unbindContext ) throws LdapException
     {
-        long t0 = System.nanoTime();
-        next( unbindContext );
-        long delta = System.nanoTime() - t0;
+        long start = startTimer();
 
-        if ( IS_DEBUG_STATS )
+        try
         {
-            nbUnbindCalls.incrementAndGet();
-            totalUnbind.getAndAdd( delta );
-
-            if ( nbUnbindCalls.get() % 1000 == 0 )
-            {
-                long average = totalUnbind.get() / ( nbUnbindCalls.get() * 1000 );
-                OPERATION_STATS.debug( "{} : Average unbind = {} microseconds, nb unbinds = {}", getName(), average,
-                    nbUnbindCalls.get() );
-            }
+            next( unbindContext );
         }
-
-        if ( IS_DEBUG_TIME )
+        finally
         {
-            OPERATION_TIME.debug( "{} : Delta unbind = {}", getName(), delta );
+            stopTimer( OperationEnum.UNBIND, "unbind", start );
         }
     }
 }
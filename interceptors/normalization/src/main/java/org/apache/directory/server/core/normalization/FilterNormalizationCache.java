@@ -0,0 +1,652 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.normalization;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString.AssertionType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A cache of normalized filters, keyed by the filter's shape : its structure, the
+ * attribute types and the kind of assertions, but not the asserted values. Clients
+ * tend to send the same few filters over and over with different values, like
+ * <code>(&amp;(objectClass=person)(uid=xxx))</code>.
+ * <br>
+ * The first time a shape is seen, the filter is normalized the usual way, and the
+ * result is stored as a template. The next filters with the same shape are built
+ * by cloning the template and binding the normalized values of the request, which
+ * avoids the attribute type lookups, the undefined attribute pruning and the
+ * filter rewriting. The normalized values are cached too.
+ * <br>
+ * The values of the ObjectClass assertions are part of the shape, as they may
+ * change the normalized filter's structure.
+ * <br>
+ * The templates depend on the schema : the cache has to be cleared when it is modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FilterNormalizationCache
+{
+    /** logger used by this class */
+    private static final Logger LOG = LoggerFactory.getLogger( FilterNormalizationCache.class );
+
+    /** The default number of filter shapes we keep */
+    public static final int DEFAULT_FILTER_CACHE_SIZE = 1000;
+
+    /** The default number of normalized values we keep */
+    public static final int DEFAULT_VALUE_CACHE_SIZE = 10000;
+
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The name component normalizer, used to normalize binary values */
+    private final NameComponentNormalizer ncn;
+
+    /** The templates, per filter shape */
+    private final Cache<String, Template> templates;
+
+    /** The normalized values, per attribute type OID and user provided value */
+    private final Cache<String, Value> values;
+
+    /** The ObjectClass AttributeType */
+    private final AttributeType objectClassAT;
+
+    // Statistics
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder hitNanos = new LongAdder();
+    private final LongAdder missNanos = new LongAdder();
+
+
+    /**
+     * A normalized filter, and for each of its leaves in pre-order, the position of the
+     * leaf in the original filter it has been built from, or -1 if it has no value to bind.
+     */
+    private static final class Template
+    {
+        private final ExprNode filter;
+        private final int[] leafIndexes;
+
+
+        private Template( ExprNode filter, int[] leafIndexes )
+        {
+            this.filter = filter;
+            this.leafIndexes = leafIndexes;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of FilterNormalizationCache.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param ncn The normalizer used for the binary values
+     * @param filterCacheSize The number of filter shapes to keep
+     * @param valueCacheSize The number of normalized values to keep
+     */
+    public FilterNormalizationCache( SchemaManager schemaManager, NameComponentNormalizer ncn, int filterCacheSize,
+        int valueCacheSize )
+    {
+        this.schemaManager = schemaManager;
+        this.ncn = ncn;
+        this.templates = Caffeine.newBuilder().maximumSize( filterCacheSize )
+            .expireAfterAccess( Duration.ofMinutes( 10L ) ).build();
+        this.values = Caffeine.newBuilder().maximumSize( valueCacheSize )
+            .expireAfterAccess( Duration.ofMinutes( 10L ) ).build();
+        this.objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT_OID );
+    }
+
+
+    /**
+     * Normalizes a filter, using a cached template if we already have seen a filter with
+     * the same shape.
+     *
+     * @param filter The filter to normalize. It may be modified
+     * @param normalizer The function normalizing a filter when we don't have a template for it.
+     * It returns <code>null</code> if the filter can't select any entry.
+     * @return The normalized filter, or <code>null</code>
+     */
+    public ExprNode normalize( ExprNode filter, UnaryOperator<ExprNode> normalizer )
+    {
+        List<LeafNode> leaves = new ArrayList<>();
+        StringBuilder shape = new StringBuilder();
+
+        if ( !computeShape( filter, shape, leaves ) )
+        {
+            // A filter we don't know how to cache
+            return normalizer.apply( filter );
+        }
+
+        String key = shape.toString();
+        Template template = templates.getIfPresent( key );
+
+        if ( template != null )
+        {
+            long start = System.nanoTime();
+            ExprNode bound = bind( template, leaves );
+
+            if ( bound != null )
+            {
+                hitCount.increment();
+                hitNanos.add( System.nanoTime() - start );
+
+                return bound;
+            }
+
+            // Some value can't be normalized, and this may change the filter's structure
+        }
+
+        long start = System.nanoTime();
+
+        // Keep a track of the original leaves positions, as the normalizer modifies them in place
+        Map<LeafNode, Integer> positions = new IdentityHashMap<>();
+
+        for ( int i = 0; i < leaves.size(); i++ )
+        {
+            positions.put( leaves.get( i ), i );
+        }
+
+        ExprNode normalized = normalizer.apply( filter );
+
+        if ( ( normalized != null ) && ( template == null ) )
+        {
+            template = createTemplate( normalized, leaves, positions );
+
+            if ( template != null )
+            {
+                templates.put( key, template );
+            }
+        }
+
+        missCount.increment();
+        missNanos.add( System.nanoTime() - start );
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Filter cache miss for {}, {}", key, this );
+        }
+
+        return normalized;
+    }
+
+
+    /**
+     * Computes the shape of a filter, and gathers its leaves in pre-order.
+     *
+     * @return <code>false</code> if the filter contains a node we don't handle
+     */
+    private boolean computeShape( ExprNode node, StringBuilder shape, List<LeafNode> leaves )
+    {
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof AndNode )
+            {
+                shape.append( "(&" );
+            }
+            else if ( node instanceof OrNode )
+            {
+                shape.append( "(|" );
+            }
+            else if ( node instanceof NotNode )
+            {
+                shape.append( "(!" );
+            }
+            else
+            {
+                return false;
+            }
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !computeShape( child, shape, leaves ) )
+                {
+                    return false;
+                }
+            }
+
+            shape.append( ')' );
+
+            return true;
+        }
+
+        if ( !( node instanceof LeafNode ) )
+        {
+            return false;
+        }
+
+        LeafNode leaf = ( LeafNode ) node;
+        String attribute = leaf.getAttribute();
+
+        if ( attribute == null )
+        {
+            return false;
+        }
+
+        leaves.add( leaf );
+        shape.append( '(' ).append( Strings.toLowerCaseAscii( attribute ) );
+
+        if ( node instanceof PresenceNode )
+        {
+            shape.append( "=*" );
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            SubstringNode substringNode = ( SubstringNode ) node;
+            shape.append( "=" );
+            shape.append( substringNode.getInitial() != null ? "?" : "" );
+
+            int nbAny = ( substringNode.getAny() != null ) ? substringNode.getAny().size() : 0;
+
+            for ( int i = 0; i < nbAny; i++ )
+            {
+                shape.append( "*?" );
+            }
+
+            shape.append( '*' );
+            shape.append( substringNode.getFinal() != null ? "?" : "" );
+        }
+        else if ( node instanceof ExtensibleNode )
+        {
+            ExtensibleNode extensibleNode = ( ExtensibleNode ) node;
+            shape.append( extensibleNode.hasDnAttributes() ? ":dn" : "" );
+            shape.append( ':' ).append( extensibleNode.getMatchingRuleId() ).append( ":=?" );
+        }
+        else if ( node instanceof SimpleNode )
+        {
+            if ( node instanceof ApproximateNode )
+            {
+                shape.append( "~=" );
+            }
+            else if ( node instanceof EqualityNode )
+            {
+                shape.append( '=' );
+            }
+            else if ( node instanceof GreaterEqNode )
+            {
+                shape.append( ">=" );
+            }
+            else if ( node instanceof LessEqNode )
+            {
+                shape.append( "<=" );
+            }
+            else
+            {
+                return false;
+            }
+
+            Value value = ( ( SimpleNode<?> ) node ).getValue();
+
+            if ( isObjectClass( attribute ) && ( value != null ) )
+            {
+                // The ObjectClass values are part of the shape
+                shape.append( Strings.toLowerCaseAscii( value.getString() ) );
+            }
+            else
+            {
+                shape.append( '?' );
+            }
+        }
+        else
+        {
+            return false;
+        }
+
+        shape.append( ')' );
+
+        return true;
+    }
+
+
+    private boolean isObjectClass( String attribute )
+    {
+        AttributeType attributeType = schemaManager.getAttributeType( attribute );
+
+        return ( attributeType != null ) && attributeType.equals( objectClassAT );
+    }
+
+
+    /**
+     * Creates a template from a normalized filter. We can't create a template if some leaf
+     * has been removed by the normalization because of its value, nor if it has been
+     * removed because its attribute is undefined : the attribute may be added to the
+     * schema later on.
+     */
+    private Template createTemplate( ExprNode normalized, List<LeafNode> leaves, Map<LeafNode, Integer> positions )
+    {
+        List<ExprNode> normalizedLeaves = new ArrayList<>();
+        collectLeaves( normalized, normalizedLeaves );
+
+        int[] leafIndexes = new int[normalizedLeaves.size()];
+        boolean[] kept = new boolean[leaves.size()];
+
+        for ( int i = 0; i < leafIndexes.length; i++ )
+        {
+            Integer position = positions.get( normalizedLeaves.get( i ) );
+
+            if ( position == null )
+            {
+                // A node created by the normalizer
+                leafIndexes[i] = -1;
+            }
+            else
+            {
+                leafIndexes[i] = position;
+                kept[position] = true;
+            }
+        }
+
+        for ( int i = 0; i < kept.length; i++ )
+        {
+            String attribute = leaves.get( i ).getAttribute();
+
+            // The leaves removed because they are an ObjectClass assertion
+            // only depend on the shape
+            if ( !kept[i] && !isObjectClass( attribute ) )
+            {
+                return null;
+            }
+        }
+
+        return new Template( normalized.clone(), leafIndexes );
+    }
+
+
+    private static void collectLeaves( ExprNode node, List<ExprNode> leaves )
+    {
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                collectLeaves( child, leaves );
+            }
+        }
+        else
+        {
+            leaves.add( node );
+        }
+    }
+
+
+    /**
+     * Creates a normalized filter from a template and the leaves of a filter with
+     * the same shape.
+     *
+     * @return The normalized filter, or null if some value can't be normalized
+     */
+    private ExprNode bind( Template template, List<LeafNode> leaves )
+    {
+        ExprNode filter = template.filter.clone();
+        List<ExprNode> filterLeaves = new ArrayList<>( template.leafIndexes.length );
+        collectLeaves( filter, filterLeaves );
+
+        for ( int i = 0; i < template.leafIndexes.length; i++ )
+        {
+            int position = template.leafIndexes[i];
+
+            if ( position < 0 )
+            {
+                continue;
+            }
+
+            ExprNode target = filterLeaves.get( i );
+            LeafNode source = leaves.get( position );
+
+            try
+            {
+                if ( !bindLeaf( target, source ) )
+                {
+                    return null;
+                }
+            }
+            catch ( LdapException le )
+            {
+                LOG.debug( "Cannot bind the filter value {}", source, le );
+
+                return null;
+            }
+        }
+
+        return filter;
+    }
+
+
+    private boolean bindLeaf( ExprNode target, LeafNode source ) throws LdapException
+    {
+        if ( target instanceof SimpleNode )
+        {
+            SimpleNode<?> simpleNode = ( SimpleNode<?> ) target;
+
+            if ( isObjectClass( source.getAttribute() ) )
+            {
+                // Already in the template
+                return true;
+            }
+
+            Value normalized = normalizeValue( simpleNode.getAttributeType(), ( ( SimpleNode<?> ) source ).getValue() );
+
+            if ( normalized == null )
+            {
+                return false;
+            }
+
+            simpleNode.setValue( normalized );
+
+            return true;
+        }
+        else if ( target instanceof SubstringNode )
+        {
+            return bindSubstring( ( SubstringNode ) target, ( SubstringNode ) source );
+        }
+        else if ( target instanceof ExtensibleNode )
+        {
+            ( ( ExtensibleNode ) target ).setValue( ( ( ExtensibleNode ) source ).getValue() );
+
+            return true;
+        }
+
+        // Presence nodes have no value
+        return true;
+    }
+
+
+    private boolean bindSubstring( SubstringNode target, SubstringNode source ) throws LdapException
+    {
+        MatchingRule substringMR = ( target.getAttributeType() != null ) ? target.getAttributeType().getSubstring()
+            : null;
+
+        if ( ( substringMR == null ) || ( substringMR.getNormalizer() == null ) )
+        {
+            // No normalizer for a Substring filter
+            target.setInitial( source.getInitial() );
+            target.setAny( source.getAny() );
+            target.setFinal( source.getFinal() );
+
+            return true;
+        }
+
+        Normalizer normalizer = substringMR.getNormalizer();
+
+        if ( source.getInitial() != null )
+        {
+            target.setInitial( normalizer.normalize( source.getInitial(), AssertionType.SUBSTRING_INITIAL ) );
+        }
+
+        List<String> normAnys = null;
+
+        if ( ( source.getAny() != null ) && !source.getAny().isEmpty() )
+        {
+            normAnys = new ArrayList<>( source.getAny().size() );
+
+            for ( String any : source.getAny() )
+            {
+                String normalizedAny = normalizer.normalize( any, AssertionType.SUBSTRING_ANY );
+
+                if ( normalizedAny != null )
+                {
+                    normAnys.add( normalizedAny );
+                }
+            }
+
+            if ( normAnys.isEmpty() )
+            {
+                return false;
+            }
+        }
+
+        target.setAny( normAnys );
+
+        if ( source.getFinal() != null )
+        {
+            String normalizedFinal = normalizer.normalize( source.getFinal(), AssertionType.SUBSTRING_FINAL );
+
+            if ( normalizedFinal == null )
+            {
+                return false;
+            }
+
+            target.setFinal( normalizedFinal );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Normalizes an assertion value, the same way the FilterNormalizingVisitor does.
+     * The normalized String values are cached.
+     */
+    private Value normalizeValue( AttributeType attributeType, Value value ) throws LdapException
+    {
+        if ( ( attributeType == null ) || ( value == null ) )
+        {
+            return null;
+        }
+
+        if ( !attributeType.getSyntax().isHumanReadable() )
+        {
+            return ( Value ) ncn.normalizeByName( attributeType.getOid(), value.getBytes() );
+        }
+
+        String upValue = value.getString();
+        String key = attributeType.getOid() + '\u0000' + upValue;
+        Value normalized = values.getIfPresent( key );
+
+        if ( normalized == null )
+        {
+            normalized = new Value( attributeType, upValue );
+            values.put( key, normalized );
+        }
+
+        return normalized;
+    }
+
+
+    /**
+     * @return The number of filters normalized using a cached template
+     */
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+
+    /**
+     * @return The number of filters normalized without template
+     */
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+
+    /**
+     * @return An estimate of the time saved by the cache, in nanoseconds : the number of
+     * hits multiplied by the average time needed to normalize a filter without template,
+     * minus the time spent in binding the values.
+     */
+    public long getSavedNanos()
+    {
+        long misses = missCount.sum();
+
+        if ( misses == 0 )
+        {
+            return 0L;
+        }
+
+        return Math.max( 0L, ( missNanos.sum() / misses ) * hitCount.sum() - hitNanos.sum() );
+    }
+
+
+    /**
+     * Clears the cached templates and values, for instance when the schema has been modified.
+     */
+    public void clear()
+    {
+        templates.invalidateAll();
+        values.invalidateAll();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "FilterNormalizationCache[hits=" + getHitCount() + ", misses=" + getMissCount() + ", saved="
+            + ( getSavedNanos() / 1000L ) + "us]";
+    }
+}
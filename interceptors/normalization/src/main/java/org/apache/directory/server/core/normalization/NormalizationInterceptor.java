@@ -84,6 +84,15 @@ public class NormalizationInterceptor extends BaseInterceptor
     /** a filter node value normalizer and undefined node remover */
     private FilterNormalizingVisitor normVisitor;
 
+    /** The cache of normalized filters */
+    private FilterNormalizationCache filterCache;
+
+    /** The base of the schema partition */
+    private Dn schemaBaseDn;
+
+    /** The subschemaSubentry Dn */
+    private Dn subschemaSubentryDn;
+
 
     /**
      * Creates a new instance of a NormalizationInterceptor.
@@ -106,15 +115,57 @@ public class NormalizationInterceptor extends BaseInterceptor
 
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         normVisitor = new FilterNormalizingVisitor( ncn, schemaManager );
+        filterCache = new FilterNormalizationCache( schemaManager, ncn,
+            FilterNormalizationCache.DEFAULT_FILTER_CACHE_SIZE, FilterNormalizationCache.DEFAULT_VALUE_CACHE_SIZE );
+
+        schemaBaseDn = dnFactory.create( SchemaConstants.OU_SCHEMA );
+        Value subschemaSubentry = directoryService.getPartitionNexus().getRootDseValue(
+            directoryService.getAtProvider().getSubschemaSubentry() );
+        subschemaSubentryDn = dnFactory.create( subschemaSubentry.getString() );
     }
 
 
     /**
-     * The destroy method does nothing
+     * The destroy method clears the filter cache
      */
     @Override
     public void destroy()
     {
+        if ( filterCache != null )
+        {
+            LOG.debug( "Filter normalization cache statistics : {}", filterCache );
+            filterCache.clear();
+        }
+    }
+
+
+    /**
+     * @return The cache of normalized filters
+     */
+    public FilterNormalizationCache getFilterCache()
+    {
+        return filterCache;
+    }
+
+
+    /**
+     * Clears the filter cache if an entry of the schema, or the subschemaSubentry, has been
+     * written : the normalized filters depend on the schema.
+     *
+     * @param dns The written entries Dn
+     */
+    private void clearFilterCacheOnSchemaChange( Dn... dns )
+    {
+        for ( Dn dn : dns )
+        {
+            if ( ( dn != null ) && ( dn.isDescendantOf( schemaBaseDn ) || dn.equals( subschemaSubentryDn ) ) )
+            {
+                LOG.debug( "The schema has been modified by a write on {}, clearing the filter cache", dn );
+                filterCache.clear();
+
+                return;
+            }
+        }
     }
 
 
@@ -144,6 +195,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         addRdnAttributesToEntry( addContext.getDn(), addContext.getEntry() );
         
         next( addContext );
+
+        clearFilterCacheOnSchemaChange( addContext.getDn() );
     }
 
 
@@ -196,6 +249,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         next( deleteContext );
+
+        clearFilterCacheOnSchemaChange( deleteContext.getDn() );
     }
 
 
@@ -256,6 +311,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         next( modifyContext );
+
+        clearFilterCacheOnSchemaChange( modifyContext.getDn() );
     }
 
 
@@ -301,6 +358,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         next( moveContext );
+
+        clearFilterCacheOnSchemaChange( moveContext.getDn(), moveContext.getNewDn() );
     }
 
 
@@ -339,6 +398,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         next( moveAndRenameContext );
+
+        clearFilterCacheOnSchemaChange( moveAndRenameContext.getDn(), moveAndRenameContext.getNewDn() );
     }
 
 
@@ -372,6 +433,8 @@ public class NormalizationInterceptor extends BaseInterceptor
 
         // Push to the next interceptor
         next( renameContext );
+
+        clearFilterCacheOnSchemaChange( renameContext.getDn() );
     }
 
 
@@ -396,18 +459,16 @@ public class NormalizationInterceptor extends BaseInterceptor
             return new EntryFilteringCursorImpl( new EmptyCursor<Entry>(), searchContext, schemaManager );
         }
 
-        // Normalize the filter
-        filter = ( ExprNode ) filter.accept( normVisitor );
+        // Normalize the filter, and remove the (ObjectClass=*) filter if it's present.
+        // Filters with the same shape are normalized using a cached template.
+        ExprNode modifiedFilter = filterCache.normalize( filter, this::normalizeFilter );
 
-        if ( filter == null )
+        if ( modifiedFilter == null )
         {
             LOG.warn( "undefined filter based on undefined attributeType not evaluted at all.  Returning empty enumeration." );
             return new EntryFilteringCursorImpl( new EmptyCursor<Entry>(), searchContext, schemaManager );
         }
 
-        // We now have to remove the (ObjectClass=*) filter if it's present, and to add the scope filter
-        ExprNode modifiedFilter = removeObjectClass( filter );
-
         searchContext.setFilter( modifiedFilter );
 
         // TODO Normalize the returned Attributes, storing the UP attributes to format the returned values.
@@ -415,6 +476,24 @@ public class NormalizationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Normalize a filter, and remove the (ObjectClass=*) node from it.
+     *
+     * @return The normalized filter, or null if it uses only undefined attributeTypes
+     */
+    private ExprNode normalizeFilter( ExprNode filter )
+    {
+        ExprNode normalized = ( ExprNode ) filter.accept( normVisitor );
+
+        if ( normalized == null )
+        {
+            return null;
+        }
+
+        return removeObjectClass( normalized );
+    }
+
+
     /**
      * Remove the (ObjectClass=*) node from an AndNode, if we have one.
      */
@@ -0,0 +1,178 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.normalization;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Tests the normalized filters cache.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class FilterNormalizationCacheTest
+{
+    /** a filter node value normalizer and undefined node remover */
+    private static FilterNormalizingVisitor normVisitor;
+
+    /** The normalizer used for the binary values */
+    private static NameComponentNormalizer ncn;
+
+    /** A reference to the schemaManager */
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        ncn = new ConcreteNameComponentNormalizer( schemaManager );
+        normVisitor = new FilterNormalizingVisitor( ncn, schemaManager );
+    }
+
+
+    private static ExprNode normalize( ExprNode filter )
+    {
+        return ( ExprNode ) filter.accept( normVisitor );
+    }
+
+
+    private static String expected( String filter ) throws Exception
+    {
+        return normalize( FilterParser.parse( filter ) ).toString();
+    }
+
+
+    private static String cached( FilterNormalizationCache cache, String filter ) throws Exception
+    {
+        ExprNode result = cache.normalize( FilterParser.parse( filter ), FilterNormalizationCacheTest::normalize );
+
+        return ( result == null ) ? null : result.toString();
+    }
+
+
+    @Test
+    public void testSameShape() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( schemaManager, ncn, 10, 10 );
+
+        String filter1 = "(&(objectClass=person)(|(cn=  Test  1 )(sn=Doe*))(ou>=  A))";
+        String filter2 = "(&(objectClass=person)(|(cn=Other   User)(sn=SMITH*))(ou>= B ))";
+
+        assertEquals( expected( filter1 ), cached( cache, filter1 ) );
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+
+        assertEquals( expected( filter2 ), cached( cache, filter2 ) );
+        assertEquals( expected( filter1 ), cached( cache, filter1 ) );
+        assertEquals( 2, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+    }
+
+
+    @Test
+    public void testDifferentShapes() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( schemaManager, ncn, 10, 10 );
+
+        // The ObjectClass values are part of the shape
+        assertEquals( expected( "(&(objectClass=person)(cn=a))" ), cached( cache, "(&(objectClass=person)(cn=a))" ) );
+        assertEquals( expected( "(&(objectClass=top)(cn=a))" ), cached( cache, "(&(objectClass=top)(cn=a))" ) );
+
+        // So are the substring parts
+        assertEquals( expected( "(cn=a*b)" ), cached( cache, "(cn=a*b)" ) );
+        assertEquals( expected( "(cn=*a*b)" ), cached( cache, "(cn=*a*b)" ) );
+
+        // And the assertion types
+        assertEquals( expected( "(cn=a)" ), cached( cache, "(cn=a)" ) );
+        assertEquals( expected( "(cn~=a)" ), cached( cache, "(cn~=a)" ) );
+
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 6, cache.getMissCount() );
+    }
+
+
+    @Test
+    public void testUndefinedAttribute() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( schemaManager, ncn, 10, 10 );
+
+        String filter1 = "(|(cn=a)(undefinedAttribute=b))";
+        String filter2 = "(|(cn=c)(undefinedAttribute=d))";
+
+        // The filters with an undefined attribute are not cached, as it may be added
+        // to the schema later on
+        assertEquals( expected( filter1 ), cached( cache, filter1 ) );
+        assertEquals( expected( filter2 ), cached( cache, filter2 ) );
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 2, cache.getMissCount() );
+
+        // An AND filter with an undefined attribute can't select anything
+        assertEquals( null, cached( cache, "(&(cn=a)(undefinedAttribute=b))" ) );
+        assertEquals( null, cached( cache, "(&(cn=a)(undefinedAttribute=b))" ) );
+    }
+
+
+    @Test
+    public void testClear() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( schemaManager, ncn, 10, 10 );
+
+        assertEquals( expected( "(cn=a)" ), cached( cache, "(cn=a)" ) );
+        assertEquals( expected( "(cn=b)" ), cached( cache, "(cn=b)" ) );
+        assertEquals( 1, cache.getHitCount() );
+
+        cache.clear();
+
+        assertEquals( expected( "(cn=c)" ), cached( cache, "(cn=c)" ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 2, cache.getMissCount() );
+    }
+}
@@ -76,6 +76,7 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.subtree.IndexedSubentry;
 import org.apache.directory.server.core.api.subtree.SubentryCache;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
 import org.apache.directory.server.i18n.I18n;
@@ -560,12 +561,12 @@ public class SubentryInterceptor extends BaseInterceptor
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        // Only the subentries whose AP is an ancestor of the old or the new name can select the entry
+        for ( IndexedSubentry subentry : subentryCache.getSubentries( oldName, newName ) )
         {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = subentryCache.getSubentry( subentryDn ).getSubtreeSpecification();
-            boolean isOldNameSelected = evaluator.evaluate( ss, apDn, oldName, entry );
-            boolean isNewNameSelected = evaluator.evaluate( ss, apDn, newName, entry );
+            Dn subentryDn = subentry.getDn();
+            boolean isOldNameSelected = evaluator.evaluate( subentry, oldName, entry );
+            boolean isNewNameSelected = evaluator.evaluate( subentry, newName, entry );
 
             if ( isOldNameSelected == isNewNameSelected )
             {
@@ -833,13 +834,11 @@ public class SubentryInterceptor extends BaseInterceptor
     {
         List<Modification> modList = new ArrayList<>();
 
-        for ( Dn subentryDn : directoryService.getSubentryCache() )
+        for ( IndexedSubentry subentry : directoryService.getSubentryCache().getSubentries( name ) )
         {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = directoryService.getSubentryCache().getSubentry( subentryDn )
-                .getSubtreeSpecification();
-            boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, oldEntry );
-            boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, newEntry );
+            Dn subentryDn = subentry.getDn();
+            boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( subentry, name, oldEntry );
+            boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( subentry, name, newEntry );
 
             if ( isOldEntrySelected == isNewEntrySelected )
             {
@@ -981,47 +980,39 @@ public class SubentryInterceptor extends BaseInterceptor
             // The added entry is not a Subentry.
             // Nevertheless, we have to check if the entry is added into an AdministrativePoint
             // and is associated with some SubtreeSpecification
-            // We brutally check *all* the subentries, as we don't hold a hierarchy
-            // of AP
-            // TODO : add a hierarchy of subentries
-            for ( Dn subentryDn : directoryService.getSubentryCache() )
+            // Only the subentries whose AP is an ancestor of the entry are checked
+            for ( IndexedSubentry indexedSubentry : directoryService.getSubentryCache().getSubentries( dn ) )
             {
-                Dn apDn = subentryDn.getParent();
+                Dn subentryDn = indexedSubentry.getDn();
+                Subentry subentry = indexedSubentry.getSubentry();
 
-                // No need to evaluate the entry if it's not below an AP.
-                if ( dn.isDescendantOf( apDn ) )
+                // Now, evaluate the entry wrt the subentry ss
+                // and inject a ref to the subentry if it evaluates to true
+                if ( directoryService.getEvaluator().evaluate( indexedSubentry, dn, entry ) )
                 {
-                    Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
-                    SubtreeSpecification ss = subentry.getSubtreeSpecification();
 
-                    // Now, evaluate the entry wrt the subentry ss
-                    // and inject a ref to the subentry if it evaluates to true
-                    if ( directoryService.getEvaluator().evaluate( ss, apDn, dn, entry ) )
+                    if ( subentry.isAccessControlAdminRole() )
                     {
+                        setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                            .getAccessControlSubentries() );
+                    }
 
-                        if ( subentry.isAccessControlAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getAccessControlSubentries() );
-                        }
-
-                        if ( subentry.isSchemaAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getSubschemaSubentry() );
-                        }
+                    if ( subentry.isSchemaAdminRole() )
+                    {
+                        setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                            .getSubschemaSubentry() );
+                    }
 
-                        if ( subentry.isCollectiveAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getCollectiveAttributeSubentries() );
-                        }
+                    if ( subentry.isCollectiveAdminRole() )
+                    {
+                        setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                            .getCollectiveAttributeSubentries() );
+                    }
 
-                        if ( subentry.isTriggersAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getTriggerExecutionSubentries() );
-                        }
+                    if ( subentry.isTriggersAdminRole() )
+                    {
+                        setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
+                            .getTriggerExecutionSubentries() );
                     }
                 }
             }
@@ -0,0 +1,202 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationModifier;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.apache.directory.server.core.api.subtree.IndexedSubentry;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
+import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Unit test cases for the administrative point index of the SubentryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class SubentryCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static FilterNormalizingVisitor visitor;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SubentryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        visitor = new FilterNormalizingVisitor( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
+    }
+
+
+    private Subentry createSubentry( String base, String refinement ) throws Exception
+    {
+        SubtreeSpecificationModifier modifier = new SubtreeSpecificationModifier();
+        modifier.setBase( new Dn( schemaManager, base ) );
+
+        if ( refinement != null )
+        {
+            ExprNode filter = FilterParser.parse( schemaManager, refinement );
+            filter.accept( visitor );
+            modifier.setRefinement( filter );
+        }
+
+        Subentry subentry = new Subentry();
+        subentry.setSubtreeSpecification( modifier.getSubtreeSpecification() );
+
+        return subentry;
+    }
+
+
+    @Test
+    public void testGetSubentriesByAncestor() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn systemSubentryDn = new Dn( schemaManager, "cn=system,ou=system" );
+        Dn usersSubentryDn = new Dn( schemaManager, "cn=users,ou=users,ou=system" );
+        Dn groupsSubentryDn = new Dn( schemaManager, "cn=groups,ou=groups,ou=system" );
+
+        cache.addSubentry( systemSubentryDn, createSubentry( "", null ) );
+        cache.addSubentry( usersSubentryDn, createSubentry( "", null ) );
+        cache.addSubentry( groupsSubentryDn, createSubentry( "", null ) );
+
+        List<IndexedSubentry> subentries = cache.getSubentries( new Dn( schemaManager,
+            "uid=admin,ou=users,ou=system" ) );
+        assertEquals( 2, subentries.size() );
+        assertEquals( systemSubentryDn, subentries.get( 0 ).getDn() );
+        assertEquals( usersSubentryDn, subentries.get( 1 ).getDn() );
+
+        // The AP itself can be selected
+        subentries = cache.getSubentries( new Dn( schemaManager, "ou=groups,ou=system" ) );
+        assertEquals( 2, subentries.size() );
+        assertEquals( groupsSubentryDn, subentries.get( 1 ).getDn() );
+
+        assertTrue( cache.getSubentries( new Dn( schemaManager, "dc=example,dc=com" ) ).isEmpty() );
+
+        // A rename from one AP to another one gets the subentries of both
+        subentries = cache.getSubentries( new Dn( schemaManager, "uid=admin,ou=users,ou=system" ),
+            new Dn( schemaManager, "uid=admin,ou=groups,ou=system" ) );
+        assertEquals( 3, subentries.size() );
+
+        cache.removeSubentry( usersSubentryDn );
+        subentries = cache.getSubentries( new Dn( schemaManager, "uid=admin,ou=users,ou=system" ) );
+        assertEquals( 1, subentries.size() );
+        assertEquals( systemSubentryDn, subentries.get( 0 ).getDn() );
+        assertNull( cache.getSubentry( usersSubentryDn ) );
+        assertEquals( 2, cache.getCacheSize() );
+    }
+
+
+    @Test
+    public void testReplaceSubentry() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn subentryDn = new Dn( schemaManager, "cn=users,ou=users,ou=system" );
+        Subentry subentry = createSubentry( "", null );
+        Subentry newSubentry = createSubentry( "ou=people", null );
+
+        cache.addSubentry( subentryDn, subentry );
+        assertSame( subentry, cache.addSubentry( subentryDn, newSubentry ) );
+
+        List<IndexedSubentry> subentries = cache.getSubentries( new Dn( schemaManager,
+            "uid=admin,ou=users,ou=system" ) );
+        assertEquals( 1, subentries.size() );
+        assertSame( newSubentry, subentries.get( 0 ).getSubentry() );
+        assertEquals( new Dn( schemaManager, "ou=people,ou=users,ou=system" ), subentries.get( 0 ).getBaseDn() );
+        assertEquals( 1, cache.getCacheSize() );
+    }
+
+
+    @Test
+    public void testEvaluateIndexedSubentryWithRefinement() throws Exception
+    {
+        SubtreeEvaluator evaluator = new SubtreeEvaluator( schemaManager );
+        Dn subentryDn = new Dn( schemaManager, "cn=persons,ou=system" );
+        IndexedSubentry subentry = new IndexedSubentry( subentryDn, createSubentry( "ou=users",
+            "(objectClass=person)" ) );
+
+        Dn entryDn = new Dn( schemaManager, "uid=akarasulu,ou=users,ou=system" );
+        Entry person = new DefaultEntry( schemaManager, entryDn );
+        person.put( "objectClass", "top", "person" );
+        Entry unit = new DefaultEntry( schemaManager, entryDn );
+        unit.put( "objectClass", "top", "organizationalUnit" );
+
+        // Evaluate twice, to use the memoized refinement results
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertTrue( evaluator.evaluate( subentry, entryDn, person ) );
+            assertFalse( evaluator.evaluate( subentry, entryDn, unit ) );
+            assertFalse( evaluator.evaluate( subentry, new Dn( schemaManager, "uid=akarasulu,ou=groups,ou=system" ),
+                person ) );
+        }
+    }
+}
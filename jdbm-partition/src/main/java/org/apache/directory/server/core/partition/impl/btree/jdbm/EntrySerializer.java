@@ -39,6 +39,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.LazyAttribute;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,6 +66,12 @@ public class EntrySerializer implements Serializer
      */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The flag set in the header when the entry has a Dn */
+    private static final byte HAS_DN = 0x01;
+
+    /** The flag set in the header when the attributes are prefixed by their length */
+    private static final byte LAZY_ATTRIBUTES = 0x02;
+
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
@@ -90,17 +97,22 @@ public class EntrySerializer implements Serializer
      * <p>
      * The structure used to store the entry is the following :
      * <ul>
-     *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+     *   <li><b>[a byte]</b> : the header. The 0x01 bit is set if the Dn is not empty,
+     *   the 0x02 bit is always set, and tells that the attributes are prefixed by their length</li>
      *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
      *   <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
      *   <li>For each Attribute :
      *     <ul>
      *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
      *       the attributeType on deserialization</li>
-     *       <li><b>[Attribute]</b> The attribute</li>
+     *       <li><b>[length]</b> The serialized attribute's length</li>
+     *       <li><b>[Attribute]</b> The serialized attribute, as written by
+     *       {@link LazyAttribute#serialize(Attribute)}</li>
      *     </ul>
      *   </li>
      * </ul>
+     * Entries written before the attributes were prefixed by their length have a
+     * header set to 0 or 1, and can still be read.
      */
     public byte[] serialize( Object object ) throws IOException
     {
@@ -115,11 +127,11 @@ public class EntrySerializer implements Serializer
         // Write the Rdn of the Dn
         if ( dn.isEmpty() )
         {
-            out.writeByte( 0 );
+            out.writeByte( LAZY_ATTRIBUTES );
         }
         else
         {
-            out.writeByte( 1 );
+            out.writeByte( LAZY_ATTRIBUTES | HAS_DN );
             Rdn rdn = dn.getRdn();
             rdn.writeExternal( out );
         }
@@ -141,8 +153,12 @@ public class EntrySerializer implements Serializer
 
             out.writeUTF( oid );
 
-            // Write the attribute
-            attribute.writeExternal( out );
+            // Write the attribute, prefixed by its length so that it can be
+            // decoded lazily. An attribute which has been read and not modified
+            // is written back as is.
+            byte[] serialized = LazyAttribute.serialize( attribute );
+            out.writeInt( serialized.length );
+            out.write( serialized );
         }
 
         out.flush();
@@ -161,7 +177,7 @@ public class EntrySerializer implements Serializer
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry. The attributes' values are decoded when they are used.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
@@ -175,10 +191,12 @@ public class EntrySerializer implements Serializer
         {
             Entry entry = new DefaultEntry( schemaManager );
 
-            // Read the Dn, if any
-            byte hasDn = in.readByte();
+            // Read the header
+            byte header = in.readByte();
+            boolean lazy = ( header & LAZY_ATTRIBUTES ) != 0;
 
-            if ( hasDn == 1 )
+            // Read the Dn, if any
+            if ( ( header & HAS_DN ) != 0 )
             {
                 Rdn rdn = new Rdn( schemaManager );
                 rdn.readExternal( in );
@@ -212,11 +230,23 @@ public class EntrySerializer implements Serializer
                 {
                     AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
 
-                    // Create the attribute we will read
-                    Attribute attribute = new DefaultAttribute( attributeType );
-
-                    // Read the attribute
-                    attribute.readExternal( in );
+                    Attribute attribute;
+
+                    if ( lazy )
+                    {
+                        // Keep the serialized attribute, it will be decoded when used
+                        byte[] serialized = new byte[in.readInt()];
+                        in.readFully( serialized );
+                        attribute = new LazyAttribute( attributeType, serialized );
+                    }
+                    else
+                    {
+                        // Create the attribute we will read
+                        attribute = new DefaultAttribute( attributeType );
+
+                        // Read the attribute
+                        attribute.readExternal( in );
+                    }
 
                     entry.add( attribute );
                 }
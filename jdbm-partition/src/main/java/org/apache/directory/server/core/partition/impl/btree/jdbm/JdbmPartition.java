@@ -63,8 +63,10 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompositeKeyComparator;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -353,6 +355,11 @@ public class JdbmPartition extends AbstractBTreePartition
             // Iterate on the declared indexes, deleting the old ones
             for ( Index<?, String> index : getIndexedAttributes() )
             {
+                if ( isCompositeIndex( index ) )
+                {
+                    continue;
+                }
+
                 // Index won't be initialized at this time, so lookup AT registry to get the OID
                 AttributeType indexAT = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() );
                 String oid = indexAT.getOid();
@@ -454,6 +461,12 @@ public class JdbmPartition extends AbstractBTreePartition
 
             for ( Index<?, String> index : getIndexedAttributes() )
             {
+                if ( isCompositeIndex( index ) )
+                {
+                    // The composite indexes are built by initCompositeIndexes()
+                    continue;
+                }
+
                 String oid = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ).getOid();
                 allIndices.add( oid );
                 
@@ -535,6 +548,9 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
+            // Open the composite indexes, building the new ones
+            initCompositeIndexes();
+
             entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
 
             // Initialization of the context entry
@@ -666,13 +682,29 @@ public class JdbmPartition extends AbstractBTreePartition
      * @throws LdapException on failures to sync database files to disk
      */
     @Override
-    public synchronized void sync() throws LdapException
+    public void sync() throws LdapException
     {
         if ( !initialized )
         {
             return;
         }
-        
+
+        // Write the pending descendant counters first. This is done outside of the partition
+        // monitor, as it needs the OperationManager write lock
+        super.sync();
+
+        synchronized ( this )
+        {
+            commitAndSynchronizeLog();
+        }
+    }
+
+
+    /**
+     * Commits the record manager and flushes its journal on disk
+     */
+    private void commitAndSynchronizeLog() throws LdapException
+    {
         try
         {
             // Commit
@@ -966,6 +998,16 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    @Override
+    protected void invalidateCache()
+    {
+        if ( entryCache != null )
+        {
+            entryCache.invalidateAll();
+        }
+    }
+
+
     @Override
     public Entry lookupCache( String id )
     {
@@ -1004,4 +1046,37 @@ public class JdbmPartition extends AbstractBTreePartition
     {
         return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
     }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The composite indexes are stored in the partition RecordManager, like the other indexes.
+     */
+    @Override
+    protected Table<String, String> createCompositeIndexTable( String name ) throws LdapException
+    {
+        try
+        {
+            return new JdbmTable<>( schemaManager, name, JdbmIndex.DEFAULT_DUPLICATE_LIMIT, recMan,
+                CompositeKeyComparator.INSTANCE, CompositeKeyComparator.INSTANCE,
+                StringSerializer.INSTANCE, StringSerializer.INSTANCE );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The aborted JDBM transactions are rolled back by the RecordManager.
+     */
+    @Override
+    protected boolean isRollbackSupported()
+    {
+        return true;
+    }
 }
@@ -59,6 +59,8 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void commit() throws IOException
     {
+        runCommitActions();
+
         recordManager.commit();
         
         // And flush the journal
@@ -78,6 +80,8 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
         {
             baseRecordManager.getTransactionManager().synchronizeLog();
         }
+
+        runAfterCommitActions();
     }
 
 
@@ -88,6 +92,8 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public void abort() throws IOException
     {
         recordManager.rollback();
+
+        runAbortActions();
     }
 
 
@@ -21,10 +21,19 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +42,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.DeepTrimToLowerNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.OidNormalizer;
@@ -42,6 +52,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.LazyAttribute;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +298,170 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testDeserializeIsLazy() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+
+        LazyAttribute cn = ( LazyAttribute ) result.get( "cn" );
+        LazyAttribute password = ( LazyAttribute ) result.get( "userPassword" );
+        assertFalse( cn.isDecoded() );
+        assertFalse( password.isDecoded() );
+
+        assertTrue( cn.contains( "test" ) );
+        assertTrue( cn.isDecoded() );
+        assertFalse( password.isDecoded() );
+
+        // Removing an attribute does not decode it
+        result.removeAttributes( "userPassword" );
+        assertFalse( password.isDecoded() );
+    }
+
+
+    @Test
+    public void testCloneLazyEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        LazyAttribute sn = ( LazyAttribute ) result.get( "sn" );
+
+        // An unmodified attribute is cloned without being decoded
+        LazyAttribute clonedSn = sn.clone();
+        assertNotSame( sn, clonedSn );
+        assertFalse( sn.isDecoded() );
+        assertSame( sn.getSerialized(), clonedSn.getSerialized() );
+
+        // Modifying the clone does not modify the original
+        clonedSn.add( "Other" );
+        assertEquals( 2, clonedSn.size() );
+        assertEquals( 1, sn.size() );
+        assertTrue( clonedSn.getSerialized() == null );
+
+        Entry clonedEntry = result.clone();
+        clonedEntry.get( "cn" ).add( "other" );
+
+        assertEquals( entry, result );
+        assertEquals( 2, clonedEntry.get( "cn" ).size() );
+
+        // The modified entry must be serialized with its new values
+        Entry modified = ( Entry ) ses.deserialize( ses.serialize( clonedEntry ) );
+        assertEquals( clonedEntry, modified );
+    }
+
+
+    @Test
+    public void testIterationDoesNotModify() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "cn: other",
+            "sn: Test" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        LazyAttribute cn = ( LazyAttribute ) result.get( "cn" );
+        byte[] serialized = cn.getSerialized();
+
+        int nbValues = 0;
+
+        for ( Value value : cn )
+        {
+            assertNotNull( value );
+            nbValues++;
+        }
+
+        // Reading the values keeps the serialized form
+        assertEquals( 2, nbValues );
+        assertTrue( cn.isDecoded() );
+        assertSame( serialized, cn.getSerialized() );
+
+        // Removing a value through the iterator does not
+        Iterator<Value> iterator = cn.iterator();
+        iterator.next();
+        iterator.remove();
+
+        assertEquals( 1, cn.size() );
+        assertNull( cn.getSerialized() );
+    }
+
+
+    @Test
+    public void testClonesShareTheDecodedValues() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        LazyAttribute sn = ( LazyAttribute ) result.get( "sn" );
+        LazyAttribute clonedSn = sn.clone();
+
+        // The values are decoded once, and shared by the clones
+        assertEquals( "Test", sn.getString() );
+        assertTrue( sn.isDecoded() );
+        assertFalse( clonedSn.isDecoded() );
+        assertEquals( sn, clonedSn );
+        assertSame( sn.getSerialized(), clonedSn.getSerialized() );
+    }
+
+
+    @Test
+    public void testDeserializeLegacyFormat() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        // The format used before the attributes were prefixed by their length
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+        out.writeByte( 0 );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+        Entry result = ( Entry ) ses.deserialize( baos.toByteArray() );
+
+        assertEquals( entry, result );
+        assertFalse( result.get( "cn" ) instanceof LazyAttribute );
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto;
+
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A cache for the keys derived from a base key and a key usage (the DK function
+ * of RFC 3961). A KDC derives the same Ke, Ki and Kc keys from the same few
+ * principal keys over and over again, and each derivation costs a n-fold and a few
+ * block encryptions.
+ * <br>
+ * The cached derived keys are shared : callers must not modify the returned arrays.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class DerivedKeyCache
+{
+    /** The default maximum number of derived keys we keep */
+    private static final long DEFAULT_MAX_SIZE = 10_000L;
+
+    /** Derived keys not used for this amount of time are evicted */
+    private static final Duration DEFAULT_EXPIRY = Duration.ofHours( 1L );
+
+    /** The cache storage */
+    private static final Cache<DerivationKey, byte[]> CACHE = Caffeine.newBuilder()
+        .maximumSize( DEFAULT_MAX_SIZE )
+        .expireAfterAccess( DEFAULT_EXPIRY )
+        .build();
+
+
+    /**
+     * The cache key : the encryption type, the base key, the usage constant and the
+     * n and k parameters of the derivation function.
+     */
+    private static final class DerivationKey
+    {
+        private final EncryptionType encryptionType;
+        private final byte[] baseKey;
+        private final byte[] usage;
+        private final int n;
+        private final int k;
+        private final int hashCode;
+
+
+        private DerivationKey( EncryptionType encryptionType, byte[] baseKey, byte[] usage, int n, int k )
+        {
+            this.encryptionType = encryptionType;
+            this.baseKey = baseKey.clone();
+            this.usage = usage.clone();
+            this.n = n;
+            this.k = k;
+
+            int h = encryptionType.hashCode();
+            h = h * 31 + Arrays.hashCode( baseKey );
+            h = h * 31 + Arrays.hashCode( usage );
+            h = h * 31 + n;
+            h = h * 31 + k;
+            hashCode = h;
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof DerivationKey ) )
+            {
+                return false;
+            }
+
+            DerivationKey that = ( DerivationKey ) obj;
+
+            return ( encryptionType == that.encryptionType ) && ( n == that.n ) && ( k == that.k )
+                && Arrays.equals( baseKey, that.baseKey ) && Arrays.equals( usage, that.usage );
+        }
+    }
+
+
+    private DerivedKeyCache()
+    {
+    }
+
+
+    /**
+     * Gets a derived key from the cache, computing it if it's not present.
+     *
+     * @param encryptionType The encryption type the key is derived for
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @param n The n-fold size, in bits
+     * @param k The derived key size, in bits
+     * @param derivation The function used to compute the key when it's not cached
+     * @return The derived key
+     */
+    public static byte[] getDerivedKey( EncryptionType encryptionType, byte[] baseKey, byte[] usage, int n, int k,
+        Supplier<byte[]> derivation )
+    {
+        DerivationKey key = new DerivationKey( encryptionType, baseKey, usage, n, k );
+        byte[] derivedKey = CACHE.getIfPresent( key );
+
+        if ( derivedKey == null )
+        {
+            derivedKey = derivation.get();
+
+            // Don't cache failures
+            if ( derivedKey != null )
+            {
+                CACHE.put( key, derivedKey );
+            }
+        }
+
+        return derivedKey;
+    }
+
+
+    /**
+     * Removes all the derived keys from the cache
+     */
+    public static void clear()
+    {
+        CACHE.invalidateAll();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+
+/**
+ * A per-thread cache of JCE engines. Looking up a {@link Cipher}, a {@link Mac} or a
+ * {@link MessageDigest} through the providers is costly, and a single TGS exchange
+ * needs many of them. The engines are not thread safe, so we keep one instance per
+ * algorithm and per thread. Callers must (re)initialize the returned engine with
+ * their key before using it, and must not keep a reference to it after the operation
+ * is done.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class JceEngineCache
+{
+    /** The Cipher instances, per transformation */
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial( HashMap::new );
+
+    /** The Mac instances, per algorithm */
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial( HashMap::new );
+
+    /** The MessageDigest instances, per algorithm */
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial( HashMap::new );
+
+
+    private JceEngineCache()
+    {
+    }
+
+
+    /**
+     * Gets the {@link Cipher} for the given transformation associated with the current thread.
+     *
+     * @param transformation The cipher transformation, e.g. "AES/CTS/NoPadding"
+     * @return A Cipher instance, which has to be initialized before use
+     * @throws NoSuchAlgorithmException If the transformation is not supported
+     * @throws NoSuchPaddingException If the padding scheme is not supported
+     */
+    public static Cipher getCipher( String transformation ) throws NoSuchAlgorithmException, NoSuchPaddingException
+    {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get( transformation );
+
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( transformation );
+            ciphers.put( transformation, cipher );
+        }
+
+        return cipher;
+    }
+
+
+    /**
+     * Gets the {@link Mac} for the given algorithm associated with the current thread.
+     *
+     * @param algorithm The MAC algorithm, e.g. "HmacSHA1"
+     * @return A Mac instance, which has to be initialized before use
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static Mac getMac( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get( algorithm );
+
+        if ( mac == null )
+        {
+            mac = Mac.getInstance( algorithm );
+            macs.put( algorithm, mac );
+        }
+        else
+        {
+            // Make sure no partial data from a previous, failed, operation is left
+            mac.reset();
+        }
+
+        return mac;
+    }
+
+
+    /**
+     * Gets the {@link MessageDigest} for the given algorithm associated with the current thread.
+     *
+     * @param algorithm The digest algorithm, e.g. "MD5"
+     * @return A MessageDigest instance, ready to be used
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static MessageDigest getMessageDigest( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get( algorithm );
+
+        if ( digest == null )
+        {
+            digest = MessageDigest.getInstance( algorithm );
+            digests.put( algorithm, digest );
+        }
+        else
+        {
+            digest.reset();
+        }
+
+        return digest;
+    }
+
+
+    /**
+     * Removes all the engines associated with the current thread.
+     */
+    public static void clear()
+    {
+        CIPHERS.remove();
+        MACS.remove();
+        DIGESTS.remove();
+    }
+}
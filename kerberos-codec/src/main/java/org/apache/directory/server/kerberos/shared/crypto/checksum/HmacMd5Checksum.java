@@ -26,6 +26,7 @@ import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.directory.server.kerberos.shared.crypto.JceEngineCache;
 import org.apache.directory.server.kerberos.shared.crypto.encryption.KeyUsage;
 import org.apache.directory.shared.kerberos.crypto.checksum.ChecksumType;
 
@@ -47,7 +48,7 @@ class HmacMd5Checksum implements ChecksumEngine
         {
             SecretKey sk = new SecretKeySpec( key, "ARCFOUR" );
 
-            Mac mac = Mac.getInstance( "HmacMD5" );
+            Mac mac = JceEngineCache.getMac( "HmacMD5" );
             mac.init( sk );
 
             return mac.doFinal( data );
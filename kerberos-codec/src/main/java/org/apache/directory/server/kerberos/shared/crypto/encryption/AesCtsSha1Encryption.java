@@ -30,6 +30,8 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.directory.server.kerberos.shared.crypto.DerivedKeyCache;
+import org.apache.directory.server.kerberos.shared.crypto.JceEngineCache;
 import org.apache.directory.server.kerberos.shared.crypto.checksum.ChecksumEngine;
 import org.apache.directory.shared.kerberos.components.EncryptedData;
 import org.apache.directory.shared.kerberos.components.EncryptionKey;
@@ -145,7 +147,8 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
     {
-        return deriveRandom( baseKey, usage, n, k );
+        return DerivedKeyCache.getDerivedKey( getEncryptionType(), baseKey, usage, n, k,
+            () -> deriveRandom( baseKey, usage, n, k ) );
     }
 
 
@@ -155,7 +158,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
         {
             SecretKey sk = new SecretKeySpec( key, "AES" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = JceEngineCache.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -172,7 +175,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "AES/CTS/NoPadding" );
+            Cipher cipher = JceEngineCache.getCipher( "AES/CTS/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "AES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
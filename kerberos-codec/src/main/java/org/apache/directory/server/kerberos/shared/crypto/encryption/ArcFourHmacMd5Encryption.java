@@ -21,13 +21,13 @@ package org.apache.directory.server.kerberos.shared.crypto.encryption;
 
 
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.directory.server.kerberos.shared.crypto.JceEngineCache;
 import org.apache.directory.shared.kerberos.exceptions.KerberosException;
 import org.apache.directory.shared.kerberos.components.EncryptedData;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
@@ -85,10 +85,13 @@ class ArcFourHmacMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Mac digester = Mac.getInstance( "HmacMD5" );
+            // The Mac is shared by the thread, it has to be initialized with the key each time
+            Mac digester = JceEngineCache.getMac( "HmacMD5" );
+            digester.init( new SecretKeySpec( key, "HmacMD5" ) );
+
             return digester.doFinal( data );
         }
-        catch ( NoSuchAlgorithmException nsae )
+        catch ( GeneralSecurityException gse )
         {
             return null;
         }
@@ -99,7 +102,7 @@ class ArcFourHmacMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "ARCFOUR" );
+            Cipher cipher = JceEngineCache.getCipher( "ARCFOUR" );
             SecretKey key = new SecretKeySpec( keyBytes, "ARCFOUR" );
 
             if ( isEncrypt )
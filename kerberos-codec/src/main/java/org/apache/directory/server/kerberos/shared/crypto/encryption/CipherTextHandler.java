@@ -49,19 +49,22 @@ public class CipherTextHandler
     /** The loggers for this class */
     private static final Logger LOG_KRB = LoggerFactory.getLogger( Loggers.KERBEROS_LOG.getName() );
 
-    /** a map of the default encryption types to the encryption engine class names */
-    private static final Map<EncryptionType, Class<? extends EncryptionEngine>> DEFAULT_CIPHERS;
+    /** 
+     * a map of the default encryption types to the encryption engines. The engines are 
+     * stateless, so we can share one instance per encryption type.
+     */
+    private static final Map<EncryptionType, EncryptionEngine> DEFAULT_CIPHERS;
 
     // Initialize the list of encyption mechanisms
     static
     {
-        EnumMap<EncryptionType, Class<? extends EncryptionEngine>> map = new EnumMap<>( EncryptionType.class );
+        EnumMap<EncryptionType, EncryptionEngine> map = new EnumMap<>( EncryptionType.class );
 
-        map.put( EncryptionType.DES_CBC_MD5, DesCbcMd5Encryption.class );
-        map.put( EncryptionType.DES3_CBC_SHA1_KD, Des3CbcSha1KdEncryption.class );
-        map.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, Aes128CtsSha1Encryption.class );
-        map.put( EncryptionType.AES256_CTS_HMAC_SHA1_96, Aes256CtsSha1Encryption.class );
-        map.put( EncryptionType.RC4_HMAC, ArcFourHmacMd5Encryption.class );
+        map.put( EncryptionType.DES_CBC_MD5, new DesCbcMd5Encryption() );
+        map.put( EncryptionType.DES3_CBC_SHA1_KD, new Des3CbcSha1KdEncryption() );
+        map.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, new Aes128CtsSha1Encryption() );
+        map.put( EncryptionType.AES256_CTS_HMAC_SHA1_96, new Aes256CtsSha1Encryption() );
+        map.put( EncryptionType.RC4_HMAC, new ArcFourHmacMd5Encryption() );
 
         DEFAULT_CIPHERS = Collections.unmodifiableMap( map );
     }
@@ -126,24 +129,13 @@ public class CipherTextHandler
     {
         EncryptionType encryptionType = key.getKeyType();
 
-        Class<?> clazz = DEFAULT_CIPHERS.get( encryptionType );
+        EncryptionEngine engine = DEFAULT_CIPHERS.get( encryptionType );
 
-        if ( clazz == null )
+        if ( engine == null )
         {
             throw new KerberosException( ErrorType.KDC_ERR_ETYPE_NOSUPP );
         }
 
-        try
-        {
-            return ( EncryptionEngine ) clazz.newInstance();
-        }
-        catch ( IllegalAccessException iae )
-        {
-            throw new KerberosException( ErrorType.KDC_ERR_ETYPE_NOSUPP, iae );
-        }
-        catch ( InstantiationException ie )
-        {
-            throw new KerberosException( ErrorType.KDC_ERR_ETYPE_NOSUPP, ie );
-        }
+        return engine;
     }
 }
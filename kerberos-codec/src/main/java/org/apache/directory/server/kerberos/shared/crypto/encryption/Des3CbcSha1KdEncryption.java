@@ -31,6 +31,8 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.kerberos.shared.crypto.DerivedKeyCache;
+import org.apache.directory.server.kerberos.shared.crypto.JceEngineCache;
 import org.apache.directory.server.kerberos.shared.crypto.checksum.ChecksumEngine;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.apache.directory.shared.kerberos.components.EncryptedData;
@@ -164,10 +166,8 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
      */
     protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
     {
-        byte[] result = deriveRandom( baseKey, usage, n, k );
-        result = randomToKey( result );
-
-        return result;
+        return DerivedKeyCache.getDerivedKey( getEncryptionType(), baseKey, usage, n, k,
+            () -> randomToKey( deriveRandom( baseKey, usage, n, k ) ) );
     }
 
 
@@ -267,7 +267,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DESede/CBC/NoPadding" );
+            Cipher cipher = JceEngineCache.getCipher( "DESede/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DESede" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
@@ -297,7 +297,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
         {
             SecretKey sk = new SecretKeySpec( key, "DESede" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = JceEngineCache.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test case for the RC4-HMAC encryption type integrity.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class ArcFourHmacMd5EncryptionTest
+{
+    private static final byte[] DATA = Strings.getBytesUtf8( "Some data to protect" );
+
+
+    private static byte[] hmacMd5( byte[] data, byte[] key ) throws Exception
+    {
+        Mac mac = Mac.getInstance( "HmacMD5" );
+        mac.init( new SecretKeySpec( key, "HmacMD5" ) );
+
+        return mac.doFinal( data );
+    }
+
+
+    /**
+     * Tests that the integrity is computed with the given key, even though the Mac
+     * is reused by the thread.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCalculateIntegrity() throws Exception
+    {
+        ArcFourHmacMd5Encryption engine = new ArcFourHmacMd5Encryption();
+        byte[] key1 = Strings.getBytesUtf8( "0123456789abcdef" );
+        byte[] key2 = Strings.getBytesUtf8( "fedcba9876543210" );
+
+        byte[] integrity1 = engine.calculateIntegrity( DATA, key1, KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+
+        assertEquals( engine.getChecksumLength(), integrity1.length );
+        assertArrayEquals( hmacMd5( DATA, key1 ), integrity1 );
+        assertArrayEquals( hmacMd5( DATA, key2 ),
+            engine.calculateIntegrity( DATA, key2, KeyUsage.AS_REP_ENC_PART_WITH_CKEY ) );
+        assertArrayEquals( integrity1, engine.calculateIntegrity( DATA, key1, KeyUsage.AS_REP_ENC_PART_WITH_CKEY ) );
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.apache.directory.shared.kerberos.exceptions.KerberosException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * A JMH benchmark measuring the throughput of the ticket and reply encryption done by
+ * the KDC during an AS or a TGS exchange, per encryption type. It is not run by the
+ * unit tests, use the main method (or the JMH runner) to start it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class KerberosEncryptionBenchmark
+{
+    @Param({ "DES3_CBC_SHA1_KD", "AES128_CTS_HMAC_SHA1_96", "AES256_CTS_HMAC_SHA1_96", "RC4_HMAC" })
+    public String encryptionType;
+
+    /** The size of an encoded EncTicketPart, roughly */
+    @Param({ "512" })
+    public int ticketSize;
+
+    private CipherTextHandler handler;
+
+    private EncryptionKey serverKey;
+
+    private EncryptionKey sessionKey;
+
+    private byte[] ticketPart;
+
+    private byte[] replyPart;
+
+    private EncryptedData encryptedTicket;
+
+
+    @Setup
+    public void setup() throws KerberosException
+    {
+        EncryptionType type = EncryptionType.valueOf( encryptionType );
+
+        handler = new CipherTextHandler();
+        serverKey = RandomKeyFactory.getRandomKey( type );
+        sessionKey = RandomKeyFactory.getRandomKey( type );
+
+        ticketPart = new byte[ticketSize];
+        replyPart = new byte[ticketSize / 2];
+
+        for ( int i = 0; i < ticketSize; i++ )
+        {
+            ticketPart[i] = ( byte ) i;
+        }
+
+        encryptedTicket = handler.encrypt( serverKey, ticketPart, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+    }
+
+
+    /**
+     * What the KDC does for an AS exchange : encrypt the ticket with the server key
+     * and the reply with the client key.
+     * 
+     * @return The encrypted reply part
+     * @throws KerberosException If the encryption failed
+     */
+    @Benchmark
+    public EncryptedData asExchange() throws KerberosException
+    {
+        handler.encrypt( serverKey, ticketPart, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+
+        return handler.encrypt( sessionKey, replyPart, KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+    }
+
+
+    /**
+     * What the KDC does for a TGS exchange : decrypt the TGT, encrypt the new ticket
+     * and encrypt the reply with the TGS session key.
+     * 
+     * @return The encrypted reply part
+     * @throws KerberosException If the encryption or the decryption failed
+     */
+    @Benchmark
+    public EncryptedData tgsExchange() throws KerberosException
+    {
+        handler.decrypt( serverKey, encryptedTicket, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+        handler.encrypt( serverKey, ticketPart, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+
+        return handler.encrypt( sessionKey, replyPart, KeyUsage.TGS_REP_ENC_PART_TGS_SESS_KEY );
+    }
+
+
+    /**
+     * Runs the benchmark, storing the results in a JSON file.
+     *
+     * @param args The optional result file name
+     * @throws RunnerException If the benchmark failed
+     */
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include( KerberosEncryptionBenchmark.class.getSimpleName() )
+            .resultFormat( ResultFormatType.JSON )
+            .result( args.length > 0 ? args[0] : "target/kerberos-encryption-benchmark.json" )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
@@ -100,6 +100,12 @@ public class LdifPartition extends AbstractLdifPartition
     /** The directory into which the entries are stored */
     private File suffixDirectory;
 
+    /** The extension of the snapshot file, stored next to the suffix directory */
+    private static final String SNAPSHOT_FILE_EXTN = ".snapshot";
+
+    /** The snapshot of the LDIF entries, only used while the partition is initialized */
+    private LdifPartitionSnapshot snapshot;
+
     /** Flags used for the getFile() method */
     private static final boolean CREATE = Boolean.TRUE;
     private static final boolean DELETE = Boolean.FALSE;
@@ -175,7 +181,18 @@ public class LdifPartition extends AbstractLdifPartition
             // existing entries
             if ( suffixDirectory.exists() )
             {
-                loadEntries( partitionDir );
+                snapshot = new LdifPartitionSnapshot( new File( partitionDir, suffixDirName + SNAPSHOT_FILE_EXTN ),
+                    partitionDir, schemaManager );
+
+                try
+                {
+                    loadEntries( partitionDir );
+                    snapshot.save();
+                }
+                finally
+                {
+                    snapshot = null;
+                }
             }
             else
             {
@@ -569,36 +586,15 @@ public class LdifPartition extends AbstractLdifPartition
 
             for ( File entry : entries )
             {
-                LOG.debug( "parsing ldif file {}", entry.getName() );
-                List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
-                
-                try
-                {
-                    ldifReader.close();
-                }
-                catch ( IOException ioe )
+                Entry serverEntry = snapshot.get( entry );
+
+                if ( serverEntry == null )
                 {
-                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                    serverEntry = parseEntry( ldifReader, entry );
                 }
 
-                if ( ( ldifEntries != null ) && !ldifEntries.isEmpty() )
+                if ( serverEntry != null )
                 {
-                    // this ldif will have only one entry
-                    LdifEntry ldifEntry = ldifEntries.get( 0 );
-                    LOG.debug( "Adding entry {}", ldifEntry );
-
-                    Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
-                    }
-
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
-                    }
-
                     // call add on the wrapped partition not on the self
                     AddOperationContext addContext = new AddOperationContext( null, serverEntry );
                     PartitionTxn partitionTxn = beginWriteTransaction();
@@ -661,6 +657,50 @@ public class LdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Parses a LDIF file, which contains only one entry, and stores it into the snapshot.
+     */
+    private Entry parseEntry( LdifReader ldifReader, File entry ) throws LdapException
+    {
+        LOG.debug( "parsing ldif file {}", entry.getName() );
+        List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
+
+        try
+        {
+            ldifReader.close();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( ( ldifEntries == null ) || ldifEntries.isEmpty() )
+        {
+            return null;
+        }
+
+        // this ldif will have only one entry
+        LdifEntry ldifEntry = ldifEntries.get( 0 );
+        LOG.debug( "Adding entry {}", ldifEntry );
+
+        Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
+        }
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+        }
+
+        snapshot.put( entry, serverEntry );
+
+        return serverEntry;
+    }
+
+
     /**
      * Create the file name from the entry Dn.
      */
@@ -0,0 +1,379 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.ldif;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A snapshot of the entries read from the LDIF files of a {@link LdifPartition}. It allows
+ * the partition to avoid parsing and normalizing the LDIF files which have not been modified
+ * since the previous startup.
+ * <br>
+ * Each LDIF file is associated with its path, relative to the partition directory, its size
+ * and its modification time. The serialized entry is only used when the file still has the
+ * same size and modification time. As the modification time granularity may be coarse, the
+ * files modified just before the snapshot is written are not stored in it : they will be parsed
+ * on the next startup.
+ * <br>
+ * The snapshot file is structured as :
+ * <pre>
+ * [magic][version][nb records]
+ * ([path][size][modification time][entry length][serialized entry])*
+ * [CRC32]
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LdifPartitionSnapshot
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LdifPartitionSnapshot.class );
+
+    /** The magic number at the beginning of the snapshot : "ADLP" */
+    private static final int MAGIC = 0x41444C50;
+
+    /** The snapshot format version */
+    private static final int VERSION = 1;
+
+    /** The delay during which a modified file is considered as unstable */
+    private static final long RACY_DELAY = TimeUnit.SECONDS.toNanos( 2 );
+
+    /** The snapshot file */
+    private final File snapshotFile;
+
+    /** The directory the LDIF files path are relative to */
+    private final Path baseDirectory;
+
+    /** The SchemaManager used to deserialize the entries */
+    private final SchemaManager schemaManager;
+
+    /** The records read from the snapshot, by path */
+    private final Map<String, Record> previous = new HashMap<>();
+
+    /** The records of the LDIF files found during this startup, by path */
+    private final Map<String, Record> current = new HashMap<>();
+
+    /** The number of entries read from the snapshot */
+    private int hits;
+
+    /** The number of LDIF files parsed */
+    private int misses;
+
+    /** A record of the snapshot */
+    private static final class Record
+    {
+        /** The LDIF file size */
+        private final long size;
+
+        /** The LDIF file modification time, in nanoseconds */
+        private final long modified;
+
+        /** The serialized entry */
+        private final byte[] data;
+
+
+        private Record( long size, long modified, byte[] data )
+        {
+            this.size = size;
+            this.modified = modified;
+            this.data = data;
+        }
+    }
+
+
+    /**
+     * Creates a new LdifPartitionSnapshot instance, and reads the snapshot file if it exists.
+     * A corrupted or unreadable snapshot is ignored.
+     *
+     * @param snapshotFile The snapshot file
+     * @param baseDirectory The partition directory
+     * @param schemaManager The SchemaManager
+     */
+    LdifPartitionSnapshot( File snapshotFile, File baseDirectory, SchemaManager schemaManager )
+    {
+        this.snapshotFile = snapshotFile;
+        this.baseDirectory = baseDirectory.toPath();
+        this.schemaManager = schemaManager;
+
+        if ( snapshotFile.exists() )
+        {
+            try
+            {
+                read();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot read the LDIF partition snapshot {} : {}", snapshotFile, ioe.getMessage() );
+                previous.clear();
+            }
+        }
+    }
+
+
+    private void read() throws IOException
+    {
+        byte[] content = Files.readAllBytes( snapshotFile.toPath() );
+
+        if ( content.length < 12 + 8 )
+        {
+            throw new IOException( "Truncated snapshot" );
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length - 8 );
+
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( content ) ) )
+        {
+            if ( ( in.readInt() != MAGIC ) || ( in.readInt() != VERSION ) )
+            {
+                throw new IOException( "Unknown snapshot format" );
+            }
+
+            int nbRecords = in.readInt();
+
+            for ( int i = 0; i < nbRecords; i++ )
+            {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                in.readFully( data );
+
+                previous.put( path, new Record( size, modified, data ) );
+            }
+
+            if ( in.readLong() != crc.getValue() )
+            {
+                throw new IOException( "Invalid snapshot checksum" );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the entry stored for a LDIF file, if the file has not been modified.
+     *
+     * @param ldifFile The LDIF file
+     * @return The entry, or <code>null</code> if the file has to be parsed
+     */
+    Entry get( File ldifFile )
+    {
+        String path = getPath( ldifFile );
+        Record record = previous.remove( path );
+
+        if ( record != null )
+        {
+            try
+            {
+                if ( ( record.size == ldifFile.length() ) && ( record.modified == getModified( ldifFile ) ) )
+                {
+                    Entry entry = deserialize( record.data );
+                    current.put( path, record );
+                    hits++;
+
+                    return entry;
+                }
+            }
+            catch ( IOException | LdapException e )
+            {
+                LOG.debug( "Cannot use the snapshot for {} : {}", ldifFile, e.getMessage() );
+            }
+        }
+
+        misses++;
+
+        return null;
+    }
+
+
+    /**
+     * Stores the entry parsed from a LDIF file.
+     *
+     * @param ldifFile The LDIF file
+     * @param entry The parsed entry
+     */
+    void put( File ldifFile, Entry entry )
+    {
+        try
+        {
+            long modified = getModified( ldifFile );
+
+            // A file modified too recently may be modified again without its
+            // modification time being changed : don't store it.
+            if ( modified > TimeUnit.MILLISECONDS.toNanos( System.currentTimeMillis() ) - RACY_DELAY )
+            {
+                return;
+            }
+
+            current.put( getPath( ldifFile ), new Record( ldifFile.length(), modified, serialize( entry ) ) );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.debug( "Cannot snapshot {} : {}", ldifFile, ioe.getMessage() );
+        }
+    }
+
+
+    /**
+     * Writes the snapshot if at least one LDIF file has been parsed, or removed. The snapshot is
+     * first written in a temporary file, then renamed. A failure is only logged.
+     */
+    void save()
+    {
+        LOG.debug( "LDIF partition snapshot {} : {} entries read, {} files parsed", snapshotFile, hits, misses );
+
+        if ( ( misses == 0 ) && previous.isEmpty() )
+        {
+            return;
+        }
+
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( DataOutputStream out = new DataOutputStream( baos ) )
+            {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeInt( current.size() );
+
+                for ( Map.Entry<String, Record> entry : current.entrySet() )
+                {
+                    Record record = entry.getValue();
+
+                    out.writeUTF( entry.getKey() );
+                    out.writeLong( record.size );
+                    out.writeLong( record.modified );
+                    out.writeInt( record.data.length );
+                    out.write( record.data );
+                }
+            }
+
+            byte[] content = baos.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update( content );
+
+            try ( DataOutputStream out = new DataOutputStream( Files.newOutputStream( tmpFile.toPath() ) ) )
+            {
+                out.write( content );
+                out.writeLong( crc.getValue() );
+            }
+
+            Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot write the LDIF partition snapshot {} : {}", snapshotFile, ioe.getMessage() );
+            tmpFile.delete();
+        }
+
+        previous.clear();
+        current.clear();
+    }
+
+
+    private String getPath( File ldifFile )
+    {
+        return baseDirectory.relativize( ldifFile.toPath() ).toString();
+    }
+
+
+    private static long getModified( File ldifFile ) throws IOException
+    {
+        return Files.getLastModifiedTime( ldifFile.toPath() ).to( TimeUnit.NANOSECONDS );
+    }
+
+
+    /**
+     * Serializes an entry : its Dn, then each attribute prefixed by its AttributeType OID
+     */
+    private static byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeUTF( entry.getDn().getName() );
+            out.writeInt( entry.size() );
+
+            for ( Attribute attribute : entry )
+            {
+                out.writeUTF( attribute.getAttributeType().getOid() );
+                attribute.writeExternal( out );
+            }
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    private Entry deserialize( byte[] data ) throws IOException, LdapException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            Entry entry = new DefaultEntry( schemaManager, new Dn( schemaManager, in.readUTF() ) );
+            int nbAttributes = in.readInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( in.readUTF() );
+                Attribute attribute = new DefaultAttribute( attributeType );
+                attribute.readExternal( in );
+                entry.add( attribute );
+            }
+
+            return entry;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+}
@@ -357,7 +357,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
                     appendLdif( entry );
 
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+                    appendRecursive( partitionTxn, suffixId,
+                        getDescendantCounters().getNbChildren( suffixId, suffixEntry ) );
                 }
 
                 dirty = false;
@@ -398,7 +399,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             countChildren++;
 
             // And now, the children
-            int nbChildren = element.getKey().getNbChildren();
+            int nbChildren = getDescendantCounters().getNbChildren( childId, element.getKey() );
 
             if ( nbChildren > 0 )
             {
@@ -0,0 +1,207 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.partition.ldif;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for the LdifPartitionSnapshot
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdifPartitionSnapshotTest
+{
+    private static SchemaManager schemaManager;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File baseDir;
+    private File snapshotFile;
+    private File ldifFile;
+    private Entry entry;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = LdifPartitionSnapshotTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        baseDir = folder.getRoot();
+        snapshotFile = new File( baseDir, "ou=test,ou=system.snapshot" );
+        ldifFile = new File( baseDir, "ou=test,ou=system.ldif" );
+
+        entry = new DefaultEntry( schemaManager, "ou=test,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: test",
+            "description: A test entry" );
+
+        Files.write( ldifFile.toPath(), "dn: ou=test,ou=system\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        // The file must not be considered as recently modified
+        assertTrue( ldifFile.setLastModified( System.currentTimeMillis() - 60000L ) );
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        LdifPartitionSnapshot snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        assertNull( snapshot.get( ldifFile ) );
+        snapshot.put( ldifFile, entry );
+        snapshot.save();
+
+        assertTrue( snapshotFile.exists() );
+
+        snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        Entry read = snapshot.get( ldifFile );
+
+        assertEquals( entry, read );
+        assertTrue( read.isSchemaAware() );
+        assertEquals( "A test entry", read.get( "description" ).getString() );
+
+        // Nothing changed, the snapshot is not rewritten
+        long modified = snapshotFile.lastModified();
+        assertTrue( snapshotFile.setLastModified( modified - 10000L ) );
+        snapshot.save();
+        assertEquals( modified - 10000L, snapshotFile.lastModified() );
+    }
+
+
+    @Test
+    public void testModifiedFile() throws Exception
+    {
+        LdifPartitionSnapshot snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        snapshot.get( ldifFile );
+        snapshot.put( ldifFile, entry );
+        snapshot.save();
+
+        assertTrue( ldifFile.setLastModified( System.currentTimeMillis() - 30000L ) );
+
+        snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        assertNull( snapshot.get( ldifFile ) );
+    }
+
+
+    @Test
+    public void testRecentlyModifiedFileNotStored() throws Exception
+    {
+        assertTrue( ldifFile.setLastModified( System.currentTimeMillis() ) );
+
+        LdifPartitionSnapshot snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        snapshot.get( ldifFile );
+        snapshot.put( ldifFile, entry );
+        snapshot.save();
+
+        snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        assertNull( snapshot.get( ldifFile ) );
+    }
+
+
+    @Test
+    public void testCorruptedSnapshot() throws Exception
+    {
+        LdifPartitionSnapshot snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        snapshot.get( ldifFile );
+        snapshot.put( ldifFile, entry );
+        snapshot.save();
+
+        try ( RandomAccessFile file = new RandomAccessFile( snapshotFile, "rw" ) )
+        {
+            long position = file.length() / 2;
+            file.seek( position );
+            int b = file.read();
+            file.seek( position );
+            file.write( ~b );
+        }
+
+        snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        assertNull( snapshot.get( ldifFile ) );
+    }
+
+
+    @Test
+    public void testDeletedFile() throws Exception
+    {
+        LdifPartitionSnapshot snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        snapshot.get( ldifFile );
+        snapshot.put( ldifFile, entry );
+        snapshot.save();
+
+        assertTrue( ldifFile.delete() );
+        long modified = snapshotFile.lastModified();
+        assertTrue( snapshotFile.setLastModified( modified - 10000L ) );
+
+        // The file is not found anymore : the snapshot is rewritten without it
+        snapshot = new LdifPartitionSnapshot( snapshotFile, baseDir, schemaManager );
+        snapshot.save();
+
+        assertFalse( snapshotFile.lastModified() == modified - 10000L );
+    }
+}
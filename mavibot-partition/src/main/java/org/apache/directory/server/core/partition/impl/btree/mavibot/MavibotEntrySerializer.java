@@ -41,6 +41,7 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
 import org.apache.directory.mavibot.btree.serializer.BufferHandler;
+import org.apache.directory.server.core.api.entry.LazyAttribute;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +68,12 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
      */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The flag set in the header when the entry has a Dn */
+    private static final byte HAS_DN = 0x01;
+
+    /** The flag set in the header when the attributes are prefixed by their length */
+    private static final byte LAZY_ATTRIBUTES = 0x02;
+
     /** The schemaManager reference */
     private static SchemaManager schemaManager;
 
@@ -137,11 +144,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
             // Write the Rdn of the Dn
             if ( dn.isEmpty() )
             {
-                out.writeByte( 0 );
+                out.writeByte( LAZY_ATTRIBUTES );
             }
             else
             {
-                out.writeByte( 1 );
+                out.writeByte( LAZY_ATTRIBUTES | HAS_DN );
                 Rdn rdn = dn.getRdn();
                 rdn.writeExternal( out );
             }
@@ -163,8 +170,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
                 out.writeUTF( oid );
 
-                // Write the attribute
-                attribute.writeExternal( out );
+                // Write the attribute, prefixed by its length so that it can be
+                // decoded lazily
+                byte[] serialized = LazyAttribute.serialize( attribute );
+                out.writeInt( serialized.length );
+                out.write( serialized );
             }
 
             out.flush();
@@ -201,71 +211,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer.array(), buffer.position(), len ) );
 
-        try
-        {
-            Entry entry = new DefaultEntry( schemaManager );
-
-            // Read the Dn, if any
-            byte hasDn = in.readByte();
-
-            if ( hasDn == 1 )
-            {
-                Rdn rdn = new Rdn( schemaManager );
-                rdn.readExternal( in );
+        Entry entry = readEntry( in );
 
-                try
-                {
-                    entry.setDn( new Dn( schemaManager, rdn ) );
-                }
-                catch ( LdapInvalidDnException lide )
-                {
-                    IOException ioe = new IOException( lide.getMessage() );
-                    ioe.initCause( lide );
-                    throw ioe;
-                }
-            }
-            else
-            {
-                entry.setDn( Dn.EMPTY_DN );
-            }
-
-            // Read the number of attributes
-            int nbAttributes = in.readInt();
-
-            // Read the attributes
-            for ( int i = 0; i < nbAttributes; i++ )
-            {
-                // Read the attribute's OID
-                String oid = in.readUTF();
+        buffer.position( buffer.position() + len ); // previous position + length
 
-                try
-                {
-                    AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
-
-                    // Create the attribute we will read
-                    Attribute attribute = new DefaultAttribute( attributeType );
-
-                    // Read the attribute
-                    attribute.readExternal( in );
-
-                    entry.add( attribute );
-                }
-                catch ( LdapException ne )
-                {
-                    // We weren't able to find the OID. The attribute will not be added
-                    throw new ClassNotFoundException( ne.getMessage(), ne );
-                }
-            }
-
-            buffer.position( buffer.position() + len ); // previous position + length
-
-            return entry;
-        }
-        catch ( ClassNotFoundException cnfe )
-        {
-            LOG.error( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ) );
-            throw new IOException( cnfe.getLocalizedMessage() );
-        }
+        return entry;
     }
 
 
@@ -303,14 +253,26 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, len ) );
 
+        return readEntry( in );
+    }
+
+
+    /**
+     * Reads an entry. The attributes are read lazily if they have been written
+     * prefixed by their length.
+     */
+    private Entry readEntry( ObjectInputStream in ) throws IOException
+    {
         try
         {
             Entry entry = new DefaultEntry( schemaManager );
 
-            // Read the Dn, if any
-            byte hasDn = in.readByte();
+            // Read the header
+            byte header = in.readByte();
+            boolean lazy = ( header & LAZY_ATTRIBUTES ) != 0;
 
-            if ( hasDn == 1 )
+            // Read the Dn, if any
+            if ( ( header & HAS_DN ) != 0 )
             {
                 Rdn rdn = new Rdn( schemaManager );
                 rdn.readExternal( in );
@@ -343,12 +305,23 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
                 try
                 {
                     AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
-
-                    // Create the attribute we will read
-                    Attribute attribute = new DefaultAttribute( attributeType );
-
-                    // Read the attribute
-                    attribute.readExternal( in );
+                    Attribute attribute;
+
+                    if ( lazy )
+                    {
+                        // Keep the serialized attribute, it will be decoded when used
+                        byte[] serialized = new byte[in.readInt()];
+                        in.readFully( serialized );
+                        attribute = new LazyAttribute( attributeType, serialized );
+                    }
+                    else
+                    {
+                        // Create the attribute we will read
+                        attribute = new DefaultAttribute( attributeType );
+
+                        // Read the attribute
+                        attribute.readExternal( in );
+                    }
 
                     entry.add( attribute );
                 }
@@ -368,7 +341,6 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         }
     }
 
-
     /**
      * {@inheritDoc}
      */
@@ -184,6 +184,9 @@ public class MavibotPartition extends AbstractBTreePartition
                 throw new LdapOtherException( ioe.getMessage(), ioe );
             }
 
+            // The composite indexes are kept in memory, and built from the master table
+            initCompositeIndexes();
+
             // get all index db files first
             File[] allIndexDbFiles = partitionDir.listFiles( DB_FILTER );
 
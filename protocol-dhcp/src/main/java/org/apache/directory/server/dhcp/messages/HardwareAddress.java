@@ -192,7 +192,7 @@ public final class HardwareAddress
     }
 
     private static final Pattern PARSE_PATTERN = Pattern
-        .compile( "(\\d+)/(?:(\\p{XDigit}{1,2}):)*(\\p{XDigit}{1,2})?" );
+        .compile( "(\\d+)/(\\p{XDigit}{1,2}(?::\\p{XDigit}{1,2})*)?" );
 
 
     /**
@@ -217,15 +217,16 @@ public final class HardwareAddress
         }
 
         int type = Integer.parseInt( m.group( 1 ) );
-        int len = m.groupCount() - 1;
 
-        byte[] addr = new byte[len];
+        // A repeated group only captures its last occurrence, so the bytes are split here
+        String[] bytes = m.group( 2 ) == null ? new String[0] : m.group( 2 ).split( ":" );
+        byte[] addr = new byte[bytes.length];
 
         for ( int i = 0; i < addr.length; i++ )
         {
-            addr[i] = ( byte ) Integer.parseInt( m.group( i + 2 ), 16 );
+            addr[i] = ( byte ) Integer.parseInt( bytes[i], 16 );
         }
 
-        return new HardwareAddress( ( short ) type, ( short ) len, addr );
+        return new HardwareAddress( ( short ) type, ( short ) addr.length, addr );
     }
 }
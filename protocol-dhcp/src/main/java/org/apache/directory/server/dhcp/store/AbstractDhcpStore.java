@@ -113,6 +113,32 @@ public abstract class AbstractDhcpStore implements DhcpStore
                 o.merge( host.getOptions() );
             }
         }
+        else
+        {
+            // no designated host : try to get an address from the subnet's
+            // dynamic range, if the store supports it.
+            InetAddress dynamicAddress = allocateAddress( hardwareAddress, requestedAddress, subnet );
+
+            if ( null != dynamicAddress )
+            {
+                Map properties = getProperties( subnet );
+
+                lease = new Lease();
+                lease.setAcquired( System.currentTimeMillis() );
+
+                long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
+
+                lease.setExpires( System.currentTimeMillis() + leaseTime );
+
+                lease.setHardwareAddress( hardwareAddress );
+                lease.setState( Lease.STATE_NEW );
+                lease.setClientAddress( dynamicAddress );
+
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
+        }
 
         // update the lease state
         if ( null != lease && lease.getState() != Lease.STATE_ACTIVE )
@@ -265,6 +291,23 @@ public abstract class AbstractDhcpStore implements DhcpStore
     }
 
 
+    /**
+     * Allocate an address from the dynamic range of the given subnet for a client
+     * without a designated host. The default implementation does not support
+     * dynamic allocation and returns <code>null</code>.
+     * 
+     * @param hardwareAddress the client's hardware address
+     * @param requestedAddress the address requested by the client, may be <code>null</code>
+     * @param subnet the subnet to allocate the address from
+     * @return InetAddress the allocated address, or <code>null</code> if none is available
+     */
+    protected InetAddress allocateAddress( HardwareAddress hardwareAddress, InetAddress requestedAddress,
+        Subnet subnet )
+    {
+        return null;
+    }
+
+
     /**
      * Update the (possibly changed) lease in the store.
      * 
@@ -0,0 +1,220 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.BitSet;
+
+
+/**
+ * The dynamic address pool of an IPv4 {@link Subnet}. The allocated addresses are
+ * tracked in a bitset, one bit per address of the subnet's range, so that finding
+ * a free address does not require scanning the leases.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPool
+{
+    /** The first address of the range, as an unsigned int */
+    private final long first;
+
+    /** The number of addresses in the range */
+    private final int size;
+
+    /** The allocated addresses */
+    private final BitSet allocated;
+
+    /** Where to start looking for the next free address */
+    private int next;
+
+
+    /**
+     * Creates a new instance of AddressPool covering the range of the given subnet.
+     * If the subnet has no range, all the addresses of the subnet but the network
+     * and broadcast addresses are used.
+     * 
+     * @param subnet The IPv4 subnet
+     */
+    public AddressPool( Subnet subnet )
+    {
+        if ( !( subnet.getAddress() instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( "Only IPv4 subnets have an address pool : " + subnet.getAddress() );
+        }
+
+        long mask = toLong( subnet.getNetmask() );
+        long network = toLong( subnet.getAddress() ) & mask;
+        long broadcast = network | ( ~mask & 0xFFFFFFFFL );
+
+        long min = ( subnet.getRangeMin() != null ) ? toLong( subnet.getRangeMin() ) : network + 1;
+        long max = ( subnet.getRangeMax() != null ) ? toLong( subnet.getRangeMax() ) : broadcast - 1;
+
+        first = Math.max( min, network + 1 );
+        size = ( int ) Math.max( 0L, Math.min( max, broadcast - 1 ) - first + 1 );
+        allocated = new BitSet( size );
+    }
+
+
+    /**
+     * Allocates an address. The requested address is used if it's within the
+     * range and still free, otherwise the next free address is used.
+     * 
+     * @param requestedAddress The address requested by the client, may be null
+     * @return The allocated address, or null if the pool is exhausted
+     */
+    public synchronized InetAddress allocate( InetAddress requestedAddress )
+    {
+        if ( ( requestedAddress != null ) && reserve( requestedAddress ) )
+        {
+            return requestedAddress;
+        }
+
+        int pos = allocated.nextClearBit( next );
+
+        if ( pos >= size )
+        {
+            // Wrap around
+            pos = allocated.nextClearBit( 0 );
+
+            if ( pos >= size )
+            {
+                return null;
+            }
+        }
+
+        allocated.set( pos );
+        next = pos + 1;
+
+        return toAddress( first + pos );
+    }
+
+
+    /**
+     * Marks an address as allocated.
+     * 
+     * @param address The address to reserve
+     * @return true if the address is in the range and was free
+     */
+    public synchronized boolean reserve( InetAddress address )
+    {
+        int pos = position( address );
+
+        if ( ( pos < 0 ) || allocated.get( pos ) )
+        {
+            return false;
+        }
+
+        allocated.set( pos );
+
+        return true;
+    }
+
+
+    /**
+     * Gives an address back to the pool.
+     * 
+     * @param address The address to release
+     */
+    public synchronized void release( InetAddress address )
+    {
+        int pos = position( address );
+
+        if ( pos >= 0 )
+        {
+            allocated.clear( pos );
+        }
+    }
+
+
+    /**
+     * @param address The address to check
+     * @return true if the address is in this pool's range
+     */
+    public boolean contains( InetAddress address )
+    {
+        return position( address ) >= 0;
+    }
+
+
+    /**
+     * @return The number of free addresses in the pool
+     */
+    public synchronized int getFreeCount()
+    {
+        return size - allocated.cardinality();
+    }
+
+
+    private int position( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long offset = toLong( address ) - first;
+
+        if ( ( offset < 0 ) || ( offset >= size ) )
+        {
+            return -1;
+        }
+
+        return ( int ) offset;
+    }
+
+
+    private static long toLong( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+        long value = 0L;
+
+        for ( byte b : bytes )
+        {
+            value = ( value << 8 ) | ( b & 0xFF );
+        }
+
+        return value;
+    }
+
+
+    private static InetAddress toAddress( long value )
+    {
+        byte[] bytes = new byte[4];
+
+        for ( int i = 3; i >= 0; i-- )
+        {
+            bytes[i] = ( byte ) ( value & 0xFF );
+            value >>>= 8;
+        }
+
+        try
+        {
+            return InetAddress.getByAddress( bytes );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Can't happen, the address has the right length
+            throw new IllegalStateException( uhe );
+        }
+    }
+}
@@ -0,0 +1,849 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link DhcpStore} reading its configuration directly from the {@link DirectoryService},
+ * without going through the network.
+ * <ul>
+ * <li>Subnets are the <code>ipNetwork</code> entries (RFC 2307) found under the search base</li>
+ * <li>Designated hosts are the <code>ipHost</code>/<code>ieee802Device</code> entries found 
+ * under the search base</li>
+ * </ul>
+ * Both are loaded once in memory and kept up to date by listening to the directory
+ * changes, so a DHCP request never hits the directory for a lookup.
+ * <br>
+ * Clients without a designated host get an address from the subnet's range. The
+ * allocated addresses are tracked per subnet in an {@link AddressPool}. The leases are
+ * stored under the lease base Dn, and the expired ones are periodically removed.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryDhcpStore extends AbstractDhcpStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryDhcpStore.class );
+
+    /** The RFC 2307 schema elements we use */
+    private static final String IP_HOST_OC = "ipHost";
+    private static final String IEEE802_DEVICE_OC = "ieee802Device";
+    private static final String IP_NETWORK_OC = "ipNetwork";
+    private static final String DEVICE_OC = "device";
+    private static final String MAC_ADDRESS_AT = "macAddress";
+    private static final String IP_HOST_NUMBER_AT = "ipHostNumber";
+    private static final String IP_NETWORK_NUMBER_AT = "ipNetworkNumber";
+    private static final String IP_NETMASK_NUMBER_AT = "ipNetmaskNumber";
+
+    /** The filter used to select the hosts and subnets */
+    private static final String CONFIG_FILTER = "(|(objectClass=" + IP_HOST_OC + ")(objectClass=" + IP_NETWORK_OC
+        + "))";
+
+    /** The separator of the lease values stored in the description */
+    private static final String LEASE_SEPARATOR = ";";
+
+    /** The default interval between two expired leases sweeps, in seconds */
+    private static final long DEFAULT_SWEEP_INTERVAL = 60L;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The session used to read and write the entries */
+    private CoreSession session;
+
+    /** The base where the hosts and subnets are searched */
+    private final Dn searchBase;
+
+    /** The base under which the leases are stored */
+    private final Dn leaseBase;
+
+    /** The designated hosts, per hardware address */
+    private final Map<HardwareAddress, Host> hosts = new ConcurrentHashMap<>();
+
+    /** The hardware address of the hosts, per Dn, to be able to handle deletions */
+    private final Map<Dn, HardwareAddress> hostDns = new ConcurrentHashMap<>();
+
+    /** The subnets, per Dn */
+    private final Map<Dn, Subnet> subnets = new ConcurrentHashMap<>();
+
+    /** The dynamic address pools, per subnet */
+    private final Map<Subnet, AddressPool> pools = new ConcurrentHashMap<>();
+
+    /** The current leases */
+    private final Map<HardwareAddress, Lease> leases = new ConcurrentHashMap<>();
+
+    /** The listener keeping the hosts and subnets up to date */
+    private ConfigListener configListener;
+
+    /** The expired lease sweeper */
+    private ScheduledExecutorService sweeper;
+
+    /** The interval between two sweeps, in seconds */
+    private long sweepInterval = DEFAULT_SWEEP_INTERVAL;
+
+
+    /**
+     * Creates a new instance of DirectoryDhcpStore.
+     * 
+     * @param directoryService The DirectoryService
+     * @param searchBase The base under which the hosts and subnets are stored
+     * @param leaseBase The base under which the leases will be stored
+     */
+    public DirectoryDhcpStore( DirectoryService directoryService, Dn searchBase, Dn leaseBase )
+    {
+        this.directoryService = directoryService;
+        this.searchBase = searchBase;
+        this.leaseBase = leaseBase;
+    }
+
+
+    /**
+     * Loads the hosts, subnets and leases, registers the listener for the changes
+     * and starts the expired leases sweeper.
+     * 
+     * @throws DhcpException If the store can't be initialized
+     */
+    public void init() throws DhcpException
+    {
+        session = directoryService.getAdminSession();
+
+        try
+        {
+            loadConfig();
+            loadLeases();
+
+            configListener = new ConfigListener();
+            NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+            criteria.setBase( searchBase );
+            criteria.setScope( SearchScope.SUBTREE );
+            criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+            criteria.setFilter( CONFIG_FILTER );
+
+            directoryService.getEventService().addListener( configListener, criteria );
+        }
+        catch ( Exception e )
+        {
+            throw new DhcpException( "Can't initialize the DHCP store", e );
+        }
+
+        sweeper = Executors.newSingleThreadScheduledExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "DhcpLeaseSweeper" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+        sweeper.scheduleWithFixedDelay( this::sweepExpiredLeases, sweepInterval, sweepInterval, TimeUnit.SECONDS );
+    }
+
+
+    /**
+     * Stops the sweeper and unregisters the listener.
+     */
+    public void destroy()
+    {
+        if ( sweeper != null )
+        {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+
+        if ( configListener != null )
+        {
+            directoryService.getEventService().removeListener( configListener );
+            configListener = null;
+        }
+    }
+
+
+    /**
+     * @param sweepInterval The interval between two expired leases sweeps, in seconds
+     */
+    public void setSweepInterval( long sweepInterval )
+    {
+        this.sweepInterval = sweepInterval;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    {
+        Lease lease = leases.get( hardwareAddress );
+
+        if ( lease != null )
+        {
+            return lease;
+        }
+
+        return existingLease;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    {
+        return hosts.get( hardwareAddress );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Subnet findSubnet( InetAddress clientAddress )
+    {
+        for ( Subnet subnet : subnets.values() )
+        {
+            if ( subnet.contains( clientAddress ) )
+            {
+                return subnet;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected InetAddress allocateAddress( HardwareAddress hardwareAddress, InetAddress requestedAddress,
+        Subnet subnet )
+    {
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool == null )
+        {
+            return null;
+        }
+
+        InetAddress address = pool.allocate( requestedAddress );
+
+        if ( address == null )
+        {
+            LOG.warn( "No more free address in subnet {}", subnet.getAddress() );
+        }
+
+        return address;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void updateLease( Lease lease )
+    {
+        if ( lease.getState() == Lease.STATE_RELEASED )
+        {
+            removeLease( lease );
+
+            return;
+        }
+
+        leases.put( lease.getHardwareAddress(), lease );
+
+        try
+        {
+            Dn dn = getLeaseDn( lease.getHardwareAddress() );
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+            String leaseValue = encodeLease( lease );
+
+            if ( session.exists( dn ) )
+            {
+                Attribute description = new DefaultAttribute(
+                    schemaManager.lookupAttributeTypeRegistry( SchemaConstants.DESCRIPTION_AT ), leaseValue );
+                Attribute ipHostNumber = new DefaultAttribute(
+                    schemaManager.lookupAttributeTypeRegistry( IP_HOST_NUMBER_AT ),
+                    lease.getClientAddress().getHostAddress() );
+
+                session.modify( dn,
+                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, description ),
+                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ipHostNumber ) );
+            }
+            else
+            {
+                Entry entry = new DefaultEntry( schemaManager, dn,
+                    SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+                    SchemaConstants.OBJECT_CLASS_AT, DEVICE_OC,
+                    SchemaConstants.OBJECT_CLASS_AT, IP_HOST_OC,
+                    SchemaConstants.OBJECT_CLASS_AT, IEEE802_DEVICE_OC,
+                    SchemaConstants.CN_AT, lease.getHardwareAddress().getNativeRepresentation(),
+                    MAC_ADDRESS_AT, lease.getHardwareAddress().getNativeRepresentation(),
+                    IP_HOST_NUMBER_AT, lease.getClientAddress().getHostAddress(),
+                    SchemaConstants.DESCRIPTION_AT, leaseValue );
+
+                session.add( entry );
+            }
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Can't store the lease {}", lease, le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected OptionsField getOptions( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getOptions();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Map getProperties( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getProperties();
+    }
+
+
+    /**
+     * Removes the expired leases, giving their address back to the pool.
+     */
+    void sweepExpiredLeases()
+    {
+        long now = System.currentTimeMillis();
+
+        for ( Iterator<Lease> it = leases.values().iterator(); it.hasNext(); )
+        {
+            Lease lease = it.next();
+
+            if ( ( lease.getExpires() > 0 ) && ( lease.getExpires() < now ) )
+            {
+                LOG.debug( "Lease {} has expired", lease );
+                lease.setState( Lease.STATE_EXPIRED );
+                removeLease( lease );
+            }
+        }
+    }
+
+
+    private void removeLease( Lease lease )
+    {
+        leases.remove( lease.getHardwareAddress() );
+
+        Subnet subnet = findSubnet( lease.getClientAddress() );
+
+        if ( subnet != null )
+        {
+            AddressPool pool = pools.get( subnet );
+
+            if ( pool != null )
+            {
+                pool.release( lease.getClientAddress() );
+            }
+        }
+
+        try
+        {
+            Dn dn = getLeaseDn( lease.getHardwareAddress() );
+
+            if ( session.exists( dn ) )
+            {
+                session.delete( dn );
+            }
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Can't remove the lease {}", lease, le );
+        }
+    }
+
+
+    private Dn getLeaseDn( HardwareAddress hardwareAddress ) throws LdapException
+    {
+        return leaseBase.add( new Rdn( directoryService.getSchemaManager(), SchemaConstants.CN_AT,
+            hardwareAddress.getNativeRepresentation() ) );
+    }
+
+
+    /**
+     * The lease state and timestamps are stored in the description attribute, as
+     * <code>state;acquired;expires</code>
+     */
+    private static String encodeLease( Lease lease )
+    {
+        return lease.getState() + LEASE_SEPARATOR + lease.getAcquired() + LEASE_SEPARATOR + lease.getExpires();
+    }
+
+
+    /**
+     * Parses the <code>state;acquired;expires</code> value stored in a lease description.
+     * The description may have been modified by hand, so it's checked carefully.
+     *
+     * @param value The description value
+     * @return A lease with the state and timestamps set, or null if the value is invalid
+     */
+    static Lease parseLeaseValue( String value )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+
+        String[] values = value.split( LEASE_SEPARATOR, -1 );
+
+        if ( values.length != 3 )
+        {
+            return null;
+        }
+
+        try
+        {
+            int state = Integer.parseInt( values[0].trim() );
+            long acquired = Long.parseLong( values[1].trim() );
+            long expires = Long.parseLong( values[2].trim() );
+
+            if ( ( state < Lease.STATE_NEW ) || ( state > Lease.STATE_EXPIRED ) || ( acquired < 0 ) || ( expires < 0 ) )
+            {
+                return null;
+            }
+
+            Lease lease = new Lease();
+            lease.setState( state );
+            lease.setAcquired( acquired );
+            lease.setExpires( expires );
+
+            return lease;
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return null;
+        }
+    }
+
+
+    private void loadConfig() throws Exception
+    {
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+
+        try ( Cursor<Entry> cursor = session.search( searchBase, SearchScope.SUBTREE,
+            FilterParser.parse( schemaManager, CONFIG_FILTER ), AliasDerefMode.DEREF_ALWAYS,
+            SchemaConstants.ALL_USER_ATTRIBUTES ) )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                indexEntry( cursor.get() );
+            }
+        }
+
+        LOG.info( "Loaded {} subnets and {} designated hosts from {}", subnets.size(), hosts.size(), searchBase );
+    }
+
+
+    private void loadLeases() throws Exception
+    {
+        if ( !session.exists( leaseBase ) )
+        {
+            LOG.warn( "The lease base {} does not exist, leases won't be stored", leaseBase );
+
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Dn> expired = new ArrayList<>();
+
+        try ( Cursor<Entry> cursor = session.search( leaseBase, SearchScope.ONELEVEL,
+            FilterParser.parse( directoryService.getSchemaManager(), "(objectClass=" + IP_HOST_OC + ")" ),
+            AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.ALL_USER_ATTRIBUTES ) )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+                Lease lease = decodeLease( entry );
+
+                if ( lease == null )
+                {
+                    continue;
+                }
+
+                if ( ( lease.getExpires() > 0 ) && ( lease.getExpires() < now ) )
+                {
+                    // Its address is not reserved, so it can be given to another client :
+                    // the entry is removed now, not by the sweeper, which would free this address
+                    expired.add( entry.getDn() );
+
+                    continue;
+                }
+
+                leases.put( lease.getHardwareAddress(), lease );
+                reserve( lease.getClientAddress() );
+            }
+        }
+
+        for ( Dn dn : expired )
+        {
+            LOG.debug( "Removing the expired lease {}", dn );
+            session.delete( dn );
+        }
+
+        LOG.info( "Loaded {} leases from {}", leases.size(), leaseBase );
+    }
+
+
+    private Lease decodeLease( Entry entry ) throws LdapException
+    {
+        Attribute mac = entry.get( MAC_ADDRESS_AT );
+        Attribute ip = entry.get( IP_HOST_NUMBER_AT );
+        Attribute description = entry.get( SchemaConstants.DESCRIPTION_AT );
+
+        if ( ( mac == null ) || ( ip == null ) || ( description == null ) )
+        {
+            LOG.warn( "Ignoring invalid lease entry {}", entry.getDn() );
+
+            return null;
+        }
+
+        Lease lease = parseLeaseValue( description.getString() );
+
+        if ( lease == null )
+        {
+            LOG.warn( "Ignoring the lease entry {}, its description '{}' is not a valid lease", entry.getDn(),
+                description.getString() );
+
+            return null;
+        }
+
+        try
+        {
+            HardwareAddress hardwareAddress = parseHardwareAddress( mac.getString() );
+
+            if ( hardwareAddress == null )
+            {
+                LOG.warn( "Ignoring invalid lease entry {}", entry.getDn() );
+
+                return null;
+            }
+
+            lease.setHardwareAddress( hardwareAddress );
+            lease.setClientAddress( InetAddress.getByName( ip.getString() ) );
+
+            return lease;
+        }
+        catch ( UnknownHostException | IllegalArgumentException e )
+        {
+            LOG.warn( "Ignoring invalid lease entry {}", entry.getDn(), e );
+
+            return null;
+        }
+    }
+
+
+    private void reserve( InetAddress address )
+    {
+        for ( Map.Entry<Subnet, AddressPool> pool : pools.entrySet() )
+        {
+            if ( pool.getKey().contains( address ) )
+            {
+                pool.getValue().reserve( address );
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Parses a mac address, either in the native (a1:a2:...) or in the
+     * {@link HardwareAddress#toString()} (t/a1:a2:...) form.
+     */
+    private static HardwareAddress parseHardwareAddress( String mac )
+    {
+        if ( mac.indexOf( '/' ) < 0 )
+        {
+            // Ethernet
+            return HardwareAddress.valueOf( "1/" + mac );
+        }
+
+        return HardwareAddress.valueOf( mac );
+    }
+
+
+    /**
+     * Adds a host or a subnet to the in-memory configuration
+     */
+    private void indexEntry( Entry entry ) throws LdapException
+    {
+        Dn dn = entry.getDn();
+
+        if ( dn.isDescendantOf( leaseBase ) )
+        {
+            // Our own leases
+            return;
+        }
+
+        if ( entry.hasObjectClass( IP_NETWORK_OC ) )
+        {
+            indexSubnet( entry );
+        }
+        else if ( entry.hasObjectClass( IP_HOST_OC ) && entry.hasObjectClass( IEEE802_DEVICE_OC ) )
+        {
+            indexHost( entry );
+        }
+    }
+
+
+    private void indexHost( Entry entry ) throws LdapException
+    {
+        Attribute mac = entry.get( MAC_ADDRESS_AT );
+        Attribute ip = entry.get( IP_HOST_NUMBER_AT );
+
+        if ( ( mac == null ) || ( ip == null ) )
+        {
+            return;
+        }
+
+        try
+        {
+            HardwareAddress hardwareAddress = parseHardwareAddress( mac.getString() );
+            Attribute cn = entry.get( SchemaConstants.CN_AT );
+            Host host = new Host( cn != null ? cn.getString() : "unknown", InetAddress.getByName( ip.getString() ),
+                hardwareAddress );
+
+            hosts.put( hardwareAddress, host );
+            hostDns.put( entry.getDn(), hardwareAddress );
+
+            // The fixed address must not be handed out dynamically
+            reserve( host.getAddress() );
+        }
+        catch ( UnknownHostException | IllegalArgumentException e )
+        {
+            LOG.warn( "Ignoring invalid host entry {}", entry.getDn(), e );
+        }
+    }
+
+
+    private void indexSubnet( Entry entry ) throws LdapException
+    {
+        Attribute network = entry.get( IP_NETWORK_NUMBER_AT );
+        Attribute netmask = entry.get( IP_NETMASK_NUMBER_AT );
+
+        if ( ( network == null ) || ( netmask == null ) )
+        {
+            return;
+        }
+
+        try
+        {
+            Subnet subnet = new Subnet( InetAddress.getByName( network.getString() ),
+                InetAddress.getByName( netmask.getString() ), null, null );
+
+            subnets.put( entry.getDn(), subnet );
+
+            if ( subnet.getAddress() instanceof Inet4Address )
+            {
+                AddressPool pool = new AddressPool( subnet );
+                pools.put( subnet, pool );
+
+                // Mark the addresses already in use
+                for ( Lease lease : leases.values() )
+                {
+                    pool.reserve( lease.getClientAddress() );
+                }
+
+                for ( Host host : hosts.values() )
+                {
+                    pool.reserve( host.getAddress() );
+                }
+            }
+        }
+        catch ( UnknownHostException e )
+        {
+            LOG.warn( "Ignoring invalid subnet entry {}", entry.getDn(), e );
+        }
+    }
+
+
+    /**
+     * Removes a host or a subnet from the in-memory configuration
+     */
+    private void unindexEntry( Dn dn )
+    {
+        HardwareAddress hardwareAddress = hostDns.remove( dn );
+
+        if ( hardwareAddress != null )
+        {
+            Host host = hosts.remove( hardwareAddress );
+
+            if ( ( host != null ) && ( host.getAddress() != null ) && !leases.containsKey( hardwareAddress ) )
+            {
+                Subnet subnet = findSubnet( host.getAddress() );
+
+                if ( ( subnet != null ) && ( pools.get( subnet ) != null ) )
+                {
+                    pools.get( subnet ).release( host.getAddress() );
+                }
+            }
+        }
+
+        Subnet subnet = subnets.remove( dn );
+
+        if ( subnet != null )
+        {
+            pools.remove( subnet );
+        }
+    }
+
+
+    private void reindexEntry( Dn oldDn, Dn newDn )
+    {
+        unindexEntry( oldDn );
+
+        if ( newDn.isDescendantOf( leaseBase ) )
+        {
+            // Our own leases
+            return;
+        }
+
+        try
+        {
+            Entry entry = session.lookup( newDn, SchemaConstants.ALL_USER_ATTRIBUTES );
+
+            if ( entry != null )
+            {
+                indexEntry( entry );
+            }
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Can't read the entry {}", newDn, le );
+        }
+    }
+
+
+    /**
+     * Keeps the in-memory hosts and subnets in sync with the directory
+     */
+    private class ConfigListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            try
+            {
+                indexEntry( addContext.getEntry() );
+            }
+            catch ( LdapException le )
+            {
+                LOG.error( "Can't index the entry {}", addContext.getDn(), le );
+            }
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            unindexEntry( deleteContext.getDn() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            reindexEntry( modifyContext.getDn(), modifyContext.getDn() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            reindexEntry( renameContext.getDn(), renameContext.getNewDn() );
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            reindexEntry( moveContext.getDn(), moveContext.getNewDn() );
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            reindexEntry( moveAndRenameContext.getDn(), moveAndRenameContext.getNewDn() );
+        }
+    }
+}
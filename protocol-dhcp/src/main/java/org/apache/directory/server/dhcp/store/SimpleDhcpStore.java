@@ -23,11 +23,11 @@ package org.apache.directory.server.dhcp.store;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
@@ -54,7 +54,7 @@ import org.apache.directory.server.dhcp.service.Lease;
 public class SimpleDhcpStore extends AbstractDhcpStore
 {
     // a map of current leases
-    private Map leases = new HashMap();
+    private Map<HardwareAddress, Lease> leases = new ConcurrentHashMap<>();
 
     private List subnets = new ArrayList();
 
@@ -95,7 +95,7 @@ public class SimpleDhcpStore extends AbstractDhcpStore
     {
         if ( leases.containsKey( hardwareAddress ) )
         {
-            existingLease = ( Lease ) leases.get( hardwareAddress );
+            existingLease = leases.get( hardwareAddress );
         }
 
         return existingLease;
@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the {@link AddressPool} allocation.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+@SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+public class AddressPoolTest
+{
+    private static Subnet subnet( String min, String max ) throws Exception
+    {
+        return new Subnet( InetAddress.getByName( "192.168.1.0" ), InetAddress.getByName( "255.255.255.0" ),
+            min == null ? null : InetAddress.getByName( min ), max == null ? null : InetAddress.getByName( max ) );
+    }
+
+
+    @Test
+    public void testWholeSubnet() throws Exception
+    {
+        AddressPool pool = new AddressPool( subnet( null, null ) );
+
+        // Network and broadcast addresses are excluded
+        assertEquals( 254, pool.getFreeCount() );
+        assertFalse( pool.contains( InetAddress.getByName( "192.168.1.0" ) ) );
+        assertFalse( pool.contains( InetAddress.getByName( "192.168.1.255" ) ) );
+        assertEquals( InetAddress.getByName( "192.168.1.1" ), pool.allocate( null ) );
+    }
+
+
+    @Test
+    public void testRangeExhaustion() throws Exception
+    {
+        AddressPool pool = new AddressPool( subnet( "192.168.1.10", "192.168.1.12" ) );
+
+        assertEquals( InetAddress.getByName( "192.168.1.10" ), pool.allocate( null ) );
+        assertEquals( InetAddress.getByName( "192.168.1.11" ), pool.allocate( null ) );
+        assertEquals( InetAddress.getByName( "192.168.1.12" ), pool.allocate( null ) );
+        assertNull( pool.allocate( null ) );
+
+        pool.release( InetAddress.getByName( "192.168.1.11" ) );
+        assertEquals( InetAddress.getByName( "192.168.1.11" ), pool.allocate( null ) );
+    }
+
+
+    @Test
+    public void testRequestedAddress() throws Exception
+    {
+        AddressPool pool = new AddressPool( subnet( "192.168.1.10", "192.168.1.20" ) );
+        InetAddress requested = InetAddress.getByName( "192.168.1.15" );
+
+        assertEquals( requested, pool.allocate( requested ) );
+
+        // Already allocated : we get another one
+        InetAddress other = pool.allocate( requested );
+        assertFalse( requested.equals( other ) );
+
+        // Out of range : ignored
+        assertTrue( pool.contains( pool.allocate( InetAddress.getByName( "192.168.1.100" ) ) ) );
+        assertFalse( pool.reserve( InetAddress.getByName( "192.168.1.100" ) ) );
+    }
+}
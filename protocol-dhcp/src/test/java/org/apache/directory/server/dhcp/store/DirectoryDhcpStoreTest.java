@@ -0,0 +1,472 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.LoadSchema;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the {@link DirectoryDhcpStore} : the leases storage and reload, the expired
+ * leases sweeper, and the updates done by the listener when the hosts and subnets
+ * are modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "DirectoryDhcpStoreDS",
+    loadedSchemas =
+        { @LoadSchema(name = "nis", enabled = true) })
+@ApplyLdifs(
+    {
+        "dn: ou=dhcp,ou=system",
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: dhcp",
+        "",
+        "dn: cn=lan,ou=dhcp,ou=system",
+        "objectClass: top",
+        "objectClass: ipNetwork",
+        "cn: lan",
+        "ipNetworkNumber: 192.168.1.0",
+        "ipNetmaskNumber: 255.255.255.0",
+        "",
+        "dn: cn=printer,ou=dhcp,ou=system",
+        "objectClass: top",
+        "objectClass: device",
+        "objectClass: ipHost",
+        "objectClass: ieee802Device",
+        "cn: printer",
+        "ipHostNumber: 192.168.1.5",
+        "macAddress: 00:11:22:33:44:55",
+        "",
+        "dn: ou=leases,ou=system",
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: leases"
+})
+@SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+public class DirectoryDhcpStoreTest extends AbstractLdapTestUnit
+{
+    /** The time we wait for the listener, which is asynchronous */
+    private static final long TIMEOUT = 10000L;
+
+    private static final HardwareAddress PRINTER = HardwareAddress.valueOf( "1/00:11:22:33:44:55" );
+
+    private static final HardwareAddress CLIENT1 = HardwareAddress.valueOf( "1/00:00:00:00:00:01" );
+
+    private static final HardwareAddress CLIENT2 = HardwareAddress.valueOf( "1/00:00:00:00:00:02" );
+
+    private DirectoryDhcpStore store;
+
+    private CoreSession session;
+
+    private InetAddress lan;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        session = getService().getAdminSession();
+        lan = InetAddress.getByName( "192.168.1.0" );
+        store = createStore();
+    }
+
+
+    @After
+    public void destroy()
+    {
+        store.destroy();
+    }
+
+
+    private DirectoryDhcpStore createStore() throws Exception
+    {
+        DirectoryDhcpStore dhcpStore = new DirectoryDhcpStore( getService(), new Dn( getService().getSchemaManager(),
+            "ou=dhcp,ou=system" ), new Dn( getService().getSchemaManager(), "ou=leases,ou=system" ) );
+        dhcpStore.init();
+
+        return dhcpStore;
+    }
+
+
+    private Dn getDn( String dn ) throws Exception
+    {
+        return new Dn( getService().getSchemaManager(), dn );
+    }
+
+
+    private Dn getLeaseDn( HardwareAddress hardwareAddress ) throws Exception
+    {
+        return getDn( "cn=" + hardwareAddress.getNativeRepresentation() + ",ou=leases,ou=system" );
+    }
+
+
+    /**
+     * Waits until the listener has added or removed the designated host
+     */
+    private Host waitForHost( HardwareAddress hardwareAddress, String address ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        Host host = store.findDesignatedHost( hardwareAddress );
+
+        while ( !hasAddress( host, address ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 20L );
+            host = store.findDesignatedHost( hardwareAddress );
+        }
+
+        return host;
+    }
+
+
+    private static boolean hasAddress( Host host, String address ) throws Exception
+    {
+        if ( address == null )
+        {
+            return host == null;
+        }
+
+        return ( host != null ) && host.getAddress().equals( InetAddress.getByName( address ) );
+    }
+
+
+    private void addHost( String cn, String mac, String address ) throws Exception
+    {
+        session.add( new DefaultEntry( getService().getSchemaManager(), "cn=" + cn + ",ou=dhcp,ou=system",
+            "objectClass: top",
+            "objectClass: device",
+            "objectClass: ipHost",
+            "objectClass: ieee802Device",
+            "cn", cn,
+            "ipHostNumber", address,
+            "macAddress", mac ) );
+    }
+
+
+    private void addLeaseEntry( HardwareAddress hardwareAddress, String address, String description )
+        throws Exception
+    {
+        session.add( new DefaultEntry( getService().getSchemaManager(), getLeaseDn( hardwareAddress ),
+            "objectClass: top",
+            "objectClass: device",
+            "objectClass: ipHost",
+            "objectClass: ieee802Device",
+            "cn", hardwareAddress.getNativeRepresentation(),
+            "macAddress", hardwareAddress.getNativeRepresentation(),
+            "ipHostNumber", address,
+            "description", description ) );
+    }
+
+
+    @Test
+    public void testHardwareAddressParsing()
+    {
+        assertEquals( 6, PRINTER.getLength() );
+        assertEquals( "00:11:22:33:44:55", PRINTER.getNativeRepresentation() );
+        assertEquals( "1/00:11:22:33:44:55", PRINTER.toString() );
+    }
+
+
+    @Test
+    public void testParseLeaseValue()
+    {
+        Lease lease = DirectoryDhcpStore.parseLeaseValue( "3;1000;2000" );
+
+        assertEquals( Lease.STATE_ACTIVE, lease.getState() );
+        assertEquals( 1000L, lease.getAcquired() );
+        assertEquals( 2000L, lease.getExpires() );
+
+        // Spaces are tolerated
+        assertEquals( 2000L, DirectoryDhcpStore.parseLeaseValue( " 3 ; 1000 ; 2000 " ).getExpires() );
+
+        // Missing, extra or empty values
+        assertNull( DirectoryDhcpStore.parseLeaseValue( null ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;1000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;1000;" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;1000;2000;4000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "a lease" ) );
+
+        // Invalid numbers
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "active;1000;2000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;1000;99999999999999999999" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "0;1000;2000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "6;1000;2000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;-1;2000" ) );
+        assertNull( DirectoryDhcpStore.parseLeaseValue( "3;1000;-2000" ) );
+    }
+
+
+    @Test
+    public void testDesignatedHost() throws Exception
+    {
+        Lease lease = store.getLeaseOffer( PRINTER, null, lan, -1L, null );
+
+        assertEquals( InetAddress.getByName( "192.168.1.5" ), lease.getClientAddress() );
+        assertEquals( Lease.STATE_OFFERED, lease.getState() );
+
+        // The lease is stored
+        Entry entry = session.lookup( getLeaseDn( PRINTER ) );
+
+        assertNotNull( entry );
+        assertTrue( entry.contains( "ipHostNumber", "192.168.1.5" ) );
+        assertTrue( entry.get( "description" ).getString().startsWith( Lease.STATE_OFFERED + ";" ) );
+    }
+
+
+    @Test
+    public void testDynamicLeasePersisted() throws Exception
+    {
+        Lease lease = store.getLeaseOffer( CLIENT1, null, lan, -1L, null );
+
+        assertEquals( InetAddress.getByName( "192.168.1.1" ), lease.getClientAddress() );
+
+        // The client requests the offered address
+        lease = store.getExistingLease( CLIENT1, lease.getClientAddress(), lan, -1L, null );
+
+        assertEquals( Lease.STATE_ACTIVE, lease.getState() );
+
+        Lease stored = DirectoryDhcpStore.parseLeaseValue( session.lookup( getLeaseDn( CLIENT1 ) )
+            .get( "description" ).getString() );
+
+        assertEquals( Lease.STATE_ACTIVE, stored.getState() );
+        assertEquals( lease.getAcquired(), stored.getAcquired() );
+        assertEquals( lease.getExpires(), stored.getExpires() );
+
+        // The designated host address is never handed out
+        for ( int i = 2; i < 10; i++ )
+        {
+            HardwareAddress client = HardwareAddress.valueOf( "1/00:00:00:00:01:0" + i );
+
+            assertFalse( InetAddress.getByName( "192.168.1.5" ).equals(
+                store.getLeaseOffer( client, null, lan, -1L, null ).getClientAddress() ) );
+        }
+    }
+
+
+    @Test
+    public void testLeasesReloaded() throws Exception
+    {
+        InetAddress address = store.getLeaseOffer( CLIENT1, null, lan, -1L, null ).getClientAddress();
+        store.destroy();
+
+        store = createStore();
+
+        // The lease is found, and its address is not given to another client
+        assertEquals( address, store.getLeaseOffer( CLIENT1, null, lan, -1L, null ).getClientAddress() );
+        assertFalse( address.equals( store.getLeaseOffer( CLIENT2, address, lan, -1L, null ).getClientAddress() ) );
+    }
+
+
+    @Test
+    public void testReleaseLease() throws Exception
+    {
+        Lease lease = store.getLeaseOffer( CLIENT1, null, lan, -1L, null );
+        InetAddress address = lease.getClientAddress();
+
+        store.releaseLease( lease );
+
+        assertFalse( session.exists( getLeaseDn( CLIENT1 ) ) );
+
+        // The address can be given to another client
+        assertEquals( address, store.getLeaseOffer( CLIENT2, address, lan, -1L, null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testSweepExpiredLeases() throws Exception
+    {
+        Lease lease = store.getLeaseOffer( CLIENT1, null, lan, -1L, null );
+        InetAddress address = lease.getClientAddress();
+
+        // Not expired yet
+        store.sweepExpiredLeases();
+
+        assertTrue( session.exists( getLeaseDn( CLIENT1 ) ) );
+
+        lease.setExpires( System.currentTimeMillis() - 1000L );
+        store.sweepExpiredLeases();
+
+        assertEquals( Lease.STATE_EXPIRED, lease.getState() );
+        assertFalse( session.exists( getLeaseDn( CLIENT1 ) ) );
+        assertNull( store.findExistingLease( CLIENT1, null ) );
+
+        // The address is back in the pool
+        assertEquals( address, store.getLeaseOffer( CLIENT2, address, lan, -1L, null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testExpiredLeaseRemovedOnReload() throws Exception
+    {
+        store.destroy();
+
+        addLeaseEntry( CLIENT1, "192.168.1.20", Lease.STATE_ACTIVE + ";1000;2000" );
+        store = createStore();
+
+        assertFalse( session.exists( getLeaseDn( CLIENT1 ) ) );
+        assertNull( store.findExistingLease( CLIENT1, null ) );
+
+        // The expired lease does not hold its address, and the sweeper does not free it again
+        assertEquals( InetAddress.getByName( "192.168.1.20" ),
+            store.getLeaseOffer( CLIENT2, InetAddress.getByName( "192.168.1.20" ), lan, -1L, null )
+                .getClientAddress() );
+
+        store.sweepExpiredLeases();
+
+        assertFalse( InetAddress.getByName( "192.168.1.20" ).equals( store.getLeaseOffer( CLIENT1,
+            InetAddress.getByName( "192.168.1.20" ), lan, -1L, null ).getClientAddress() ) );
+    }
+
+
+    @Test
+    public void testInvalidLeaseIgnored() throws Exception
+    {
+        store.destroy();
+
+        addLeaseEntry( CLIENT1, "192.168.1.20", "a lease" );
+        addLeaseEntry( CLIENT2, "192.168.1.21", Lease.STATE_ACTIVE + ";1000" );
+        store = createStore();
+
+        assertNull( store.findExistingLease( CLIENT1, null ) );
+        assertNull( store.findExistingLease( CLIENT2, null ) );
+
+        // The entries are left untouched, the addresses are free
+        store.sweepExpiredLeases();
+
+        assertTrue( session.exists( getLeaseDn( CLIENT1 ) ) );
+        assertEquals( InetAddress.getByName( "192.168.1.21" ),
+            store.getLeaseOffer( CLIENT2, InetAddress.getByName( "192.168.1.21" ), lan, -1L, null )
+                .getClientAddress() );
+    }
+
+
+    @Test
+    public void testHostAdded() throws Exception
+    {
+        HardwareAddress laptop = HardwareAddress.valueOf( "1/00:aa:bb:cc:dd:ee" );
+
+        assertNull( store.findDesignatedHost( laptop ) );
+
+        addHost( "laptop", "00:aa:bb:cc:dd:ee", "192.168.1.30" );
+
+        assertTrue( hasAddress( waitForHost( laptop, "192.168.1.30" ), "192.168.1.30" ) );
+
+        // The fixed address is not handed out dynamically
+        assertFalse( InetAddress.getByName( "192.168.1.30" ).equals( store.getLeaseOffer( CLIENT1,
+            InetAddress.getByName( "192.168.1.30" ), lan, -1L, null ).getClientAddress() ) );
+    }
+
+
+    @Test
+    public void testHostModified() throws Exception
+    {
+        session.modify( getDn( "cn=printer,ou=dhcp,ou=system" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "ipHostNumber", "192.168.1.6" ) );
+
+        assertTrue( hasAddress( waitForHost( PRINTER, "192.168.1.6" ), "192.168.1.6" ) );
+
+        // The old address is free
+        assertEquals( InetAddress.getByName( "192.168.1.5" ), store.getLeaseOffer( CLIENT1,
+            InetAddress.getByName( "192.168.1.5" ), lan, -1L, null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testHostRenamedThenDeleted() throws Exception
+    {
+        session.rename( getDn( "cn=printer,ou=dhcp,ou=system" ), new Rdn( getService().getSchemaManager(),
+            "cn=copier" ), true );
+
+        // Reindexed from the new entry
+        Thread.sleep( 200L );
+
+        assertTrue( hasAddress( store.findDesignatedHost( PRINTER ), "192.168.1.5" ) );
+
+        // The host is now attached to the new Dn
+        session.delete( getDn( "cn=copier,ou=dhcp,ou=system" ) );
+
+        assertNull( waitForHost( PRINTER, null ) );
+    }
+
+
+    @Test
+    public void testSubnetAddedAndDeleted() throws Exception
+    {
+        InetAddress dmz = InetAddress.getByName( "10.0.0.0" );
+
+        assertNull( store.getLeaseOffer( CLIENT1, null, dmz, -1L, null ) );
+
+        session.add( new DefaultEntry( getService().getSchemaManager(), "cn=dmz,ou=dhcp,ou=system",
+            "objectClass: top",
+            "objectClass: ipNetwork",
+            "cn: dmz",
+            "ipNetworkNumber: 10.0.0.0",
+            "ipNetmaskNumber: 255.255.255.0" ) );
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while ( ( store.findSubnet( dmz ) == null ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 20L );
+        }
+
+        assertEquals( InetAddress.getByName( "10.0.0.1" ), store.getLeaseOffer( CLIENT1, null, dmz, -1L, null )
+            .getClientAddress() );
+
+        session.delete( getDn( "cn=dmz,ou=dhcp,ou=system" ) );
+
+        deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while ( ( store.findSubnet( dmz ) != null ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 20L );
+        }
+
+        assertNull( store.findSubnet( dmz ) );
+    }
+}
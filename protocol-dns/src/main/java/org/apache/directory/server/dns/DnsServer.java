@@ -24,6 +24,7 @@ import java.io.IOException;
 
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
 import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.cache.ZoneCacheRecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -57,6 +58,12 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** Tells if the zones are served from an in-memory cache. Disabled by default */
+    private boolean zoneCacheEnabled = false;
+
+    /** The zone cache, when enabled and started */
+    private transient ZoneCacheRecordStore zoneCache;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -73,7 +80,18 @@ public class DnsServer extends DirectoryBackedService
      */
     public void start() throws IOException
     {
-        RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        RecordStore store;
+
+        if ( zoneCacheEnabled )
+        {
+            zoneCache = new ZoneCacheRecordStore( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+            zoneCache.init();
+            store = zoneCache;
+        }
+        else
+        {
+            store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        }
 
         if ( ( transports == null ) || transports.isEmpty() )
         {
@@ -141,10 +159,37 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( zoneCache != null )
+        {
+            zoneCache.destroy();
+            zoneCache = null;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
 
+    /**
+     * @return <code>true</code> if the zones are served from an in-memory cache
+     */
+    public boolean isZoneCacheEnabled()
+    {
+        return zoneCacheEnabled;
+    }
+
+
+    /**
+     * Tells the server to serve the zones from an in-memory cache, kept in sync
+     * with the directory, instead of searching the directory for each query.
+     *
+     * @param zoneCacheEnabled <code>true</code> to enable the zone cache
+     */
+    public void setZoneCacheEnabled( boolean zoneCacheEnabled )
+    {
+        this.zoneCacheEnabled = zoneCacheEnabled;
+    }
+
+
     /**
      * @see Object#toString()
      */
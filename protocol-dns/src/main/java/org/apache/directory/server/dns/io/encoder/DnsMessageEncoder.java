@@ -158,8 +158,39 @@ public class DnsMessageEncoder
     }
 
 
+    /**
+     * Encodes a single {@link ResourceRecord}. As we don't compress the domain names,
+     * the result can be reused as is in any message.
+     *
+     * @param record The record to encode
+     * @return The encoded record
+     * @throws IOException If the record type is not supported
+     */
+    public byte[] encode( ResourceRecord record ) throws IOException
+    {
+        IoBuffer byteBuffer = IoBuffer.allocate( 128 );
+        byteBuffer.setAutoExpand( true );
+
+        put( byteBuffer, record );
+        byteBuffer.flip();
+
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get( bytes );
+
+        return bytes;
+    }
+
+
     private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
+        if ( record instanceof EncodedResourceRecord )
+        {
+            // Already encoded, just copy the bytes
+            byteBuffer.put( ( ( EncodedResourceRecord ) record ).getEncoded() );
+
+            return;
+        }
+
         RecordType type = record.getRecordType();
 
         RecordEncoder encoder = DEFAULT_ENCODERS.get( type );
@@ -0,0 +1,135 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import java.io.IOException;
+
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+
+
+/**
+ * A {@link ResourceRecord} carrying its own wire encoding, computed once. The
+ * {@link DnsMessageEncoder} copies the encoded bytes instead of encoding the
+ * record again for each response.
+ * <br>
+ * Two instances are equal only if they are the same instance, so that distinct
+ * records of the same name, type and class can be stored in the same set.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedResourceRecord implements ResourceRecord
+{
+    /** The encoder used to pre-encode the records */
+    private static final DnsMessageEncoder ENCODER = new DnsMessageEncoder();
+
+    /** The wrapped record */
+    private final ResourceRecord record;
+
+    /** The record wire encoding */
+    private final byte[] encoded;
+
+
+    /**
+     * Creates a new instance of EncodedResourceRecord, encoding the given record.
+     *
+     * @param record The record to wrap
+     * @throws IOException If the record can't be encoded
+     */
+    public EncodedResourceRecord( ResourceRecord record ) throws IOException
+    {
+        this.record = record;
+        this.encoded = ENCODER.encode( record );
+    }
+
+
+    /**
+     * @return The wire encoding of this record. It must not be modified.
+     */
+    public byte[] getEncoded()
+    {
+        return encoded;
+    }
+
+
+    /**
+     * @return The wrapped record
+     */
+    public ResourceRecord getRecord()
+    {
+        return record;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDomainName()
+    {
+        return record.getDomainName();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecordType getRecordType()
+    {
+        return record.getRecordType();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecordClass getRecordClass()
+    {
+        return record.getRecordClass();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTimeToLive()
+    {
+        return record.getTimeToLive();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String get( String id )
+    {
+        return record.get( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return record.toString();
+    }
+}
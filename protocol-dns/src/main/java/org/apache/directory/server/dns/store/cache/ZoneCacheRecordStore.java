@@ -0,0 +1,539 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store.cache;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.io.encoder.EncodedResourceRecord;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.protocol.shared.ServiceConfigurationException;
+import org.apache.directory.server.protocol.shared.catalog.GetCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An authoritative, in-memory, {@link RecordStore}. All the resource records stored
+ * under the zone bases are loaded once, and the cache is then updated from the
+ * directory change notifications. Queries never hit the directory.
+ * <br>
+ * The resource record sets are immutable and replaced as a whole when a record is
+ * added or removed, so the readers never need to lock. The records are pre-encoded,
+ * so the encoder just copies their bytes in the response.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ZoneCacheRecordStore implements RecordStore
+{
+    /** the LOG for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ZoneCacheRecordStore.class );
+
+    /** The abstract record ObjectClass */
+    private static final String ABSTRACT_RECORD_OC = "apacheDnsAbstractRecord";
+
+    /** The filter used to get all the records */
+    private static final String RECORD_FILTER = "(objectClass=" + ABSTRACT_RECORD_OC + ")";
+
+    /** The default TTL, when neither the record nor the zone provides one */
+    private static final String DEFAULT_TTL = "86400";
+
+    /** The default record class */
+    private static final String DEFAULT_CLASS = "IN";
+
+    /** Mappings of objectClass to type. */
+    private static final Map<String, RecordType> OBJECTCLASS_TO_TYPE;
+
+    static
+    {
+        Map<String, RecordType> objectClassToType = new HashMap<>();
+        objectClassToType.put( "apachednsstartofauthorityrecord", RecordType.SOA );
+        objectClassToType.put( "apachednsaddressrecord", RecordType.A );
+        objectClassToType.put( "apachednsnameserverrecord", RecordType.NS );
+        objectClassToType.put( "apachednscanonicalnamerecord", RecordType.CNAME );
+        objectClassToType.put( "apachednspointerrecord", RecordType.PTR );
+        objectClassToType.put( "apachednsmailexchangerecord", RecordType.MX );
+        objectClassToType.put( "apachednsservicerecord", RecordType.SRV );
+        objectClassToType.put( "apachednstextrecord", RecordType.TXT );
+        objectClassToType.put( "apachednsreferralnameserver", RecordType.NS );
+        objectClassToType.put( "apachednsreferraladdress", RecordType.A );
+
+        OBJECTCLASS_TO_TYPE = Collections.unmodifiableMap( objectClassToType );
+    }
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The catalog base, if any */
+    private final String catalogBaseDn;
+
+    /** The search base, used when there is no catalog */
+    private final String searchBaseDn;
+
+    /** The session used to read the records */
+    private CoreSession session;
+
+    /** The zone bases */
+    private final List<Dn> zoneBases = new ArrayList<>();
+
+    /** The resource record sets, per domain name and type */
+    private final Map<String, Map<RecordType, Set<ResourceRecord>>> names = new ConcurrentHashMap<>();
+
+    /** The cached record, per entry Dn, so that we can remove them */
+    private final Map<Dn, ResourceRecord> records = new ConcurrentHashMap<>();
+
+    /** The listeners, one per zone base */
+    private final List<DirectoryListener> listeners = new ArrayList<>();
+
+
+    /**
+     * Creates a new instance of ZoneCacheRecordStore.
+     *
+     * @param catalogBaseDn base of catalog of searchDns
+     * @param searchBaseDn single search base for when there is no catalog
+     * @param directoryService DirectoryService backend for the records.
+     */
+    public ZoneCacheRecordStore( String catalogBaseDn, String searchBaseDn, DirectoryService directoryService )
+    {
+        this.catalogBaseDn = catalogBaseDn;
+        this.searchBaseDn = searchBaseDn;
+        this.directoryService = directoryService;
+    }
+
+
+    /**
+     * Loads all the zones, and registers a listener on each of them.
+     */
+    public void init()
+    {
+        session = directoryService.getAdminSession();
+
+        try
+        {
+            if ( catalogBaseDn != null )
+            {
+                @SuppressWarnings("unchecked")
+                Map<String, String> catalog = ( Map<String, String> ) new GetCatalog().execute( session, null );
+
+                for ( String baseDn : catalog.values() )
+                {
+                    zoneBases.add( new Dn( directoryService.getSchemaManager(), baseDn ) );
+                }
+            }
+
+            if ( zoneBases.isEmpty() && ( searchBaseDn != null ) )
+            {
+                zoneBases.add( new Dn( directoryService.getSchemaManager(), searchBaseDn ) );
+            }
+
+            for ( Dn zoneBase : zoneBases )
+            {
+                loadZone( zoneBase );
+
+                DirectoryListener listener = new ZoneListener( zoneBase );
+                NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+                criteria.setBase( zoneBase );
+                criteria.setScope( SearchScope.SUBTREE );
+                criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+                criteria.setFilter( RECORD_FILTER );
+
+                directoryService.getEventService().addListener( listener, criteria );
+                listeners.add( listener );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( e.getLocalizedMessage(), e );
+            throw new ServiceConfigurationException( I18n.err( I18n.ERR_649, zoneBases ), e );
+        }
+
+        LOG.info( "Loaded {} DNS records for {} names from {}", records.size(), names.size(), zoneBases );
+    }
+
+
+    /**
+     * Unregisters the listeners and clears the cache.
+     */
+    public void destroy()
+    {
+        for ( DirectoryListener listener : listeners )
+        {
+            directoryService.getEventService().removeListener( listener );
+        }
+
+        listeners.clear();
+        names.clear();
+        records.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        if ( question == null )
+        {
+            return null;
+        }
+
+        Map<RecordType, Set<ResourceRecord>> rrSets = names.get( normalize( question.getDomainName() ) );
+
+        Set<ResourceRecord> rrSet = ( rrSets != null ) ? rrSets.get( question.getRecordType() ) : null;
+
+        if ( rrSet == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return rrSet;
+    }
+
+
+    private void loadZone( Dn zoneBase ) throws Exception
+    {
+        try ( Cursor<Entry> cursor = session.search( zoneBase, SearchScope.SUBTREE,
+            FilterParser.parse( directoryService.getSchemaManager(), RECORD_FILTER ), AliasDerefMode.DEREF_ALWAYS,
+            SchemaConstants.ALL_USER_ATTRIBUTES ) )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                addRecord( zoneBase, cursor.get() );
+            }
+        }
+    }
+
+
+    /**
+     * Adds the record stored in an entry. The record set it belongs to is copied
+     * and replaced.
+     */
+    private void addRecord( Dn zoneBase, Entry entry )
+    {
+        ResourceRecord record;
+
+        try
+        {
+            record = new EncodedResourceRecord( toRecord( zoneBase, entry ) );
+        }
+        catch ( IOException | LdapException | RuntimeException e )
+        {
+            LOG.warn( "Ignoring the invalid DNS record {}", entry.getDn(), e );
+
+            return;
+        }
+
+        records.put( entry.getDn(), record );
+
+        names.compute( normalize( record.getDomainName() ), ( name, rrSets ) ->
+        {
+            Map<RecordType, Set<ResourceRecord>> newRrSets = new EnumMap<>( RecordType.class );
+
+            if ( rrSets != null )
+            {
+                newRrSets.putAll( rrSets );
+            }
+
+            Set<ResourceRecord> rrSet = new LinkedHashSet<>();
+            Set<ResourceRecord> oldRrSet = newRrSets.get( record.getRecordType() );
+
+            if ( oldRrSet != null )
+            {
+                rrSet.addAll( oldRrSet );
+            }
+
+            rrSet.add( record );
+            newRrSets.put( record.getRecordType(), Collections.unmodifiableSet( rrSet ) );
+
+            return Collections.unmodifiableMap( newRrSets );
+        } );
+    }
+
+
+    /**
+     * Removes the record stored in the entry with the given Dn, if any.
+     */
+    private void removeRecord( Dn dn )
+    {
+        ResourceRecord record = records.remove( dn );
+
+        if ( record == null )
+        {
+            return;
+        }
+
+        names.computeIfPresent( normalize( record.getDomainName() ), ( name, rrSets ) ->
+        {
+            Map<RecordType, Set<ResourceRecord>> newRrSets = new EnumMap<>( RecordType.class );
+            newRrSets.putAll( rrSets );
+
+            Set<ResourceRecord> rrSet = new LinkedHashSet<>( rrSets.get( record.getRecordType() ) );
+            rrSet.remove( record );
+
+            if ( rrSet.isEmpty() )
+            {
+                newRrSets.remove( record.getRecordType() );
+            }
+            else
+            {
+                newRrSets.put( record.getRecordType(), Collections.unmodifiableSet( rrSet ) );
+            }
+
+            // Returning null removes the name
+            return newRrSets.isEmpty() ? null : Collections.unmodifiableMap( newRrSets );
+        } );
+    }
+
+
+    private void reloadRecord( Dn zoneBase, Dn oldDn, Dn newDn )
+    {
+        removeRecord( oldDn );
+
+        try
+        {
+            Entry entry = session.lookup( newDn, SchemaConstants.ALL_USER_ATTRIBUTES );
+
+            if ( ( entry != null ) && newDn.isDescendantOf( zoneBase ) )
+            {
+                addRecord( zoneBase, entry );
+            }
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Can't read the DNS record {}", newDn, le );
+        }
+    }
+
+
+    /**
+     * Converts an entry to a resource record. The domain name is either the one
+     * stored in the entry, or the one derived from the entry's domain components
+     * (RFC 2247) below the zone base.
+     */
+    private ResourceRecord toRecord( Dn zoneBase, Entry entry ) throws LdapException
+    {
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+
+        Attribute attr = entry.get( DnsAttribute.NAME );
+
+        if ( attr != null )
+        {
+            modifier.setDnsName( attr.getString() );
+        }
+        else
+        {
+            modifier.setDnsName( getDomainName( zoneBase, entry.getDn() ) );
+        }
+
+        attr = entry.get( DnsAttribute.TYPE );
+
+        if ( attr != null )
+        {
+            modifier.setDnsType( RecordType.valueOf( attr.getString() ) );
+        }
+        else
+        {
+            modifier.setDnsType( getType( entry.get( SchemaConstants.OBJECT_CLASS_AT ) ) );
+        }
+
+        attr = entry.get( DnsAttribute.CLASS );
+        modifier.setDnsClass( RecordClass.valueOf( attr != null ? attr.getString() : DEFAULT_CLASS ) );
+
+        attr = entry.get( DnsAttribute.TTL );
+        modifier.setDnsTtl( Integer.parseInt( attr != null ? attr.getString() : DEFAULT_TTL ) );
+
+        for ( Attribute attribute : entry )
+        {
+            String id = ( attribute.getAttributeType() != null ) ? attribute.getAttributeType().getName()
+                : attribute.getUpId();
+            Value value = attribute.get();
+
+            if ( ( value != null ) && value.isHumanReadable() )
+            {
+                modifier.put( id, value.getString() );
+            }
+        }
+
+        return modifier.getEntry();
+    }
+
+
+    private static String getDomainName( Dn zoneBase, Dn dn ) throws LdapException
+    {
+        Dn relative = dn.getDescendantOf( zoneBase );
+        StringBuilder sb = new StringBuilder();
+
+        for ( Rdn rdn : relative )
+        {
+            if ( SchemaConstants.DC_AT.equalsIgnoreCase( rdn.getType() )
+                || SchemaConstants.DOMAIN_COMPONENT_AT.equalsIgnoreCase( rdn.getType() ) )
+            {
+                if ( sb.length() > 0 )
+                {
+                    sb.append( '.' );
+                }
+
+                sb.append( rdn.getValue() );
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    private static RecordType getType( Attribute objectClass )
+    {
+        for ( Value value : objectClass )
+        {
+            String oc = Strings.toLowerCaseAscii( value.getString() );
+
+            if ( !oc.equals( "apachednsabstractrecord" ) )
+            {
+                RecordType type = OBJECTCLASS_TO_TYPE.get( oc );
+
+                if ( type != null )
+                {
+                    return type;
+                }
+            }
+        }
+
+        throw new IllegalArgumentException( I18n.err( I18n.ERR_647 ) );
+    }
+
+
+    private static String normalize( String domainName )
+    {
+        if ( domainName == null )
+        {
+            return "";
+        }
+
+        String name = Strings.toLowerCaseAscii( domainName );
+
+        if ( name.endsWith( "." ) )
+        {
+            name = name.substring( 0, name.length() - 1 );
+        }
+
+        return name;
+    }
+
+
+    /**
+     * Keeps the cache in sync with the records stored under a zone base
+     */
+    private class ZoneListener extends DirectoryListenerAdapter
+    {
+        private final Dn zoneBase;
+
+
+        private ZoneListener( Dn zoneBase )
+        {
+            this.zoneBase = zoneBase;
+        }
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            addRecord( zoneBase, addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            removeRecord( deleteContext.getDn() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            removeRecord( modifyContext.getDn() );
+            addRecord( zoneBase, modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            reloadRecord( zoneBase, renameContext.getDn(), renameContext.getNewDn() );
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            reloadRecord( zoneBase, moveContext.getDn(), moveContext.getNewDn() );
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            reloadRecord( zoneBase, moveAndRenameContext.getDn(), moveAndRenameContext.getNewDn() );
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests for the pre-encoded resource records.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedResourceRecordTest
+{
+    private static ResourceRecord createAddressRecord( String address )
+    {
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+        modifier.setDnsName( "www.apache.org" );
+        modifier.setDnsType( RecordType.A );
+        modifier.setDnsClass( RecordClass.IN );
+        modifier.setDnsTtl( 3600 );
+        modifier.put( DnsAttribute.IP_ADDRESS, address );
+
+        return modifier.getEntry();
+    }
+
+
+    private static byte[] encode( List<ResourceRecord> answers ) throws Exception
+    {
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( 42 );
+        modifier.setMessageType( MessageType.RESPONSE );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        modifier.setAuthoritativeAnswer( true );
+        modifier.setQuestionRecords( Collections.singletonList(
+            new QuestionRecord( "www.apache.org", RecordType.A, RecordClass.IN ) ) );
+        modifier.setAnswerRecords( answers );
+        modifier.setAuthorityRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAdditionalRecords( new ArrayList<ResourceRecord>() );
+        DnsMessage message = modifier.getDnsMessage();
+
+        IoBuffer out = IoBuffer.allocate( 512 );
+        new DnsMessageEncoder().encode( out, message );
+        out.flip();
+
+        byte[] bytes = new byte[out.remaining()];
+        out.get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testEncodedRecordMatchesRecord() throws Exception
+    {
+        ResourceRecord record = createAddressRecord( "10.0.0.1" );
+        EncodedResourceRecord encoded = new EncodedResourceRecord( record );
+
+        assertArrayEquals( new DnsMessageEncoder().encode( record ), encoded.getEncoded() );
+        assertEquals( record.getDomainName(), encoded.getDomainName() );
+        assertEquals( record.getRecordType(), encoded.getRecordType() );
+        assertEquals( record.get( DnsAttribute.IP_ADDRESS ), encoded.get( DnsAttribute.IP_ADDRESS ) );
+    }
+
+
+    @Test
+    public void testMessageWithEncodedRecords() throws Exception
+    {
+        List<ResourceRecord> records = new ArrayList<>();
+        records.add( createAddressRecord( "10.0.0.1" ) );
+        records.add( createAddressRecord( "10.0.0.2" ) );
+
+        List<ResourceRecord> encodedRecords = new ArrayList<>();
+
+        for ( ResourceRecord record : records )
+        {
+            encodedRecords.add( new EncodedResourceRecord( record ) );
+        }
+
+        assertArrayEquals( encode( records ), encode( encodedRecords ) );
+    }
+
+
+    @Test
+    public void testEncodedRecordsWithSameOwnerAreDistinct() throws Exception
+    {
+        // Records with the same owner, type and class but a different rdata must
+        // not collapse when stored in a set
+        EncodedResourceRecord first = new EncodedResourceRecord( createAddressRecord( "10.0.0.1" ) );
+        EncodedResourceRecord second = new EncodedResourceRecord( createAddressRecord( "10.0.0.2" ) );
+
+        assertNotEquals( first, second );
+    }
+}
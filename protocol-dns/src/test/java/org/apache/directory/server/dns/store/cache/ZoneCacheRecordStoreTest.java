@@ -0,0 +1,329 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.annotations.LoadSchema;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.dns.DnsServer;
+import org.apache.directory.server.dns.io.encoder.EncodedResourceRecord;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the in-memory zone cache : the initial load, and the updates done by the
+ * listeners when the records are added, modified, renamed or deleted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "ZoneCacheRecordStoreDS",
+    loadedSchemas =
+        { @LoadSchema(name = "apachedns", enabled = true) },
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "dc: example\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"))
+    })
+@ApplyLdifs(
+    {
+        "dn: cn=www,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: apacheDnsAbstractRecord",
+        "objectClass: apacheDnsAddressRecord",
+        "cn: www",
+        "apacheDnsName: www.example.com",
+        "apacheDnsTtl: 3600",
+        "apacheDnsIpAddress: 10.0.0.1",
+        "",
+        "dn: cn=mail,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: apacheDnsAbstractRecord",
+        "objectClass: apacheDnsAddressRecord",
+        "cn: mail",
+        "apacheDnsName: mail.example.com",
+        "apacheDnsIpAddress: 10.0.0.25",
+        "",
+        "dn: cn=bogus,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: apacheDnsAbstractRecord",
+        "objectClass: apacheDnsAddressRecord",
+        "cn: bogus",
+        "apacheDnsName: bogus.example.com",
+        "apacheDnsClass: BOGUS",
+        "apacheDnsIpAddress: 10.0.0.99"
+})
+public class ZoneCacheRecordStoreTest extends AbstractLdapTestUnit
+{
+    /** The time we wait for the listeners, which are asynchronous */
+    private static final long TIMEOUT = 10000L;
+
+    private ZoneCacheRecordStore store;
+
+    private CoreSession session;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        session = getService().getAdminSession();
+        store = new ZoneCacheRecordStore( null, "dc=example,dc=com", getService() );
+        store.init();
+    }
+
+
+    @After
+    public void destroy()
+    {
+        store.destroy();
+    }
+
+
+    private Set<String> getAddresses( String name ) throws Exception
+    {
+        Set<String> addresses = new HashSet<>();
+
+        for ( ResourceRecord record : store.getRecords( new QuestionRecord( name, RecordType.A, RecordClass.IN ) ) )
+        {
+            addresses.add( record.get( DnsAttribute.IP_ADDRESS ) );
+        }
+
+        return addresses;
+    }
+
+
+    /**
+     * Waits until the listeners have updated the record set of the given name
+     */
+    private Set<String> waitForAddresses( String name, int expected ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        Set<String> addresses = getAddresses( name );
+
+        while ( ( addresses.size() != expected ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 20L );
+            addresses = getAddresses( name );
+        }
+
+        return addresses;
+    }
+
+
+    private void addAddressRecord( String cn, String name, String address ) throws Exception
+    {
+        session.add( new DefaultEntry( getService().getSchemaManager(), "cn=" + cn + ",dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: apacheDnsAbstractRecord",
+            "objectClass: apacheDnsAddressRecord",
+            "cn", cn,
+            "apacheDnsName", name,
+            "apacheDnsIpAddress", address ) );
+    }
+
+
+    @Test
+    public void testZoneCacheDisabledByDefault()
+    {
+        assertFalse( new DnsServer().isZoneCacheEnabled() );
+    }
+
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        Set<ResourceRecord> records = store.getRecords( new QuestionRecord( "www.example.com", RecordType.A,
+            RecordClass.IN ) );
+
+        assertEquals( 1, records.size() );
+
+        ResourceRecord record = records.iterator().next();
+
+        assertTrue( record instanceof EncodedResourceRecord );
+        assertEquals( "www.example.com", record.getDomainName() );
+        assertEquals( 3600, record.getTimeToLive() );
+        assertEquals( "10.0.0.1", record.get( DnsAttribute.IP_ADDRESS ) );
+
+        // The default TTL is used when the record has none
+        records = store.getRecords( new QuestionRecord( "mail.example.com", RecordType.A, RecordClass.IN ) );
+        assertEquals( 86400, records.iterator().next().getTimeToLive() );
+    }
+
+
+    @Test
+    public void testNamesAreCaseInsensitive() throws Exception
+    {
+        assertEquals( 1, getAddresses( "WWW.Example.COM" ).size() );
+        assertEquals( 1, getAddresses( "www.example.com." ).size() );
+    }
+
+
+    @Test
+    public void testUnknownNameOrType() throws Exception
+    {
+        assertTrue( getAddresses( "ftp.example.com" ).isEmpty() );
+        assertTrue( store.getRecords( new QuestionRecord( "www.example.com", RecordType.MX, RecordClass.IN ) )
+            .isEmpty() );
+        assertEquals( null, store.getRecords( null ) );
+    }
+
+
+    @Test
+    public void testInvalidRecordIgnored() throws Exception
+    {
+        assertTrue( getAddresses( "bogus.example.com" ).isEmpty() );
+
+        // The valid records are still served
+        assertEquals( 1, getAddresses( "www.example.com" ).size() );
+    }
+
+
+    @Test
+    public void testAdd() throws Exception
+    {
+        addAddressRecord( "www2", "www.example.com", "10.0.0.2" );
+
+        Set<String> addresses = waitForAddresses( "www.example.com", 2 );
+
+        assertEquals( 2, addresses.size() );
+        assertTrue( addresses.contains( "10.0.0.1" ) );
+        assertTrue( addresses.contains( "10.0.0.2" ) );
+
+        // A new name
+        addAddressRecord( "ftp", "ftp.example.com", "10.0.0.21" );
+
+        assertTrue( waitForAddresses( "ftp.example.com", 1 ).contains( "10.0.0.21" ) );
+    }
+
+
+    @Test
+    public void testModify() throws Exception
+    {
+        session.modify( new Dn( getService().getSchemaManager(), "cn=www,dc=example,dc=com" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "apacheDnsIpAddress", "10.0.0.3" ) );
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while ( !getAddresses( "www.example.com" ).contains( "10.0.0.3" )
+            && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 20L );
+        }
+
+        Set<String> addresses = getAddresses( "www.example.com" );
+
+        assertEquals( 1, addresses.size() );
+        assertTrue( addresses.contains( "10.0.0.3" ) );
+    }
+
+
+    @Test
+    public void testModifyName() throws Exception
+    {
+        session.modify( new Dn( getService().getSchemaManager(), "cn=mail,dc=example,dc=com" ),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "apacheDnsName", "smtp.example.com" ) );
+
+        assertEquals( 1, waitForAddresses( "smtp.example.com", 1 ).size() );
+
+        // The old name is gone
+        assertTrue( getAddresses( "mail.example.com" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testDelete() throws Exception
+    {
+        session.delete( new Dn( getService().getSchemaManager(), "cn=www,dc=example,dc=com" ) );
+
+        assertTrue( waitForAddresses( "www.example.com", 0 ).isEmpty() );
+
+        // The other names are kept
+        assertEquals( 1, getAddresses( "mail.example.com" ).size() );
+    }
+
+
+    @Test
+    public void testRenameThenDelete() throws Exception
+    {
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=mail,dc=example,dc=com" );
+        Dn newDn = new Dn( getService().getSchemaManager(), "cn=smtp,dc=example,dc=com" );
+
+        session.rename( dn, new Rdn( getService().getSchemaManager(), "cn=smtp" ), true );
+
+        // The record is reloaded from its new entry
+        Thread.sleep( 200L );
+
+        assertEquals( 1, getAddresses( "mail.example.com" ).size() );
+
+        // The record is now attached to the new Dn
+        session.delete( newDn );
+
+        assertTrue( waitForAddresses( "mail.example.com", 0 ).isEmpty() );
+    }
+
+
+    @Test
+    public void testDestroy() throws Exception
+    {
+        store.destroy();
+
+        assertTrue( getAddresses( "www.example.com" ).isEmpty() );
+
+        // The listeners are removed
+        addAddressRecord( "www2", "www.example.com", "10.0.0.2" );
+        Thread.sleep( 200L );
+
+        assertTrue( getAddresses( "www.example.com" ).isEmpty() );
+    }
+}
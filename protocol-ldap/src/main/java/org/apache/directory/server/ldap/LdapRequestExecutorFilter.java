@@ -0,0 +1,454 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.directory.api.ldap.extras.extended.startTls.StartTlsRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A filter executing the received LDAP requests in an Executor, like the MINA ExecutorFilter
+ * does for the MESSAGE_RECEIVED events, with two additions :
+ * <ul>
+ *   <li>the requests which must not be processed while other operations are outstanding on
+ *   the same session (BindRequest, UnbindRequest and the StartTLS ExtendedRequest) wait for
+ *   the previous requests to complete, and the following requests wait for them. The other
+ *   requests of a session are executed concurrently, as with an UnorderedThreadPoolExecutor.</li>
+ *   <li>the number of requests of a given type executed concurrently can be limited, the
+ *   exceeding requests being queued. A flood of slow searches will then not prevent binds
+ *   from being processed.</li>
+ * </ul>
+ * This filter is typically used with an Executor starting a virtual thread per request, see
+ * {@link #newVirtualThreadExecutor()}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapRequestExecutorFilter extends IoFilterAdapter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LdapRequestExecutorFilter.class );
+
+    /** The session attribute holding the session sequencer */
+    private static final AttributeKey SEQUENCER_KEY = new AttributeKey( LdapRequestExecutorFilter.class, "sequencer" );
+
+    /** The name of the histogram holding the time spent waiting for a thread */
+    public static final String QUEUE_WAIT_NAME = "ldap";
+
+    /** The executor running the requests */
+    private final Executor executor;
+
+    /** The limiters for the request types which concurrency is limited */
+    private final Map<MessageTypeEnum, OperationLimiter> limiters = new EnumMap<>( MessageTypeEnum.class );
+
+    /** The registry the time spent waiting for a thread is recorded in, if any */
+    private MetricsRegistry metricsRegistry;
+
+
+    /**
+     * Creates a new instance of LdapRequestExecutorFilter.
+     *
+     * @param executor The executor running the requests
+     * @param maxConcurrentRequests The maximum number of requests executed concurrently, per
+     * request type. A type which is absent, or associated with a value below 1, is not limited
+     */
+    public LdapRequestExecutorFilter( Executor executor, Map<MessageTypeEnum, Integer> maxConcurrentRequests )
+    {
+        this.executor = executor;
+
+        for ( Map.Entry<MessageTypeEnum, Integer> entry : maxConcurrentRequests.entrySet() )
+        {
+            if ( ( entry.getValue() != null ) && ( entry.getValue() > 0 ) )
+            {
+                limiters.put( entry.getKey(), new OperationLimiter( executor, entry.getValue() ) );
+            }
+        }
+    }
+
+
+    /**
+     * Sets the registry in which the time the requests spend waiting to be executed is recorded,
+     * in the QUEUE_WAIT category.
+     *
+     * @param metricsRegistry The registry, or <code>null</code>
+     */
+    public void setMetricsRegistry( MetricsRegistry metricsRegistry )
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+
+    /**
+     * Creates an ExecutorService starting a new virtual thread for each task.
+     *
+     * @return The ExecutorService, or <code>null</code> if the JVM does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            // The server is built for Java 8, so we can't call this method directly
+            Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+
+            return ( ExecutorService ) method.invoke( null );
+        }
+        catch ( ReflectiveOperationException | RuntimeException e )
+        {
+            LOG.debug( "Virtual threads are not available : {}", e.getMessage() );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( final NextFilter nextFilter, final IoSession session, final Object message )
+    {
+        Executor requestExecutor = executor;
+        boolean exclusive = false;
+
+        if ( message instanceof Message )
+        {
+            MessageTypeEnum type = ( ( Message ) message ).getType();
+            exclusive = isExclusive( type, message );
+            OperationLimiter limiter = limiters.get( type );
+
+            if ( limiter != null )
+            {
+                requestExecutor = limiter;
+            }
+        }
+
+        final long queued = metricsRegistry == null ? 0L : metricsRegistry.startTimer();
+
+        getSequencer( session ).submit( () ->
+        {
+            if ( queued != 0L )
+            {
+                metricsRegistry.record( Category.QUEUE_WAIT, QUEUE_WAIT_NAME, null, queued );
+            }
+
+            try
+            {
+                nextFilter.messageReceived( session, message );
+            }
+            catch ( Exception e )
+            {
+                nextFilter.exceptionCaught( session, e );
+            }
+        }, exclusive, requestExecutor );
+    }
+
+
+    /**
+     * Tells if a request must be executed alone on its session
+     */
+    private static boolean isExclusive( MessageTypeEnum type, Object message )
+    {
+        switch ( type )
+        {
+            case BIND_REQUEST:
+            case UNBIND_REQUEST:
+                return true;
+
+            case EXTENDED_REQUEST:
+                return StartTlsRequest.EXTENSION_OID.equals( ( ( ExtendedRequest ) message ).getRequestName() );
+
+            default:
+                return false;
+        }
+    }
+
+
+    private static SessionSequencer getSequencer( IoSession session )
+    {
+        SessionSequencer sequencer = ( SessionSequencer ) session.getAttribute( SEQUENCER_KEY );
+
+        if ( sequencer == null )
+        {
+            sequencer = new SessionSequencer();
+            SessionSequencer existing = ( SessionSequencer ) session.setAttributeIfAbsent( SEQUENCER_KEY, sequencer );
+
+            if ( existing != null )
+            {
+                sequencer = existing;
+            }
+        }
+
+        return sequencer;
+    }
+
+
+    /**
+     * Orders the requests of a session : the exclusive requests are executed once all the
+     * previous requests are completed, and the following requests are executed once the
+     * exclusive request is completed. The other requests are executed as soon as submitted.
+     */
+    static final class SessionSequencer
+    {
+        /** The number of non exclusive tasks being executed */
+        private int running;
+
+        /** Tells if an exclusive task is being executed */
+        private boolean exclusiveRunning;
+
+        /** The tasks waiting to be executed */
+        private final Queue<Pending> pending = new ArrayDeque<>();
+
+        /** A task waiting to be executed */
+        private static final class Pending
+        {
+            private final Runnable task;
+            private final boolean exclusive;
+            private final Executor executor;
+
+
+            private Pending( Runnable task, boolean exclusive, Executor executor )
+            {
+                this.task = task;
+                this.exclusive = exclusive;
+                this.executor = executor;
+            }
+        }
+
+
+        /**
+         * Submits a task.
+         *
+         * @param task The task
+         * @param exclusive Tells if the task must be executed alone
+         * @param executor The executor to use once the task can be executed
+         */
+        void submit( Runnable task, boolean exclusive, Executor executor )
+        {
+            List<Pending> ready;
+
+            synchronized ( this )
+            {
+                pending.add( new Pending( task, exclusive, executor ) );
+                ready = poll();
+            }
+
+            dispatch( ready );
+        }
+
+
+        private void done( boolean exclusive )
+        {
+            List<Pending> ready;
+
+            synchronized ( this )
+            {
+                if ( exclusive )
+                {
+                    exclusiveRunning = false;
+                }
+                else
+                {
+                    running--;
+                }
+
+                ready = poll();
+            }
+
+            dispatch( ready );
+        }
+
+
+        /**
+         * Removes the tasks which can be executed from the queue. Must be called with the lock held.
+         */
+        private List<Pending> poll()
+        {
+            List<Pending> ready = null;
+
+            while ( !exclusiveRunning && !pending.isEmpty() )
+            {
+                Pending next = pending.peek();
+
+                if ( next.exclusive )
+                {
+                    if ( running > 0 )
+                    {
+                        break;
+                    }
+
+                    exclusiveRunning = true;
+                }
+                else
+                {
+                    running++;
+                }
+
+                pending.poll();
+
+                if ( ready == null )
+                {
+                    ready = new ArrayList<>( 1 );
+                }
+
+                ready.add( next );
+            }
+
+            return ready;
+        }
+
+
+        private void dispatch( List<Pending> ready )
+        {
+            if ( ready == null )
+            {
+                return;
+            }
+
+            for ( final Pending next : ready )
+            {
+                next.executor.execute( () ->
+                {
+                    try
+                    {
+                        next.task.run();
+                    }
+                    finally
+                    {
+                        done( next.exclusive );
+                    }
+                } );
+            }
+        }
+    }
+
+
+    /**
+     * An Executor limiting the number of tasks executed concurrently by the underlying Executor.
+     * The tasks exceeding the limit are queued, no thread is blocked.
+     */
+    static final class OperationLimiter implements Executor
+    {
+        /** The underlying executor */
+        private final Executor executor;
+
+        /** The maximum number of tasks executed concurrently */
+        private final int max;
+
+        /** The number of tasks being executed */
+        private int running;
+
+        /** The tasks waiting for a slot */
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+
+        OperationLimiter( Executor executor, int max )
+        {
+            this.executor = executor;
+            this.max = max;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void execute( Runnable task )
+        {
+            synchronized ( this )
+            {
+                if ( running >= max )
+                {
+                    waiting.add( task );
+
+                    return;
+                }
+
+                running++;
+            }
+
+            start( task );
+        }
+
+
+        private void start( final Runnable task )
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    release();
+                }
+            } );
+        }
+
+
+        private void release()
+        {
+            Runnable next;
+
+            synchronized ( this )
+            {
+                next = waiting.poll();
+
+                if ( next == null )
+                {
+                    running--;
+
+                    return;
+                }
+            }
+
+            start( next );
+        }
+
+
+        /**
+         * @return The number of tasks waiting for a slot
+         */
+        synchronized int getWaiting()
+        {
+            return waiting.size();
+        }
+    }
+}
@@ -23,12 +23,15 @@ package org.apache.directory.server.ldap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -49,6 +52,7 @@ import org.apache.directory.api.ldap.model.message.DeleteResponse;
 import org.apache.directory.api.ldap.model.message.ExtendedRequest;
 import org.apache.directory.api.ldap.model.message.ExtendedResponse;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyDnResponse;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
@@ -60,7 +64,10 @@ import org.apache.directory.api.ldap.model.message.SearchResultReference;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.SearchPlanControl;
 import org.apache.directory.server.core.security.CertificateUtil;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
@@ -98,7 +105,9 @@ import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilter;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilterEvent;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IoEventType;
@@ -153,6 +162,12 @@ public class LdapServer extends DirectoryBackedService
     /** the session manager for this LdapServer */
     private LdapSessionManager ldapSessionManager = new LdapSessionManager();
 
+    /** The PagedSearch contexts manager for this LdapServer */
+    private PagedSearchManager pagedSearchManager = new PagedSearchManager();
+
+    /** The cache of encoded search result entries, null when disabled */
+    private SearchResultEntryCache searchResultEntryCache;
+
     /** a set of supported controls */
     private Set<String> supportedControls;
 
@@ -251,6 +266,15 @@ public class LdapServer extends DirectoryBackedService
     /** the time interval between subsequent pings to each replication provider */
     private int pingerSleepTime;
 
+    /** Tells if the requests are executed on virtual threads */
+    private boolean virtualThreadsEnabled;
+
+    /** The maximum number of requests executed concurrently, per request type */
+    private Map<MessageTypeEnum, Integer> maxConcurrentRequests = new EnumMap<>( MessageTypeEnum.class );
+
+    /** The executors created for the transports, shut down when the server is stopped */
+    private List<ExecutorService> requestExecutors = new ArrayList<>();
+
     /**
      * the list of cipher suites to be used in LDAPS and StartTLS
      * @deprecated See the {@link TcpTransport} class that contains this list
@@ -467,8 +491,7 @@ public class LdapServer extends DirectoryBackedService
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
             // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", createExecutorFilter( transport ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -589,11 +612,104 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        for ( ExecutorService executor : requestExecutors )
+        {
+            executor.shutdown();
+        }
+
+        requestExecutors.clear();
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
 
 
+    /**
+     * Creates the filter executing the requests. When the virtual threads are enabled, or when the
+     * number of concurrent requests is limited, a {@link LdapRequestExecutorFilter} is used,
+     * otherwise the requests are executed by an UnorderedThreadPoolExecutor.
+     */
+    private IoFilter createExecutorFilter( Transport transport )
+    {
+        if ( !virtualThreadsEnabled && maxConcurrentRequests.isEmpty() )
+        {
+            return new TimedExecutorFilter( new UnorderedThreadPoolExecutor( transport.getNbThreads() ),
+                getDirectoryService().getMetricsRegistry() );
+        }
+
+        ExecutorService executor = null;
+
+        if ( virtualThreadsEnabled )
+        {
+            executor = LdapRequestExecutorFilter.newVirtualThreadExecutor();
+
+            if ( executor == null )
+            {
+                LOG.warn( "Virtual threads are not supported by this JVM, using {} threads instead",
+                    transport.getNbThreads() );
+            }
+        }
+
+        if ( executor == null )
+        {
+            executor = new UnorderedThreadPoolExecutor( transport.getNbThreads() );
+        }
+
+        requestExecutors.add( executor );
+
+        LdapRequestExecutorFilter executorFilter = new LdapRequestExecutorFilter( executor, maxConcurrentRequests );
+        executorFilter.setMetricsRegistry( getDirectoryService().getMetricsRegistry() );
+
+        return executorFilter;
+    }
+
+
+    /**
+     * An ExecutorFilter recording the time the received messages spend waiting for a thread.
+     */
+    private static final class TimedExecutorFilter extends ExecutorFilter
+    {
+        /** The registry the waiting times are recorded in */
+        private final MetricsRegistry metricsRegistry;
+
+
+        private TimedExecutorFilter( Executor executor, MetricsRegistry metricsRegistry )
+        {
+            super( executor, IoEventType.MESSAGE_RECEIVED );
+            this.metricsRegistry = metricsRegistry;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void fireEvent( IoFilterEvent event )
+        {
+            final long queued = metricsRegistry.startTimer();
+
+            if ( queued == 0L )
+            {
+                super.fireEvent( event );
+
+                return;
+            }
+
+            super.fireEvent( new IoFilterEvent( event.getNextFilter(), event.getType(), event.getSession(),
+                event.getParameter() )
+            {
+                @Override
+                public void fire()
+                {
+                    metricsRegistry.record( Category.QUEUE_WAIT, LdapRequestExecutorFilter.QUEUE_WAIT_NAME, null,
+                        queued );
+                    super.fire();
+                }
+            } );
+        }
+    }
+
+
     private void startNetwork( Transport transport, IoFilterChainBuilder chainBuilder ) throws Exception
     {
         if ( transport.getBackLog() < 0 )
@@ -752,6 +868,43 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The manager of the PagedSearch contexts of all the sessions
+     */
+    public PagedSearchManager getPagedSearchManager()
+    {
+        return pagedSearchManager;
+    }
+
+
+    /**
+     * @return The cache of encoded search result entries, or null if it's disabled
+     */
+    public SearchResultEntryCache getSearchResultEntryCache()
+    {
+        return searchResultEntryCache;
+    }
+
+
+    /**
+     * Enables or disables the cache of encoded search result entries. The cache is
+     * disabled by default.
+     *
+     * @param maxSize The maximum number of cached entries, 0 to disable the cache
+     */
+    public void setSearchResultEntryCacheSize( int maxSize )
+    {
+        if ( maxSize <= 0 )
+        {
+            searchResultEntryCache = null;
+        }
+        else
+        {
+            searchResultEntryCache = new SearchResultEntryCache( maxSize );
+        }
+    }
+
+
     public ProtocolCodecFactory getProtocolCodecFactory()
     {
         return codecFactory;
@@ -1087,6 +1240,9 @@ public class LdapServer extends DirectoryBackedService
         {
             supportedControls.add( itr.next() );
         }
+
+        // The SearchPlan control has no codec, it's handled as an opaque control
+        supportedControls.add( SearchPlanControl.OID );
     }
 
 
@@ -1675,6 +1831,61 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return <code>true</code> if each request is executed on a virtual thread
+     */
+    public boolean isVirtualThreadsEnabled()
+    {
+        return virtualThreadsEnabled;
+    }
+
+
+    /**
+     * Executes each request on a virtual thread, instead of a thread of a fixed size pool.
+     * This is ignored, with a warning, if the JVM does not support virtual threads. It must
+     * be set before the server is started.
+     *
+     * @param virtualThreadsEnabled <code>true</code> to use virtual threads
+     */
+    public void setVirtualThreadsEnabled( boolean virtualThreadsEnabled )
+    {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+
+    /**
+     * @param requestType The request type
+     * @return The maximum number of requests of this type executed concurrently, 0 if unlimited
+     */
+    public int getMaxConcurrentRequests( MessageTypeEnum requestType )
+    {
+        Integer max = maxConcurrentRequests.get( requestType );
+
+        return max == null ? 0 : max;
+    }
+
+
+    /**
+     * Sets the maximum number of requests of a given type executed concurrently by the server.
+     * The requests exceeding this number are queued until a request of the same type completes.
+     * It must be set before the server is started.
+     *
+     * @param requestType The request type
+     * @param maxConcurrentRequests The maximum number of requests, 0 or below if unlimited
+     */
+    public void setMaxConcurrentRequests( MessageTypeEnum requestType, int maxConcurrentRequests )
+    {
+        if ( maxConcurrentRequests <= 0 )
+        {
+            this.maxConcurrentRequests.remove( requestType );
+        }
+        else
+        {
+            this.maxConcurrentRequests.put( requestType, maxConcurrentRequests );
+        }
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
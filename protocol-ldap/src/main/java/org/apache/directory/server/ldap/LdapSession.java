@@ -520,6 +520,13 @@ public class LdapSession
     {
         PagedSearchContext oldContext = pagedSearchContexts.put( context.getCookieValue(), context );
 
+        if ( ldapServer != null )
+        {
+            // Register the context in the server wide manager, which may evict some older contexts
+            ldapServer.getPagedSearchManager().remove( oldContext );
+            ldapServer.getPagedSearchManager().add( this, context );
+        }
+
         if ( oldContext != null )
         {
             // ??? Very unlikely to happen ...
@@ -548,7 +555,25 @@ public class LdapSession
      */
     public PagedSearchContext removePagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.remove( contextId );
+        PagedSearchContext context = pagedSearchContexts.remove( contextId );
+
+        if ( ( context != null ) && ( ldapServer != null ) )
+        {
+            ldapServer.getPagedSearchManager().remove( context );
+        }
+
+        return context;
+    }
+
+
+    /**
+     * Remove a Paged Search context evicted by the {@link PagedSearchManager}.
+     *
+     * @param contextId The context ID to remove
+     */
+    void dropPagedSearchContext( int contextId )
+    {
+        pagedSearchContexts.remove( contextId );
     }
 
 
@@ -561,6 +586,11 @@ public class LdapSession
     {
         for ( Map.Entry<Integer, PagedSearchContext> entry : pagedSearchContexts.entrySet() )
         {
+            if ( ldapServer != null )
+            {
+                ldapServer.getPagedSearchManager().remove( entry.getValue() );
+            }
+
             Cursor<Entry> cursor = entry.getValue().getCursor();
 
             if ( cursor != null )
@@ -568,6 +598,8 @@ public class LdapSession
                 cursor.close();
             }
         }
+
+        pagedSearchContexts.clear();
     }
 
     /**
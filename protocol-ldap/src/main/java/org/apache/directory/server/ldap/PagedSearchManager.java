@@ -0,0 +1,460 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps track of all the PagedSearch contexts of the server. Each context holds an open
+ * cursor, and the resources associated with it, until the client has read all the pages,
+ * abandons the search or disconnects. This manager limits the number of contexts, globally
+ * and per principal, and evicts the contexts which have not been used for too long. When a
+ * limit is reached, the least recently used contexts are evicted first. A context is never
+ * evicted while a page is being read.
+ * <br>
+ * An evicted search can still be resumed if the server sends position encoded cookies : see
+ * {@link #setPositionEncodedCookies(boolean)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchManager
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchManager.class );
+
+    /** The default maximum number of contexts */
+    public static final int MAX_CONTEXTS_DEFAULT = 1000;
+
+    /** The default maximum number of contexts per principal */
+    public static final int MAX_CONTEXTS_PER_PRINCIPAL_DEFAULT = 20;
+
+    /** The default time after which an unused context is evicted, in milliseconds */
+    public static final long IDLE_TIMEOUT_DEFAULT = 300_000L;
+
+    /** The size of the generated cookie key */
+    private static final int COOKIE_KEY_SIZE = 32;
+
+    /** The maximum number of contexts */
+    private int maxContexts = MAX_CONTEXTS_DEFAULT;
+
+    /** The maximum number of contexts per principal */
+    private int maxContextsPerPrincipal = MAX_CONTEXTS_PER_PRINCIPAL_DEFAULT;
+
+    /** The time after which an unused context is evicted, in milliseconds */
+    private long idleTimeout = IDLE_TIMEOUT_DEFAULT;
+
+    /** Tells if the cookies contain the position of the search */
+    private boolean positionEncodedCookies;
+
+    /** The key used to sign the position encoded cookies */
+    private byte[] cookieKey;
+
+    /** All the contexts and their session, the least recently used first */
+    private final Map<PagedSearchContext, LdapSession> contexts = new LinkedHashMap<>( 16, 0.75f, true );
+
+    /** The number of contexts per principal */
+    private final Map<String, Integer> principalCounts = new HashMap<>();
+
+    /** The number of evicted contexts */
+    private long nbEvictions;
+
+
+    /**
+     * Creates a new PagedSearchManager, with a random cookie key.
+     */
+    public PagedSearchManager()
+    {
+        cookieKey = new byte[COOKIE_KEY_SIZE];
+        new SecureRandom().nextBytes( cookieKey );
+    }
+
+
+    /**
+     * Gets the name of the principal which is doing a search
+     */
+    private static String getPrincipal( LdapSession session )
+    {
+        CoreSession coreSession = session.getCoreSession();
+
+        if ( coreSession == null )
+        {
+            return "";
+        }
+
+        LdapPrincipal principal = coreSession.getAuthenticatedPrincipal();
+
+        if ( ( principal == null ) || ( principal.getDn() == null ) )
+        {
+            return "";
+        }
+
+        return principal.getDn().getNormName();
+    }
+
+
+    /**
+     * Registers a new context, evicting some other contexts if a limit has been reached.
+     *
+     * @param session The session the context belongs to
+     * @param context The new context
+     */
+    public synchronized void add( LdapSession session, PagedSearchContext context )
+    {
+        expire();
+
+        String principal = getPrincipal( session );
+        context.setPrincipal( principal );
+
+        // Check the principal limit first
+        Integer count = principalCounts.get( principal );
+
+        if ( ( count != null ) && ( count >= maxContextsPerPrincipal ) )
+        {
+            evictLeastRecentlyUsed( principal );
+        }
+
+        if ( contexts.size() >= maxContexts )
+        {
+            evictLeastRecentlyUsed( null );
+        }
+
+        contexts.put( context, session );
+        principalCounts.merge( principal, 1, Integer::sum );
+    }
+
+
+    /**
+     * Gets a context from a session, and marks it as in use. It must be released when the
+     * page has been read.
+     *
+     * @param session The session the context belongs to
+     * @param contextId The context ID
+     * @return The context, or null if it does not exist or has been evicted
+     */
+    public synchronized PagedSearchContext acquire( LdapSession session, int contextId )
+    {
+        PagedSearchContext context = session.getPagedSearchContext( contextId );
+
+        if ( ( context == null ) || !contexts.containsKey( context ) )
+        {
+            return null;
+        }
+
+        if ( isExpired( context, System.currentTimeMillis() ) )
+        {
+            evict( context, session, "idle" );
+
+            return null;
+        }
+
+        // Move the context at the end of the LRU list
+        contexts.get( context );
+        context.setInUse( true );
+
+        return context;
+    }
+
+
+    /**
+     * Releases a context once a page has been read.
+     *
+     * @param context The context to release
+     */
+    public void release( PagedSearchContext context )
+    {
+        if ( context != null )
+        {
+            context.setInUse( false );
+        }
+    }
+
+
+    /**
+     * Unregisters a context. The context cursor is not closed.
+     *
+     * @param context The context to remove
+     */
+    public synchronized void remove( PagedSearchContext context )
+    {
+        if ( ( context != null ) && ( contexts.remove( context ) != null ) )
+        {
+            principalCounts.computeIfPresent( context.getPrincipal(), ( key, count ) -> count == 1 ? null : count - 1 );
+        }
+    }
+
+
+    /**
+     * Evicts the contexts which have not been used for longer than the idle timeout.
+     */
+    public synchronized void expire()
+    {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<PagedSearchContext, LdapSession>> expired = new ArrayList<>();
+
+        for ( Map.Entry<PagedSearchContext, LdapSession> entry : contexts.entrySet() )
+        {
+            if ( isExpired( entry.getKey(), now ) )
+            {
+                expired.add( entry );
+            }
+        }
+
+        for ( Map.Entry<PagedSearchContext, LdapSession> entry : expired )
+        {
+            evict( entry.getKey(), entry.getValue(), "idle" );
+        }
+    }
+
+
+    private boolean isExpired( PagedSearchContext context, long now )
+    {
+        return ( idleTimeout > 0 ) && !context.isInUse() && ( now - context.getLastAccessTime() > idleTimeout );
+    }
+
+
+    /**
+     * Evicts the least recently used context which is not in use, for a given principal or
+     * for any principal.
+     */
+    private void evictLeastRecentlyUsed( String principal )
+    {
+        Iterator<Map.Entry<PagedSearchContext, LdapSession>> iterator = contexts.entrySet().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<PagedSearchContext, LdapSession> entry = iterator.next();
+            PagedSearchContext context = entry.getKey();
+
+            if ( !context.isInUse() && ( ( principal == null ) || principal.equals( context.getPrincipal() ) ) )
+            {
+                evict( context, entry.getValue(), principal == null ? "global limit" : "principal limit" );
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Removes a context from the manager and from its session, and closes its cursor.
+     */
+    private void evict( PagedSearchContext context, LdapSession session, String reason )
+    {
+        remove( context );
+        session.dropPagedSearchContext( context.getCookieValue() );
+        nbEvictions++;
+
+        LOG.debug( "Evicted the {} of {} ({})", context, context.getPrincipal(), reason );
+
+        Cursor<Entry> cursor = context.getCursor();
+
+        if ( cursor != null )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to close the cursor of an evicted PagedSearch context : {}", e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of open contexts
+     */
+    public synchronized int getSize()
+    {
+        return contexts.size();
+    }
+
+
+    /**
+     * @param principal The normalized Dn of a principal
+     * @return The number of open contexts of this principal
+     */
+    public synchronized int getSize( String principal )
+    {
+        return principalCounts.getOrDefault( principal, 0 );
+    }
+
+
+    /**
+     * @return The number of open contexts, per principal
+     */
+    public synchronized Map<String, Integer> getSizePerPrincipal()
+    {
+        return new HashMap<>( principalCounts );
+    }
+
+
+    /**
+     * @return The number of contexts evicted since the server has started
+     */
+    public synchronized long getEvictionCount()
+    {
+        return nbEvictions;
+    }
+
+
+    /**
+     * @return The idle time of the least recently used context, in milliseconds, 0 if there is none
+     */
+    public synchronized long getOldestIdleTime()
+    {
+        Iterator<PagedSearchContext> iterator = contexts.keySet().iterator();
+
+        if ( !iterator.hasNext() )
+        {
+            return 0L;
+        }
+
+        return System.currentTimeMillis() - iterator.next().getLastAccessTime();
+    }
+
+
+    /**
+     * @return The maximum number of contexts
+     */
+    public int getMaxContexts()
+    {
+        return maxContexts;
+    }
+
+
+    /**
+     * @param maxContexts The maximum number of contexts
+     */
+    public void setMaxContexts( int maxContexts )
+    {
+        this.maxContexts = maxContexts;
+    }
+
+
+    /**
+     * @return The maximum number of contexts per principal
+     */
+    public int getMaxContextsPerPrincipal()
+    {
+        return maxContextsPerPrincipal;
+    }
+
+
+    /**
+     * @param maxContextsPerPrincipal The maximum number of contexts per principal
+     */
+    public void setMaxContextsPerPrincipal( int maxContextsPerPrincipal )
+    {
+        this.maxContextsPerPrincipal = maxContextsPerPrincipal;
+    }
+
+
+    /**
+     * @return The time after which an unused context is evicted, in milliseconds
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+
+    /**
+     * @param idleTimeout The time after which an unused context is evicted, in milliseconds.
+     * 0 means the contexts are never evicted because they are idle.
+     */
+    public void setIdleTimeout( long idleTimeout )
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the cookies contain the position of the search
+     */
+    public boolean isPositionEncodedCookies()
+    {
+        return positionEncodedCookies;
+    }
+
+
+    /**
+     * Sets the cookies mode. When the cookies contain the position of the search, a search
+     * whose context has been evicted is done again and resumed after the last returned entry,
+     * on any connection, or even on another server with the same data and cookie key. The
+     * cookies are signed, but not encrypted : they contain the Dn of the last returned entry.
+     *
+     * @param positionEncodedCookies <tt>true</tt> if the cookies contain the position of the search
+     */
+    public void setPositionEncodedCookies( boolean positionEncodedCookies )
+    {
+        this.positionEncodedCookies = positionEncodedCookies;
+    }
+
+
+    /**
+     * @return The key used to sign the position encoded cookies
+     */
+    public byte[] getCookieKey()
+    {
+        return cookieKey;
+    }
+
+
+    /**
+     * Sets the key used to sign the position encoded cookies. It is randomly generated
+     * when the server starts : the servers which must resume each other's searches have
+     * to share the same key.
+     *
+     * @param cookieKey The key used to sign the position encoded cookies
+     */
+    public void setCookieKey( byte[] cookieKey )
+    {
+        this.cookieKey = cookieKey;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "PagedSearchManager : " + contexts.size() + " contexts, " + principalCounts.size() + " principals, "
+            + nbEvictions + " evictions";
+    }
+}
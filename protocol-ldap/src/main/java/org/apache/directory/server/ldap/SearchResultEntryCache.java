@@ -0,0 +1,351 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.asn1.ber.tlv.TLV;
+import org.apache.directory.api.asn1.ber.tlv.UniversalTag;
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A cache of BER encoded SearchResultEntry bodies. The protocolOp part of a SearchResultEntry
+ * only depends on the entry and on the way it has been filtered for the request, so it can be
+ * encoded once and reused for every response sending the same entry : only the messageId is
+ * spliced in front of the cached bytes.
+ * <br>
+ * An element is keyed by the entry's entryUUID, entryCSN and Dn, and by the requested attributes,
+ * the typesOnly flag and the password hiding flag. Any modification of the entry changes its
+ * entryCSN, so an outdated element is never hit again, and is eventually evicted by the
+ * cache, which is bounded. The cache is not locked when read, so the search threads don't
+ * wait for each other.
+ * <br>
+ * Some attributes can change without the entryCSN being updated : computed and collective
+ * attributes, or attributes filtered by the access control. The entries and the requests
+ * depending on them are never cached : see {@link #getRequestKey(LdapSession, SearchRequest)}
+ * and {@link #getResponse(LdapSession, SearchRequest, String, Entry)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultEntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SearchResultEntryCache.class );
+
+    /** The default maximum number of cached entries */
+    public static final int MAX_SIZE_DEFAULT = 10_000;
+
+    /** The maximum number of cached entries */
+    private final int maxSize;
+
+    /** The encoded entries */
+    private final Cache<String, byte[]> cache;
+
+    /** The number of responses read from the cache */
+    private final LongAdder hits = new LongAdder();
+
+    /** The number of responses which had to be encoded */
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * Creates a new instance of SearchResultEntryCache.
+     *
+     * @param maxSize The maximum number of cached entries
+     */
+    public SearchResultEntryCache( int maxSize )
+    {
+        if ( maxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "The cache size must be positive : " + maxSize );
+        }
+
+        this.maxSize = maxSize;
+
+        cache = Caffeine.newBuilder().maximumSize( maxSize ).build();
+    }
+
+
+    /**
+     * Computes the part of the key which is common to all the entries returned by a search
+     * request. The request can't use the cache, and null is returned, if :
+     * <ul>
+     *   <li>the access control is enabled and the user is not an administrator, as the
+     *   returned attributes depend on ACIs which can change without the entry being modified</li>
+     *   <li>operational attributes are requested, as some of them are computed when the entry
+     *   is read</li>
+     *   <li>an unknown attribute, or an attribute with options, is requested, as the returned
+     *   attributes then depend on the exact list, which is not part of the key</li>
+     * </ul>
+     *
+     * @param session The session the request has been received on
+     * @param req The search request
+     * @return The request key, or null if the request can't use the cache
+     */
+    public String getRequestKey( LdapSession session, SearchRequest req )
+    {
+        CoreSession coreSession = session.getCoreSession();
+        DirectoryService directoryService = coreSession.getDirectoryService();
+
+        if ( directoryService.isAccessControlEnabled() && !coreSession.isAdministrator() )
+        {
+            return null;
+        }
+
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        Set<String> attributes = new TreeSet<>();
+
+        for ( String attribute : req.getAttributes() )
+        {
+            if ( SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES.equals( attribute ) )
+            {
+                return null;
+            }
+
+            if ( SchemaConstants.ALL_USER_ATTRIBUTES.equals( attribute )
+                || SchemaConstants.NO_ATTRIBUTE.equals( attribute ) )
+            {
+                attributes.add( attribute );
+                continue;
+            }
+
+            if ( attribute.indexOf( ';' ) >= 0 )
+            {
+                return null;
+            }
+
+            AttributeType attributeType = schemaManager.getAttributeType( attribute );
+
+            if ( attributeType == null )
+            {
+                return null;
+            }
+
+            if ( attributeType.isOperational() )
+            {
+                return null;
+            }
+
+            attributes.add( attributeType.getOid() );
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( req.getTypesOnly() ? 'T' : 'F' );
+        sb.append( directoryService.isPasswordHidden() ? 'H' : 'V' );
+
+        for ( String attribute : attributes )
+        {
+            sb.append( '|' ).append( attribute );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Gets the encoded SearchResultEntry for an entry returned by a search request, from the
+     * cache when possible. The entry is not cached, and null is returned, if it's a referral, if
+     * it's not a {@link ClonedServerEntry}, if it has no entryUUID or entryCSN, or if collective
+     * attributes apply to it.
+     *
+     * @param session The session the request has been received on
+     * @param req The search request
+     * @param requestKey The key computed by {@link #getRequestKey(LdapSession, SearchRequest)}
+     * @param entry The entry to send
+     * @return The encoded response, or null if the entry must be sent as a message
+     * @throws EncoderException If the entry can't be encoded
+     */
+    public IoBuffer getResponse( LdapSession session, SearchRequest req, String requestKey, Entry entry )
+        throws EncoderException
+    {
+        if ( !( entry instanceof ClonedServerEntry ) || entry.containsAttribute( SchemaConstants.REF_AT ) )
+        {
+            return null;
+        }
+
+        Entry originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        Attribute entryUuid = originalEntry.get( SchemaConstants.ENTRY_UUID_AT );
+        Attribute entryCsn = originalEntry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( ( entryUuid == null ) || ( entryCsn == null )
+            || originalEntry.containsAttribute( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT ) )
+        {
+            return null;
+        }
+
+        // The Dn is part of the key, as renaming an ancestor does not change the entryCSN
+        String key = entryUuid.getString() + '|' + entryCsn.getString() + '|' + entry.getDn().getName() + '|'
+            + requestKey;
+
+        byte[] body = cache.getIfPresent( key );
+
+        if ( body != null )
+        {
+            hits.increment();
+        }
+        else
+        {
+            misses.increment();
+            SearchResultEntry respEntry = new SearchResultEntryImpl( req.getMessageId() );
+            respEntry.setEntry( entry );
+            respEntry.setObjectName( entry.getDn() );
+
+            // Filter the userPassword if the server mandate to do so
+            if ( session.getCoreSession().getDirectoryService().isPasswordHidden() )
+            {
+                respEntry.getEntry().removeAttributes( SchemaConstants.USER_PASSWORD_AT );
+            }
+
+            ByteBuffer encoded = LdapEncoder.encodeMessage( new Asn1Buffer(),
+                session.getLdapServer().getDirectoryService().getLdapCodecService(), respEntry );
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get( bytes );
+            body = getBody( bytes );
+
+            cache.put( key, body );
+
+            if ( LOG.isDebugEnabled() )
+            {
+                LOG.debug( "Cached the encoded entry {}", entry.getDn() );
+            }
+        }
+
+        return getResponse( req.getMessageId(), body );
+    }
+
+
+    /**
+     * Extracts the protocolOp of an encoded LdapMessage, skipping the LdapMessage SEQUENCE header
+     * and the messageID.
+     *
+     * @param message The encoded LdapMessage
+     * @return The encoded protocolOp, followed by the controls if any
+     */
+    static byte[] getBody( byte[] message )
+    {
+        // The LdapMessage SEQUENCE tag and its length
+        int pos = 1;
+        pos += ( ( message[pos] & 0x80 ) == 0 ) ? 1 : 1 + ( message[pos] & 0x7F );
+
+        // The messageID INTEGER : its length is always encoded in a single byte
+        pos += 2 + message[pos + 1];
+
+        byte[] body = new byte[message.length - pos];
+        System.arraycopy( message, pos, body, 0, body.length );
+
+        return body;
+    }
+
+
+    /**
+     * Builds an encoded LdapMessage from a messageId and an encoded protocolOp.
+     *
+     * @param messageId The message ID
+     * @param body The encoded protocolOp
+     * @return The encoded LdapMessage
+     */
+    static IoBuffer getResponse( int messageId, byte[] body )
+    {
+        byte[] messageIdBytes = BerValue.getBytes( messageId );
+        int length = 1 + 1 + messageIdBytes.length + body.length;
+
+        IoBuffer buffer = IoBuffer.allocate( 1 + TLV.getNbBytes( length ) + length );
+        buffer.put( UniversalTag.SEQUENCE.getValue() );
+        buffer.put( TLV.getBytes( length ) );
+        buffer.put( UniversalTag.INTEGER.getValue() );
+        buffer.put( ( byte ) messageIdBytes.length );
+        buffer.put( messageIdBytes );
+        buffer.put( body );
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Removes all the cached entries.
+     */
+    public void clear()
+    {
+        cache.invalidateAll();
+    }
+
+
+    /**
+     * @return The maximum number of cached entries
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @return The approximate number of cached entries, the evictions being done asynchronously
+     */
+    public int getSize()
+    {
+        return ( int ) cache.estimatedSize();
+    }
+
+
+    /**
+     * @return The number of responses read from the cache
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+
+    /**
+     * @return The number of responses which had to be encoded
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+}
@@ -37,6 +37,8 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponse;
 import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
 import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry.Category;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapServer;
@@ -192,7 +194,7 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
         // only if it's not a BindRequest
         if ( message instanceof BindRequest )
         {
-            handle( ldapSession, message );
+            handleTimed( ldapSession, message );
         }
         else
         {
@@ -206,7 +208,7 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
             if ( ldapSession.isAuthenticated() )
             {
                 coreSession = ldapSession.getCoreSession();
-                handle( ldapSession, message );
+                handleTimed( ldapSession, message );
                 return;
             }
 
@@ -221,8 +223,39 @@ public abstract class LdapRequestHandler<T extends Request> implements MessageHa
                 return;
             }
 
+            handleTimed( ldapSession, message );
+        }
+    }
+
+
+    /**
+     * Handles a message, recording the time needed to process it by result code
+     * when the DirectoryService metrics are enabled.
+     */
+    private void handleTimed( LdapSession ldapSession, T message ) throws Exception
+    {
+        MetricsRegistry metricsRegistry = null;
+
+        if ( ( message instanceof ResultResponseRequest ) && ( ldapServer.getDirectoryService() != null ) )
+        {
+            metricsRegistry = ldapServer.getDirectoryService().getMetricsRegistry();
+        }
+
+        long start = metricsRegistry == null ? 0L : metricsRegistry.startTimer();
+
+        try
+        {
             handle( ldapSession, message );
         }
+        finally
+        {
+            if ( start != 0L )
+            {
+                ResultCodeEnum resultCode = ( ( ResultResponseRequest ) message ).getResultResponse().getLdapResult()
+                    .getResultCode();
+                metricsRegistry.record( Category.RESULT_CODE, resultCode.name(), null, start );
+            }
+        }
     }
 
 
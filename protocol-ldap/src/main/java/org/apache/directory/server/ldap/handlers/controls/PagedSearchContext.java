@@ -61,6 +61,21 @@ public class PagedSearchContext
     /** The associated cursor for the current search request */
     private Cursor<Entry> cursor;
 
+    /** The entryUUID of the last returned entry */
+    private String lastId;
+
+    /** Tells if the entries are returned ordered by ID, so that the search can be resumed */
+    private boolean resumable;
+
+    /** The principal which has started the search */
+    private String principal;
+
+    /** The last time this context has been used */
+    private volatile long lastAccessTime;
+
+    /** Tells if a page is being read. The context can't be evicted in this case */
+    private volatile boolean inUse;
+
 
     /**
      * Creates a new instance of this class, storing the SearchRequest into it.
@@ -78,6 +93,7 @@ public class PagedSearchContext
         cookieValue = new AtomicInteger( searchRequest.getMessageId() << 16 );
 
         cookie = BerValue.getBytes( cookieValue.get() );
+        lastAccessTime = System.currentTimeMillis();
     }
 
 
@@ -291,6 +307,102 @@ public class PagedSearchContext
     }
 
 
+    /**
+     * Sets the current position, when the search is resumed from a position encoded cookie.
+     *
+     * @param currentPosition The number of entries already returned
+     */
+    public void setCurrentPosition( int currentPosition )
+    {
+        this.currentPosition = currentPosition;
+    }
+
+
+    /**
+     * @return The entryUUID of the last returned entry, or null if no entry has been returned
+     */
+    public String getLastId()
+    {
+        return lastId;
+    }
+
+
+    /**
+     * @param lastId The entryUUID of the last returned entry
+     */
+    public void setLastId( String lastId )
+    {
+        this.lastId = lastId;
+    }
+
+
+    /**
+     * @return true if the search can be resumed after the last returned entry, using a
+     * position encoded cookie
+     */
+    public boolean isResumable()
+    {
+        return resumable;
+    }
+
+
+    /**
+     * @param resumable Tells if the search can be resumed after the last returned entry
+     */
+    public void setResumable( boolean resumable )
+    {
+        this.resumable = resumable;
+    }
+
+
+    /**
+     * @return The principal which has started the search
+     */
+    public String getPrincipal()
+    {
+        return principal;
+    }
+
+
+    /**
+     * @param principal The principal which has started the search
+     */
+    public void setPrincipal( String principal )
+    {
+        this.principal = principal;
+    }
+
+
+    /**
+     * @return The last time this context has been used, in milliseconds
+     */
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if a page is being read
+     */
+    public boolean isInUse()
+    {
+        return inUse;
+    }
+
+
+    /**
+     * Marks this context as being used, or as being idle. The last access time is updated.
+     *
+     * @param inUse <tt>true</tt> if a page is being read
+     */
+    public void setInUse( boolean inUse )
+    {
+        this.inUse = inUse;
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+
     /**
      * @return The previous search request
      */
@@ -0,0 +1,296 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * A position encoded PagedSearch cookie. Beside the ID of the server side context, it
+ * contains everything needed to resume the search when this context does not exist
+ * anymore : a hash of the search request, the number of entries already returned, and
+ * the entryUUID of the last returned entry. The search is then done again, the partition
+ * returning only the entries whose ID is after this one, ordered by ID. Such cookies are
+ * only sent when the partition returns the entries ordered by ID : the position of an
+ * entry in an unordered search result is not stable when entries are added or deleted.
+ * <br>
+ * The cookie format is :
+ * <pre>
+ * MAGIC (1 byte) VERSION (1 byte) contextId (4 bytes) requestHash (4 bytes) position (4 bytes) lastId (UTF-8) MAC (16 bytes)
+ * </pre>
+ * The MAC is a truncated HMAC-SHA256 of the rest of the cookie, computed with a server
+ * secret key, so that a client can't forge a cookie to resume a search at an arbitrary
+ * position. The cookie is not encrypted : the client can read the last ID, which is the
+ * entryUUID of an entry it has already received.
+ * <br>
+ * The stateful cookies are BER encoded integers, at most 4 bytes long, so they can't be
+ * mistaken for a position encoded cookie.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class PagedSearchCookie
+{
+    /** The first byte of a position encoded cookie */
+    private static final byte MAGIC = ( byte ) 0xA5;
+
+    /** The current format version */
+    private static final byte VERSION = 3;
+
+    /** The size of the fixed part of the cookie */
+    private static final int HEADER_SIZE = 14;
+
+    /** The MAC algorithm */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** The number of MAC bytes kept in the cookie */
+    private static final int MAC_SIZE = 16;
+
+    /** The server side context ID */
+    private final int contextId;
+
+    /** The hash of the search request */
+    private final int requestHash;
+
+    /** The number of entries already returned */
+    private final int position;
+
+    /** The entryUUID of the last returned entry, empty if no entry has been returned */
+    private final String lastId;
+
+
+    /**
+     * Creates a new PagedSearchCookie instance.
+     *
+     * @param contextId The server side context ID
+     * @param requestHash The hash of the search request
+     * @param position The number of entries already returned
+     * @param lastId The entryUUID of the last returned entry
+     */
+    public PagedSearchCookie( int contextId, int requestHash, int position, String lastId )
+    {
+        this.contextId = contextId;
+        this.requestHash = requestHash;
+        this.position = position;
+        this.lastId = lastId == null ? "" : lastId;
+    }
+
+
+    /**
+     * Tells if a cookie is position encoded.
+     *
+     * @param cookie The cookie sent by the client
+     * @return <tt>true</tt> if the cookie is a position encoded cookie
+     */
+    public static boolean isPositionEncoded( byte[] cookie )
+    {
+        return ( cookie != null ) && ( cookie.length >= HEADER_SIZE + MAC_SIZE ) && ( cookie[0] == MAGIC )
+            && ( cookie[1] == VERSION );
+    }
+
+
+    /**
+     * Computes the MAC of the first bytes of a cookie.
+     */
+    private static byte[] mac( byte[] key, byte[] cookie, int length )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( MAC_ALGORITHM );
+            mac.init( new SecretKeySpec( key, MAC_ALGORITHM ) );
+            mac.update( cookie, 0, length );
+
+            return Arrays.copyOf( mac.doFinal(), MAC_SIZE );
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            // HmacSHA256 is supported by all the JREs
+            throw new IllegalStateException( gse.getMessage(), gse );
+        }
+    }
+
+
+    /**
+     * Decodes a position encoded cookie, checking its MAC.
+     *
+     * @param cookie The cookie sent by the client
+     * @param key The key used to compute the cookies MAC
+     * @return The decoded cookie, or null if the cookie is not a valid position encoded cookie,
+     * or if it has not been produced with this key
+     */
+    public static PagedSearchCookie decode( byte[] cookie, byte[] key )
+    {
+        if ( !isPositionEncoded( cookie ) )
+        {
+            return null;
+        }
+
+        int length = cookie.length - MAC_SIZE;
+
+        if ( !MessageDigest.isEqual( mac( key, cookie, length ),
+            Arrays.copyOfRange( cookie, length, cookie.length ) ) )
+        {
+            // A forged or corrupted cookie
+            return null;
+        }
+
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( cookie, 2, length - 2 );
+            int contextId = buffer.getInt();
+            int requestHash = buffer.getInt();
+            int position = buffer.getInt();
+
+            if ( position < 0 )
+            {
+                return null;
+            }
+
+            String lastId = new String( cookie, HEADER_SIZE, length - HEADER_SIZE, StandardCharsets.UTF_8 );
+
+            return new PagedSearchCookie( contextId, requestHash, position, lastId );
+        }
+        catch ( BufferUnderflowException bue )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Encodes the cookie, and signs it.
+     *
+     * @param key The key used to compute the cookie MAC
+     * @return The encoded cookie, to be sent to the client
+     */
+    public byte[] encode( byte[] key )
+    {
+        byte[] idBytes = Strings.getBytesUtf8( lastId );
+        int length = HEADER_SIZE + idBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate( length + MAC_SIZE );
+
+        buffer.put( MAGIC );
+        buffer.put( VERSION );
+        buffer.putInt( contextId );
+        buffer.putInt( requestHash );
+        buffer.putInt( position );
+        buffer.put( idBytes );
+        buffer.put( mac( key, buffer.array(), length ) );
+
+        return buffer.array();
+    }
+
+
+    /**
+     * Computes a hash of the search request parameters, used to check that a cookie is used
+     * for the same search. The message ID and the controls are not part of the hash.
+     *
+     * @param request The search request
+     * @return The request hash
+     */
+    public static int hash( SearchRequest request )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( request.getBase().getNormName() ).append( '|' );
+        sb.append( request.getScope() ).append( '|' );
+        sb.append( request.getDerefAliases() ).append( '|' );
+        sb.append( request.getSizeLimit() ).append( '|' );
+        sb.append( request.getTimeLimit() ).append( '|' );
+        sb.append( request.getTypesOnly() ).append( '|' );
+        sb.append( request.getFilter() ).append( '|' );
+
+        if ( request.getAttributes() != null )
+        {
+            String[] attributes = new String[request.getAttributes().size()];
+
+            for ( int i = 0; i < attributes.length; i++ )
+            {
+                attributes[i] = Strings.toLowerCaseAscii( request.getAttributes().get( i ) );
+            }
+
+            Arrays.sort( attributes );
+
+            for ( String attribute : attributes )
+            {
+                sb.append( attribute ).append( ',' );
+            }
+        }
+
+        return sb.toString().hashCode();
+    }
+
+
+    /**
+     * @return The server side context ID
+     */
+    public int getContextId()
+    {
+        return contextId;
+    }
+
+
+    /**
+     * @return The hash of the search request
+     */
+    public int getRequestHash()
+    {
+        return requestHash;
+    }
+
+
+    /**
+     * @return The number of entries already returned
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+
+    /**
+     * @return The entryUUID of the last returned entry, empty if no entry has been returned
+     */
+    public String getLastId()
+    {
+        return lastId;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "PagedSearch cookie : <" + contextId + ", " + position + ", " + lastId + ">";
+    }
+}
@@ -30,6 +30,7 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.BindRequest;
 import org.apache.directory.api.ldap.model.message.BindResponse;
@@ -245,6 +246,13 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
                 code = ResultCodeEnum.INVALID_DN_SYNTAX;
                 result.setResultCode( code );
             }
+            else if ( ( e instanceof LdapOperationException )
+                && ( ( ( LdapOperationException ) e ).getResultCode() == ResultCodeEnum.BUSY ) )
+            {
+                // The credentials have not been verified, the client may try again later
+                code = ResultCodeEnum.BUSY;
+                result.setResultCode( code );
+            }
             else
             {
                 code = ResultCodeEnum.INVALID_CREDENTIALS;
@@ -63,6 +63,7 @@ import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
 import org.apache.directory.api.ldap.model.message.controls.PagedResults;
 import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
 import org.apache.directory.api.ldap.model.message.controls.PersistentSearch;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
@@ -74,14 +75,19 @@ import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.SearchPlanControl;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.PagedSearchManager;
+import org.apache.directory.server.ldap.SearchResultEntryCache;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchCookie;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
+import org.apache.mina.core.buffer.IoBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -375,6 +381,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         Cursor<Entry> cursor, long sizeLimit ) throws Exception
     {
         long count = 0;
+        String requestKey = getRequestKey( session, req );
 
         while ( ( count < sizeLimit ) && cursor.next() )
         {
@@ -405,7 +412,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            writeResponse( session, req, requestKey, entry );
 
             if ( IS_DEBUG )
             {
@@ -437,7 +444,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
     private void readPagedResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
         Cursor<Entry> cursor, long sizeLimit, int pagedLimit, PagedSearchContext pagedContext,
-        PagedResults pagedResultsControl ) throws Exception
+        PagedResults pagedResultsControl, int requestHash ) throws Exception
     {
         req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
         setTimeLimitsOnCursor( req, session, cursor );
@@ -451,6 +458,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
         int count = pagedContext.getCurrentPosition();
         int pageCount = 0;
+        String requestKey = getRequestKey( session, req );
 
         while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
         {
@@ -460,7 +468,17 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            writeResponse( session, req, requestKey, entry );
+
+            if ( pagedContext.isResumable() )
+            {
+                String lastId = getEntryId( entry );
+
+                // Without its ID, the search can't be resumed after this entry
+                pagedContext.setResumable( lastId != null );
+                pagedContext.setLastId( lastId );
+            }
+
             count++;
             pageCount++;
         }
@@ -514,6 +532,16 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 // Stores the cursor current position
                 pagedContext.incrementCurrentPosition( pageCount );
+
+                if ( ldapServer.getPagedSearchManager().isPositionEncodedCookies() && pagedContext.isResumable() )
+                {
+                    // The cookie also contains the position, so that the search can be resumed
+                    // if the context is evicted
+                    PagedSearchCookie positionCookie = new PagedSearchCookie( pagedContext.getCookieValue(),
+                        requestHash, pagedContext.getCurrentPosition(), pagedContext.getLastId() );
+                    pagedResultsControl.setCookie(
+                        positionCookie.encode( ldapServer.getPagedSearchManager().getCookieKey() ) );
+                }
             }
             else
             {
@@ -522,7 +550,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 cursor.close();
 
-                session.removePagedSearchContext( cookieValue );
+                session.removePagedSearchContext( pagedContext.getCookieValue() );
             }
         }
     }
@@ -541,18 +569,23 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         {
             // If the cookie is not null, we have to destroy the associated
             // cursor stored into the session (if any)
-            int cookieValue = pagedSearchControl.getCookieValue();
+            int cookieValue = getContextId( pagedSearchControl );
             PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
-            pagedSearchControl.setCookie( psCookie.getCookie() );
             pagedSearchControl.setSize( 0 );
             pagedSearchControl.setCritical( true );
 
-            // Close the cursor
-            Cursor<Entry> cursor = psCookie.getCursor();
-
-            if ( cursor != null )
+            // The context may have been evicted
+            if ( psCookie != null )
             {
-                cursor.close();
+                pagedSearchControl.setCookie( psCookie.getCookie() );
+
+                // Close the cursor
+                Cursor<Entry> cursor = psCookie.getCursor();
+
+                if ( cursor != null )
+                {
+                    cursor.close();
+                }
             }
         }
         else
@@ -571,6 +604,123 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Gets the ID of the context associated with a PagedSearch cookie, which is either a
+     * position encoded cookie or a BER encoded integer.
+     */
+    private int getContextId( PagedResults pagedSearchControl )
+    {
+        PagedSearchCookie positionCookie = PagedSearchCookie.decode( pagedSearchControl.getCookie(),
+            ldapServer.getPagedSearchManager().getCookieKey() );
+
+        if ( positionCookie != null )
+        {
+            return positionCookie.getContextId();
+        }
+
+        return pagedSearchControl.getCookieValue();
+    }
+
+
+    /**
+     * Gets the entryUUID of an entry, even if it has not been requested.
+     *
+     * @return The entry ID, or null if the entry does not have one
+     */
+    private static String getEntryId( Entry entry ) throws LdapException
+    {
+        Entry originalEntry = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        Attribute entryUuid = originalEntry.get( SchemaConstants.ENTRY_UUID_AT );
+
+        if ( entryUuid == null )
+        {
+            return null;
+        }
+
+        return entryUuid.getString();
+    }
+
+
+    /**
+     * Does the search of a PagedSearch. When the position encoded cookies are enabled, the
+     * entries are requested ordered by ID, after the given one, so that the search can be
+     * resumed after the last returned entry. A sorted search is never ordered by ID.
+     *
+     * @param afterId The ID of the last entry already returned, or an empty String
+     */
+    private Cursor<Entry> searchPaged( LdapSession session, SearchRequest req, String afterId ) throws Exception
+    {
+        if ( ldapServer.getPagedSearchManager().isPositionEncodedCookies()
+            && !req.getControls().containsKey( SortRequest.OID ) )
+        {
+            return session.getCoreSession().search( req, afterId );
+        }
+
+        return session.getCoreSession().search( req );
+    }
+
+
+    /**
+     * Tells if the partition has returned the entries ordered by ID. Otherwise the order of
+     * the entries may change when an entry is added or deleted, and the search can't be resumed.
+     */
+    private static boolean isOrderedById( Cursor<Entry> cursor )
+    {
+        return ( cursor instanceof EntryFilteringCursor )
+            && ( ( EntryFilteringCursor ) cursor ).getOperationContext().isOrderedById();
+    }
+
+
+    /**
+     * Resumes a PagedSearch whose context does not exist anymore, using a position encoded
+     * cookie : the search is done again, the partition only returning the entries whose ID is
+     * after the last returned one. The entries added since the previous page with a lower ID
+     * are not returned, and the deleted ones are just skipped.
+     *
+     * @return The new context, or null if the search can't be resumed
+     */
+    private PagedSearchContext resumePagedSearch( LdapSession session, SearchRequest req,
+        PagedSearchCookie positionCookie, int requestHash ) throws Exception
+    {
+        if ( positionCookie.getRequestHash() != requestHash )
+        {
+            // Not the same request
+            return null;
+        }
+
+        Cursor<Entry> cursor = searchPaged( session, req, positionCookie.getLastId() );
+
+        if ( !isOrderedById( cursor ) )
+        {
+            // The entries can't be read after the last returned one
+            cursor.close();
+
+            return null;
+        }
+
+        cursor.beforeFirst();
+
+        LOG.debug( "Resuming the PagedSearch at position {}", positionCookie.getPosition() );
+
+        PagedSearchContext pagedContext = new PagedSearchContext( req );
+        pagedContext.setCursor( cursor );
+        pagedContext.setCurrentPosition( positionCookie.getPosition() );
+        pagedContext.setLastId( positionCookie.getLastId() );
+        pagedContext.setResumable( true );
+        pagedContext.setInUse( true );
+
+        session.addPagedSearchContext( pagedContext );
+
+        return pagedContext;
+    }
+
+
     /**
      * Remove a cookie instance from the session, if it exists.
      */
@@ -606,6 +756,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         int pagedLimit = pagedSearchControl.getSize();
         Cursor<Entry> cursor = null;
         PagedSearchContext pagedContext = null;
+        PagedSearchManager pagedSearchManager = ldapServer.getPagedSearchManager();
+
+        // Computed before the request is modified by the search
+        int requestHash = PagedSearchCookie.hash( req );
 
         // We have the following cases :
         // 1) The SIZE is 0 and the cookie is the same than the previous one : this
@@ -635,7 +789,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         if ( Strings.isEmpty( cookie ) )
         {
             // No cursor : do a search.
-            cursor = session.getCoreSession().search( req );
+            cursor = searchPaged( session, req, "" );
 
             // Position the cursor at the beginning
             cursor.beforeFirst();
@@ -672,6 +826,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             {
                 // Case 2 : create the context
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.setInUse( true );
 
                 session.addPagedSearchContext( pagedContext );
                 cookie = pagedContext.getCookie();
@@ -682,14 +837,51 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 // And stores the cursor into the session
                 pagedContext.setCursor( cursor );
+                pagedContext.setResumable( isOrderedById( cursor ) );
             }
         }
         else
         {
             // We have a cookie
             // Either case 3, 4 or 5
-            int cookieValue = pagedSearchControl.getCookieValue();
-            pagedContext = session.getPagedSearchContext( cookieValue );
+            PagedSearchCookie positionCookie = PagedSearchCookie.decode( cookie, pagedSearchManager.getCookieKey() );
+
+            if ( ( positionCookie == null ) && PagedSearchCookie.isPositionEncoded( cookie ) )
+            {
+                // A forged or corrupted cookie : its MAC is invalid
+                ldapResult.setDiagnosticMessage( "Invalid cookie for this PagedSearch request." );
+                ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+                return ( SearchResultDone ) req.getResultResponse();
+            }
+
+            int cookieValue = getContextId( pagedSearchControl );
+            pagedContext = pagedSearchManager.acquire( session, cookieValue );
+
+            if ( ( pagedContext != null ) && ( positionCookie != null )
+                && ( pagedContext.getCurrentPosition() != positionCookie.getPosition() ) )
+            {
+                // The cookie is not the last one sent for this context : resume from the cookie
+                pagedSearchManager.release( pagedContext );
+                pagedContext = null;
+            }
+
+            if ( ( pagedContext == null ) && ( positionCookie != null )
+                && pagedSearchManager.isPositionEncodedCookies() )
+            {
+                // The context has been evicted, or was created on another connection
+                pagedContext = resumePagedSearch( session, req, positionCookie, requestHash );
+
+                if ( pagedContext != null )
+                {
+                    cursor = pagedContext.getCursor();
+                    cookie = pagedContext.getCookie();
+                    pagedResultsControl = new PagedResultsImpl();
+                    pagedResultsControl.setCookie( cookie );
+                    pagedResultsControl.setSize( 0 );
+                    pagedResultsControl.setCritical( true );
+                }
+            }
 
             if ( pagedContext == null )
             {
@@ -701,7 +893,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 return ( SearchResultDone ) req.getResultResponse();
             }
 
-            if ( pagedContext.hasSameRequest( req, session ) )
+            if ( cursor != null )
+            {
+                // Resumed search
+                LOG.debug( "Resumed {}", pagedContext );
+            }
+            else if ( pagedContext.hasSameRequest( req, session ) )
             {
                 // Case 3 : continue the search
                 cursor = pagedContext.getCursor();
@@ -717,7 +914,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             else
             {
                 // case 2 : create a new cursor
-                // We have to close the cursor
+                // We have to close the cursor, and to remove the previous context
+                removeContext( session, pagedContext );
                 cursor = pagedContext.getCursor();
 
                 if ( cursor != null )
@@ -726,7 +924,13 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 }
 
                 // Now create a new context and stores it into the session
+                cursor = searchPaged( session, req, "" );
+                cursor.beforeFirst();
+
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.setCursor( cursor );
+                pagedContext.setResumable( isOrderedById( cursor ) );
+                pagedContext.setInUse( true );
 
                 session.addPagedSearchContext( pagedContext );
 
@@ -746,10 +950,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         try
         {
             readPagedResults( session, req, ldapResult, cursor, sizeLimit, pagedLimit, pagedContext,
-                pagedResultsControl );
+                pagedResultsControl, requestHash );
         }
         catch ( Exception e )
         {
+            removeContext( session, pagedContext );
+
             if ( cursor != null )
             {
                 try
@@ -762,6 +968,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 }
             }
         }
+        finally
+        {
+            pagedSearchManager.release( pagedContext );
+        }
 
         return ( SearchResultDone ) req.getResultResponse();
     }
@@ -825,6 +1035,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             long sizeLimit = min( requestLimit, serverLimit );
 
             writeResults( session, req, ldapResult, cursor, sizeLimit );
+            addSearchPlan( req, cursor );
         }
         finally
         {
@@ -930,6 +1141,72 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Adds the plan chosen by the partition to the SearchResultDone, if the SearchPlan
+     * control has been requested.
+     */
+    private void addSearchPlan( SearchRequest req, Cursor<Entry> cursor )
+    {
+        if ( req.hasControl( SearchPlanControl.OID ) && ( cursor instanceof EntryFilteringCursor ) )
+        {
+            Control plan = ( ( EntryFilteringCursor ) cursor ).getOperationContext().getResponseControl(
+                SearchPlanControl.OID );
+
+            if ( plan != null )
+            {
+                req.getResultResponse().addControl( plan );
+            }
+        }
+    }
+
+
+    /**
+     * Computes the part of the encoded entries cache key which is common to all the
+     * entries returned by a search request.
+     *
+     * @return The key, or null if the cache is disabled or can't be used for this request
+     */
+    private String getRequestKey( LdapSession session, SearchRequest req )
+    {
+        SearchResultEntryCache cache = ldapServer.getSearchResultEntryCache();
+
+        if ( cache == null )
+        {
+            return null;
+        }
+
+        return cache.getRequestKey( session, req );
+    }
+
+
+    /**
+     * Writes the response for an entry, using the already encoded response from the
+     * cache when possible.
+     *
+     * @param requestKey The request part of the cache key, or null if the cache can't be used
+     * @throws Exception if there are problems in generating the response
+     */
+    private void writeResponse( LdapSession session, SearchRequest req, String requestKey, Entry entry )
+        throws Exception
+    {
+        SearchResultEntryCache cache = ldapServer.getSearchResultEntryCache();
+
+        if ( ( cache != null ) && ( requestKey != null ) )
+        {
+            IoBuffer response = cache.getResponse( session, req, requestKey, entry );
+
+            if ( response != null )
+            {
+                session.getIoSession().write( response );
+
+                return;
+            }
+        }
+
+        session.getIoSession().write( generateResponse( session, req, entry ) );
+    }
+
+
     /**
      * Alters the filter expression based on the presence of the
      * ManageDsaIT decorator.  If the decorator is not present, the search
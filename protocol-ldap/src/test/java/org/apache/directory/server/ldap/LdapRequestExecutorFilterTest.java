@@ -0,0 +1,179 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.server.ldap.LdapRequestExecutorFilter.OperationLimiter;
+import org.apache.directory.server.ldap.LdapRequestExecutorFilter.SessionSequencer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Tests the ordering and the limits applied by the LdapRequestExecutorFilter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class LdapRequestExecutorFilterTest
+{
+    /**
+     * An executor keeping the tasks until they are explicitly run
+     */
+    private static class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+
+        @Override
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+        }
+
+
+        private void runNext()
+        {
+            tasks.remove( 0 ).run();
+        }
+    }
+
+
+    @Test
+    public void testConcurrentRequests()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        SessionSequencer sequencer = new SessionSequencer();
+        List<String> done = new ArrayList<>();
+
+        sequencer.submit( () -> done.add( "search1" ), false, executor );
+        sequencer.submit( () -> done.add( "search2" ), false, executor );
+
+        // Both searches are executed at the same time
+        assertEquals( 2, executor.tasks.size() );
+    }
+
+
+    @Test
+    public void testExclusiveRequestWaitsForPrevious()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        SessionSequencer sequencer = new SessionSequencer();
+        List<String> done = new ArrayList<>();
+
+        sequencer.submit( () -> done.add( "search1" ), false, executor );
+        sequencer.submit( () -> done.add( "search2" ), false, executor );
+        sequencer.submit( () -> done.add( "bind" ), true, executor );
+        sequencer.submit( () -> done.add( "search3" ), false, executor );
+
+        assertEquals( 2, executor.tasks.size() );
+
+        executor.runNext();
+        assertEquals( 1, executor.tasks.size() );
+
+        // Once the second search is done, the bind can be executed, alone
+        executor.runNext();
+        assertEquals( 1, executor.tasks.size() );
+        executor.runNext();
+
+        assertEquals( 1, executor.tasks.size() );
+        executor.runNext();
+
+        assertEquals( 0, executor.tasks.size() );
+        assertEquals( "search1", done.get( 0 ) );
+        assertEquals( "search2", done.get( 1 ) );
+        assertEquals( "bind", done.get( 2 ) );
+        assertEquals( "search3", done.get( 3 ) );
+    }
+
+
+    @Test
+    public void testExceptionReleasesSequencer()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        SessionSequencer sequencer = new SessionSequencer();
+
+        sequencer.submit( () ->
+        {
+            throw new IllegalStateException();
+        }, true, executor );
+        sequencer.submit( () -> { }, false, executor );
+
+        assertEquals( 1, executor.tasks.size() );
+
+        try
+        {
+            executor.runNext();
+        }
+        catch ( IllegalStateException ise )
+        {
+            // Expected
+        }
+
+        assertEquals( 1, executor.tasks.size() );
+    }
+
+
+    @Test
+    public void testLimiter()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        OperationLimiter limiter = new OperationLimiter( executor, 2 );
+        List<Integer> done = new ArrayList<>();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            final int value = i;
+            limiter.execute( () -> done.add( value ) );
+        }
+
+        assertEquals( 2, executor.tasks.size() );
+        assertEquals( 3, limiter.getWaiting() );
+
+        executor.runNext();
+        assertEquals( 2, executor.tasks.size() );
+        assertEquals( 2, limiter.getWaiting() );
+
+        while ( !executor.tasks.isEmpty() )
+        {
+            executor.runNext();
+        }
+
+        assertEquals( 0, limiter.getWaiting() );
+        assertEquals( 5, done.size() );
+
+        // The slots have all been released
+        limiter.execute( () -> done.add( 5 ) );
+        limiter.execute( () -> done.add( 6 ) );
+        assertEquals( 2, executor.tasks.size() );
+        assertTrue( limiter.getWaiting() == 0 );
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchCookie;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the PagedSearchManager limits and the position encoded cookies.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchManagerTest
+{
+    /** The entryUUID of the last returned entry */
+    private static final String LAST_ID = "0b4a8c5e-6b5f-4a8f-9f0e-8d1c2a3b4c5d";
+
+    private LdapServer ldapServer;
+    private PagedSearchManager manager;
+
+
+    @Before
+    public void setup()
+    {
+        ldapServer = new LdapServer();
+        manager = ldapServer.getPagedSearchManager();
+    }
+
+
+    private LdapSession newSession()
+    {
+        LdapSession session = new LdapSession( new DummySession() );
+        session.setLdapServer( ldapServer );
+
+        return session;
+    }
+
+
+    private SearchRequest newRequest( int messageId ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+        request.setBase( new Dn( "ou=system" ) );
+        request.setScope( SearchScope.SUBTREE );
+        request.setFilter( "(objectClass=*)" );
+
+        return request;
+    }
+
+
+    private PagedSearchContext newContext( LdapSession session, int messageId ) throws Exception
+    {
+        PagedSearchContext context = new PagedSearchContext( newRequest( messageId ) );
+        session.addPagedSearchContext( context );
+
+        return context;
+    }
+
+
+    @Test
+    public void testGlobalLimit() throws Exception
+    {
+        manager.setMaxContexts( 2 );
+        LdapSession session1 = newSession();
+        LdapSession session2 = newSession();
+
+        PagedSearchContext context1 = newContext( session1, 1 );
+        PagedSearchContext context2 = newContext( session2, 2 );
+
+        // Use the first context, the second one is now the least recently used
+        assertSame( context1, manager.acquire( session1, context1.getCookieValue() ) );
+        manager.release( context1 );
+
+        PagedSearchContext context3 = newContext( session1, 3 );
+
+        assertEquals( 2, manager.getSize() );
+        assertEquals( 1, manager.getEvictionCount() );
+        assertNull( session2.getPagedSearchContext( context2.getCookieValue() ) );
+        assertNull( manager.acquire( session2, context2.getCookieValue() ) );
+        assertNotNull( manager.acquire( session1, context3.getCookieValue() ) );
+    }
+
+
+    @Test
+    public void testPrincipalLimit() throws Exception
+    {
+        manager.setMaxContextsPerPrincipal( 2 );
+        LdapSession session = newSession();
+
+        PagedSearchContext context1 = newContext( session, 1 );
+        newContext( session, 2 );
+        newContext( session, 3 );
+
+        assertEquals( 2, manager.getSize() );
+        assertEquals( 2, manager.getSize( "" ) );
+        assertNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+    }
+
+
+    @Test
+    public void testInUseContextIsNotEvicted() throws Exception
+    {
+        manager.setMaxContexts( 1 );
+        LdapSession session = newSession();
+
+        PagedSearchContext context1 = newContext( session, 1 );
+        manager.acquire( session, context1.getCookieValue() );
+
+        newContext( session, 2 );
+
+        // The limit can't be enforced while the only other context is in use
+        assertEquals( 2, manager.getSize() );
+        assertSame( context1, session.getPagedSearchContext( context1.getCookieValue() ) );
+    }
+
+
+    @Test
+    public void testIdleTimeout() throws Exception
+    {
+        manager.setIdleTimeout( 1L );
+        LdapSession session = newSession();
+
+        PagedSearchContext context = newContext( session, 1 );
+        Thread.sleep( 10L );
+
+        assertNull( manager.acquire( session, context.getCookieValue() ) );
+        assertEquals( 0, manager.getSize() );
+        assertEquals( 1, manager.getEvictionCount() );
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        LdapSession session = newSession();
+
+        PagedSearchContext context = newContext( session, 1 );
+        newContext( session, 2 );
+        assertEquals( 2, manager.getSize() );
+
+        session.removePagedSearchContext( context.getCookieValue() );
+        assertEquals( 1, manager.getSize() );
+
+        session.closeAllPagedSearches();
+        assertEquals( 0, manager.getSize() );
+        assertEquals( 0, manager.getSize( "" ) );
+    }
+
+
+    @Test
+    public void testPositionEncodedCookie() throws Exception
+    {
+        int requestHash = PagedSearchCookie.hash( newRequest( 1 ) );
+        PagedSearchCookie cookie = new PagedSearchCookie( 1 << 16, requestHash, 100, LAST_ID );
+
+        byte[] encoded = cookie.encode( manager.getCookieKey() );
+        assertTrue( PagedSearchCookie.isPositionEncoded( encoded ) );
+
+        PagedSearchCookie decoded = PagedSearchCookie.decode( encoded, manager.getCookieKey() );
+        assertEquals( 1 << 16, decoded.getContextId() );
+        assertEquals( requestHash, decoded.getRequestHash() );
+        assertEquals( 100, decoded.getPosition() );
+        assertEquals( LAST_ID, decoded.getLastId() );
+
+        // The message ID is not part of the hash, the filter is
+        assertEquals( requestHash, PagedSearchCookie.hash( newRequest( 2 ) ) );
+        SearchRequest other = newRequest( 1 );
+        other.setFilter( "(cn=test)" );
+        assertFalse( requestHash == PagedSearchCookie.hash( other ) );
+
+        // The stateful cookies are BER encoded integers
+        assertFalse( PagedSearchCookie.isPositionEncoded( BerValue.getBytes( 3 << 16 ) ) );
+        assertNull( PagedSearchCookie.decode( BerValue.getBytes( 3 << 16 ), manager.getCookieKey() ) );
+    }
+
+
+    @Test
+    public void testPositionEncodedCookieMac() throws Exception
+    {
+        int requestHash = PagedSearchCookie.hash( newRequest( 1 ) );
+        byte[] encoded = new PagedSearchCookie( 1 << 16, requestHash, 100, LAST_ID )
+            .encode( manager.getCookieKey() );
+
+        // A modified ID or position is detected
+        byte[] forged = encoded.clone();
+        forged[forged.length - 20]++;
+        assertTrue( PagedSearchCookie.isPositionEncoded( forged ) );
+        assertNull( PagedSearchCookie.decode( forged, manager.getCookieKey() ) );
+
+        forged = encoded.clone();
+        forged[13]++;
+        assertNull( PagedSearchCookie.decode( forged, manager.getCookieKey() ) );
+
+        // A cookie produced by another server, with another key
+        assertNull( PagedSearchCookie.decode( encoded, new PagedSearchManager().getCookieKey() ) );
+
+        // Unless the key is shared
+        PagedSearchManager other = new PagedSearchManager();
+        other.setCookieKey( manager.getCookieKey() );
+        assertEquals( 100, PagedSearchCookie.decode( encoded, other.getCookieKey() ).getPosition() );
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.shared.DefaultCoreSession;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+
+/**
+ * Tests the splicing of the messageId in front of the cached SearchResultEntry bodies,
+ * and the computation of the request keys.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultEntryCacheTest
+{
+    private static final LdapApiService CODEC = LdapApiServiceFactory.getSingleton();
+
+
+    private byte[] encode( int messageId, Entry entry ) throws Exception
+    {
+        SearchResultEntry response = new SearchResultEntryImpl( messageId );
+        response.setEntry( entry );
+        response.setObjectName( entry.getDn() );
+
+        ByteBuffer encoded = LdapEncoder.encodeMessage( new Asn1Buffer(), CODEC, response );
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get( bytes );
+
+        return bytes;
+    }
+
+
+    private String getRequestKey( LdapSession session, String... attributes ) throws Exception
+    {
+        SearchRequest req = new SearchRequestImpl();
+        req.setBase( new Dn( "ou=system" ) );
+        req.setFilter( "(objectClass=*)" );
+
+        if ( attributes.length > 0 )
+        {
+            req.addAttributes( attributes );
+        }
+
+        return new SearchResultEntryCache( 10 ).getRequestKey( session, req );
+    }
+
+
+    private byte[] toBytes( IoBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testSpliceMessageId() throws Exception
+    {
+        Entry entry = new DefaultEntry( "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test" );
+
+        byte[] body = SearchResultEntryCache.getBody( encode( 1, entry ) );
+
+        for ( int messageId : new int[]
+            { 1, 127, 128, 300, 65536, Integer.MAX_VALUE } )
+        {
+            assertArrayEquals( encode( messageId, entry ),
+                toBytes( SearchResultEntryCache.getResponse( messageId, body ) ) );
+        }
+    }
+
+
+    @Test
+    public void testSpliceLongEntry() throws Exception
+    {
+        // An entry bigger than 64K, so that the message length is encoded on three bytes
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 70_000; i++ )
+        {
+            sb.append( 'a' );
+        }
+
+        Entry entry = new DefaultEntry( "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test",
+            "description: " + sb.toString() );
+
+        byte[] body = SearchResultEntryCache.getBody( encode( 12, entry ) );
+
+        assertArrayEquals( encode( 200, entry ), toBytes( SearchResultEntryCache.getResponse( 200, body ) ) );
+    }
+
+
+    @Test
+    public void testCacheDisabledByDefault()
+    {
+        LdapServer ldapServer = new LdapServer();
+        assertNull( ldapServer.getSearchResultEntryCache() );
+
+        ldapServer.setSearchResultEntryCacheSize( 100 );
+        assertEquals( 100, ldapServer.getSearchResultEntryCache().getMaxSize() );
+        assertEquals( 0, ldapServer.getSearchResultEntryCache().getSize() );
+
+        ldapServer.setSearchResultEntryCacheSize( 0 );
+        assertNull( ldapServer.getSearchResultEntryCache() );
+    }
+
+
+    @Test
+    public void testRequestKey() throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        DirectoryService directoryService = new DefaultDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+
+        LdapPrincipal admin = new LdapPrincipal( schemaManager, new Dn( schemaManager, "uid=admin,ou=system" ),
+            AuthenticationLevel.SIMPLE );
+        LdapSession session = new LdapSession( new DummySession() );
+        session.setCoreSession( new DefaultCoreSession( admin, directoryService ) );
+
+        String allUserAttributes = getRequestKey( session );
+
+        assertNotNull( allUserAttributes );
+
+        // The attributes are identified by their OID
+        assertNotNull( getRequestKey( session, "cn" ) );
+        assertEquals( getRequestKey( session, "cn", "sn" ), getRequestKey( session, "SN", "2.5.4.3" ) );
+        assertNotEquals( allUserAttributes, getRequestKey( session, "cn" ) );
+
+        // An unknown attribute is never returned : the request must not share the key of a
+        // request returning all the user attributes
+        assertNull( getRequestKey( session, "unknownAttr" ) );
+        assertNull( getRequestKey( session, "cn", "unknownAttr" ) );
+
+        // Nor an attribute with options
+        assertNull( getRequestKey( session, "cn;lang-en" ) );
+        assertNull( getRequestKey( session, "sn", "cn;binary" ) );
+
+        // The operational attributes are not cached
+        assertNull( getRequestKey( session, "+" ) );
+        assertNull( getRequestKey( session, "entryUUID" ) );
+    }
+}
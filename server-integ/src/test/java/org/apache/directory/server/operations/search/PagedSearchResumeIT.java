@@ -0,0 +1,511 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.PagedSearchManager;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchCookie;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the PagedSearch position encoded cookies : a search whose context does not
+ * exist anymore is resumed after the ID of the last returned entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+@ApplyLdifs(
+    {
+        "dn: dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: domain",
+        "dc: users",
+        //
+        "dn: cn=user0,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user0",
+        "sn: user 0",
+        //
+        "dn: cn=user1,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user1",
+        "sn: user 1",
+        //
+        "dn: cn=user2,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user2",
+        "sn: user 2",
+        //
+        "dn: cn=user3,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user3",
+        "sn: user 3",
+        //
+        "dn: cn=user4,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user4",
+        "sn: user 4",
+        //
+        "dn: cn=user5,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user5",
+        "sn: user 5",
+        //
+        "dn: cn=user6,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user6",
+        "sn: user 6",
+        //
+        "dn: cn=user7,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user7",
+        "sn: user 7",
+        //
+        "dn: cn=user8,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user8",
+        "sn: user 8",
+        //
+        "dn: cn=user9,dc=users,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user9",
+        "sn: user 9"
+})
+public class PagedSearchResumeIT extends AbstractLdapTestUnit
+{
+    /** The number of entries per page */
+    private static final int PAGE_SIZE = 3;
+
+    private PagedSearchManager manager;
+
+
+    @Before
+    public void init()
+    {
+        getLdapServer().setMaxSizeLimit( LdapServer.NO_SIZE_LIMIT );
+        manager = getLdapServer().getPagedSearchManager();
+        manager.setPositionEncodedCookies( true );
+    }
+
+
+    @After
+    public void reset()
+    {
+        manager.setPositionEncodedCookies( false );
+        manager.setIdleTimeout( PagedSearchManager.IDLE_TIMEOUT_DEFAULT );
+    }
+
+
+    private LdapConnection connect() throws Exception
+    {
+        LdapConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, getLdapServer().getPort() );
+        connection.bind( "uid=admin,ou=system", "secret" );
+
+        return connection;
+    }
+
+
+    /**
+     * Reads a page, and adds its entries to the results
+     */
+    private SearchResultDone readPage( LdapConnection connection, String filter, byte[] cookie, List<Entry> results )
+        throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "dc=users,ou=system" ) );
+        searchRequest.setFilter( filter );
+        searchRequest.setScope( SearchScope.SUBTREE );
+
+        PagedResults pagedControl = new PagedResultsImpl();
+        pagedControl.setSize( PAGE_SIZE );
+
+        if ( cookie != null )
+        {
+            pagedControl.setCookie( cookie );
+        }
+
+        searchRequest.addControl( pagedControl );
+
+        try ( SearchCursor cursor = connection.search( searchRequest ) )
+        {
+            while ( cursor.next() )
+            {
+                results.add( cursor.getEntry() );
+            }
+
+            return cursor.getSearchResultDone();
+        }
+    }
+
+
+    private static byte[] getCookie( SearchResultDone done )
+    {
+        PagedResults responseControl = ( PagedResults ) done.getControls().get( PagedResults.OID );
+
+        return responseControl.getCookie();
+    }
+
+
+    /**
+     * Evicts all the contexts, as if they had not been used for too long
+     */
+    private void evictAll() throws Exception
+    {
+        manager.setIdleTimeout( 1L );
+        Thread.sleep( 10L );
+        manager.expire();
+        manager.setIdleTimeout( PagedSearchManager.IDLE_TIMEOUT_DEFAULT );
+
+        assertEquals( 0, manager.getSize() );
+    }
+
+
+    /**
+     * Checks that all the users have been read once
+     */
+    private static void checkResults( List<Entry> results ) throws Exception
+    {
+        Set<String> users = new HashSet<>();
+
+        for ( Entry entry : results )
+        {
+            assertTrue( users.add( entry.get( "cn" ).getString() ) );
+        }
+
+        assertEquals( 10, users.size() );
+    }
+
+
+    @Test
+    public void testResumeAfterEviction() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+
+        try ( LdapConnection connection = connect() )
+        {
+            SearchResultDone done = readPage( connection, "(cn=*)", null, results );
+            byte[] cookie = getCookie( done );
+
+            assertEquals( PAGE_SIZE, results.size() );
+            assertTrue( PagedSearchCookie.isPositionEncoded( cookie ) );
+
+            // Each page is read from a new cursor
+            while ( !Strings.isEmpty( cookie ) )
+            {
+                evictAll();
+
+                done = readPage( connection, "(cn=*)", cookie, results );
+
+                assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+                cookie = getCookie( done );
+            }
+        }
+
+        checkResults( results );
+    }
+
+
+    @Test
+    public void testResumeOnAnotherConnection() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+        byte[] cookie;
+
+        try ( LdapConnection connection = connect() )
+        {
+            cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+        }
+
+        // The context of the first connection is not visible from this one
+        try ( LdapConnection connection = connect() )
+        {
+            while ( !Strings.isEmpty( cookie ) )
+            {
+                SearchResultDone done = readPage( connection, "(cn=*)", cookie, results );
+
+                assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+                cookie = getCookie( done );
+            }
+        }
+
+        checkResults( results );
+    }
+
+
+    @Test
+    public void testRequestMismatchRejected() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+        byte[] cookie;
+
+        try ( LdapConnection connection = connect() )
+        {
+            cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+        }
+
+        try ( LdapConnection connection = connect() )
+        {
+            results.clear();
+            SearchResultDone done = readPage( connection, "(sn=*)", cookie, results );
+
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, done.getLdapResult().getResultCode() );
+            assertTrue( results.isEmpty() );
+        }
+    }
+
+
+    @Test
+    public void testDeletedLastEntry() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+
+        try ( LdapConnection connection = connect() )
+        {
+            byte[] cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+            Dn lastDn = results.get( PAGE_SIZE - 1 ).getDn();
+
+            // The search is resumed after the last returned entry, even if it's gone
+            connection.delete( lastDn );
+
+            while ( !Strings.isEmpty( cookie ) )
+            {
+                evictAll();
+
+                SearchResultDone done = readPage( connection, "(cn=*)", cookie, results );
+
+                assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+                cookie = getCookie( done );
+            }
+        }
+
+        checkResults( results );
+    }
+
+
+    @Test
+    public void testChangesBetweenPages() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+        String deleted = null;
+
+        try ( LdapConnection connection = connect() )
+        {
+            byte[] cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+            Set<String> returned = new HashSet<>();
+
+            for ( Entry entry : results )
+            {
+                returned.add( entry.get( "cn" ).getString() );
+            }
+
+            // Delete an entry which has not been returned yet, and add some new ones
+            for ( int i = 0; deleted == null; i++ )
+            {
+                if ( !returned.contains( "user" + i ) )
+                {
+                    deleted = "user" + i;
+                    connection.delete( "cn=" + deleted + ",dc=users,ou=system" );
+                }
+            }
+
+            for ( int i = 10; i < 20; i++ )
+            {
+                connection.add( new DefaultEntry( "cn=user" + i + ",dc=users,ou=system",
+                    "objectClass: top",
+                    "objectClass: person",
+                    "cn: user" + i,
+                    "sn: user " + i ) );
+            }
+
+            while ( !Strings.isEmpty( cookie ) )
+            {
+                evictAll();
+
+                SearchResultDone done = readPage( connection, "(cn=*)", cookie, results );
+
+                assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+                cookie = getCookie( done );
+            }
+        }
+
+        // No entry is returned twice, and all the entries which were there during the whole
+        // search are returned. The added ones may or may not be returned.
+        Set<String> users = new HashSet<>();
+
+        for ( Entry entry : results )
+        {
+            assertTrue( users.add( entry.get( "cn" ).getString() ) );
+        }
+
+        assertFalse( users.contains( deleted ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( users.contains( "user" + i ) || ( "user" + i ).equals( deleted ) );
+        }
+    }
+
+
+    @Test
+    public void testSortedSearchNotPositionEncoded() throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "dc=users,ou=system" ) );
+        searchRequest.setFilter( "(cn=*)" );
+        searchRequest.setScope( SearchScope.SUBTREE );
+
+        PagedResults pagedControl = new PagedResultsImpl();
+        pagedControl.setSize( PAGE_SIZE );
+        searchRequest.addControl( pagedControl );
+
+        SortRequest sortControl = new SortRequestImpl();
+        sortControl.addSortKey( new SortKey( "cn" ) );
+        searchRequest.addControl( sortControl );
+
+        try ( LdapConnection connection = connect();
+            SearchCursor cursor = connection.search( searchRequest ) )
+        {
+            while ( cursor.next() )
+            {
+                cursor.getEntry();
+            }
+
+            // The sorted entries are not ordered by ID : the context can't be resumed
+            byte[] cookie = getCookie( cursor.getSearchResultDone() );
+
+            assertFalse( Strings.isEmpty( cookie ) );
+            assertFalse( PagedSearchCookie.isPositionEncoded( cookie ) );
+        }
+    }
+
+
+    @Test
+    public void testForgedCookieRejected() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+        byte[] cookie;
+
+        try ( LdapConnection connection = connect() )
+        {
+            cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+        }
+
+        // Change the position : the cookie MAC does not match anymore
+        cookie[13]--;
+
+        try ( LdapConnection connection = connect() )
+        {
+            results.clear();
+            SearchResultDone done = readPage( connection, "(cn=*)", cookie, results );
+
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, done.getLdapResult().getResultCode() );
+            assertTrue( results.isEmpty() );
+        }
+    }
+
+
+    @Test
+    public void testCookieKeyShared() throws Exception
+    {
+        List<Entry> results = new ArrayList<>();
+        byte[] cookie;
+
+        try ( LdapConnection connection = connect() )
+        {
+            cookie = getCookie( readPage( connection, "(cn=*)", null, results ) );
+        }
+
+        // A server with another key does not accept the cookie
+        byte[] key = manager.getCookieKey();
+        manager.setCookieKey( new PagedSearchManager().getCookieKey() );
+
+        try ( LdapConnection connection = connect() )
+        {
+            SearchResultDone done = readPage( connection, "(cn=*)", cookie, new ArrayList<Entry>() );
+
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, done.getLdapResult().getResultCode() );
+        }
+        finally
+        {
+            manager.setCookieKey( key );
+        }
+
+        try ( LdapConnection connection = connect() )
+        {
+            SearchResultDone done = readPage( connection, "(cn=*)", cookie, results );
+
+            assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+            assertFalse( Strings.isEmpty( getCookie( done ) ) );
+            assertEquals( 2 * PAGE_SIZE, results.size() );
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ppolicy;
+
+
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
+import org.apache.directory.server.core.authn.AnonymousAuthenticator;
+import org.apache.directory.server.core.authn.AuthenticationInterceptor;
+import org.apache.directory.server.core.authn.Authenticator;
+import org.apache.directory.server.core.authn.SimpleAuthenticator;
+import org.apache.directory.server.core.authn.StrongAuthenticator;
+import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests that the binds rejected with BUSY because the credentials verifier is saturated
+ * are not counted as authentication failures by the password policy.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateLdapServer(transports =
+    {
+        @CreateTransport(protocol = "LDAP") })
+@CreateDS(enableChangeLog = false, name = "PasswordPolicyBindFloodIT")
+public class PasswordPolicyBindFloodIT extends AbstractLdapTestUnit
+{
+    /** The number of users binding concurrently */
+    private static final int NB_USERS = 4;
+
+    /** The number of binds each user sends concurrently */
+    private static final int NB_BINDS = 5;
+
+    private AuthenticationInterceptor authenticationInterceptor;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        PasswordPolicyConfiguration policyConfig = new PasswordPolicyConfiguration();
+        policyConfig.setPwdMaxFailure( 2 );
+        policyConfig.setPwdLockout( true );
+        policyConfig.setPwdLockoutDuration( 0 );
+        policyConfig.setPwdFailureCountInterval( 30 );
+
+        PpolicyConfigContainer policyContainer = new PpolicyConfigContainer();
+        Dn defaultPolicyDn = new Dn( getService().getSchemaManager(), "cn=default" );
+        policyContainer.addPolicy( defaultPolicyDn, policyConfig );
+        policyContainer.setDefaultPolicyDn( defaultPolicyDn );
+
+        authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+        authenticationInterceptor.setPwdPolicies( policyContainer );
+
+        // The users are added without binding, the verifier will be saturated
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            getService().getAdminSession().add( new DefaultEntry( getService().getSchemaManager(),
+                getUserDn( i ),
+                "objectClass: top",
+                "objectClass: person",
+                "cn", "user" + i,
+                "sn", "user" + i,
+                "userPassword", PasswordUtil.createStoredPassword( getPassword( i ),
+                    LdapSecurityConstants.HASH_METHOD_PKCS5S2 ) ) );
+        }
+
+        // One thread, one waiting verification, and a timeout shorter than a PBKDF2 comparison
+        SimpleAuthenticator simpleAuthenticator = new SimpleAuthenticator( Dn.ROOT_DSE );
+        simpleAuthenticator.setVerifierThreads( 1 );
+        simpleAuthenticator.setVerifierQueueSize( 1 );
+        simpleAuthenticator.setVerifierTimeout( 1L );
+
+        setSimpleAuthenticator( simpleAuthenticator );
+    }
+
+
+    @After
+    public void reset() throws Exception
+    {
+        setSimpleAuthenticator( new SimpleAuthenticator( Dn.ROOT_DSE ) );
+        authenticationInterceptor.setPwdPolicies( null );
+
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            getService().getAdminSession().delete( getUserDn( i ) );
+        }
+    }
+
+
+    private void setSimpleAuthenticator( SimpleAuthenticator simpleAuthenticator )
+    {
+        for ( Authenticator authenticator : authenticationInterceptor.getAuthenticators() )
+        {
+            authenticator.destroy();
+        }
+
+        authenticationInterceptor.setAuthenticators( new Authenticator[]
+            {
+                new AnonymousAuthenticator( Dn.ROOT_DSE ),
+                simpleAuthenticator,
+                new StrongAuthenticator( Dn.ROOT_DSE )
+        } );
+    }
+
+
+    private Dn getUserDn( int user ) throws Exception
+    {
+        return new Dn( getService().getSchemaManager(), "cn=user" + user + ",ou=system" );
+    }
+
+
+    private static byte[] getPassword( int user )
+    {
+        return Strings.getBytesUtf8( "secret" + user );
+    }
+
+
+    /**
+     * Binds a user on a new connection
+     */
+    private ResultCodeEnum bind( int user ) throws Exception
+    {
+        try ( LdapConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+            getLdapServer().getPort() ) )
+        {
+            BindRequest bindRequest = new BindRequestImpl();
+            bindRequest.setDn( getUserDn( user ) );
+            bindRequest.setCredentials( getPassword( user ) );
+
+            BindResponse bindResponse = connection.bind( bindRequest );
+
+            return bindResponse.getLdapResult().getResultCode();
+        }
+    }
+
+
+    @Test
+    public void testBusyBindsDoNotLockTheAccounts() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( NB_USERS * NB_BINDS );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        List<Future<ResultCodeEnum>> results = new ArrayList<>();
+
+        try
+        {
+            for ( int i = 0; i < NB_USERS * NB_BINDS; i++ )
+            {
+                final int user = i % NB_USERS;
+
+                results.add( executor.submit( new Callable<ResultCodeEnum>()
+                {
+                    @Override
+                    public ResultCodeEnum call() throws Exception
+                    {
+                        start.await();
+
+                        return bind( user );
+                    }
+                } ) );
+            }
+
+            start.countDown();
+            int busy = 0;
+
+            for ( Future<ResultCodeEnum> result : results )
+            {
+                ResultCodeEnum resultCode = result.get();
+
+                // The correct password is never reported as invalid
+                assertTrue( resultCode.toString(),
+                    ( resultCode == ResultCodeEnum.SUCCESS ) || ( resultCode == ResultCodeEnum.BUSY ) );
+
+                if ( resultCode == ResultCodeEnum.BUSY )
+                {
+                    busy++;
+                }
+            }
+
+            assertTrue( busy > 0 );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        // No failure has been recorded, and no account is locked
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            Entry userEntry = getService().getAdminSession().lookup( getUserDn( i ),
+                SchemaConstants.ALL_USER_ATTRIBUTES, SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+
+            assertNull( userEntry.get( PWD_FAILURE_TIME_AT ) );
+            assertFalse( userEntry.containsAttribute( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+        }
+
+        // Once the server is not overloaded anymore, the users can bind
+        setSimpleAuthenticator( new SimpleAuthenticator( Dn.ROOT_DSE ) );
+
+        for ( int i = 0; i < NB_USERS; i++ )
+        {
+            assertEquals( ResultCodeEnum.SUCCESS, bind( i ) );
+        }
+    }
+}
@@ -46,6 +46,7 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SnapshotSchemaLoader;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
 import org.apache.directory.server.i18n.I18n;
@@ -195,7 +196,8 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+        SchemaLoader loader = new SnapshotSchemaLoader( schemaPartitionDirectory,
+            new File( instanceLayout.getPartitionsDirectory(), SnapshotSchemaLoader.SNAPSHOT_FILE_NAME ) );
         schemaManager = new DefaultSchemaManager( loader );
 
         // We have to load the schema now, otherwise we won't be able
@@ -51,7 +51,6 @@ import org.apache.directory.api.ldap.model.schema.syntaxCheckers.GeneralizedTime
 import org.apache.directory.api.ldap.model.schema.syntaxCheckers.UuidSyntaxChecker;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.api.util.exception.Exceptions;
@@ -74,6 +73,7 @@ import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SnapshotSchemaLoader;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.core.security.CertificateUtil;
@@ -315,7 +315,8 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+        SchemaLoader loader = new SnapshotSchemaLoader( schemaPartitionDirectory,
+            new File( instanceLayout.getPartitionsDirectory(), SnapshotSchemaLoader.SNAPSHOT_FILE_NAME ) );
         schemaManager = new DefaultSchemaManager( loader.getAllSchemas() );
         
         // We have to load the schema now, otherwise we won't be able
@@ -120,6 +120,8 @@ public class AvlPartition extends AbstractBTreePartition
             master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
 
             super.doInit();
+
+            initCompositeIndexes();
         }
     }
 
@@ -20,10 +20,12 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,7 +33,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -43,6 +49,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasDereferencingException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasException;
 import org.apache.directory.api.ldap.model.exception.LdapContextNotEmptyException;
@@ -88,12 +95,20 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AncestryLabels;
+import org.apache.directory.server.xdbm.CompositeIndex;
+import org.apache.directory.server.xdbm.CompositeIndexes;
+import org.apache.directory.server.xdbm.CompositeKeyComparator;
+import org.apache.directory.server.xdbm.DescendantCounters;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatisticsManager;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.Table;
+import org.apache.directory.server.xdbm.impl.avl.AvlTable;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -135,9 +150,61 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The ParentIdAndRdn cache */
     protected Cache<String, ParentIdAndRdn> piarCache;
 
+    /** The ancestry labels, used to evaluate the subtree scope */
+    private AncestryLabels ancestryLabels = new AncestryLabels();
+
+    /** The maximum number of entries having an ancestry label */
+    private int ancestryLabelsMaxSize = AncestryLabels.DEFAULT_MAX_SIZE;
+
+    /** Tells if a build of the ancestry labels is scheduled */
+    private final AtomicBoolean ancestryLabelsBuildScheduled = new AtomicBoolean();
+
+    /** The pending changes of the number of children and descendants of the entries */
+    private DescendantCounters descendantCounters = new DescendantCounters();
+
+    /** The statistics of the indices, used by the optimizer */
+    private IndexStatisticsManager indexStatistics = new IndexStatisticsManager();
+
+    /** The default period between two checks of the index statistics, in seconds */
+    public static final long DEFAULT_STATISTICS_REFRESH_PERIOD = 60L;
+
+    /**
+     * The thread maintaining the in-memory data of all the partitions in the background : it
+     * refreshes the index statistics and builds the ancestry labels
+     */
+    private static final ScheduledExecutorService BACKGROUND_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+        runnable ->
+        {
+            Thread thread = new Thread( runnable, "partition-background" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+    /** The period between two checks of the index statistics, in seconds. 0 to disable the refresh */
+    private long statisticsRefreshPeriod = DEFAULT_STATISTICS_REFRESH_PERIOD;
+
+    /** The scheduled refresh of the index statistics */
+    private ScheduledFuture<?> statisticsRefresh;
+
+    /** The composite indexes, built when first used */
+    private final CompositeIndexes compositeIndexes = new CompositeIndexes();
+
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
 
+    /** The key of the transaction action writing the descendant counters */
+    private static final String DESCENDANT_COUNTERS_ACTION = "descendantCounters";
+
+    /** The key of the transaction action counting the committed modifications */
+    private static final String INDEX_STATISTICS_ACTION = "indexStatistics";
+
+    /** The key of the transaction action dropping the in-memory data of the aborted changes */
+    private static final String ROLLBACK_ACTION = "rollback";
+
+    /** The key of the transaction action syncing the partition */
+    private static final String SYNC_ACTION = "sync";
+
     /** The suffix UUID */
     private volatile String suffixId;
 
@@ -308,6 +375,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The period between two checks of the index statistics, in seconds
+     */
+    public long getStatisticsRefreshPeriod()
+    {
+        return statisticsRefreshPeriod;
+    }
+
+
+    /**
+     * Sets the period between two checks of the index statistics. The statistics are computed
+     * again in the background when too many entries have been modified. It must be set before
+     * the partition is initialized.
+     *
+     * @param statisticsRefreshPeriod The period in seconds, 0 to never refresh the statistics
+     */
+    public void setStatisticsRefreshPeriod( long statisticsRefreshPeriod )
+    {
+        this.statisticsRefreshPeriod = statisticsRefreshPeriod;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -543,12 +632,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
+        if ( statisticsRefresh != null )
+        {
+            statisticsRefresh.cancel( false );
+            statisticsRefresh = null;
+        }
+
         aliasCache.invalidateAll();
         piarCache.invalidateAll();
         entryDnCache.invalidateAll();
 
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        try
+        {
+            flushDescendantCounters( partitionTxn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Failed to write the descendant counters of the {} partition", suffixDn, t );
+            errors.addThrowable( t );
+        }
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -577,6 +682,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        try
+        {
+            compositeIndexes.close( partitionTxn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( I18n.err( I18n.ERR_124 ), t );
+            errors.addThrowable( t );
+        }
+
         try
         {
             master.close( partitionTxn );
@@ -637,6 +752,67 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         entryDnCache = Caffeine.newBuilder().maximumSize( cacheSize ).expireAfterAccess( Duration.ofMinutes( 20 ) )
             .build();
+
+        ancestryLabels = new AncestryLabels( ancestryLabelsMaxSize );
+        descendantCounters = new DescendantCounters();
+        indexStatistics = new IndexStatisticsManager();
+
+        File statisticsFile = getIndexStatisticsFile();
+
+        if ( statisticsFile != null )
+        {
+            indexStatistics.load( statisticsFile );
+        }
+
+        if ( statisticsRefreshPeriod > 0 )
+        {
+            statisticsRefresh = BACKGROUND_SCHEDULER.scheduleWithFixedDelay( this::refreshIndexStatisticsInBackground,
+                statisticsRefreshPeriod, statisticsRefreshPeriod, TimeUnit.SECONDS );
+        }
+    }
+
+
+    /**
+     * Refreshes the index statistics from the background scheduler, which must not be stopped
+     * by a failure.
+     */
+    private void refreshIndexStatisticsInBackground()
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            refreshIndexStatistics();
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot refresh the index statistics of the {} partition", suffixDn, e );
+        }
+    }
+
+
+    /**
+     * @return The file in which the index statistics are saved, or null if this partition
+     * does not store files
+     */
+    private File getIndexStatisticsFile()
+    {
+        if ( ( partitionPath == null ) || !"file".equals( partitionPath.getScheme() ) )
+        {
+            return null;
+        }
+
+        File partitionDir = new File( partitionPath );
+
+        if ( !partitionDir.isDirectory() )
+        {
+            return null;
+        }
+
+        return new File( partitionDir, IndexStatisticsManager.STATISTICS_FILE );
     }
 
 
@@ -707,7 +883,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             countChildren++;
 
             // And now, the children
-            int nbChildren = entry.getKey().getNbChildren();
+            int nbChildren = descendantCounters.getNbChildren( entry.getId(), entry.getKey() );
 
             if ( nbChildren > 0 )
             {
@@ -822,6 +998,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 suffixId = id;
             }
 
+            // Check that the composite indexes can index the entry before writing anything
+            compositeIndexes.check( entry );
+
             // Update the ObjectClass index
             Attribute objectClass = entry.get( objectClassAT );
 
@@ -905,6 +1084,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             // Add the parentId in the entry
             entry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, parentId );
 
+            // Update the parent's nbChildren and nbDescendants values. This only records deltas,
+            // and does not need the write lock
+            if ( parentId != Partition.ROOT_ID )
+            {
+                updateRdnIdx( partitionTxn, parentId, ADD_CHILD, 0 );
+            }
+
             lockWrite();
 
             try
@@ -915,11 +1101,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // Update the PIAR cache at the same time
                 updatePiarCache( parentIdAndRdn, id, ADD_CACHE );
 
-                // Update the parent's nbChildren and nbDescendants values
-                if ( parentId != Partition.ROOT_ID )
-                {
-                    updateRdnIdx( partitionTxn, parentId, ADD_CHILD, 0 );
-                }
+                // And the entry ancestry label
+                ancestryLabels.add( id, parentId );
+                indexStatistics.modified();
+                attachTransactionActions( partitionTxn );
 
                 // Remove the EntryDN attribute
                 entry.removeAttributes( entryDnAT );
@@ -928,6 +1113,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 setContextCsn( at.getString() );
 
                 // And finally add the entry into the master table
+                compositeIndexes.put( partitionTxn, id, entry );
                 master.put( partitionTxn, id, entry );
             }
             finally
@@ -997,51 +1183,270 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Updates the number of children and descendants of the ancestors of an added or removed entry.
+     * The changes are recorded in the descendant counters, and are written in the Rdn index
+     * when the transaction is committed : the ancestors records, up to the suffix, are rewritten
+     * once per transaction, not on each update.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param parentId The added or removed entry parent ID
+     * @param addRemove ADD_CHILD or REMOVE_CHILD
+     * @param nbDescendant The number of descendants of the added or removed entry
+     * @throws LdapException If the Rdn index can't be read
+     */
     protected void updateRdnIdx( PartitionTxn partitionTxn, String parentId, boolean addRemove, int nbDescendant ) throws LdapException
     {
-        boolean isFirst = true;
-
         if ( parentId.equals( Partition.ROOT_ID ) )
         {
             return;
         }
 
+        int nbChildrenDelta = ( addRemove == ADD_CHILD ) ? 1 : -1;
+        int nbDescendantsDelta = nbChildrenDelta * ( nbDescendant + 1 );
+
+        attachTransactionActions( partitionTxn );
+
         ParentIdAndRdn parent = rdnIdx.reverseLookup( partitionTxn, parentId );
 
         while ( parent != null )
         {
-            rdnIdx.drop( partitionTxn, parentId );
-            
-            if ( isFirst )
+            // Only the direct parent gets a new child
+            descendantCounters.add( parentId, nbChildrenDelta, nbDescendantsDelta );
+            nbChildrenDelta = 0;
+
+            parentId = parent.getParentId();
+            parent = rdnIdx.reverseLookup( partitionTxn, parentId );
+        }
+    }
+
+
+    /**
+     * Attaches the in-memory state of the partition to a write transaction. When the transaction
+     * is committed, the pending descendant counters are written in it. When it is aborted, and if
+     * the partition rolls back the aborted changes, the in-memory data derived from these changes
+     * are dropped : the pending counters, the caches, the ancestry labels and the composite
+     * indexes, which are rebuilt when used. The pending counters of a transaction which is not a
+     * write transaction are written by {@link #sync()}.
+     * 
+     * @param partitionTxn The transaction changing the partition
+     */
+    private void attachTransactionActions( PartitionTxn partitionTxn )
+    {
+        if ( !( partitionTxn instanceof PartitionWriteTxn ) )
+        {
+            return;
+        }
+
+        PartitionWriteTxn writeTxn = ( PartitionWriteTxn ) partitionTxn;
+
+        writeTxn.onCommit( DESCENDANT_COUNTERS_ACTION, () ->
+        {
+            try
             {
-                if ( addRemove == ADD_CHILD )
-                {
-                    parent.setNbChildren( parent.getNbChildren() + 1 );
-                }
-                else
-                {
-                    parent.setNbChildren( parent.getNbChildren() - 1 );
-                }
+                flushDescendantCounters( partitionTxn );
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le.getMessage(), le );
+            }
+        } );
+
+        IndexStatisticsManager statistics = indexStatistics;
+        writeTxn.afterCommit( INDEX_STATISTICS_ACTION, statistics::committed );
+
+        if ( isRollbackSupported() )
+        {
+            // The master table and the indices are shared by all the transactions : the rollback
+            // drops all the changes made since the last commit, and the derived data with them
+            writeTxn.onAbort( ROLLBACK_ACTION, this::rolledBack );
+        }
+    }
+
+
+    /**
+     * Drops the in-memory data derived from changes which have been rolled back.
+     */
+    private void rolledBack()
+    {
+        LOG.debug( "Dropping the in-memory data of the {} partition after a rollback", suffixDn );
+
+        descendantCounters.clear();
+        indexStatistics.rolledBack();
+        ancestryLabels.invalidate();
+
+        aliasCache.invalidateAll();
+        piarCache.invalidateAll();
+        entryDnCache.invalidateAll();
+        invalidateCache();
+    }
+
+
+    /**
+     * Tells if aborting a write transaction rolls back the changes made to the master table
+     * and to the indices. The in-memory data derived from these changes are then dropped too.
+     * 
+     * @return <tt>true</tt> if the changes of an aborted transaction are rolled back
+     */
+    protected boolean isRollbackSupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * Syncs the partition if it is synced on each write. When the transaction is a write
+     * transaction, the partition is synced once it has been committed, so that a transaction
+     * made of several operations is synced once, and is not partially written on disk.
+     * 
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the partition can't be synced
+     */
+    protected void syncOnWrite( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( !isSyncOnWrite.get() )
+        {
+            return;
+        }
 
-                isFirst = false;
+        if ( !( partitionTxn instanceof PartitionWriteTxn ) )
+        {
+            sync();
+
+            return;
+        }
+
+        ( ( PartitionWriteTxn ) partitionTxn ).afterCommit( SYNC_ACTION, () ->
+        {
+            try
+            {
+                sync();
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le.getMessage(), le );
             }
+        } );
+    }
+
 
-            if ( addRemove == ADD_CHILD )
+    /**
+     * {@inheritDoc}
+     * 
+     * Writes the pending changes of the number of children and descendants which have not been
+     * written by a committed transaction into the Rdn index. The implementations flushing their
+     * data on disk must call this method first.
+     */
+    @Override
+    public void sync() throws LdapException
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        if ( !descendantCounters.isEmpty() )
+        {
+            PartitionTxn partitionTxn = beginWriteTransaction();
+    
+            try
             {
-                parent.setNbDescendants( parent.getNbDescendants() + ( nbDescendant + 1 ) );
+                flushDescendantCounters( partitionTxn );
+                partitionTxn.commit();
             }
-            else
+            catch ( IOException ioe )
             {
-                parent.setNbDescendants( parent.getNbDescendants() - ( nbDescendant + 1 ) );
+                throw new LdapOtherException( ioe.getMessage(), ioe );
             }
+        }
+    }
 
-            // Inject the modified element into the index
-            rdnIdx.add( partitionTxn, parent, parentId );
 
-            ////dumpRdnIdx();
+    /**
+     * Computes the statistics of the user indices and of the ObjectClass index again, if too
+     * many entries have been modified since they were computed, and saves them. This is done
+     * periodically in the background, holding the read lock, so that the writes never pay for
+     * the indices scan.
+     * 
+     * @throws LdapException If the indices can't be read
+     */
+    public void refreshIndexStatistics() throws LdapException
+    {
+        List<Index<?, String>> indices = new ArrayList<>( userIndices.values() );
+        indices.add( getObjectClassIndex() );
 
-            parentId = parent.getParentId();
-            parent = rdnIdx.reverseLookup( partitionTxn, parentId );
+        if ( rwLock != null )
+        {
+            rwLock.readLock().lock();
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            if ( !indexStatistics.isStale( count( partitionTxn ) ) )
+            {
+                return;
+            }
+
+            indexStatistics.refresh( partitionTxn, indices );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            if ( rwLock != null )
+            {
+                rwLock.readLock().unlock();
+            }
+        }
+
+        File statisticsFile = getIndexStatisticsFile();
+
+        if ( statisticsFile != null )
+        {
+            try
+            {
+                indexStatistics.save( statisticsFile );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot save the index statistics in {}", statisticsFile, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Writes the pending changes of the number of children and descendants into the Rdn index.
+     * 
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the Rdn index can't be updated
+     */
+    protected void flushDescendantCounters( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( descendantCounters.isEmpty() )
+        {
+            return;
+        }
+
+        if ( rwLock == null )
+        {
+            // No operation has been processed yet, this is a repair or a bulk load
+            descendantCounters.flush( partitionTxn, rdnIdx );
+
+            return;
+        }
+
+        lockWrite();
+
+        try
+        {
+            descendantCounters.flush( partitionTxn, rdnIdx );
+        }
+        finally
+        {
+            unlockWrite();
         }
     }
 
@@ -1150,6 +1555,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 rdnIdx.drop( partitionTxn, id );
 
                 updatePiarCache( parent, id, DEL_CACHE );
+                ancestryLabels.remove( id );
+                indexStatistics.modified();
+                attachTransactionActions( partitionTxn );
 
                 entryDnCache.invalidate( id );
                 
@@ -1160,6 +1568,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     setContextCsn( csn.getString() );
                 }
 
+                compositeIndexes.remove( partitionTxn, id );
                 master.remove( partitionTxn, id );
             }
             finally
@@ -1167,10 +1576,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite( partitionTxn );
 
             return entry;
         }
@@ -1419,6 +1825,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             updateCache( modifyContext );
         }
+        catch ( LdapAdminLimitExceededException laele )
+        {
+            // The composite indexes can't index the modified entry
+            throw laele;
+        }
         catch ( Exception e )
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
@@ -1435,6 +1846,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String id = getEntryId( partitionTxn, dn );
         Entry entry = master.get( partitionTxn, id );
 
+        // Check that the composite indexes can index the modified entry before writing anything :
+        // the indexes and the entry itself are modified in place
+        if ( !compositeIndexes.isEmpty() )
+        {
+            compositeIndexes.check( getModifiedEntry( entry, mods ) );
+        }
+
+        indexStatistics.modified();
+        attachTransactionActions( partitionTxn );
+
         for ( Modification mod : mods )
         {
             Attribute attrMods = mod.getAttribute();
@@ -1476,12 +1897,69 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( entry.get( entryCsnAT ).getString() );
         
+        compositeIndexes.put( partitionTxn, id, entry );
         master.put( partitionTxn, id, entry );
 
         return entry;
     }
 
 
+    /**
+     * Applies some modifications on a copy of an entry, to get the entry as it will be stored.
+     * The increments are not applied, they don't change the number of values.
+     *
+     * @param entry The entry to modify
+     * @param mods The modifications
+     * @return The modified copy of the entry
+     * @throws LdapException If the modifications can't be applied
+     */
+    private static Entry getModifiedEntry( Entry entry, Modification... mods ) throws LdapException
+    {
+        Entry modifiedEntry = entry.clone();
+
+        for ( Modification mod : mods )
+        {
+            Attribute attribute = mod.getAttribute();
+
+            switch ( mod.getOperation() )
+            {
+                case ADD_ATTRIBUTE:
+                    modifiedEntry.add( attribute.clone() );
+                    break;
+
+                case REMOVE_ATTRIBUTE:
+                    if ( attribute.size() == 0 )
+                    {
+                        modifiedEntry.removeAttributes( attribute.getAttributeType() );
+                    }
+                    else
+                    {
+                        modifiedEntry.remove( attribute );
+                    }
+
+                    break;
+
+                case REPLACE_ATTRIBUTE:
+                    if ( attribute.size() == 0 )
+                    {
+                        modifiedEntry.removeAttributes( attribute.getAttributeType() );
+                    }
+                    else
+                    {
+                        modifiedEntry.put( attribute.clone() );
+                    }
+
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return modifiedEntry;
+    }
+
+
     /**
      * Adds a set of attribute values while affecting the appropriate userIndices.
      * The entry is not persisted: it is only changed in anticipation for a put
@@ -2141,7 +2619,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // First drop the old entry
         ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
 
-        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+        int nbMovedDescendants = descendantCounters.getNbDescendants( entryId, movedEntry );
+
+        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, nbMovedDescendants );
 
         rdnIdx.drop( partitionTxn, entryId );
         updatePiarCache( movedEntry, entryId, DEL_CACHE );
@@ -2150,8 +2630,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         movedEntry.setParentId( newParentId );
         rdnIdx.add( partitionTxn, movedEntry, entryId );
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
+        ancestryLabels.move( entryId, newParentId );
+        attachTransactionActions( partitionTxn );
 
-        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, nbMovedDescendants );
 
         /*
          * Read Alias Index Tuples
@@ -2194,12 +2676,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
+        compositeIndexes.put( partitionTxn, entryId, modifiedEntry );
         master.put( partitionTxn, entryId, modifiedEntry );
 
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite( partitionTxn );
     }
 
 
@@ -2308,7 +2788,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // of all its ascendant, up to the common superior.
         // Then we will add a ParentidAndRdn for the moved entry under the new superior,
         // update its children number and the nbSubordinates of all the new ascendant.
-        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+        int nbMovedDescendants = descendantCounters.getNbDescendants( entryId, movedEntry );
+
+        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, nbMovedDescendants );
 
         /*
          * All aliases including and below oldChildDn, will be affected by
@@ -2327,8 +2809,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             { newRdn } );
         rdnIdx.add( partitionTxn, movedEntry, entryId );
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
+        ancestryLabels.move( entryId, newParentId );
+        attachTransactionActions( partitionTxn );
 
-        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, nbMovedDescendants );
 
         // Process the modified indexes now
         try
@@ -2375,6 +2859,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         // save the modified entry at the new place
+        compositeIndexes.put( partitionTxn, entryId, modifiedEntry );
         master.put( partitionTxn, entryId, modifiedEntry );
     }
     
@@ -2646,6 +3131,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setContextCsn( entry.get( entryCsnAT ).getString() );
 
         // And save the modified entry
+        compositeIndexes.put( partitionTxn, oldId, entry );
         master.put( partitionTxn, oldId, entry );
     }
 
@@ -2659,6 +3145,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         throws LdapException
     {
         String oldId = getEntryId( partitionTxn, dn );
+        indexStatistics.modified();
+        attachTransactionActions( partitionTxn );
 
         try
         {
@@ -2695,10 +3183,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         entryDnCache.invalidateAll();
         
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite( partitionTxn );
     }
 
 
@@ -2896,7 +3381,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
 
-            return parentIdAndRdn.getNbChildren();
+            return descendantCounters.getNbChildren( id, parentIdAndRdn );
         }
         catch ( Exception e )
         {
@@ -3027,6 +3512,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         checkInitialized( "addIndex" );
 
+        if ( isCompositeIndex( index ) )
+        {
+            addCompositeIndex( index.getAttributeId().split( "\\+" ) );
+
+            return;
+        }
+
         // Check that the index String is valid
         AttributeType attributeType = null;
 
@@ -3061,6 +3553,164 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if an index declares a composite index : its attributes are separated by '+',
+     * like in "objectClass+ou+l".
+     *
+     * @param index The declared index
+     * @return true if the index declares a composite index
+     */
+    protected static boolean isCompositeIndex( Index<?, String> index )
+    {
+        return index.getAttributeId().indexOf( '+' ) > 0;
+    }
+
+
+    /**
+     * Declares a composite index on some attributes. The order of the attributes matters :
+     * the index can be used by a conjunction containing equality filters on its first
+     * attributes. If the partition is already initialized, the index is created and built
+     * immediately.
+     *
+     * @param attributeIds The indexed attributes, in the key order
+     * @throws LdapException If the index can't be declared
+     */
+    public void addCompositeIndex( String... attributeIds ) throws LdapException
+    {
+        List<AttributeType> attributeTypes = new ArrayList<>( attributeIds.length );
+
+        for ( String attributeId : attributeIds )
+        {
+            AttributeType attributeType;
+
+            try
+            {
+                attributeType = schemaManager.lookupAttributeTypeRegistry( attributeId.trim() );
+            }
+            catch ( LdapNoSuchAttributeException lnsae )
+            {
+                LOG.error( "Cannot initialize the composite index {}, the AttributeType {} does not exist",
+                    Arrays.toString( attributeIds ), attributeId );
+
+                return;
+            }
+
+            if ( ( attributeType.getEquality() == null ) || !attributeType.getSyntax().isHumanReadable() )
+            {
+                LOG.error( "Cannot initialize the composite index {}, the AttributeType {} has no EQUALITY "
+                    + "matchingRule or is not human readable", Arrays.toString( attributeIds ), attributeId );
+
+                return;
+            }
+
+            attributeTypes.add( attributeType );
+        }
+
+        if ( compositeIndexes.declare( new CompositeIndex( attributeTypes ) ) && isInitialized() )
+        {
+            initCompositeIndexes();
+        }
+    }
+
+
+    /**
+     * Opens the tables of the declared composite indexes, and builds the new ones, which
+     * are empty, from the master table. It has to be called by the implementations once
+     * their master table is created.
+     *
+     * @throws LdapException If the tables can't be created, or the indexes built
+     */
+    protected void initCompositeIndexes() throws LdapException
+    {
+        synchronized ( compositeIndexes )
+        {
+            List<CompositeIndex> toBuild = new ArrayList<>();
+            PartitionTxn partitionTxn = beginWriteTransaction();
+
+            if ( rwLock != null )
+            {
+                lockWrite();
+            }
+
+            try
+            {
+                for ( CompositeIndex index : compositeIndexes.getIndexes() )
+                {
+                    if ( !index.isInitialized() )
+                    {
+                        index.init( createCompositeIndexTable( index.getOid() + CompositeIndex.FORWARD_TABLE ),
+                            createCompositeIndexTable( index.getOid() + CompositeIndex.REVERSE_TABLE ) );
+
+                        if ( index.isEmpty( partitionTxn ) )
+                        {
+                            toBuild.add( index );
+                        }
+                    }
+                }
+
+                if ( !toBuild.isEmpty() && ( master.count( partitionTxn ) > 0L ) )
+                {
+                    LOG.info( "Building the composite indexes {} of the {} partition", toBuild, suffixDn );
+                    compositeIndexes.build( partitionTxn, master, toBuild );
+                }
+
+                partitionTxn.commit();
+            }
+            catch ( LdapException | RuntimeException e )
+            {
+                abort( partitionTxn, e );
+
+                throw e;
+            }
+            catch ( IOException ioe )
+            {
+                abort( partitionTxn, ioe );
+
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+            finally
+            {
+                if ( rwLock != null )
+                {
+                    unlockWrite();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Aborts a transaction after a failure, keeping the failure as the main error.
+     */
+    private void abort( PartitionTxn partitionTxn, Exception failure )
+    {
+        try
+        {
+            partitionTxn.abort();
+        }
+        catch ( IOException ioe )
+        {
+            failure.addSuppressed( ioe );
+        }
+    }
+
+
+    /**
+     * Creates a table storing a composite index. Both its keys and values are Strings, ordered
+     * with a {@link CompositeKeyComparator}, and the keys accept duplicate values. By default,
+     * the table is kept in memory : the partitions storing their indexes must override this
+     * method.
+     *
+     * @param name The table name
+     * @return The table
+     * @throws LdapException If the table can't be created
+     */
+    protected Table<String, String> createCompositeIndexTable( String name ) throws LdapException
+    {
+        return new AvlTable<>( name, CompositeKeyComparator.INSTANCE, CompositeKeyComparator.INSTANCE, true );
+    }
+
+
     /**
      * Add some new indexes
      * @param indexes The added indexes
@@ -3266,6 +3916,147 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AncestryLabels getAncestryLabels( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( !ancestryLabels.isBuilt() )
+        {
+            scheduleAncestryLabelsBuild();
+        }
+
+        return ancestryLabels;
+    }
+
+
+    /**
+     * Builds the ancestry labels now, if they are not built and if the partition has no more
+     * entries than their bound. The caller must prevent any concurrent modification of the
+     * partition.
+     * 
+     * @param partitionTxn The transaction to use
+     * @return The ancestry labels
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public AncestryLabels buildAncestryLabels( PartitionTxn partitionTxn ) throws LdapException
+    {
+        AncestryLabels labels = ancestryLabels;
+
+        if ( labels.isBuilt() )
+        {
+            return labels;
+        }
+
+        long nbEntries = count( partitionTxn );
+
+        if ( nbEntries > labels.getMaxSize() )
+        {
+            LOG.debug( "The {} partition has {} entries, more than the ancestry labels bound", suffixDn, nbEntries );
+
+            return labels;
+        }
+
+        labels.build( partitionTxn, getRdnIndex(), descendantCounters );
+
+        return labels;
+    }
+
+
+    /**
+     * Builds the ancestry labels in the background, holding the read lock. The searches
+     * processed meanwhile don't use them.
+     */
+    private void scheduleAncestryLabelsBuild()
+    {
+        // Without a lock, we can't prevent the modifications during the build
+        if ( ( rwLock == null ) || !ancestryLabelsBuildScheduled.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        BACKGROUND_SCHEDULER.execute( () ->
+        {
+            try
+            {
+                if ( initialized )
+                {
+                    lockRead();
+
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        buildAncestryLabels( partitionTxn );
+                    }
+                    finally
+                    {
+                        unlockRead();
+                    }
+                }
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Cannot build the ancestry labels of the {} partition", suffixDn, e );
+            }
+            finally
+            {
+                ancestryLabelsBuildScheduled.set( false );
+            }
+        } );
+    }
+
+
+    /**
+     * @return The maximum number of entries having an ancestry label
+     */
+    public int getAncestryLabelsMaxSize()
+    {
+        return ancestryLabelsMaxSize;
+    }
+
+
+    /**
+     * Sets the maximum number of entries having an ancestry label : the partitions having more
+     * entries have no labels. It must be set before the partition is initialized.
+     *
+     * @param ancestryLabelsMaxSize The maximum number of labelled entries
+     */
+    public void setAncestryLabelsMaxSize( int ancestryLabelsMaxSize )
+    {
+        this.ancestryLabelsMaxSize = ancestryLabelsMaxSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DescendantCounters getDescendantCounters()
+    {
+        return descendantCounters;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexStatisticsManager getIndexStatistics()
+    {
+        return indexStatistics;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompositeIndexes getCompositeIndexes()
+    {
+        return compositeIndexes;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3672,6 +4463,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Drops all the entries of the cache, after the changes of a transaction have been rolled back
+     */
+    protected void invalidateCache()
+    {
+        // partition implementations should override this if they want to use cache
+    }
+
+
     /**
      * looks up for the entry with the given ID in the cache
      *
@@ -3890,10 +4690,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                 rwLock.readLock().lock();
-                ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+                ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
 
-                subordinates.setNbChildren( parentIdAndRdn.getNbChildren() );
-                subordinates.setNbSubordinates( parentIdAndRdn.getNbDescendants() );
+                subordinates.setNbChildren( descendantCounters.getNbChildren( id, parentIdAndRdn ) );
+                subordinates.setNbSubordinates( descendantCounters.getNbDescendants( id, parentIdAndRdn ) );
             }
             finally
             {
@@ -0,0 +1,415 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A path label for each entry of a partition, used to check the subtree scope without
+ * fetching the entries, and to enumerate a subtree with a single range scan.
+ * <br>
+ * The label of an entry is the label of its parent followed by the entry ordinal among
+ * its siblings, encoded on two chars. The labels order is then the pre-order of the DIT,
+ * an entry is a descendant of another one if its label starts with the other entry label,
+ * and all the descendants of an entry are contiguous in the labels order.
+ * <br>
+ * The labels are kept in memory. They are built from the Rdn index, in the background, the
+ * first time they are needed, and then maintained when an entry is added, deleted or moved.
+ * If they can't be maintained, or if the changes they reflect are rolled back, they are
+ * dropped and will be rebuilt. Until then, the searches walk the Rdn index.
+ * <br>
+ * Each labelled entry costs around 250 bytes : two map entries, the label (two chars per
+ * level) and the entry ID. The number of labelled entries is bounded : a partition having
+ * more entries than the bound has no labels, which caps their memory to about 120 MB with
+ * the default bound.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AncestryLabels
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( AncestryLabels.class );
+
+    /** The number of bits of an ordinal stored in each char, keeping the char below 0x8000 */
+    private static final int CHAR_BITS = 15;
+
+    /** The greatest ordinal an entry can have among its siblings */
+    static final int MAX_ORDINAL = ( 1 << ( 2 * CHAR_BITS ) ) - 1;
+
+    /** A char greater than any char used in a label, to bound the subtrees */
+    private static final char UPPER_BOUND = '\uffff';
+
+    /** The default maximum number of labelled entries */
+    public static final int DEFAULT_MAX_SIZE = 500000;
+
+    /** The maximum number of labelled entries */
+    private final int maxSize;
+
+    /** The label of each entry, per ID */
+    private final Map<String, String> labels = new ConcurrentHashMap<>();
+
+    /** The entry IDs, per label */
+    private final ConcurrentNavigableMap<String, String> ids = new ConcurrentSkipListMap<>();
+
+    /** The ordinal the next child of an entry will get, per parent ID */
+    private final Map<String, Integer> nextOrdinals = new ConcurrentHashMap<>();
+
+    /** Tells if the labels have been built and are up to date */
+    private volatile boolean built;
+
+
+    /**
+     * Creates a new instance of AncestryLabels, bounded to {@link #DEFAULT_MAX_SIZE} entries.
+     * The labels have to be built before being used.
+     */
+    public AncestryLabels()
+    {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of AncestryLabels. The labels have to be built before being used.
+     *
+     * @param maxSize The maximum number of labelled entries
+     */
+    public AncestryLabels( int maxSize )
+    {
+        this.maxSize = maxSize;
+        labels.put( Partition.ROOT_ID, "" );
+    }
+
+
+    /**
+     * @return The maximum number of labelled entries
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * Encodes an ordinal on two chars, preserving the order
+     */
+    static String encode( int ordinal )
+    {
+        return new String( new char[]
+            { ( char ) ( ordinal >>> CHAR_BITS ), ( char ) ( ordinal & ( ( 1 << CHAR_BITS ) - 1 ) ) } );
+    }
+
+
+    /**
+     * Tells if an entry is a strict descendant of another one, given their labels.
+     *
+     * @param label The entry label
+     * @param baseLabel The ancestor label
+     * @return <tt>true</tt> if the entry is below the ancestor
+     */
+    public static boolean isDescendant( String label, String baseLabel )
+    {
+        return ( label.length() > baseLabel.length() ) && label.startsWith( baseLabel );
+    }
+
+
+    /**
+     * Builds the labels by walking the Rdn index from the root, unless they are already built.
+     * It must not run concurrently with a modification of the partition : the caller holds the
+     * OperationManager read lock. If the partition has more entries than the bound, the labels
+     * are not built.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIndex The partition Rdn index
+     * @param descendantCounters The pending changes of the Rdn index counters
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public synchronized void build( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIndex,
+        DescendantCounters descendantCounters ) throws LdapException
+    {
+        if ( built )
+        {
+            return;
+        }
+
+        clear();
+
+        Deque<String> parents = new ArrayDeque<>();
+        parents.push( Partition.ROOT_ID );
+
+        while ( !parents.isEmpty() )
+        {
+            String parentId = parents.pop();
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( parentId, ( Rdn[] ) null ) );
+
+            try ( Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIndex.forwardCursor( partitionTxn ) )
+            {
+                cursor.before( startingPos );
+
+                while ( cursor.next() )
+                {
+                    IndexEntry<ParentIdAndRdn, String> child = cursor.get();
+
+                    if ( !parentId.equals( child.getKey().getParentId() ) )
+                    {
+                        break;
+                    }
+
+                    if ( !addLabel( child.getId(), parentId ) )
+                    {
+                        clear();
+
+                        return;
+                    }
+
+                    if ( descendantCounters.getNbChildren( child.getId(), child.getKey() ) > 0 )
+                    {
+                        parents.push( child.getId() );
+                    }
+                }
+            }
+            catch ( CursorException | IOException e )
+            {
+                clear();
+
+                throw new LdapException( e.getMessage(), e );
+            }
+        }
+
+        built = true;
+        LOG.debug( "Built the ancestry labels of {} entries", ids.size() );
+    }
+
+
+    /**
+     * Gives a label to an entry, below its parent
+     */
+    private boolean addLabel( String id, String parentId )
+    {
+        String parentLabel = labels.get( parentId );
+
+        if ( parentLabel == null )
+        {
+            return false;
+        }
+
+        // The root has a label too
+        if ( labels.size() > maxSize )
+        {
+            LOG.debug( "More than {} entries, dropping the ancestry labels", maxSize );
+
+            return false;
+        }
+
+        int ordinal = nextOrdinals.merge( parentId, 1, Integer::sum ) - 1;
+
+        if ( ordinal > MAX_ORDINAL )
+        {
+            return false;
+        }
+
+        String label = parentLabel + encode( ordinal );
+        labels.put( id, label );
+        ids.put( label, id );
+
+        return true;
+    }
+
+
+    /**
+     * Drops all the labels. They will be rebuilt on the next use.
+     */
+    public synchronized void invalidate()
+    {
+        clear();
+    }
+
+
+    private void clear()
+    {
+        built = false;
+        labels.clear();
+        ids.clear();
+        nextOrdinals.clear();
+        labels.put( Partition.ROOT_ID, "" );
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the labels are built and up to date
+     */
+    public boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * Labels an added entry. Does nothing if the labels are not built yet.
+     *
+     * @param id The added entry ID
+     * @param parentId The entry parent ID
+     */
+    public void add( String id, String parentId )
+    {
+        if ( built && !addLabel( id, parentId ) )
+        {
+            invalidate();
+        }
+    }
+
+
+    /**
+     * Drops the label of a deleted entry. Does nothing if the labels are not built yet.
+     *
+     * @param id The deleted entry ID
+     */
+    public void remove( String id )
+    {
+        if ( !built )
+        {
+            return;
+        }
+
+        String label = labels.remove( id );
+
+        if ( label != null )
+        {
+            ids.remove( label );
+        }
+
+        nextOrdinals.remove( id );
+    }
+
+
+    /**
+     * Relabels a moved entry and all its descendants. Does nothing if the labels are not built yet.
+     *
+     * @param id The moved entry ID
+     * @param newParentId The entry new parent ID
+     */
+    public void move( String id, String newParentId )
+    {
+        if ( !built )
+        {
+            return;
+        }
+
+        String oldLabel = labels.get( id );
+        String newParentLabel = labels.get( newParentId );
+
+        if ( ( oldLabel == null ) || ( newParentLabel == null ) )
+        {
+            invalidate();
+
+            return;
+        }
+
+        int ordinal = nextOrdinals.merge( newParentId, 1, Integer::sum ) - 1;
+
+        if ( ordinal > MAX_ORDINAL )
+        {
+            invalidate();
+
+            return;
+        }
+
+        String newLabel = newParentLabel + encode( ordinal );
+
+        // The moved subtree can't contain the new parent, so the old and the new ranges don't overlap
+        List<Map.Entry<String, String>> subtree = new ArrayList<>( ids.subMap( oldLabel, true,
+            oldLabel + UPPER_BOUND, false ).entrySet() );
+
+        for ( Map.Entry<String, String> entry : subtree )
+        {
+            ids.remove( entry.getKey() );
+        }
+
+        for ( Map.Entry<String, String> entry : subtree )
+        {
+            String label = newLabel + entry.getKey().substring( oldLabel.length() );
+            ids.put( label, entry.getValue() );
+            labels.put( entry.getValue(), label );
+        }
+    }
+
+
+    /**
+     * @param id The entry ID
+     * @return The entry label, or null if the labels are not built or the entry is unknown
+     */
+    public String getLabel( String id )
+    {
+        if ( !built )
+        {
+            return null;
+        }
+
+        return labels.get( id );
+    }
+
+
+    /**
+     * Gets the IDs of an entry and of all its descendants, in the DIT pre-order.
+     *
+     * @param baseId The subtree base ID
+     * @return The IDs, or null if the labels are not built or the base is unknown
+     */
+    public Collection<String> getSubtree( String baseId )
+    {
+        String baseLabel = getLabel( baseId );
+
+        if ( baseLabel == null )
+        {
+            return null;
+        }
+
+        return ids.subMap( baseLabel, true, baseLabel + UPPER_BOUND, false ).values();
+    }
+
+
+    /**
+     * @return The number of labelled entries
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * An index on an ordered list of attributes. Its keys are the tuples of the normalized values of
+ * these attributes, so that a conjunction of equality filters on the leading attributes is
+ * resolved with a single lookup. An entry having many values for the indexed attributes is
+ * indexed with every combination of these values, up to {@link #MAX_KEYS_PER_ENTRY} keys. An
+ * entry missing an attribute is indexed with an empty value for it, so that it is still found
+ * by a lookup on the preceding attributes.
+ * <br>
+ * The index is stored in two tables created by the partition, like the other user indexes :
+ * the forward table maps each key to the entry IDs, the reverse table maps each entry ID to
+ * its keys.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompositeIndex
+{
+    /** The maximum number of keys an entry can be indexed with */
+    public static final int MAX_KEYS_PER_ENTRY = 1024;
+
+    /** The suffix of the forward table name */
+    public static final String FORWARD_TABLE = "_forward";
+
+    /** The suffix of the reverse table name */
+    public static final String REVERSE_TABLE = "_reverse";
+
+    /** The separator ending each value of a key */
+    private static final char SEPARATOR = '\u0000';
+
+    /** The character escaping the separator and itself in the values */
+    private static final char ESCAPE = '\u0001';
+
+    /** The indexed attributeTypes, in the key order */
+    private final List<AttributeType> attributeTypes;
+
+    /** The name of this index : its attributes names, separated by '+' */
+    private final String name;
+
+    /** The OID of this index : its attributes OIDs, separated by '+' */
+    private final String oid;
+
+    /** The IDs of the entries, per key */
+    private Table<String, String> forward;
+
+    /** The keys, per entry ID */
+    private Table<String, String> reverse;
+
+
+    /**
+     * Creates a new instance of CompositeIndex. It has to be initialized with its tables
+     * before being used.
+     *
+     * @param attributeTypes The indexed attributeTypes, in the key order
+     */
+    public CompositeIndex( List<AttributeType> attributeTypes )
+    {
+        this.attributeTypes = Collections.unmodifiableList( new ArrayList<>( attributeTypes ) );
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder oids = new StringBuilder();
+
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            if ( names.length() > 0 )
+            {
+                names.append( '+' );
+                oids.append( '+' );
+            }
+
+            names.append( attributeType.getName() );
+            oids.append( attributeType.getOid() );
+        }
+
+        name = names.toString();
+        oid = oids.toString();
+    }
+
+
+    /**
+     * Initializes the index with its tables. Both tables must accept duplicate keys, and
+     * order their keys and values with a {@link CompositeKeyComparator}.
+     *
+     * @param forward The table storing the IDs of the entries, per key
+     * @param reverse The table storing the keys, per entry ID
+     */
+    public void init( Table<String, String> forward, Table<String, String> reverse )
+    {
+        this.forward = forward;
+        this.reverse = reverse;
+    }
+
+
+    /**
+     * @return true if the index has been initialized with its tables
+     */
+    public boolean isInitialized()
+    {
+        return forward != null;
+    }
+
+
+    /**
+     * @return The indexed attributeTypes, in the key order
+     */
+    public List<AttributeType> getAttributeTypes()
+    {
+        return attributeTypes;
+    }
+
+
+    /**
+     * @return The name of this index : its attributes names, separated by '+'
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * @return The OID of this index : its attributes OIDs, separated by '+'. It is used to
+     * name the tables.
+     */
+    public String getOid()
+    {
+        return oid;
+    }
+
+
+    /**
+     * Appends a value to a key being built.
+     *
+     * @param sb The key being built
+     * @param normalizedValue The normalized value
+     */
+    public static void appendValue( StringBuilder sb, String normalizedValue )
+    {
+        for ( int i = 0; i < normalizedValue.length(); i++ )
+        {
+            char c = normalizedValue.charAt( i );
+
+            if ( ( c == SEPARATOR ) || ( c == ESCAPE ) )
+            {
+                sb.append( ESCAPE );
+            }
+
+            sb.append( c );
+        }
+
+        sb.append( SEPARATOR );
+    }
+
+
+    /**
+     * Checks that an entry does not have to be indexed with more than {@link #MAX_KEYS_PER_ENTRY}
+     * keys, without computing them.
+     *
+     * @param entry The entry
+     * @throws LdapAdminLimitExceededException If the entry has too many combinations of values
+     */
+    public void checkKeys( Entry entry ) throws LdapAdminLimitExceededException
+    {
+        long nbKeys = 1L;
+
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            Attribute attribute = entry.get( attributeType );
+
+            if ( ( attribute != null ) && ( attribute.size() > 1 ) )
+            {
+                nbKeys *= attribute.size();
+
+                if ( nbKeys > MAX_KEYS_PER_ENTRY )
+                {
+                    throw new LdapAdminLimitExceededException( "The entry " + entry.getDn()
+                        + " has more than " + MAX_KEYS_PER_ENTRY + " combinations of values for the "
+                        + name + " composite index" );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Computes all the keys of an entry.
+     *
+     * @param entry The entry
+     * @return The keys of this entry
+     * @throws LdapAdminLimitExceededException If the entry has too many combinations of values
+     */
+    public Set<String> getKeys( Entry entry ) throws LdapAdminLimitExceededException
+    {
+        checkKeys( entry );
+
+        List<String> keys = new ArrayList<>();
+        keys.add( "" );
+
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            Attribute attribute = entry.get( attributeType );
+            List<String> extendedKeys = new ArrayList<>();
+
+            for ( String key : keys )
+            {
+                if ( ( attribute == null ) || ( attribute.size() == 0 ) )
+                {
+                    StringBuilder sb = new StringBuilder( key );
+                    appendValue( sb, "" );
+                    extendedKeys.add( sb.toString() );
+
+                    continue;
+                }
+
+                for ( Value value : attribute )
+                {
+                    String normalized = value.getNormalized();
+                    StringBuilder sb = new StringBuilder( key );
+                    appendValue( sb, normalized == null ? value.getString() : normalized );
+                    extendedKeys.add( sb.toString() );
+                }
+            }
+
+            keys = extendedKeys;
+        }
+
+        return new HashSet<>( keys );
+    }
+
+
+    /**
+     * Indexes an entry, replacing the keys it was indexed with. Only the keys which have
+     * changed are written.
+     *
+     * @param partitionTxn The write transaction
+     * @param id The entry ID
+     * @param entry The entry
+     * @throws LdapException If the entry has too many combinations of values, or if the
+     * tables can't be written
+     */
+    public void put( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        Set<String> keys = getKeys( entry );
+
+        for ( String oldKey : getKeys( partitionTxn, id ) )
+        {
+            if ( !keys.remove( oldKey ) )
+            {
+                forward.remove( partitionTxn, oldKey, id );
+                reverse.remove( partitionTxn, id, oldKey );
+            }
+        }
+
+        for ( String key : keys )
+        {
+            forward.put( partitionTxn, key, id );
+            reverse.put( partitionTxn, id, key );
+        }
+    }
+
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param partitionTxn The write transaction
+     * @param id The entry ID
+     * @throws LdapException If the tables can't be written
+     */
+    public void remove( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        for ( String key : getKeys( partitionTxn, id ) )
+        {
+            forward.remove( partitionTxn, key, id );
+        }
+
+        reverse.remove( partitionTxn, id );
+    }
+
+
+    /**
+     * Reads the keys an entry is indexed with.
+     *
+     * @param partitionTxn The transaction
+     * @param id The entry ID
+     * @return The keys of the entry
+     * @throws LdapException If the reverse table can't be read
+     */
+    private Set<String> getKeys( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Set<String> keys = new HashSet<>();
+
+        try ( Cursor<String> cursor = reverse.valueCursor( partitionTxn, id ) )
+        {
+            while ( cursor.next() )
+            {
+                keys.add( cursor.get() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return keys;
+    }
+
+
+    /**
+     * Counts the entries whose key starts with a prefix. The counting stops as soon as
+     * a limit is reached.
+     *
+     * @param partitionTxn The transaction
+     * @param prefix The prefix, built with {@link #appendValue(StringBuilder, String)}
+     * @param limit The maximum number of entries to count
+     * @return The number of entries, or the limit if there are more
+     * @throws LdapException If the forward table can't be read
+     */
+    public long count( PartitionTxn partitionTxn, String prefix, long limit ) throws LdapException
+    {
+        long count = 0L;
+
+        try ( Cursor<Tuple<String, String>> cursor = getRange( prefix ) )
+        {
+            while ( ( count < limit ) && next( cursor, prefix ) )
+            {
+                count++;
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Adds the IDs of the entries whose key starts with a prefix to a set.
+     *
+     * @param partitionTxn The transaction
+     * @param prefix The prefix, built with {@link #appendValue(StringBuilder, String)}
+     * @param candidates The set to feed
+     * @return The number of IDs added to the set
+     * @throws LdapException If the forward table can't be read
+     */
+    public long addCandidates( PartitionTxn partitionTxn, String prefix, Set<String> candidates )
+        throws LdapException
+    {
+        long nbAdded = 0L;
+
+        try ( Cursor<Tuple<String, String>> cursor = getRange( prefix ) )
+        {
+            while ( next( cursor, prefix ) )
+            {
+                if ( candidates.add( cursor.get().getValue() ) )
+                {
+                    nbAdded++;
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return nbAdded;
+    }
+
+
+    /**
+     * Creates a cursor on the forward table, positioned before the first key starting
+     * with a prefix.
+     */
+    private Cursor<Tuple<String, String>> getRange( String prefix ) throws LdapException, CursorException
+    {
+        Cursor<Tuple<String, String>> cursor = forward.cursor();
+        cursor.before( new Tuple<String, String>( prefix, null ) );
+
+        return cursor;
+    }
+
+
+    /**
+     * Moves a cursor to the next tuple, if its key still starts with a prefix.
+     */
+    private static boolean next( Cursor<Tuple<String, String>> cursor, String prefix )
+        throws LdapException, CursorException
+    {
+        return cursor.next() && cursor.get().getKey().startsWith( prefix );
+    }
+
+
+    /**
+     * Tells if the index is empty.
+     *
+     * @param partitionTxn The transaction
+     * @return true if no entry is indexed
+     * @throws LdapException If the reverse table can't be read
+     */
+    public boolean isEmpty( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return reverse.count( partitionTxn ) == 0L;
+    }
+
+
+    /**
+     * Closes the tables of the index. It has to be initialized again before being used.
+     *
+     * @param partitionTxn The transaction
+     * @throws LdapException If the tables can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( forward != null )
+        {
+            forward.close( partitionTxn );
+            reverse.close( partitionTxn );
+            forward = null;
+            reverse = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "CompositeIndex[" + name + "]";
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The composite indexes of a partition. They are stored in tables created by the partition,
+ * built from the master table when they are created, and then updated in the transaction
+ * writing each entry in the master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompositeIndexes
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CompositeIndexes.class );
+
+    /** The declared indexes */
+    private final List<CompositeIndex> indexes = new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Declares a new composite index. It has to be initialized by the partition.
+     *
+     * @param index The declared index
+     * @return true if the index was not already declared
+     */
+    public synchronized boolean declare( CompositeIndex index )
+    {
+        for ( CompositeIndex declared : indexes )
+        {
+            if ( declared.getAttributeTypes().equals( index.getAttributeTypes() ) )
+            {
+                return false;
+            }
+        }
+
+        indexes.add( index );
+
+        return true;
+    }
+
+
+    /**
+     * @return The declared indexes
+     */
+    public List<CompositeIndex> getIndexes()
+    {
+        return Collections.unmodifiableList( indexes );
+    }
+
+
+    /**
+     * @return true if no composite index is declared
+     */
+    public boolean isEmpty()
+    {
+        return indexes.isEmpty();
+    }
+
+
+    /**
+     * Builds some indexes, reading all the entries of the master table.
+     *
+     * @param partitionTxn The write transaction
+     * @param master The master table
+     * @param toBuild The indexes to build
+     * @throws LdapException If the master table can't be read, or the indexes written
+     */
+    public void build( PartitionTxn partitionTxn, MasterTable master, List<CompositeIndex> toBuild )
+        throws LdapException
+    {
+        try ( Cursor<Tuple<String, Entry>> cursor = master.cursor() )
+        {
+            while ( cursor.next() )
+            {
+                Tuple<String, Entry> tuple = cursor.get();
+
+                for ( CompositeIndex index : toBuild )
+                {
+                    index.put( partitionTxn, tuple.getKey(), tuple.getValue() );
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        LOG.debug( "Built the composite indexes {}", toBuild );
+    }
+
+
+    /**
+     * Checks that an entry can be indexed by all the indexes, before it is written.
+     *
+     * @param entry The entry
+     * @throws LdapException If the entry has too many combinations of values for an index
+     */
+    public void check( Entry entry ) throws LdapException
+    {
+        for ( CompositeIndex index : indexes )
+        {
+            index.checkKeys( entry );
+        }
+    }
+
+
+    /**
+     * Indexes an entry which is written in the master table.
+     *
+     * @param partitionTxn The write transaction
+     * @param id The entry ID
+     * @param entry The entry
+     * @throws LdapException If the entry has too many combinations of values for an index,
+     * or if an index can't be written
+     */
+    public void put( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        check( entry );
+
+        for ( CompositeIndex index : indexes )
+        {
+            if ( index.isInitialized() )
+            {
+                index.put( partitionTxn, id, entry );
+            }
+        }
+    }
+
+
+    /**
+     * Removes an entry which is removed from the master table.
+     *
+     * @param partitionTxn The write transaction
+     * @param id The entry ID
+     * @throws LdapException If an index can't be written
+     */
+    public void remove( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        for ( CompositeIndex index : indexes )
+        {
+            if ( index.isInitialized() )
+            {
+                index.remove( partitionTxn, id );
+            }
+        }
+    }
+
+
+    /**
+     * Closes the tables of all the indexes.
+     *
+     * @param partitionTxn The transaction
+     * @throws LdapException If an index can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        for ( CompositeIndex index : indexes )
+        {
+            index.close( partitionTxn );
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The pending changes of the number of children and descendants of the entries of a partition.
+ * <br>
+ * Adding or deleting an entry changes the counts of all its ancestors. Instead of rewriting the
+ * {@link ParentIdAndRdn} of each ancestor in the Rdn index, the changes are accumulated here as
+ * deltas, and merged into the Rdn index by the transaction which made the changes, when it is
+ * committed, so that all the changes made to the same ancestor by a transaction are written once.
+ * The exact counts are the counts stored in the Rdn index plus the pending deltas. When a
+ * transaction is rolled back, the pending deltas are dropped along with the changes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DescendantCounters
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( DescendantCounters.class );
+
+    /** The pending deltas, per entry ID */
+    private final Map<String, Delta> deltas = new ConcurrentHashMap<>();
+
+    /**
+     * The changes of the counts of an entry. The instances are immutable, so that they can be
+     * atomically merged and removed.
+     */
+    private static final class Delta
+    {
+        /** The change of the number of children */
+        private final int nbChildren;
+
+        /** The change of the number of descendants */
+        private final int nbDescendants;
+
+
+        private Delta( int nbChildren, int nbDescendants )
+        {
+            this.nbChildren = nbChildren;
+            this.nbDescendants = nbDescendants;
+        }
+
+
+        /**
+         * @return The sum of the two deltas, or null if it is empty
+         */
+        private static Delta sum( Delta delta1, Delta delta2 )
+        {
+            int nbChildren = delta1.nbChildren + delta2.nbChildren;
+            int nbDescendants = delta1.nbDescendants + delta2.nbDescendants;
+
+            if ( ( nbChildren == 0 ) && ( nbDescendants == 0 ) )
+            {
+                return null;
+            }
+
+            return new Delta( nbChildren, nbDescendants );
+        }
+    }
+
+
+    /**
+     * Records a change of the counts of an entry.
+     *
+     * @param id The entry ID
+     * @param nbChildren The number of children added, negative if children have been removed
+     * @param nbDescendants The number of descendants added, negative if descendants have been removed
+     */
+    public void add( String id, int nbChildren, int nbDescendants )
+    {
+        if ( ( nbChildren != 0 ) || ( nbDescendants != 0 ) )
+        {
+            deltas.merge( id, new Delta( nbChildren, nbDescendants ), Delta::sum );
+        }
+    }
+
+
+    /**
+     * Gets the exact number of children of an entry.
+     *
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry's ParentIdAndRdn, as stored in the Rdn index
+     * @return The number of children
+     */
+    public int getNbChildren( String id, ParentIdAndRdn parentIdAndRdn )
+    {
+        Delta delta = deltas.get( id );
+
+        if ( delta == null )
+        {
+            return parentIdAndRdn.getNbChildren();
+        }
+
+        return parentIdAndRdn.getNbChildren() + delta.nbChildren;
+    }
+
+
+    /**
+     * Gets the exact number of descendants of an entry.
+     *
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry's ParentIdAndRdn, as stored in the Rdn index
+     * @return The number of descendants
+     */
+    public int getNbDescendants( String id, ParentIdAndRdn parentIdAndRdn )
+    {
+        Delta delta = deltas.get( id );
+
+        if ( delta == null )
+        {
+            return parentIdAndRdn.getNbDescendants();
+        }
+
+        return parentIdAndRdn.getNbDescendants() + delta.nbDescendants;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if there is no pending change
+     */
+    public boolean isEmpty()
+    {
+        return deltas.isEmpty();
+    }
+
+
+    /**
+     * @return The number of entries having pending changes
+     */
+    public int size()
+    {
+        return deltas.size();
+    }
+
+
+    /**
+     * Writes the pending changes into the Rdn index. Each delta is removed before being written,
+     * so a change recorded concurrently is kept for the next flush. The caller must prevent any
+     * concurrent read of the counts.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIndex The partition Rdn index
+     * @throws LdapException If the Rdn index can't be updated
+     */
+    public void flush( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIndex ) throws LdapException
+    {
+        int nbUpdated = 0;
+
+        for ( String id : deltas.keySet() )
+        {
+            Delta delta = deltas.remove( id );
+
+            if ( delta == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                ParentIdAndRdn parentIdAndRdn = rdnIndex.reverseLookup( partitionTxn, id );
+
+                // The entry may have been deleted since
+                if ( parentIdAndRdn != null )
+                {
+                    rdnIndex.drop( partitionTxn, id );
+                    parentIdAndRdn.setNbChildren( parentIdAndRdn.getNbChildren() + delta.nbChildren );
+                    parentIdAndRdn.setNbDescendants( parentIdAndRdn.getNbDescendants() + delta.nbDescendants );
+                    rdnIndex.add( partitionTxn, parentIdAndRdn, id );
+                    nbUpdated++;
+                }
+            }
+            catch ( LdapException | RuntimeException e )
+            {
+                // Keep the delta, the transaction will be aborted
+                deltas.merge( id, delta, Delta::sum );
+
+                throw e;
+            }
+        }
+
+        LOG.debug( "Flushed the descendant counters of {} entries", nbUpdated );
+    }
+
+
+    /**
+     * Drops all the pending changes. This is done when the changes they belong to have been
+     * rolled back.
+     */
+    public void clear()
+    {
+        deltas.clear();
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A snapshot of the distribution of the keys of an index, used by the optimizer to estimate
+ * the number of candidates of a filter. It contains :
+ * <ul>
+ *   <li>the number of tuples and the number of distinct keys</li>
+ *   <li>the most frequent keys, with their exact number of tuples</li>
+ *   <li>an equi-depth histogram : the keys bounding buckets holding the same number of tuples</li>
+ * </ul>
+ * The keys are compared as Strings, in their normalized form.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The number of tuples in the index */
+    private final long count;
+
+    /** The number of distinct keys in the index */
+    private final long cardinality;
+
+    /** The most frequent keys, and their number of tuples */
+    private final Map<String, Long> heavyHitters;
+
+    /** The number of tuples of the heavy hitters */
+    private final long heavyHittersCount;
+
+    /** The upper bound of each bucket of the histogram */
+    private final String[] boundaries;
+
+
+    /**
+     * Creates a new instance of IndexStatistics.
+     *
+     * @param count The number of tuples in the index
+     * @param cardinality The number of distinct keys in the index
+     * @param heavyHitters The most frequent keys, and their number of tuples
+     * @param boundaries The upper bound of each bucket of the histogram, in ascending order
+     */
+    public IndexStatistics( long count, long cardinality, Map<String, Long> heavyHitters, String[] boundaries )
+    {
+        this.count = count;
+        this.cardinality = cardinality;
+        this.heavyHitters = Collections.unmodifiableMap( heavyHitters );
+        this.boundaries = boundaries;
+
+        long hhCount = 0L;
+
+        for ( long nb : heavyHitters.values() )
+        {
+            hhCount += nb;
+        }
+
+        heavyHittersCount = hhCount;
+    }
+
+
+    /**
+     * Computes the statistics of an index, reading all its keys.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index to read
+     * @param nbBuckets The number of buckets of the histogram
+     * @param nbHeavyHitters The number of most frequent keys to keep
+     * @return The index statistics
+     * @throws LdapException If the index can't be read
+     */
+    public static IndexStatistics build( PartitionTxn partitionTxn, Index<?, String> index, int nbBuckets,
+        int nbHeavyHitters ) throws LdapException
+    {
+        long count = index.count( partitionTxn );
+        long bucketSize = Math.max( 1L, ( count + nbBuckets - 1 ) / nbBuckets );
+        List<String> boundaries = new ArrayList<>( nbBuckets );
+        PriorityQueue<Map.Entry<String, Long>> topKeys = new PriorityQueue<>( nbHeavyHitters + 1,
+            ( e1, e2 ) -> Long.compare( e1.getValue(), e2.getValue() ) );
+
+        long cardinality = 0L;
+        long nbRead = 0L;
+        String currentKey = null;
+        long currentCount = 0L;
+
+        try ( Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            while ( cursor.next() )
+            {
+                String key = String.valueOf( cursor.get().getKey() );
+                nbRead++;
+
+                if ( !key.equals( currentKey ) )
+                {
+                    if ( currentKey != null )
+                    {
+                        addTopKey( topKeys, currentKey, currentCount, nbHeavyHitters );
+                    }
+
+                    currentKey = key;
+                    currentCount = 0L;
+                    cardinality++;
+                }
+
+                currentCount++;
+
+                if ( nbRead % bucketSize == 0 )
+                {
+                    boundaries.add( key );
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        if ( currentKey != null )
+        {
+            addTopKey( topKeys, currentKey, currentCount, nbHeavyHitters );
+
+            if ( nbRead % bucketSize != 0 )
+            {
+                boundaries.add( currentKey );
+            }
+        }
+
+        Map<String, Long> heavyHitters = new HashMap<>();
+
+        for ( Map.Entry<String, Long> topKey : topKeys )
+        {
+            heavyHitters.put( topKey.getKey(), topKey.getValue() );
+        }
+
+        // The index order may not be the String order (numeric keys for instance)
+        String[] sortedBoundaries = boundaries.toArray( new String[0] );
+        Arrays.sort( sortedBoundaries );
+
+        return new IndexStatistics( nbRead, cardinality, heavyHitters, sortedBoundaries );
+    }
+
+
+    private static void addTopKey( PriorityQueue<Map.Entry<String, Long>> topKeys, String key, long nb,
+        int nbHeavyHitters )
+    {
+        // Only the keys more frequent than the others are worth keeping
+        if ( nb < 2 )
+        {
+            return;
+        }
+
+        topKeys.add( new SimpleImmutableEntry<>( key, nb ) );
+
+        if ( topKeys.size() > nbHeavyHitters )
+        {
+            topKeys.poll();
+        }
+    }
+
+
+    /**
+     * Estimates the number of tuples having a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples
+     */
+    public long estimateEquality( String key )
+    {
+        Long nb = heavyHitters.get( key );
+
+        if ( nb != null )
+        {
+            return nb;
+        }
+
+        long otherKeys = cardinality - heavyHitters.size();
+
+        if ( otherKeys <= 0 )
+        {
+            return 0L;
+        }
+
+        // The keys which are not heavy hitters are presumed uniformly distributed
+        return Math.max( 1L, ( count - heavyHittersCount ) / otherKeys );
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key strictly lower than a given key.
+     */
+    private long estimateLessThan( String key )
+    {
+        if ( boundaries.length == 0 )
+        {
+            return 0L;
+        }
+
+        double bucketSize = ( double ) count / boundaries.length;
+        int pos = Arrays.binarySearch( boundaries, key );
+
+        if ( pos >= 0 )
+        {
+            // Go back to the first bucket ending with this key
+            while ( ( pos > 0 ) && boundaries[pos - 1].equals( key ) )
+            {
+                pos--;
+            }
+
+            // The tuples with this key are in the bucket ending with it
+            return Math.max( 0L, ( long ) ( ( pos + 1 ) * bucketSize ) - estimateEquality( key ) );
+        }
+
+        // The key is in the middle of a bucket : presume half of it is lower
+        int insertion = -pos - 1;
+
+        if ( insertion == boundaries.length )
+        {
+            return count;
+        }
+
+        return ( long ) ( ( insertion + 0.5 ) * bucketSize );
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key greater than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples
+     */
+    public long estimateGreaterOrEqual( String key )
+    {
+        return Math.max( 0L, count - estimateLessThan( key ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key lower than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples
+     */
+    public long estimateLessOrEqual( String key )
+    {
+        return Math.min( count, estimateLessThan( key ) + estimateEquality( key ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key starting with a given prefix.
+     *
+     * @param prefix The normalized prefix
+     * @return The estimated number of tuples
+     */
+    public long estimatePrefix( String prefix )
+    {
+        long nb = estimateLessThan( prefix + Character.MAX_VALUE ) - estimateLessThan( prefix );
+
+        // A prefix in the middle of a bucket would otherwise be estimated to 0
+        return Math.min( count, Math.max( nb, estimateEquality( prefix ) ) );
+    }
+
+
+    /**
+     * @return The number of tuples in the index
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of distinct keys in the index
+     */
+    public long getCardinality()
+    {
+        return cardinality;
+    }
+
+
+    /**
+     * @return The most frequent keys, and their number of tuples
+     */
+    public Map<String, Long> getHeavyHitters()
+    {
+        return heavyHitters;
+    }
+
+
+    /**
+     * @return The number of buckets of the histogram
+     */
+    public int getNbBuckets()
+    {
+        return boundaries.length;
+    }
+
+
+    /**
+     * Writes the statistics.
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public void write( DataOutput out ) throws IOException
+    {
+        out.writeLong( count );
+        out.writeLong( cardinality );
+        out.writeInt( heavyHitters.size() );
+
+        for ( Map.Entry<String, Long> heavyHitter : heavyHitters.entrySet() )
+        {
+            out.writeUTF( heavyHitter.getKey() );
+            out.writeLong( heavyHitter.getValue() );
+        }
+
+        out.writeInt( boundaries.length );
+
+        for ( String boundary : boundaries )
+        {
+            out.writeUTF( boundary );
+        }
+    }
+
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @return The statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics read( DataInput in ) throws IOException
+    {
+        long count = in.readLong();
+        long cardinality = in.readLong();
+        int nbHeavyHitters = in.readInt();
+        Map<String, Long> heavyHitters = new HashMap<>();
+
+        for ( int i = 0; i < nbHeavyHitters; i++ )
+        {
+            heavyHitters.put( in.readUTF(), in.readLong() );
+        }
+
+        String[] boundaries = new String[in.readInt()];
+
+        for ( int i = 0; i < boundaries.length; i++ )
+        {
+            boundaries[i] = in.readUTF();
+        }
+
+        return new IndexStatistics( count, cardinality, heavyHitters, boundaries );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "IndexStatistics[count=" + count + ", cardinality=" + cardinality + ", heavyHitters="
+            + heavyHitters.size() + ", buckets=" + boundaries.length + "]";
+    }
+}
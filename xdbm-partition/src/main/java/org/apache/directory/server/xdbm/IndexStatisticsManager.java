@@ -0,0 +1,311 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The statistics of the indices of a partition, used by the optimizer. The statistics are
+ * computed by reading the indices, and refreshed when enough entries have been modified since
+ * they were computed. They can be saved in the partition directory, so that they are available
+ * as soon as the partition is started.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsManager
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( IndexStatisticsManager.class );
+
+    /** The name of the file storing the statistics in the partition directory */
+    public static final String STATISTICS_FILE = "index.statistics";
+
+    /** The version of the statistics file format */
+    private static final int VERSION = 1;
+
+    /** The default number of buckets of the histograms */
+    public static final int NB_BUCKETS_DEFAULT = 64;
+
+    /** The default number of most frequent keys kept per index */
+    public static final int NB_HEAVY_HITTERS_DEFAULT = 16;
+
+    /** The default ratio of modified entries after which the statistics are refreshed */
+    public static final double REFRESH_RATIO_DEFAULT = 0.1d;
+
+    /** The minimum number of modifications before the statistics are refreshed */
+    private static final long MIN_MODIFICATIONS = 100L;
+
+    /** The number of buckets of the histograms */
+    private int nbBuckets = NB_BUCKETS_DEFAULT;
+
+    /** The number of most frequent keys kept per index */
+    private int nbHeavyHitters = NB_HEAVY_HITTERS_DEFAULT;
+
+    /** The ratio of modified entries after which the statistics are refreshed */
+    private double refreshRatio = REFRESH_RATIO_DEFAULT;
+
+    /** The statistics, per attributeType OID */
+    private final Map<String, IndexStatistics> statistics = new ConcurrentHashMap<>();
+
+    /** The number of modifications since the statistics have been computed */
+    private final LongAdder modifications = new LongAdder();
+
+    /** The number of modifications which have not been committed yet */
+    private final LongAdder uncommitted = new LongAdder();
+
+    /** Tells if the statistics have been computed or loaded */
+    private volatile boolean built;
+
+
+    /**
+     * Gets the statistics of an index.
+     *
+     * @param oid The OID of the indexed attributeType
+     * @return The statistics, or null if they haven't been computed
+     */
+    public IndexStatistics get( String oid )
+    {
+        return statistics.get( oid );
+    }
+
+
+    /**
+     * Records the modification of an entry.
+     */
+    public void modified()
+    {
+        modifications.increment();
+        uncommitted.increment();
+    }
+
+
+    /**
+     * Records the commit of the modifications.
+     */
+    public void committed()
+    {
+        uncommitted.sumThenReset();
+    }
+
+
+    /**
+     * Records the rollback of the modifications which have not been committed : they are
+     * not counted anymore.
+     */
+    public void rolledBack()
+    {
+        modifications.add( -uncommitted.sumThenReset() );
+    }
+
+
+    /**
+     * Tells if the statistics must be computed again.
+     *
+     * @param nbEntries The number of entries in the partition
+     * @return true if the statistics have never been computed, or if too many entries have been
+     * modified since
+     */
+    public boolean isStale( long nbEntries )
+    {
+        if ( !built )
+        {
+            return true;
+        }
+
+        return modifications.sum() > Math.max( MIN_MODIFICATIONS, ( long ) ( nbEntries * refreshRatio ) );
+    }
+
+
+    /**
+     * Computes the statistics of some indices.
+     *
+     * @param partitionTxn The transaction to use
+     * @param indices The indices to read
+     * @throws LdapException If an index can't be read
+     */
+    public void refresh( PartitionTxn partitionTxn, Collection<Index<?, String>> indices ) throws LdapException
+    {
+        // The modifications done while reading the indices will be counted for the next refresh
+        modifications.reset();
+
+        for ( Index<?, String> index : indices )
+        {
+            IndexStatistics indexStatistics = IndexStatistics.build( partitionTxn, index, nbBuckets, nbHeavyHitters );
+            statistics.put( index.getAttribute().getOid(), indexStatistics );
+
+            LOG.debug( "Computed the statistics of the {} index : {}", index.getAttributeId(), indexStatistics );
+        }
+
+        built = true;
+    }
+
+
+    /**
+     * Saves the statistics in a file. The file is replaced atomically.
+     *
+     * @param file The file to write
+     * @throws IOException If the file can't be written
+     */
+    public void save( File file ) throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( tmpFile ) ) ) )
+        {
+            out.writeInt( VERSION );
+            out.writeInt( statistics.size() );
+
+            for ( Map.Entry<String, IndexStatistics> entry : statistics.entrySet() )
+            {
+                out.writeUTF( entry.getKey() );
+                entry.getValue().write( out );
+            }
+        }
+
+        Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Loads the statistics saved in a file. Nothing is loaded if the file does not exist or
+     * can't be read : the statistics will be computed again.
+     *
+     * @param file The file to read
+     */
+    public void load( File file )
+    {
+        if ( !file.exists() )
+        {
+            return;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            if ( in.readInt() != VERSION )
+            {
+                LOG.info( "Ignoring the index statistics file {}, its format is not supported", file );
+
+                return;
+            }
+
+            int nbIndices = in.readInt();
+
+            for ( int i = 0; i < nbIndices; i++ )
+            {
+                String oid = in.readUTF();
+                statistics.put( oid, IndexStatistics.read( in ) );
+            }
+
+            built = true;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot read the index statistics file {}, they will be computed again", file, ioe );
+            statistics.clear();
+        }
+    }
+
+
+    /**
+     * Removes all the statistics.
+     */
+    public void clear()
+    {
+        statistics.clear();
+        modifications.reset();
+        built = false;
+    }
+
+
+    /**
+     * @return The number of buckets of the histograms
+     */
+    public int getNbBuckets()
+    {
+        return nbBuckets;
+    }
+
+
+    /**
+     * @param nbBuckets The number of buckets of the histograms
+     */
+    public void setNbBuckets( int nbBuckets )
+    {
+        this.nbBuckets = nbBuckets;
+    }
+
+
+    /**
+     * @return The number of most frequent keys kept per index
+     */
+    public int getNbHeavyHitters()
+    {
+        return nbHeavyHitters;
+    }
+
+
+    /**
+     * @param nbHeavyHitters The number of most frequent keys kept per index
+     */
+    public void setNbHeavyHitters( int nbHeavyHitters )
+    {
+        this.nbHeavyHitters = nbHeavyHitters;
+    }
+
+
+    /**
+     * @return The ratio of modified entries after which the statistics are refreshed
+     */
+    public double getRefreshRatio()
+    {
+        return refreshRatio;
+    }
+
+
+    /**
+     * @param refreshRatio The ratio of modified entries after which the statistics are refreshed
+     */
+    public void setRefreshRatio( double refreshRatio )
+    {
+        this.refreshRatio = refreshRatio;
+    }
+}
@@ -211,6 +211,36 @@ public interface Store
     Index<ParentIdAndRdn, String> getRdnIndex();
 
 
+    /**
+     * Gets the ancestry labels of the entries. If they are not built, their build is started
+     * in the background, and they give no label until it's done.
+     *
+     * @param partitionTxn The transaction to use
+     * @return The ancestry labels
+     * @throws LdapException If the labels can't be read
+     */
+    AncestryLabels getAncestryLabels( PartitionTxn partitionTxn ) throws LdapException;
+
+
+    /**
+     * @return The pending changes of the number of children and descendants, which have
+     * to be added to the counts stored in the Rdn index
+     */
+    DescendantCounters getDescendantCounters();
+
+
+    /**
+     * @return The statistics of the indices, used by the optimizer
+     */
+    IndexStatisticsManager getIndexStatistics();
+
+
+    /**
+     * @return The composite indexes
+     */
+    CompositeIndexes getCompositeIndexes();
+
+
     /**
      * @return The ObjectClass system index
      */
@@ -267,10 +267,10 @@ public class DescendantCursor extends AbstractIndexCursor<String>
                     }
 
                     // Check if the current entry has children or not.
-                    if ( parentIdAndRdn.getNbDescendants() > 0 )
-                    {
-                        String newParentId = ( String ) cursorEntry.getId();
+                    String newParentId = ( String ) cursorEntry.getId();
 
+                    if ( db.getDescendantCounters().getNbDescendants( newParentId, parentIdAndRdn ) > 0 )
+                    {
                         // Yes, then create a new cursor and go down one level
                         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = db.getRdnIndex().forwardCursor( partitionTxn );
 
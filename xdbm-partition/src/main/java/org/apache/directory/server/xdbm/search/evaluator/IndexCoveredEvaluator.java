@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.evaluator;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.Evaluator;
+
+
+/**
+ * An Evaluator used when the candidates are known to match the filter, and when no attribute
+ * has been requested : the candidates are only checked against the search scope, and returned as
+ * entries having a Dn and no attribute, built from the Rdn index. The master table is not read.
+ * <br>
+ * The referrals and the subentries are still fetched and checked with the full evaluator, as
+ * the upper layers need their attributes to handle them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexCoveredEvaluator implements Evaluator<ExprNode>
+{
+    /** The backend */
+    private final Store db;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The search scope */
+    private final ScopeNode scopeNode;
+
+    /** The evaluator used for the entries that have to be fetched */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** The objectClass index keys of the entries that have to be fetched */
+    private final List<String> fetchedObjectClasses = new ArrayList<>();
+
+
+    /**
+     * Creates a new instance of IndexCoveredEvaluator.
+     *
+     * @param db The Store instance
+     * @param schemaManager The SchemaManager instance
+     * @param scopeNode The search scope
+     * @param evaluator The evaluator used for the entries that have to be fetched
+     * @throws LdapException If the referral or subentry ObjectClasses can't be found
+     */
+    public IndexCoveredEvaluator( Store db, SchemaManager schemaManager, ScopeNode scopeNode,
+        Evaluator<? extends ExprNode> evaluator ) throws LdapException
+    {
+        this.db = db;
+        this.schemaManager = schemaManager;
+        this.scopeNode = scopeNode;
+        this.evaluator = evaluator;
+
+        AttributeType objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT_OID );
+        Normalizer normalizer = objectClassAT.getEquality().getNormalizer();
+
+        // The objectClass index keys are the normalized values, either names or OIDs
+        for ( String objectClassId : new String[]
+            { SchemaConstants.REFERRAL_OC, SchemaConstants.SUBENTRY_OC } )
+        {
+            ObjectClass objectClass = schemaManager.lookupObjectClassRegistry( objectClassId );
+
+            fetchedObjectClasses.add( normalizer.normalize( objectClass.getOid() ) );
+
+            for ( String name : objectClass.getNames() )
+            {
+                fetchedObjectClasses.add( normalizer.normalize( name ) );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
+    {
+        if ( indexEntry.getEntry() != null )
+        {
+            return evaluator.evaluate( partitionTxn, indexEntry );
+        }
+
+        String id = indexEntry.getId();
+
+        for ( String objectClass : fetchedObjectClasses )
+        {
+            if ( db.getObjectClassIndex().forward( partitionTxn, objectClass, id ) )
+            {
+                return evaluator.evaluate( partitionTxn, indexEntry );
+            }
+        }
+
+        Dn dn = db.getEntryDn( partitionTxn, id );
+
+        if ( ( dn == null ) || !isInScope( dn ) )
+        {
+            return false;
+        }
+
+        indexEntry.setEntry( new DefaultEntry( schemaManager, dn ) );
+
+        return true;
+    }
+
+
+    private boolean isInScope( Dn dn )
+    {
+        Dn baseDn = scopeNode.getBaseDn();
+
+        if ( !dn.isDescendantOf( baseDn ) )
+        {
+            return false;
+        }
+
+        if ( scopeNode.getScope() == SearchScope.ONELEVEL )
+        {
+            return dn.size() == baseDn.size() + 1;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean evaluate( Entry entry ) throws LdapException
+    {
+        return evaluator.evaluate( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExprNode getExpression()
+    {
+        return evaluator.getExpression();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "IndexCoveredEvaluator : " ).append( scopeNode ).append( '\n' );
+        sb.append( evaluator.toString( tabs + "  " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -25,11 +25,10 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AncestryLabels;
 import org.apache.directory.server.xdbm.IndexEntry;
-import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -66,6 +65,12 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     /** The entry database/store */
     private final Store db;
 
+    /** The partition ancestry labels */
+    private final AncestryLabels ancestryLabels;
+
+    /** The label of the scope base, null if the labels can't be used */
+    private final String baseLabel;
+
 
     /**
      * Creates a subtree scope node evaluator for search expressions.
@@ -90,39 +95,32 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
         baseIsContextEntry = db.getSuffixId( partitionTxn ) == baseId;
 
         dereferencing = node.getDerefAliases().isDerefInSearching() || node.getDerefAliases().isDerefAlways();
+
+        ancestryLabels = db.getAncestryLabels( partitionTxn );
+        baseLabel = ancestryLabels.getLabel( baseId );
     }
 
 
     /**
-     * Tells if a candidate is a descendant of the base ID. We have to fetch all 
-     * the parentIdAndRdn up to the baseId. If we terminate on the context entry without 
-     * having found the baseId, then the candidate is not a descendant.
+     * Tells if a candidate is a descendant of the base ID, comparing their ancestry labels.
+     * 
+     * @return TRUE or FALSE, or null if the candidate label is not known
      */
-    private boolean isDescendant( PartitionTxn partitionTxn, String candidateId ) throws LdapException
+    private Boolean isDescendant( String candidateId )
     {
-        String tmp = candidateId;
-
-        while ( true )
+        if ( baseLabel == null )
         {
-            ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, tmp );
-
-            if ( parentIdAndRdn == null )
-            {
-                return false;
-            }
-
-            tmp = parentIdAndRdn.getParentId();
+            return null;
+        }
 
-            if ( tmp.equals( Partition.ROOT_ID ) )
-            {
-                return false;
-            }
+        String label = ancestryLabels.getLabel( candidateId );
 
-            if ( tmp.equals( baseId ) )
-            {
-                return true;
-            }
+        if ( label == null )
+        {
+            return null;
         }
+
+        return AncestryLabels.isDescendant( label, baseLabel );
     }
 
 
@@ -133,6 +131,31 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         String id = indexEntry.getId();
+
+        /*
+         * This condition catches situations where the candidate is equal to 
+         * the base entry and when the base entry is the context entry.  Note
+         * we do not store a mapping in the subtree index of the context entry
+         * to all it's subordinates since that would be the entire set of 
+         * entries in the db.
+         */
+        Boolean isLabelDescendant = Boolean.TRUE;
+
+        if ( !baseIsContextEntry && !baseId.equals( id ) )
+        {
+            // Compare the ancestry labels first
+            isLabelDescendant = isDescendant( id );
+        }
+
+        /*
+         * A candidate out of scope is rejected without fetching it, unless
+         * an alias could bring it back into the subtree scope
+         */
+        if ( Boolean.FALSE.equals( isLabelDescendant ) && !isDereferencing() )
+        {
+            return false;
+        }
+
         Entry entry = indexEntry.getEntry();
 
         // Fetch the entry
@@ -149,14 +172,16 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
             indexEntry.setEntry( entry );
         }
 
-        /*
-         * This condition catches situations where the candidate is equal to 
-         * the base entry and when the base entry is the context entry.  Note
-         * we do not store a mapping in the subtree index of the context entry
-         * to all it's subordinates since that would be the entire set of 
-         * entries in the db.
-         */
-        boolean isDescendant = baseIsContextEntry || baseId.equals( id ) || entry.getDn().isDescendantOf( node.getBaseDn() );
+        boolean isDescendant;
+
+        if ( isLabelDescendant != null )
+        {
+            isDescendant = isLabelDescendant;
+        }
+        else
+        {
+            isDescendant = entry.getDn().isDescendantOf( node.getBaseDn() );
+        }
 
         /*
          * The candidate id could be any entry in the db.  If search
@@ -21,7 +21,10 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -53,6 +56,8 @@ import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompositeIndex;
+import org.apache.directory.server.xdbm.CompositeIndexes;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -510,10 +515,23 @@ public class CursorBuilder
         }
 
         int nbResults = 0;
+        String baseId = node.getBaseId();
+
+        // The ancestry labels give us the whole subtree with a single range lookup
+        Collection<String> subtree = db.getAncestryLabels( partitionTxn ).getSubtree( baseId );
+
+        if ( subtree != null )
+        {
+            for ( String uuid : subtree )
+            {
+                nbResults += addSubLevelCandidate( partitionTxn, node, searchResult, uuid );
+            }
+
+            return nbResults;
+        }
 
         // We use the RdnIndex to get all the entries from a starting point
         // and below up to the number of descendant
-        String baseId = node.getBaseId();
         ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, baseId );
         IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
 
@@ -525,7 +543,6 @@ public class CursorBuilder
         String parentId = parentIdAndRdn.getParentId();
 
         Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( partitionTxn, db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -533,54 +550,59 @@ public class CursorBuilder
         {
             IndexEntry<String, String> indexEntry = scopeCursor.get();
 
-            String uuid = indexEntry.getId();
+            nbResults += addSubLevelCandidate( partitionTxn, node, searchResult, indexEntry.getId() );
+        }
 
-            // If the entry is an alias, and we asked for it to be dereferenced,
-            // we will dereference the alias
-            if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
-            {
-                Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
+        scopeCursor.close();
 
-                if ( aliasedDn != null )
-                {
-                    if ( !aliasedDn.isSchemaAware() )
-                    {
-                        aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
-                    }
+        return nbResults;
+    }
 
-                    String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
 
-                    // This is an alias. Add it to the set of candidates to process, if it's not already
-                    // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
+    /**
+     * Adds a subtree scope candidate to the set of candidates, dereferencing it if it's an alias.
+     */
+    private long addSubLevelCandidate( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult,
+        String uuid ) throws LdapException, IOException, CursorException
+    {
+        long nbResults = 0;
+        Set<String> candidateSet = searchResult.getCandidateSet();
 
-                        ScopeNode newScopeNode = new ScopeNode(
-                            node.getDerefAliases(),
-                            aliasedDn,
-                            aliasedId,
-                            node.getScope() );
+        // If the entry is an alias, and we asked for it to be dereferenced,
+        // we will dereference the alias
+        if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
+        {
+            Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
 
-                        nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
-                    }
+            if ( aliasedDn != null )
+            {
+                if ( !aliasedDn.isSchemaAware() )
+                {
+                    aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
                 }
-                else
+
+                String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
+
+                // This is an alias. Add it to the set of candidates to process, if it's not already
+                // present in the candidate set 
+                boolean added = candidateSet.add( aliasedId );
+                
+                if ( added )
                 {
-                    // This is not an alias
-                    // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
-                    }
+                    nbResults++;
+
+                    ScopeNode newScopeNode = new ScopeNode(
+                        node.getDerefAliases(),
+                        aliasedDn,
+                        aliasedId,
+                        node.getScope() );
+
+                    nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
                 }
             }
             else
             {
+                // This is not an alias
                 // The UUID is not present in the Set, we add it
                 boolean added = candidateSet.add( uuid );
                 
@@ -590,8 +612,16 @@ public class CursorBuilder
                 }
             }
         }
-
-        scopeCursor.close();
+        else
+        {
+            // The UUID is not present in the Set, we add it
+            boolean added = candidateSet.add( uuid );
+            
+            if ( added )
+            {
+                nbResults++;
+            }
+        }
 
         return nbResults;
     }
@@ -783,13 +813,16 @@ public class CursorBuilder
         throws LdapException
     {
         int minIndex = 0;
+        long minCost = Long.MAX_VALUE;
         long minValue = Long.MAX_VALUE;
         long value;
 
         /*
          * We scan the child nodes of a branch node searching for the child
-         * expression node with the smallest scan count.  This is the child
-         * we will use for iteration
+         * expression node with the smallest cost : the cost of reading its
+         * candidates, plus the cost of fetching and evaluating each of them.
+         * This is the child we will use for iteration. The scan count breaks
+         * ties.
          */
         final List<ExprNode> children = node.getChildren();
 
@@ -811,20 +844,122 @@ public class CursorBuilder
                 return 0L;
             }
 
-            if ( value < minValue )
+            long cost = DefaultOptimizer.getDrivingCost( child );
+
+            if ( ( cost < minCost ) || ( ( cost == minCost ) && ( value < minValue ) ) )
             {
+                minCost = cost;
                 minValue = value;
                 minIndex = i;
             }
         }
 
+        // A composite index may select fewer candidates
+        long nbCandidates = computeComposite( partitionTxn, node, minValue, searchResult );
+
+        if ( nbCandidates >= 0L )
+        {
+            return nbCandidates;
+        }
+
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
+        node.set( DefaultOptimizer.DRIVING_ANNOTATION, minIndex );
 
         return build( partitionTxn, minChild, searchResult );
     }
 
 
+    /**
+     * Looks for the composite index whose first attributes match the most selective set of
+     * equality filters of a conjunction, and feeds the candidates with its entries if they
+     * are fewer than the candidates of the driving child.
+     *
+     * @param partitionTxn The transaction
+     * @param node The conjunction
+     * @param limit The number of candidates of the driving child
+     * @param searchResult The search result to feed
+     * @return The number of candidates, or -1 if no composite index selects fewer candidates
+     * @throws LdapException If the composite indexes can't be read
+     */
+    private long computeComposite( PartitionTxn partitionTxn, AndNode node, long limit,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        CompositeIndexes compositeIndexes = db.getCompositeIndexes();
+
+        if ( compositeIndexes.isEmpty() )
+        {
+            return -1L;
+        }
+
+        // The normalized values of the equality filters, per attributeType OID
+        Map<String, String> equalities = new HashMap<>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            if ( child instanceof EqualityNode )
+            {
+                EqualityNode<?> equality = ( EqualityNode<?> ) child;
+                AttributeType attributeType = equality.getAttributeType();
+
+                if ( ( attributeType != null ) && ( equality.getValue().getNormalized() != null ) )
+                {
+                    equalities.putIfAbsent( attributeType.getOid(), equality.getValue().getNormalized() );
+                }
+            }
+        }
+
+        if ( equalities.isEmpty() )
+        {
+            return -1L;
+        }
+
+        CompositeIndex bestIndex = null;
+        String bestPrefix = null;
+        long bestCount = limit;
+
+        for ( CompositeIndex compositeIndex : compositeIndexes.getIndexes() )
+        {
+            StringBuilder prefix = new StringBuilder();
+
+            for ( AttributeType attributeType : compositeIndex.getAttributeTypes() )
+            {
+                String value = equalities.get( attributeType.getOid() );
+
+                if ( value == null )
+                {
+                    break;
+                }
+
+                CompositeIndex.appendValue( prefix, value );
+            }
+
+            if ( prefix.length() == 0 )
+            {
+                continue;
+            }
+
+            long count = compositeIndex.count( partitionTxn, prefix.toString(), bestCount );
+
+            if ( count < bestCount )
+            {
+                bestIndex = compositeIndex;
+                bestPrefix = prefix.toString();
+                bestCount = count;
+            }
+        }
+
+        if ( bestIndex == null )
+        {
+            return -1L;
+        }
+
+        node.set( DefaultOptimizer.COMPOSITE_ANNOTATION, bestIndex.getName() );
+
+        return bestIndex.addCandidates( partitionTxn, bestPrefix, searchResult.getCandidateSet() );
+    }
+
+
     /**
      * Creates an AndCursor over a conjunction expression branch node.
      *
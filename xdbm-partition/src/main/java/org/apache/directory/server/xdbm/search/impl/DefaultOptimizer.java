@@ -45,18 +45,30 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.IndexStatisticsManager;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts and costs. Each node is annotated with :
+ * <ul>
+ *   <li>its count : the estimated number of candidates it selects</li>
+ *   <li>its cost : the estimated cost of enumerating these candidates using the indices,
+ *   a single index read costing 1</li>
+ * </ul>
+ * The counts are refined with the index statistics when they are available : histograms for the
+ * range and prefix filters, and the selectivity of each child of a conjunction, the children
+ * being presumed independent.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -66,6 +78,20 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /* Package protected*/ static final String COST_ANNOTATION = "cost";
+
+    /* Package protected*/ static final String DRIVING_ANNOTATION = "driving";
+
+    /* Package protected*/ static final String COMPOSITE_ANNOTATION = "composite";
+
+    /* Package protected*/ static final String COVERED_ANNOTATION = "covered";
+
+    /** The cost of fetching and evaluating a candidate, compared to reading an index */
+    /* Package protected*/ static final long FETCH_COST = 10L;
+
+    /** The presumed selectivity of a substring filter without an initial part */
+    private static final double SUBSTRING_SELECTIVITY = 0.1d;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -122,6 +148,9 @@ public class DefaultOptimizer implements Optimizer
         // Start off with the worst case unless scan count says otherwise.
         Long count = Long.MAX_VALUE;
 
+        // The cost is the count, unless the index has to be fully scanned to get the candidates
+        Long cost = null;
+
         /* --------------------------------------------------------------------
          *                 H A N D L E   L E A F   N O D E S          
          * --------------------------------------------------------------------
@@ -171,8 +200,12 @@ public class DefaultOptimizer implements Optimizer
                 }
                 else if ( node instanceof SubstringNode )
                 {
-                    /** Cannot really say so we presume the total index count */
                     count = getSubstringScan( partitionTxn, ( SubstringNode ) leaf );
+
+                    if ( Strings.isEmpty( ( ( SubstringNode ) leaf ).getInitial() ) )
+                    {
+                        cost = getFullScan( partitionTxn, leaf );
+                    }
                 }
                 else if ( node instanceof ExtensibleNode )
                 {
@@ -202,10 +235,12 @@ public class DefaultOptimizer implements Optimizer
             if ( node instanceof AndNode )
             {
                 count = getConjunctionScan( partitionTxn, ( AndNode ) node );
+                cost = getConjunctionCost( ( AndNode ) node );
             }
             else if ( node instanceof OrNode )
             {
                 count = getDisjunctionScan( partitionTxn, ( OrNode ) node );
+                cost = getDisjunctionCost( ( OrNode ) node );
             }
             else if ( node instanceof NotNode )
             {
@@ -231,18 +266,126 @@ public class DefaultOptimizer implements Optimizer
             count = Long.MAX_VALUE;
         }
 
+        if ( ( cost == null ) || ( cost < 0L ) )
+        {
+            cost = count;
+        }
+
         node.set( COUNT_ANNOTATION, count );
+        node.set( COST_ANNOTATION, cost );
 
         return count;
     }
 
 
     /**
-     * ANDs or Conjunctions take the count of the smallest child as their count.
-     * This is the best that a conjunction can do and should be used rather than
-     * the worst case. Notice that we annotate the child node with a recursive 
-     * call before accessing its count parameter making the chain recursion 
-     * depth first.
+     * Gets the statistics of the index on an attributeType.
+     *
+     * @param attributeType The indexed attributeType
+     * @return The statistics, or null if they haven't been computed yet
+     */
+    private IndexStatistics getStatistics( AttributeType attributeType )
+    {
+        IndexStatisticsManager indexStatistics = db.getIndexStatistics();
+
+        if ( indexStatistics == null )
+        {
+            return null;
+        }
+
+        return indexStatistics.get( attributeType.getOid() );
+    }
+
+
+    /**
+     * Gets the estimated cost of a node, as annotated.
+     */
+    /* Package protected*/ static long getCost( ExprNode node )
+    {
+        Object cost = node.get( COST_ANNOTATION );
+
+        if ( cost == null )
+        {
+            cost = node.get( COUNT_ANNOTATION );
+        }
+
+        return ( cost == null ) ? Long.MAX_VALUE : ( Long ) cost;
+    }
+
+
+    /**
+     * Gets the estimated cost of using a child of a conjunction to enumerate the candidates,
+     * each candidate being then fetched and evaluated against the other children.
+     *
+     * @param child The child of the conjunction
+     * @return The estimated cost
+     */
+    /* Package protected*/ static long getDrivingCost( ExprNode child )
+    {
+        Object count = child.get( COUNT_ANNOTATION );
+
+        if ( count == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        long cost = getCost( child );
+        long nbCandidates = ( Long ) count;
+
+        if ( ( cost == Long.MAX_VALUE ) || ( nbCandidates > ( Long.MAX_VALUE - cost ) / FETCH_COST ) )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return cost + nbCandidates * FETCH_COST;
+    }
+
+
+    /**
+     * The cost of a conjunction is the cost of its cheapest driving child.
+     */
+    private long getConjunctionCost( BranchNode node )
+    {
+        long cost = Long.MAX_VALUE;
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            cost = Math.min( cost, getCost( child ) );
+        }
+
+        return cost;
+    }
+
+
+    /**
+     * The cost of a disjunction is the cost of all its children.
+     */
+    private long getDisjunctionCost( BranchNode node )
+    {
+        long cost = 0L;
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            long childCost = getCost( child );
+
+            if ( childCost >= Long.MAX_VALUE - cost )
+            {
+                return Long.MAX_VALUE;
+            }
+
+            cost += childCost;
+        }
+
+        return cost;
+    }
+
+
+    /**
+     * ANDs or Conjunctions take the count of the smallest child as their count,
+     * reduced by the selectivity of the other children (their count compared to
+     * the number of entries) as they are presumed independent. Notice that we
+     * annotate the child node with a recursive call before accessing its count
+     * parameter making the chain recursion depth first.
      *
      * @param node a AND (Conjunction) BranchNode
      * @return the calculated scan count
@@ -267,11 +410,48 @@ public class DefaultOptimizer implements Optimizer
             if ( count == 0 )
             {
                 // No need to continue
-                break;
+                return 0L;
             }
         }
 
-        return count;
+        if ( ( count == Long.MAX_VALUE ) || ( count == 1L ) )
+        {
+            return count;
+        }
+
+        long nbEntries = db.count( partitionTxn );
+
+        if ( nbEntries <= 0L )
+        {
+            return count;
+        }
+
+        // Apply the selectivity of all the children but the smallest one
+        double estimate = count;
+        boolean smallestSkipped = false;
+
+        for ( ExprNode child : children )
+        {
+            Object childCount = child.get( COUNT_ANNOTATION );
+
+            if ( childCount == null )
+            {
+                continue;
+            }
+
+            long value = ( Long ) childCount;
+
+            if ( !smallestSkipped && ( value == count ) )
+            {
+                smallestSkipped = true;
+            }
+            else if ( value < nbEntries )
+            {
+                estimate *= ( double ) value / nbEntries;
+            }
+        }
+
+        return Math.max( 1L, ( long ) Math.ceil( estimate ) );
     }
 
 
@@ -384,6 +564,23 @@ public class DefaultOptimizer implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
+            IndexStatistics statistics = getStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                String key = node.getValue().isSchemaAware() ? node.getValue().getNormalized()
+                    : node.getValue().getString();
+
+                if ( isGreaterThan )
+                {
+                    return statistics.estimateGreaterOrEqual( key );
+                }
+                else
+                {
+                    return statistics.estimateLessOrEqual( key );
+                }
+            }
+
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
 
             if ( isGreaterThan )
@@ -406,6 +603,10 @@ public class DefaultOptimizer implements Optimizer
      * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
      * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
      * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * <br>
+     * When the index statistics are available, the number of entries starting with ABC is estimated
+     * from the histogram, and a filter without initial part is presumed to select a fixed ratio of
+     * the index.
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -418,6 +619,19 @@ public class DefaultOptimizer implements Optimizer
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
 
             String initial = node.getInitial();
+            IndexStatistics statistics = getStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                if ( Strings.isEmpty( initial ) )
+                {
+                    return Math.max( 1L, ( long ) ( statistics.getCount() * SUBSTRING_SELECTIVITY ) );
+                }
+                else
+                {
+                    return statistics.estimatePrefix( initial );
+                }
+            }
 
             if ( Strings.isEmpty( initial ) )
             {
@@ -513,7 +727,9 @@ public class DefaultOptimizer implements Optimizer
                 }
                 else
                 {
-                    return db.getRdnIndex().reverseLookup( partitionTxn, id ).getNbDescendants() + 1L;
+                    ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, id );
+
+                    return db.getDescendantCounters().getNbDescendants( id, parentIdAndRdn ) + 1L;
                 }
 
             default:
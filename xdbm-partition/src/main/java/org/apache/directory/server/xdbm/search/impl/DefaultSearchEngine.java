@@ -21,7 +21,9 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -30,16 +32,20 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.SearchPlanControl;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
@@ -49,6 +55,7 @@ import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.IndexCoveredEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -128,7 +135,19 @@ public class DefaultSearchEngine implements SearchEngine
 
         // Prepare the instance containing the search result
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
-        Set<IndexEntry<String, String>> resultSet = new HashSet<>();
+        String afterId = searchContext.getAfterId();
+        Set<IndexEntry<String, String>> resultSet;
+
+        if ( afterId == null )
+        {
+            resultSet = new HashSet<>();
+        }
+        else
+        {
+            // The entries are returned ordered by ID, so that the search can be resumed after the last returned one
+            resultSet = new TreeSet<>( ( entry1, entry2 ) -> entry1.getId().compareTo( entry2.getId() ) );
+            searchContext.setOrderedById( true );
+        }
 
         // Check that we have an entry, otherwise we can immediately get out
         if ( baseId == null )
@@ -206,6 +225,7 @@ public class DefaultSearchEngine implements SearchEngine
             {
                 optimizer.annotate( partitionTxn, filter );
                 evaluator = evaluatorBuilder.build( partitionTxn, filter );
+                addSearchPlan( searchContext, filter, 1L );
 
                 // Special case if the filter selects no candidate
                 if ( evaluator == null )
@@ -216,7 +236,11 @@ public class DefaultSearchEngine implements SearchEngine
             }
 
             indexEntry.setEntry( entry );
-            resultSet.add( indexEntry );
+
+            if ( isAfter( afterId, effectiveBaseId ) )
+            {
+                resultSet.add( indexEntry );
+            }
 
             searchResult.setEvaluator( evaluator );
             searchResult.setResultSet( resultSet );
@@ -253,10 +277,26 @@ public class DefaultSearchEngine implements SearchEngine
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
+        if ( ( evaluator != null ) && isIndexCovered( searchContext, root, nbResults ) )
+        {
+            // The candidates match the filter, only the scope has to be checked
+            ScopeNode scopeNode = root instanceof ScopeNode ? ( ScopeNode ) root
+                : ( ScopeNode ) ( ( AndNode ) root ).getChildren().get( 1 );
+            evaluator = new IndexCoveredEvaluator( db, schemaManager, scopeNode, evaluator );
+            root.set( DefaultOptimizer.COVERED_ANNOTATION, Boolean.TRUE );
+        }
+
+        addSearchPlan( searchContext, root, nbResults );
+
         if ( nbResults < Long.MAX_VALUE )
         {
             for ( String uuid : uuidSet )
             {
+                if ( !isAfter( afterId, uuid ) )
+                {
+                    continue;
+                }
+
                 IndexEntry<String, String> indexEntry = new IndexEntry<>();
                 indexEntry.setId( uuid );
                 resultSet.add( indexEntry );
@@ -272,7 +312,12 @@ public class DefaultSearchEngine implements SearchEngine
                 while ( cursor.next() )
                 {
                     IndexEntry<String, String> indexEntry = cursor.get();
-    
+
+                    if ( !isAfter( afterId, indexEntry.getKey() ) )
+                    {
+                        continue;
+                    }
+
                     // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID>
                     IndexEntry<String, String> forwardIndexEntry = new IndexEntry<>();
                     forwardIndexEntry.setKey( indexEntry.getKey() );
@@ -295,6 +340,106 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Tells if an entry has to be returned by a search ordered by ID.
+     *
+     * @param afterId The ID after which the entries are returned, or null if the search is not ordered
+     * @param id The entry ID
+     * @return true if the entry is after the afterId one
+     */
+    private static boolean isAfter( String afterId, String id )
+    {
+        return ( afterId == null ) || ( id.compareTo( afterId ) > 0 );
+    }
+
+
+    /**
+     * Tells if a search can be answered from the indices only, without reading the master table.
+     * It's the case when no attribute is requested, when the candidates are exactly the entries
+     * matching the filter, and when the upper layers don't need the entries attributes to check
+     * the access rights, or to dereference aliases.
+     *
+     * @param searchContext The search operation context
+     * @param root The annotated filter, with the scope node
+     * @param nbCandidates The number of candidates found with the indices
+     * @return true if the candidates don't have to be fetched
+     * @throws LdapException If the indices can't be read
+     */
+    private boolean isIndexCovered( SearchOperationContext searchContext, ExprNode root, long nbCandidates )
+        throws LdapException
+    {
+        // The entries of an ordered search must be fetched, their entryUUID is needed to resume it
+        if ( !searchContext.isNoAttributes() || ( nbCandidates == Long.MAX_VALUE )
+            || ( searchContext.getAfterId() != null ) )
+        {
+            return false;
+        }
+
+        AliasDerefMode aliasDerefMode = searchContext.getAliasDerefMode();
+
+        if ( aliasDerefMode.isDerefInSearching() || aliasDerefMode.isDerefAlways() )
+        {
+            return false;
+        }
+
+        CoreSession session = searchContext.getSession();
+
+        if ( ( session == null ) || ( !session.isAdministrator()
+            && session.getDirectoryService().isAccessControlEnabled() ) )
+        {
+            return false;
+        }
+
+        // A scope alone : the candidates are the entries in scope
+        if ( root instanceof ScopeNode )
+        {
+            return true;
+        }
+
+        // The filter and the scope : the candidates must have been read from the index of a single
+        // equality filter, the scope being checked by the IndexCoveredEvaluator
+        List<ExprNode> children = ( ( AndNode ) root ).getChildren();
+        Object driving = root.get( DefaultOptimizer.DRIVING_ANNOTATION );
+
+        if ( !( driving instanceof Integer ) || ( ( Integer ) driving != 0 ) )
+        {
+            return false;
+        }
+
+        ExprNode filter = children.get( 0 );
+
+        if ( !( filter instanceof EqualityNode ) )
+        {
+            return false;
+        }
+
+        AttributeType attributeType = ( ( EqualityNode<?> ) filter ).getAttributeType();
+
+        return ( attributeType != null ) && db.hasUserIndexOn( attributeType );
+    }
+
+
+    /**
+     * Describes the plan of the search in a response control, if the SearchPlan control has
+     * been sent by an administrator.
+     *
+     * @param searchContext The search operation context
+     * @param root The annotated filter
+     * @param nbCandidates The number of candidates found with the indices
+     */
+    private void addSearchPlan( SearchOperationContext searchContext, ExprNode root, long nbCandidates )
+    {
+        if ( searchContext.hasRequestControl( SearchPlanControl.OID ) && ( searchContext.getSession() != null )
+            && searchContext.getSession().isAdministrator() )
+        {
+            String plan = SearchPlan.explain( root, nbCandidates );
+            LOG.debug( "Search plan : {}", plan );
+
+            searchContext.addResponseControl( SearchPlanControl.newResponse( plan ) );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+
+
+/**
+ * Describes the plan chosen for a search, from the annotations set by the {@link DefaultOptimizer}
+ * and the {@link CursorBuilder}. Each line describes a node of the filter : its estimated number of
+ * candidates, its estimated cost, and for a conjunction, the child used to enumerate the candidates,
+ * which is flagged with a '*', or the composite index used instead. A search answered from the
+ * indices only, without reading the master table, is flagged as covered.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SearchPlan
+{
+    private SearchPlan()
+    {
+    }
+
+
+    /**
+     * Describes the plan of an annotated filter.
+     *
+     * @param root The annotated filter
+     * @param nbCandidates The number of candidates found with the indices, Long.MAX_VALUE if the
+     * whole partition has been scanned
+     * @return The plan description
+     */
+    public static String explain( ExprNode root, long nbCandidates )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        if ( nbCandidates == Long.MAX_VALUE )
+        {
+            sb.append( "full scan" );
+        }
+        else
+        {
+            sb.append( "candidates=" ).append( nbCandidates );
+        }
+
+        sb.append( '\n' );
+        explain( sb, root, "", false );
+
+        return sb.toString();
+    }
+
+
+    private static void explain( StringBuilder sb, ExprNode node, String tabs, boolean isDriving )
+    {
+        sb.append( tabs ).append( isDriving ? "* " : "  " );
+
+        if ( node instanceof AndNode )
+        {
+            sb.append( "AND" );
+        }
+        else if ( node instanceof OrNode )
+        {
+            sb.append( "OR" );
+        }
+        else if ( node instanceof NotNode )
+        {
+            sb.append( "NOT" );
+        }
+        else
+        {
+            sb.append( node );
+        }
+
+        appendAnnotation( sb, "count", node.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        appendAnnotation( sb, "cost", node.get( DefaultOptimizer.COST_ANNOTATION ) );
+
+        Object compositeIndex = node.get( DefaultOptimizer.COMPOSITE_ANNOTATION );
+
+        if ( compositeIndex != null )
+        {
+            sb.append( " composite=" ).append( compositeIndex );
+        }
+
+        if ( node.get( DefaultOptimizer.COVERED_ANNOTATION ) != null )
+        {
+            sb.append( " covered" );
+        }
+
+        sb.append( '\n' );
+
+        if ( node instanceof BranchNode )
+        {
+            Object driving = node.get( DefaultOptimizer.DRIVING_ANNOTATION );
+            List<ExprNode> children = ( ( BranchNode ) node ).getChildren();
+
+            for ( int i = 0; i < children.size(); i++ )
+            {
+                explain( sb, children.get( i ), tabs + "  ", ( driving != null ) && ( ( Integer ) driving == i ) );
+            }
+        }
+    }
+
+
+    private static void appendAnnotation( StringBuilder sb, String name, Object value )
+    {
+        sb.append( ' ' ).append( name ).append( '=' );
+
+        if ( value == null )
+        {
+            sb.append( '-' );
+        }
+        else if ( ( Long ) value == Long.MAX_VALUE )
+        {
+            sb.append( "unbounded" );
+        }
+        else
+        {
+            sb.append( value );
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link AncestryLabels} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AncestryLabelsTest
+{
+    private static SchemaManager schemaManager = null;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = new AvlPartition( schemaManager, null );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy( null );
+    }
+
+
+    private String getId( PartitionTxn txn, String dn ) throws Exception
+    {
+        return partition.getEntryId( txn, new Dn( schemaManager, dn ) );
+    }
+
+
+    @Test
+    public void testEncodeKeepsTheOrdinalsOrder()
+    {
+        String previous = AncestryLabels.encode( 0 );
+
+        for ( int ordinal : new int[]
+            { 1, 2, 0x7FFE, 0x7FFF, 0x8000, 0x8001, 0x10000, AncestryLabels.MAX_ORDINAL } )
+        {
+            String encoded = AncestryLabels.encode( ordinal );
+
+            assertEquals( 2, encoded.length() );
+            assertTrue( previous.compareTo( encoded ) < 0 );
+            previous = encoded;
+        }
+    }
+
+
+    @Test
+    public void testIsDescendant()
+    {
+        String base = AncestryLabels.encode( 1 );
+        String child = base + AncestryLabels.encode( 0 );
+
+        assertTrue( AncestryLabels.isDescendant( child, base ) );
+        assertTrue( AncestryLabels.isDescendant( child, "" ) );
+        assertFalse( AncestryLabels.isDescendant( base, base ) );
+        assertFalse( AncestryLabels.isDescendant( base, child ) );
+        assertFalse( AncestryLabels.isDescendant( AncestryLabels.encode( 2 ), base ) );
+    }
+
+
+    @Test
+    public void testNotBuilt()
+    {
+        AncestryLabels labels = new AncestryLabels();
+
+        assertFalse( labels.isBuilt() );
+        assertNull( labels.getLabel( Partition.ROOT_ID ) );
+        assertNull( labels.getSubtree( Partition.ROOT_ID ) );
+
+        // Modifications are ignored until the labels are built
+        labels.add( "1", Partition.ROOT_ID );
+        assertEquals( 0, labels.size() );
+    }
+
+
+    @Test
+    public void testBuild() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        AncestryLabels labels = partition.buildAncestryLabels( txn );
+
+        assertTrue( labels.isBuilt() );
+        assertEquals( partition.getRdnIndex().count( txn ), labels.size() );
+
+        String suffixLabel = labels.getLabel( getId( txn, "o=Good Times Co." ) );
+        String boardLabel = labels.getLabel( getId( txn, "ou=Board of Directors,o=Good Times Co." ) );
+        String apacheLabel = labels.getLabel( getId( txn, "ou=Apache,ou=Board of Directors,o=Good Times Co." ) );
+        String salesLabel = labels.getLabel( getId( txn, "ou=Sales,o=Good Times Co." ) );
+
+        assertTrue( AncestryLabels.isDescendant( boardLabel, suffixLabel ) );
+        assertTrue( AncestryLabels.isDescendant( apacheLabel, boardLabel ) );
+        assertTrue( AncestryLabels.isDescendant( apacheLabel, suffixLabel ) );
+        assertFalse( AncestryLabels.isDescendant( apacheLabel, salesLabel ) );
+    }
+
+
+    @Test
+    public void testGetSubtree() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        AncestryLabels labels = partition.buildAncestryLabels( txn );
+
+        String boardId = getId( txn, "ou=Board of Directors,o=Good Times Co." );
+        Collection<String> subtree = labels.getSubtree( boardId );
+
+        assertEquals( 4, subtree.size() );
+        assertEquals( boardId, subtree.iterator().next() );
+        assertTrue( subtree.contains( getId( txn, "ou=Apache,ou=Board of Directors,o=Good Times Co." ) ) );
+        assertTrue( subtree.contains( getId( txn,
+            "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." ) ) );
+        assertTrue( subtree.contains( getId( txn, "commonName=Jim Bean,ou=Board of Directors,o=Good Times Co." ) ) );
+
+        assertEquals( labels.size(), labels.getSubtree( getId( txn, "o=Good Times Co." ) ).size() );
+    }
+
+
+    @Test
+    public void testAddAndDelete() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        AncestryLabels labels = partition.buildAncestryLabels( txn );
+        int size = labels.size();
+
+        Dn dn = new Dn( schemaManager, "cn=user,ou=Sales,o=Good Times Co." );
+
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: user",
+            "sn: user sn" );
+
+        StoreUtils.injectEntryInStore( partition, entry, 12 );
+
+        String userId = getId( txn, "cn=user,ou=Sales,o=Good Times Co." );
+        String salesId = getId( txn, "ou=Sales,o=Good Times Co." );
+
+        assertEquals( size + 1, labels.size() );
+        assertTrue( AncestryLabels.isDescendant( labels.getLabel( userId ), labels.getLabel( salesId ) ) );
+        assertTrue( labels.getSubtree( salesId ).contains( userId ) );
+
+        partition.delete( txn, userId );
+
+        assertEquals( size, labels.size() );
+        assertNull( labels.getLabel( userId ) );
+        assertFalse( labels.getSubtree( salesId ).contains( userId ) );
+    }
+
+
+    @Test
+    public void testMoveRelabelsTheSubtree() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        AncestryLabels labels = partition.buildAncestryLabels( txn );
+        int size = labels.size();
+
+        String apacheId = getId( txn, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        String jimId = getId( txn, "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        String boardId = getId( txn, "ou=Board of Directors,o=Good Times Co." );
+        String engineeringId = getId( txn, "ou=Engineering,o=Good Times Co." );
+
+        Dn dn = new Dn( schemaManager, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        Dn newDn = new Dn( schemaManager, "ou=Apache,ou=Engineering,o=Good Times Co." );
+        partition.move( txn, dn, newSuperior, newDn, null );
+
+        assertTrue( labels.isBuilt() );
+        assertEquals( size, labels.size() );
+
+        String engineeringLabel = labels.getLabel( engineeringId );
+        assertTrue( AncestryLabels.isDescendant( labels.getLabel( apacheId ), engineeringLabel ) );
+        assertTrue( AncestryLabels.isDescendant( labels.getLabel( jimId ), labels.getLabel( apacheId ) ) );
+        assertFalse( AncestryLabels.isDescendant( labels.getLabel( jimId ), labels.getLabel( boardId ) ) );
+
+        List<String> boardSubtree = new ArrayList<>( labels.getSubtree( boardId ) );
+        assertEquals( 2, boardSubtree.size() );
+        assertFalse( boardSubtree.contains( jimId ) );
+        assertTrue( labels.getSubtree( engineeringId ).contains( jimId ) );
+    }
+
+
+    @Test
+    public void testNotBuiltWhenTooLarge() throws Exception
+    {
+        AvlPartition large = new AvlPartition( schemaManager, null );
+        large.setId( "large" );
+        large.setSyncOnWrite( false );
+        large.setAncestryLabelsMaxSize( 5 );
+        large.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        large.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( large, schemaManager );
+
+            PartitionTxn txn = large.beginReadTransaction();
+            AncestryLabels labels = large.buildAncestryLabels( txn );
+
+            assertEquals( 5, labels.getMaxSize() );
+            assertFalse( labels.isBuilt() );
+            assertNull( labels.getSubtree( large.getSuffixId( txn ) ) );
+        }
+        finally
+        {
+            large.destroy( null );
+        }
+    }
+
+
+    @Test
+    public void testDroppedWhenGrowingTooLarge() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        AncestryLabels labels = new AncestryLabels( ( int ) partition.count( txn ) );
+
+        labels.build( txn, partition.getRdnIndex(), partition.getDescendantCounters() );
+        assertTrue( labels.isBuilt() );
+
+        // One more entry than the bound
+        labels.add( "new", getId( txn, "ou=Sales,o=Good Times Co." ) );
+
+        assertFalse( labels.isBuilt() );
+        assertEquals( 0, labels.size() );
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CompositeIndex} keys, and its maintenance by the partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompositeIndexTest
+{
+    private static SchemaManager schemaManager = null;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = new AvlPartition( schemaManager, null );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addCompositeIndex( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.OU_AT );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy( null );
+    }
+
+
+    private String getPrefix( String... values ) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        String[] attributeIds = new String[]
+            { SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.OU_AT };
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attributeIds[i] );
+            CompositeIndex.appendValue( sb, new Value( attributeType, values[i] ).getNormalized() );
+        }
+
+        return sb.toString();
+    }
+
+
+    @Test
+    public void testGetKeys() throws Exception
+    {
+        CompositeIndex index = new CompositeIndex( Arrays.asList(
+            schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CN_AT ),
+            schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT ) ) );
+
+        assertEquals( "cn+ou", index.getName() );
+
+        Entry entry = new DefaultEntry( schemaManager, "cn=a,o=Good Times Co.",
+            "objectClass: person",
+            "cn: a",
+            "cn: b",
+            "sn: a",
+            "ou: Sales" );
+
+        // One key per combination of values
+        assertEquals( 2, index.getKeys( entry ).size() );
+
+        entry.removeAttributes( SchemaConstants.OU_AT );
+        entry.removeAttributes( SchemaConstants.CN_AT );
+        entry.add( SchemaConstants.CN_AT, "a\u0000b" );
+
+        // A missing attribute is indexed with an empty value, and the separator is escaped
+        Set<String> keys = index.getKeys( entry );
+        assertEquals( 1, keys.size() );
+        assertEquals( "a\u0001\u0000b\u0000\u0000", keys.iterator().next() );
+    }
+
+
+    @Test
+    public void testTooManyKeys() throws Exception
+    {
+        CompositeIndex index = new CompositeIndex( Arrays.asList(
+            schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CN_AT ),
+            schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT ) ) );
+
+        Entry entry = new DefaultEntry( schemaManager, "cn=a,o=Good Times Co.",
+            "objectClass: person",
+            "sn: a" );
+
+        for ( int i = 0; i < 32; i++ )
+        {
+            entry.add( SchemaConstants.CN_AT, "cn" + i );
+            entry.add( SchemaConstants.OU_AT, "ou" + i );
+        }
+
+        // 32 x 32 combinations are accepted
+        assertEquals( CompositeIndex.MAX_KEYS_PER_ENTRY, index.getKeys( entry ).size() );
+
+        entry.add( SchemaConstants.CN_AT, "cn32" );
+
+        try
+        {
+            index.getKeys( entry );
+            fail();
+        }
+        catch ( LdapAdminLimitExceededException laele )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testIndexedOnWrites() throws Exception
+    {
+        CompositeIndexes compositeIndexes = partition.getCompositeIndexes();
+
+        assertEquals( 1, compositeIndexes.getIndexes().size() );
+
+        CompositeIndex index = compositeIndexes.getIndexes().get( 0 );
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            assertEquals( 4L, index.count( txn, getPrefix( "organizationalUnit" ), Long.MAX_VALUE ) );
+            assertEquals( 2L, index.count( txn, getPrefix( "person", "Sales" ), Long.MAX_VALUE ) );
+            assertEquals( 0L, index.count( txn, getPrefix( "person", "Apache" ), Long.MAX_VALUE ) );
+
+            // The counting stops at the limit
+            assertEquals( 1L, index.count( txn, getPrefix( "person", "Sales" ), 1L ) );
+
+            Set<String> candidates = new HashSet<>();
+            assertEquals( 2L, index.addCandidates( txn, getPrefix( "person", "Sales" ), candidates ) );
+
+            assertTrue( candidates.contains( partition.getEntryId( txn,
+                new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ) ) ) );
+        }
+    }
+
+
+    @Test
+    public void testBuiltWhenAdded() throws Exception
+    {
+        partition.addCompositeIndex( SchemaConstants.OU_AT, SchemaConstants.OBJECT_CLASS_AT );
+
+        CompositeIndexes compositeIndexes = partition.getCompositeIndexes();
+
+        assertEquals( 2, compositeIndexes.getIndexes().size() );
+
+        CompositeIndex index = compositeIndexes.getIndexes().get( 1 );
+        AttributeType ouAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+        AttributeType objectClassAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OBJECT_CLASS_AT );
+        StringBuilder prefix = new StringBuilder();
+        CompositeIndex.appendValue( prefix, new Value( ouAT, "Sales" ).getNormalized() );
+        CompositeIndex.appendValue( prefix, new Value( objectClassAT, "person" ).getNormalized() );
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            assertTrue( index.isInitialized() );
+            assertEquals( 2L, index.count( txn, prefix.toString(), Long.MAX_VALUE ) );
+        }
+    }
+
+
+    @Test
+    public void testRejectsTooManyCombinations() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "cn=Jack Rose,ou=Sales,o=Good Times Co.",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "cn: Jack Rose",
+            "sn: Rose" );
+
+        // 3 objectClasses x 342 ous are more than 1024 keys
+        for ( int i = 0; i < 342; i++ )
+        {
+            entry.add( SchemaConstants.OU_AT, "ou" + i );
+        }
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, entry, 20 );
+            fail();
+        }
+        catch ( LdapAdminLimitExceededException laele )
+        {
+            // Expected
+        }
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            assertNull( partition.getEntryId( txn, entry.getDn() ) );
+        }
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testModifyRejectsTooManyCombinations() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." );
+        AttributeType ouAT = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+        Attribute ous = new DefaultAttribute( ouAT );
+
+        // 3 objectClasses x 342 ous are more than 1024 keys
+        for ( int i = 0; i < 341; i++ )
+        {
+            ous.add( "ou" + i );
+        }
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            try
+            {
+                partition.modify( txn, dn,
+                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, SchemaConstants.SN_AT, "Bean" ),
+                    new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, ous ) );
+                fail();
+            }
+            catch ( LdapAdminLimitExceededException laele )
+            {
+                // Expected
+            }
+
+            // Nothing has been written : neither the entry, nor the indexes
+            Entry entry = partition.fetch( txn, partition.getEntryId( txn, dn ) );
+
+            assertEquals( 1, entry.get( SchemaConstants.OU_AT ).size() );
+            assertEquals( "BEAN", entry.get( SchemaConstants.SN_AT ).getString() );
+            Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex( ouAT );
+            assertNull( ouIndex.forwardLookup( txn, new Value( ouAT, "ou0" ).getNormalized() ) );
+
+            CompositeIndex index = partition.getCompositeIndexes().getIndexes().get( 0 );
+            assertEquals( 0L, index.count( txn, getPrefix( "person", "ou0" ), Long.MAX_VALUE ) );
+
+            // A modification which can be indexed is applied
+            partition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                SchemaConstants.OU_AT, "ou0" ) );
+
+            assertEquals( 1L, index.count( txn, getPrefix( "person", "ou0" ), Long.MAX_VALUE ) );
+        }
+    }
+
+
+    @Test
+    public void testMaintainedOnWrites() throws Exception
+    {
+        CompositeIndex index = partition.getCompositeIndexes().getIndexes().get( 0 );
+        String prefix = getPrefix( "person", "Sales" );
+
+        Entry entry = new DefaultEntry( schemaManager, "cn=Jack Rose,ou=Sales,o=Good Times Co.",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou: Sales",
+            "cn: Jack Rose",
+            "sn: Rose" );
+        StoreUtils.injectEntryInStore( partition, entry, 20 );
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            assertEquals( 3L, index.count( txn, prefix, Long.MAX_VALUE ) );
+
+            String id = partition.getEntryId( txn, entry.getDn() );
+            partition.delete( txn, id );
+
+            Set<String> candidates = new HashSet<>();
+            index.addCandidates( txn, prefix, candidates );
+
+            assertEquals( 2, candidates.size() );
+            assertFalse( candidates.contains( id ) );
+        }
+    }
+}
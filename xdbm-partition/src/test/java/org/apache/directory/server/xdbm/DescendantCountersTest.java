@@ -0,0 +1,273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link DescendantCounters} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DescendantCountersTest
+{
+    private static final CsnFactory CSN_FACTORY = new CsnFactory( 0 );
+
+    private static SchemaManager schemaManager = null;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = new AvlPartition( schemaManager, null );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy( null );
+    }
+
+
+    private void assertCounts( PartitionTxn txn, String dn, int nbChildren, int nbDescendants ) throws Exception
+    {
+        String id = partition.getEntryId( txn, new Dn( schemaManager, dn ) );
+        ParentIdAndRdn parentIdAndRdn = partition.getRdnIndex().reverseLookup( txn, id );
+        DescendantCounters counters = partition.getDescendantCounters();
+
+        assertEquals( nbChildren, partition.getChildCount( txn, id ) );
+        assertEquals( nbChildren, counters.getNbChildren( id, parentIdAndRdn ) );
+        assertEquals( nbDescendants, counters.getNbDescendants( id, parentIdAndRdn ) );
+    }
+
+
+    @Test
+    public void testPendingCounts() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        // The counts are not written in the Rdn index until the partition is synced
+        assertFalse( partition.getDescendantCounters().isEmpty() );
+
+        assertCounts( txn, "o=Good Times Co.", 3, 10 );
+        assertCounts( txn, "ou=Board of Directors,o=Good Times Co.", 2, 3 );
+        assertCounts( txn, "ou=Apache,ou=Board of Directors,o=Good Times Co.", 1, 1 );
+        assertCounts( txn, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co.", 0, 0 );
+    }
+
+
+    @Test
+    public void testSync() throws Exception
+    {
+        partition.sync();
+
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        assertTrue( partition.getDescendantCounters().isEmpty() );
+
+        String suffixId = partition.getEntryId( txn, new Dn( schemaManager, "o=Good Times Co." ) );
+        ParentIdAndRdn suffix = partition.getRdnIndex().reverseLookup( txn, suffixId );
+
+        assertEquals( 3, suffix.getNbChildren() );
+        assertEquals( 10, suffix.getNbDescendants() );
+        assertCounts( txn, "ou=Board of Directors,o=Good Times Co.", 2, 3 );
+    }
+
+
+    @Test
+    public void testMoveAndDelete() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        Dn dn = new Dn( schemaManager, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        Dn newDn = new Dn( schemaManager, "ou=Apache,ou=Engineering,o=Good Times Co." );
+        partition.move( txn, dn, newSuperior, newDn, null );
+
+        assertCounts( txn, "o=Good Times Co.", 3, 10 );
+        assertCounts( txn, "ou=Board of Directors,o=Good Times Co.", 1, 1 );
+        assertCounts( txn, "ou=Engineering,o=Good Times Co.", 3, 4 );
+
+        String jimId = partition.getEntryId( txn,
+            new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Engineering,o=Good Times Co." ) );
+        partition.delete( txn, jimId );
+        partition.sync();
+
+        assertCounts( txn, "o=Good Times Co.", 3, 9 );
+        assertCounts( txn, "ou=Engineering,o=Good Times Co.", 3, 3 );
+        assertCounts( txn, "ou=Apache,ou=Engineering,o=Good Times Co.", 0, 0 );
+    }
+
+
+    private void addEntry( PartitionTxn txn, String dn, long index ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + index,
+            "sn: " + index,
+            "entryCSN: " + CSN_FACTORY.newInstance().toString(),
+            "entryUUID: " + Strings.getUUID( index ).toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setTransaction( txn );
+        partition.add( addContext );
+    }
+
+
+    @Test
+    public void testCommitWritesTheCounters() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        addEntry( writeTxn, "cn=100,ou=Sales,o=Good Times Co.", 100L );
+        addEntry( writeTxn, "cn=101,ou=Sales,o=Good Times Co.", 101L );
+
+        assertFalse( partition.getDescendantCounters().isEmpty() );
+
+        // The counts are written once, by the transaction which changed them
+        writeTxn.commit();
+
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        assertTrue( partition.getDescendantCounters().isEmpty() );
+
+        String suffixId = partition.getEntryId( txn, new Dn( schemaManager, "o=Good Times Co." ) );
+        ParentIdAndRdn suffix = partition.getRdnIndex().reverseLookup( txn, suffixId );
+
+        assertEquals( 3, suffix.getNbChildren() );
+        assertEquals( 12, suffix.getNbDescendants() );
+        assertCounts( txn, "ou=Sales,o=Good Times Co.", 4, 4 );
+    }
+
+
+    @Test
+    public void testAbortWithoutRollback() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        addEntry( writeTxn, "cn=100,ou=Sales,o=Good Times Co.", 100L );
+
+        // The AvlPartition does not roll back the aborted changes, the counts must still match them
+        writeTxn.abort();
+
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        assertCounts( txn, "o=Good Times Co.", 3, 11 );
+        assertCounts( txn, "ou=Sales,o=Good Times Co.", 3, 3 );
+    }
+
+
+    @Test
+    public void testChangesDuringFlushAreKept() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        String salesId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) );
+        DescendantCounters counters = partition.getDescendantCounters();
+
+        counters.flush( txn, partition.getRdnIndex() );
+        assertTrue( counters.isEmpty() );
+
+        counters.add( salesId, 1, 1 );
+        counters.add( salesId, -1, -1 );
+
+        // Deltas cancelling each other are dropped
+        assertTrue( counters.isEmpty() );
+
+        counters.add( salesId, 1, 2 );
+        ParentIdAndRdn sales = partition.getRdnIndex().reverseLookup( txn, salesId );
+
+        assertEquals( sales.getNbChildren() + 1, counters.getNbChildren( salesId, sales ) );
+        assertEquals( sales.getNbDescendants() + 2, counters.getNbDescendants( salesId, sales ) );
+    }
+}
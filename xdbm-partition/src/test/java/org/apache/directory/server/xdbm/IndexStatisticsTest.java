@@ -0,0 +1,272 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} estimations and their computation by the partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    private static SchemaManager schemaManager = null;
+
+    private AvlPartition partition;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = new AvlPartition( schemaManager, null );
+        partition.setId( "example" );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        partition.destroy( null );
+    }
+
+
+    private IndexStatistics newStatistics()
+    {
+        // 8 tuples, 2 per bucket, all the keys being distinct
+        return new IndexStatistics( 8L, 8L, new HashMap<String, Long>(), new String[]
+            { "b", "d", "f", "h" } );
+    }
+
+
+    @Test
+    public void testEstimateEquality()
+    {
+        Map<String, Long> heavyHitters = new HashMap<>();
+        heavyHitters.put( "a", 50L );
+        heavyHitters.put( "b", 30L );
+
+        IndexStatistics statistics = new IndexStatistics( 100L, 12L, heavyHitters, new String[]
+            { "a", "b", "z" } );
+
+        assertEquals( 50L, statistics.estimateEquality( "a" ) );
+        assertEquals( 30L, statistics.estimateEquality( "b" ) );
+
+        // The 20 remaining tuples are spread over the 10 other keys
+        assertEquals( 2L, statistics.estimateEquality( "c" ) );
+    }
+
+
+    @Test
+    public void testEstimateRanges()
+    {
+        IndexStatistics statistics = newStatistics();
+
+        assertEquals( 0L, statistics.estimateGreaterOrEqual( "z" ) );
+        assertEquals( 8L, statistics.estimateLessOrEqual( "z" ) );
+
+        long previous = Long.MAX_VALUE;
+
+        for ( String key : new String[]
+            { "a", "b", "c", "d", "e", "f", "g", "h" } )
+        {
+            long greater = statistics.estimateGreaterOrEqual( key );
+
+            assertTrue( greater <= previous );
+            assertTrue( statistics.estimateLessOrEqual( key ) <= 8L );
+            previous = greater;
+        }
+
+        assertTrue( statistics.estimatePrefix( "c" ) >= 1L );
+        assertTrue( statistics.estimatePrefix( "c" ) <= 2L );
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        Map<String, Long> heavyHitters = new HashMap<>();
+        heavyHitters.put( "a", 50L );
+        IndexStatistics statistics = new IndexStatistics( 100L, 12L, heavyHitters, new String[]
+            { "a", "m", "z" } );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            statistics.write( out );
+        }
+
+        IndexStatistics read = IndexStatistics.read( new DataInputStream(
+            new ByteArrayInputStream( baos.toByteArray() ) ) );
+
+        assertEquals( 100L, read.getCount() );
+        assertEquals( 12L, read.getCardinality() );
+        assertEquals( heavyHitters, read.getHeavyHitters() );
+        assertEquals( 3, read.getNbBuckets() );
+        assertEquals( statistics.estimateGreaterOrEqual( "n" ), read.estimateGreaterOrEqual( "n" ) );
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testComputedByThePartition() throws Exception
+    {
+        IndexStatisticsManager indexStatistics = partition.getIndexStatistics();
+
+        assertNull( indexStatistics.get( SchemaConstants.OU_AT_OID ) );
+
+        partition.refreshIndexStatistics();
+
+        IndexStatistics ouStatistics = indexStatistics.get( SchemaConstants.OU_AT_OID );
+        assertNotNull( ouStatistics );
+        assertNotNull( indexStatistics.get( SchemaConstants.OBJECT_CLASS_AT_OID ) );
+
+        Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex(
+            schemaManager.getAttributeType( SchemaConstants.OU_AT_OID ) );
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            assertEquals( ouIndex.count( txn ), ouStatistics.getCount() );
+
+            // Sales and Engineering are the most frequent OUs
+            assertEquals( ouIndex.count( txn, "sales" ), ouStatistics.estimateEquality( "sales" ) );
+            assertEquals( ouIndex.count( txn, "engineering" ), ouStatistics.estimateEquality( "engineering" ) );
+        }
+
+        // The statistics are not refreshed until enough entries have been modified
+        assertFalse( indexStatistics.isStale( 11L ) );
+    }
+
+
+    @Test
+    public void testNotRefreshedBySync() throws Exception
+    {
+        partition.sync();
+
+        assertNull( partition.getIndexStatistics().get( SchemaConstants.OU_AT_OID ) );
+    }
+
+
+    @Test
+    public void testRefreshedInTheBackground() throws Exception
+    {
+        AvlPartition refreshed = new AvlPartition( schemaManager, null );
+        refreshed.setId( "refreshed" );
+        refreshed.setSyncOnWrite( false );
+        refreshed.setStatisticsRefreshPeriod( 1L );
+
+        refreshed.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        refreshed.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        refreshed.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( refreshed, schemaManager );
+
+            IndexStatisticsManager indexStatistics = refreshed.getIndexStatistics();
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( ( indexStatistics.get( SchemaConstants.OU_AT_OID ) == null )
+                && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( 50L );
+            }
+
+            assertNotNull( indexStatistics.get( SchemaConstants.OU_AT_OID ) );
+        }
+        finally
+        {
+            refreshed.destroy( null );
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.evaluator.IndexCoveredEvaluator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the searches answered from the indices only, without reading the master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexCoveredSearchTest extends AbstractCursorTest
+{
+    File wkdir;
+
+    private DefaultSearchEngine searchEngine;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = IndexCoveredSearchTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        searchEngine = new DefaultSearchEngine( store, cursorBuilder, evaluatorBuilder, new DefaultOptimizer( store ) );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private PartitionSearchResult search( PartitionTxn txn, String base, SearchScope scope, String filter,
+        AliasDerefMode aliasDerefMode, String... attributes ) throws Exception
+    {
+        SearchOperationContext searchContext = new SearchOperationContext( session, new Dn( schemaManager, base ),
+            scope, FilterParser.parse( schemaManager, filter ), attributes );
+        searchContext.setAliasDerefMode( aliasDerefMode );
+
+        return searchEngine.computeResult( txn, schemaManager, searchContext );
+    }
+
+
+    private Set<String> getDns( PartitionTxn txn, PartitionSearchResult searchResult ) throws Exception
+    {
+        Set<String> dns = new HashSet<>();
+
+        try ( Cursor<Entry> cursor = new EntryCursorAdaptor( txn, ( AbstractBTreePartition ) store, searchResult ) )
+        {
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+
+                if ( entry != null )
+                {
+                    dns.add( entry.getDn().getNormName() );
+
+                    if ( searchResult.getEvaluator() instanceof IndexCoveredEvaluator )
+                    {
+                        // The master table has not been read
+                        assertEquals( 0, entry.size() );
+                    }
+                }
+            }
+        }
+
+        return dns;
+    }
+
+
+    @Test
+    public void testCoveredSubtreeSearch() throws Exception
+    {
+        try ( PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction() )
+        {
+            PartitionSearchResult searchResult = search( txn, "o=Good Times Co.", SearchScope.SUBTREE, "(ou=Sales)",
+                AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.NO_ATTRIBUTE );
+
+            assertTrue( searchResult.getEvaluator() instanceof IndexCoveredEvaluator );
+
+            Set<String> dns = getDns( txn, searchResult );
+
+            assertEquals( 3, dns.size() );
+            assertTrue( dns.contains( new Dn( schemaManager, "ou=Sales,o=Good Times Co." ).getNormName() ) );
+            assertTrue( dns.contains( new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." ).getNormName() ) );
+        }
+    }
+
+
+    @Test
+    public void testCoveredOneLevelSearch() throws Exception
+    {
+        try ( PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction() )
+        {
+            PartitionSearchResult searchResult = search( txn, "ou=Sales,o=Good Times Co.", SearchScope.ONELEVEL,
+                "(ou=Sales)", AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.NO_ATTRIBUTE );
+
+            assertTrue( searchResult.getEvaluator() instanceof IndexCoveredEvaluator );
+
+            // The base entry matches the filter, but is not in scope
+            Set<String> dns = getDns( txn, searchResult );
+
+            assertEquals( 2, dns.size() );
+            assertFalse( dns.contains( new Dn( schemaManager, "ou=Sales,o=Good Times Co." ).getNormName() ) );
+        }
+    }
+
+
+    @Test
+    public void testNotCovered() throws Exception
+    {
+        try ( PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction() )
+        {
+            // Some attributes are requested
+            PartitionSearchResult searchResult = search( txn, "o=Good Times Co.", SearchScope.SUBTREE, "(ou=Sales)",
+                AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.CN_AT );
+
+            assertFalse( searchResult.getEvaluator() instanceof IndexCoveredEvaluator );
+            assertEquals( 3, getDns( txn, searchResult ).size() );
+
+            // The aliases are dereferenced
+            searchResult = search( txn, "o=Good Times Co.", SearchScope.SUBTREE, "(ou=Sales)",
+                AliasDerefMode.DEREF_ALWAYS, SchemaConstants.NO_ATTRIBUTE );
+
+            assertFalse( searchResult.getEvaluator() instanceof IndexCoveredEvaluator );
+
+            // The filter can't be resolved with an index only
+            searchResult = search( txn, "o=Good Times Co.", SearchScope.SUBTREE, "(&(ou=Sales)(sn=WAlkeR))",
+                AliasDerefMode.NEVER_DEREF_ALIASES, SchemaConstants.NO_ATTRIBUTE );
+
+            assertFalse( searchResult.getEvaluator() instanceof IndexCoveredEvaluator );
+            assertEquals( 1, getDns( txn, searchResult ).size() );
+        }
+    }
+}